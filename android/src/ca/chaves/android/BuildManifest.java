@@ -19,6 +19,12 @@ public final class BuildManifest
      */
     public static final boolean DEBUG_ENABLED = false;
 
+    /**
+     * True to trace the start-up critical path - see {@link ca.chaves.android.util.StartupTrace}. It is true on
+     * debugging builds, and it can be turned on for release builds too, in order to compare them.
+     */
+    public static final boolean TRACE_ENABLED = false;
+
     /**
      * The "android:versionCode" value in AndroidManifest.xml.
      */
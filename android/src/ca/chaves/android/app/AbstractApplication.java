@@ -2,16 +2,21 @@ package ca.chaves.android.app;
 
 import ca.chaves.android.R;
 import ca.chaves.android.util.Debug;
+import ca.chaves.android.util.ParallelGunzip;
+import ca.chaves.android.util.StartupTrace;
 import ca.chaves.android.util.TarArchive;
+import ca.chaves.android.util.TarReader;
 
 import android.content.SharedPreferences;
 import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.database.sqlite.SQLiteDatabase;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.SequenceInputStream;
 import java.util.Locale;
 import java.util.Vector;
@@ -45,6 +50,8 @@ public class AbstractApplication
     {
         super.onCreate();
         {
+            StartupTrace.start();
+            StartupTrace.mark( "Application.onCreate" );
             Debug.print( "create" );
         }
     }
@@ -136,7 +143,15 @@ public class AbstractApplication
                 // initialize home
                 directory = new File( Android.App.DATA_DIRECTORY_NAME );
                 // next will be very slow
-                restoreMissingFiles( directory );
+                final int span = StartupTrace.begin( "restoreMissingFiles" );
+                try
+                {
+                    restoreMissingFiles( directory );
+                }
+                finally
+                {
+                    StartupTrace.end( span );
+                }
                 // finally, home
                 home = directory;
             }
@@ -163,11 +178,19 @@ public class AbstractApplication
         final boolean keepOldFiles = newTarball.equals( oldTarball );
         try
         {
-            // extract the tar-ball to recover any missing file, if any
-            final TarArchive tarball = new TarArchive( new GZIPInputStream( tarballFile() ) );
+            // extract the tar-ball to recover any missing or changed file, if any -
+            // the tar-ball manifest tells which ones, so unchanged files are not written again
+            final TarReader tarball = new TarReader( openTarball() );
             tarball.keepOldFiles = keepOldFiles;
-            tarball.extract( targetDir );
-            tarball.close();
+            try
+            {
+                final int extractCount = tarball.extractChanged( targetDir );
+                Debug.print( "tarball files extracted", extractCount );
+            }
+            finally
+            {
+                tarball.close();
+            }
             // once the restore is completed successfully,
             // we need to update the shared preference, if necessary
             if ( !keepOldFiles )
@@ -213,19 +236,102 @@ public class AbstractApplication
     }
 
     /**
-     * Return the tarball file as an InputStream.
+     * Return the uncompressed tarball as an InputStream. When the build left the tarball index, each tarball piece is
+     * gzip-ed on its own, and the pieces are inflated one after the other - or in parallel, if
+     * {@link #PARALLEL_INFLATE} is on; otherwise, all pieces are one single gzip stream.
+     *
+     * @return the tarball contents.
+     * @throws IOException on error.
      */
-    private InputStream tarballFile()
+    @Override
+    protected InputStream openTarball()
+        throws IOException
     {
         final Resources resources = Android.App.INSTANCE.getResources();
-        final Vector<InputStream> list = new Vector<InputStream>();
-        for ( final Integer resourceId : AbstractApplication.TARBALL_RAW_RESOURCES )
+        final int[] sizes = AbstractApplication.tarballIndex( resources );
+        final InputStream[] pieces = new InputStream[AbstractApplication.TARBALL_RAW_RESOURCES.length];
+        for ( int index = 0; index < pieces.length; ++index )
+        {
+            pieces[index] = resources.openRawResource( AbstractApplication.TARBALL_RAW_RESOURCES[index] );
+        }
+        if ( sizes == null )
+        {
+            final Vector<InputStream> list = new Vector<InputStream>();
+            for ( final InputStream piece : pieces )
+            {
+                list.add( piece );
+            }
+            return new GZIPInputStream( new SequenceInputStream( list.elements() ) );
+        }
+        final int threadCount =
+            AbstractApplication.PARALLEL_INFLATE ? ParallelGunzip.defaultThreadCount( pieces.length ) : 1;
+        if ( threadCount <= 1 )
+        {
+            // inflate one piece after the other, on this thread
+            final Vector<InputStream> list = new Vector<InputStream>();
+            for ( final InputStream piece : pieces )
+            {
+                list.add( new GZIPInputStream( piece ) );
+            }
+            return new SequenceInputStream( list.elements() );
+        }
+        Debug.print( "inflate tarball pieces with", threadCount, "threads" );
+        return new ParallelGunzip( pieces, sizes, threadCount );
+    }
+
+    /**
+     * Read the tarball index, which has one "compressed_size uncompressed_size" line per tarball piece.
+     *
+     * @param resources the application resources.
+     * @return the uncompressed piece sizes, or null if there is no valid index.
+     * @throws IOException on error.
+     */
+    private static int[] tarballIndex( final Resources resources )
+        throws IOException
+    {
+        final BufferedReader reader;
+        try
+        {
+            reader = new BufferedReader( new InputStreamReader( resources.openRawResource( R.raw.tarball_index ) ) );
+        }
+        catch ( final Resources.NotFoundException ex )
         {
-            list.add( resources.openRawResource( resourceId ) );
+            Debug.print( "tarball index not found" );
+            return null;
+        }
+        try
+        {
+            final int[] sizes = new int[AbstractApplication.TARBALL_RAW_RESOURCES.length];
+            int count = 0;
+            for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+            {
+                final int space = line.indexOf( ' ' );
+                if ( space < 0 || sizes.length <= count )
+                {
+                    return null;
+                }
+                sizes[count++] = Integer.parseInt( line.substring( space + 1 ).trim() );
+            }
+            return ( count == sizes.length ) ? sizes : null;
+        }
+        catch ( final NumberFormatException ex )
+        {
+            Debug.error( ex, "invalid tarball index" );
+            return null;
+        }
+        finally
+        {
+            reader.close();
         }
-        return new SequenceInputStream( list.elements() );
     }
 
+    /**
+     * If true, and the device has more than one processor, the tarball pieces are inflated in parallel - see
+     * {@link ParallelGunzip}. This is off until the parallel restore is measured on a multi-core device: so far it was
+     * only timed on one single core, where it is no faster than inflating one piece after the other.
+     */
+    private static final boolean PARALLEL_INFLATE = false;
+
     /**
      * The raw resources needed to install the tar-ball.
      */
@@ -260,6 +366,84 @@ public class AbstractApplication
         return database;
     }
 
+    /**
+     * Load the bootstrap slice of the graph from the raw resources - it is a small graph file, not packed into the
+     * tarball, so it is ready before any file is restored.
+     *
+     * @return true if the bootstrap slice was loaded.
+     */
+    @Override
+    protected boolean loadBootstrap()
+    {
+        Debug.enter();
+        final int span = StartupTrace.begin( "loadBootstrap" );
+        boolean loaded = false;
+        try
+        {
+            final InputStream input = getResources().openRawResource( R.raw.bootstrap_graph );
+            try
+            {
+                loaded = DatabaseSession.GRAPH_STORE.loadBootstrap( this, input );
+            }
+            finally
+            {
+                input.close();
+            }
+        }
+        catch ( final Resources.NotFoundException ex )
+        {
+            Debug.print( "bootstrap slice not found" );
+        }
+        catch ( final IOException ex )
+        {
+            // the placeholder left by a build without database is empty
+            Debug.error( ex, "invalid bootstrap slice" );
+        }
+        finally
+        {
+            StartupTrace.end( span );
+        }
+        Debug.leave( loaded );
+        return loaded;
+    }
+
+    /**
+     * Lease one read-only database connection.
+     *
+     * @return the leased connection.
+     * @throws IOException on error.
+     */
+    @Override
+    protected SQLiteDatabase acquireReader()
+        throws IOException
+    {
+        return DatabaseSession.acquireReader( Android.App.INSTANCE );
+    }
+
+    /**
+     * Lease one read-only database connection, for background tasks.
+     *
+     * @return the leased connection.
+     * @throws IOException on error.
+     */
+    @Override
+    protected SQLiteDatabase acquireBackgroundReader()
+        throws IOException
+    {
+        return DatabaseSession.acquireBackgroundReader( Android.App.INSTANCE );
+    }
+
+    /**
+     * Give back a connection returned by {@link #acquireReader} or {@link #acquireBackgroundReader}.
+     *
+     * @param reader the leased connection, or null.
+     */
+    @Override
+    protected void releaseReader( final SQLiteDatabase reader )
+    {
+        DatabaseSession.releaseReader( reader );
+    }
+
     // --------------
     // Locale methods
     // --------------
@@ -10,6 +10,7 @@ import android.view.LayoutInflater;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Method;
 import java.util.Locale;
 
@@ -128,6 +129,18 @@ public abstract class Android
             return Android.App.INSTANCE.getHome( path );
         }
 
+        /**
+         * Return the uncompressed tarball - the files restored into the "home" directory, as they were shipped.
+         *
+         * @return the tarball contents - please close it when done.
+         * @throws IOException on error.
+         */
+        public static InputStream openTarball()
+            throws IOException
+        {
+            return Android.App.INSTANCE.openTarball();
+        }
+
         // ----------------
         // Database methods
         // ----------------
@@ -144,6 +157,51 @@ public abstract class Android
             return Android.App.INSTANCE.getDatabase();
         }
 
+        /**
+         * Load the bootstrap slice of the graph, so the first nodes can be browsed before the database is ready.
+         *
+         * @return true if the bootstrap slice was loaded, false if there is none or the database is ready already.
+         */
+        public static boolean loadBootstrap()
+        {
+            return Android.App.INSTANCE.loadBootstrap();
+        }
+
+        /**
+         * Lease one read-only database connection, for graph loads running in parallel with other loads.
+         *
+         * @return the leased connection - give it back by calling {@link #releaseReader}.
+         * @throws IOException on error.
+         */
+        public static SQLiteDatabase acquireReader()
+            throws IOException
+        {
+            return Android.App.INSTANCE.acquireReader();
+        }
+
+        /**
+         * Lease one read-only database connection, for background tasks - they never take the connection reserved for
+         * the foreground loads.
+         *
+         * @return the leased connection - give it back by calling {@link #releaseReader}.
+         * @throws IOException on error.
+         */
+        public static SQLiteDatabase acquireBackgroundReader()
+            throws IOException
+        {
+            return Android.App.INSTANCE.acquireBackgroundReader();
+        }
+
+        /**
+         * Give back a connection returned by {@link #acquireReader} or {@link #acquireBackgroundReader}.
+         *
+         * @param reader the leased connection, or null.
+         */
+        public static void releaseReader( final SQLiteDatabase reader )
+        {
+            Android.App.INSTANCE.releaseReader( reader );
+        }
+
         // --------------
         // Locale methods
         // --------------
@@ -287,6 +345,15 @@ public abstract class Android
     protected abstract File getHome( final String path )
         throws IOException;
 
+    /**
+     * Return the uncompressed tarball.
+     *
+     * @return the tarball contents.
+     * @throws IOException on error.
+     */
+    protected abstract InputStream openTarball()
+        throws IOException;
+
     // ----------------
     // Database methods
     // ----------------
@@ -300,6 +367,38 @@ public abstract class Android
     protected abstract SQLiteDatabase getDatabase()
         throws IOException;
 
+    /**
+     * Load the bootstrap slice of the graph.
+     *
+     * @return true if the bootstrap slice was loaded.
+     */
+    protected abstract boolean loadBootstrap();
+
+    /**
+     * Lease one read-only database connection.
+     *
+     * @return the leased connection.
+     * @throws IOException on error.
+     */
+    protected abstract SQLiteDatabase acquireReader()
+        throws IOException;
+
+    /**
+     * Lease one read-only database connection, for background tasks.
+     *
+     * @return the leased connection.
+     * @throws IOException on error.
+     */
+    protected abstract SQLiteDatabase acquireBackgroundReader()
+        throws IOException;
+
+    /**
+     * Give back a connection returned by {@link #acquireReader} or {@link #acquireBackgroundReader}.
+     *
+     * @param reader the leased connection, or null.
+     */
+    protected abstract void releaseReader( final SQLiteDatabase reader );
+
     // --------------
     // Locale methods
     // --------------
@@ -0,0 +1,399 @@
+package ca.chaves.android.app;
+
+import ca.chaves.android.graph.GraphStorage;
+import ca.chaves.android.util.Debug;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * This class keeps a small pool of read-only connections to the application database. Each connection is leased to
+ * one thread at a time, so foreground node loads, prefetches and background searches run their queries in parallel -
+ * SQLite lets any number of connections hold a shared lock at the same time - instead of waiting for each other on the
+ * one read-write connection. Connections are opened on demand, up to the pool size; when all of them are leased, the
+ * callers wait for the next one given back. Background leases, see {@link #acquireBackground}, never take the last
+ * connection: it is reserved for the foreground loader, so it never waits for the background tasks.
+ * <p/>
+ * Each lease must be given back, even on errors:
+ *
+ * <pre>
+ * final SQLiteDatabase reader = pool.acquire();
+ * try
+ * {
+ *     ...
+ * }
+ * finally
+ * {
+ *     pool.release( reader );
+ * }
+ * </pre>
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public final class ConnectionPool
+{
+    /**
+     * The default pool size, one connection for each kind of task running at the same time: the foreground loader, the
+     * prefetcher, the name search and the relationship search.
+     */
+    public static final int DEFAULT_POOL_SIZE = 4;
+
+    /**
+     * The open flags for all pooled connections.
+     */
+    private static final int OPEN_FLAGS = ( SQLiteDatabase.OPEN_READONLY | SQLiteDatabase.NO_LOCALIZED_COLLATORS );
+
+    /**
+     * The database file path.
+     */
+    private final String path;
+
+    /**
+     * The maximum number of open connections.
+     */
+    private final int poolSize;
+
+    /**
+     * The graph storage whose compiled statements live on the pooled connections.
+     */
+    private final GraphStorage graphStorage;
+
+    /**
+     * The idle connections, the most recently released first.
+     */
+    private final LinkedList<SQLiteDatabase> idleConnections = new LinkedList<SQLiteDatabase>();
+
+    /**
+     * The leased connections.
+     */
+    private final List<SQLiteDatabase> leasedConnections = new ArrayList<SQLiteDatabase>();
+
+    /**
+     * The connections leased by {@link #acquireBackground}, also in {@link #leasedConnections}.
+     */
+    private final List<SQLiteDatabase> backgroundConnections = new ArrayList<SQLiteDatabase>();
+
+    /**
+     * The maximum number of background leases: all connections but the one reserved for the foreground.
+     */
+    private final int backgroundSize;
+
+    /**
+     * How many background leases are given, including the connections being opened for them.
+     */
+    private int backgroundCount;
+
+    /**
+     * How many connections are open, idle or leased.
+     */
+    private int openCount;
+
+    /**
+     * How many leases have been given so far.
+     */
+    private int leaseCount;
+
+    /**
+     * How many times a caller had to wait for a connection.
+     */
+    private int waitCount;
+
+    /**
+     * Whether this pool has been closed.
+     */
+    private boolean closed;
+
+    /**
+     * Constructor.
+     *
+     * @param path the database file path.
+     * @param poolSize the maximum number of open connections - at least two: one of them is reserved for the
+     *            foreground, and background leases share the others.
+     * @param graphStorage the graph storage whose compiled statements must be closed with each connection.
+     */
+    public ConnectionPool( final String path, final int poolSize, final GraphStorage graphStorage )
+    {
+        if ( poolSize < 2 )
+        {
+            throw new IllegalArgumentException( "bad pool size: " + poolSize );
+        }
+        this.path = path;
+        this.poolSize = poolSize;
+        this.backgroundSize = poolSize - 1;
+        this.graphStorage = graphStorage;
+    }
+
+    /**
+     * Lease one read-only connection for the foreground, waiting for one if all of them are leased - which only happens
+     * when another foreground lease holds the reserved connection. The connection must be given back by calling
+     * {@link #release}.
+     *
+     * @return the leased connection.
+     * @throws IOException if the pool is closed, the wait is interrupted, or the database cannot be opened.
+     */
+    public SQLiteDatabase acquire()
+        throws IOException
+    {
+        return acquire( false );
+    }
+
+    /**
+     * Lease one read-only connection for a background task, waiting for one if all the connections but the one
+     * reserved for the foreground are leased. The connection must be given back by calling {@link #release}.
+     *
+     * @return the leased connection.
+     * @throws IOException if the pool is closed, the wait is interrupted, or the database cannot be opened.
+     */
+    public SQLiteDatabase acquireBackground()
+        throws IOException
+    {
+        return acquire( true );
+    }
+
+    /**
+     * Lease one read-only connection, waiting for one if needed.
+     *
+     * @param background true if the connection must not be the one reserved for the foreground.
+     * @return the leased connection.
+     * @throws IOException if the pool is closed, the wait is interrupted, or the database cannot be opened.
+     */
+    private SQLiteDatabase acquire( final boolean background )
+        throws IOException
+    {
+        synchronized ( this )
+        {
+            while ( !closed && mustWait( background ) )
+            {
+                ++waitCount;
+                try
+                {
+                    this.wait();
+                }
+                catch ( final InterruptedException ex )
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException( "interrupted while waiting for a connection to " + path );
+                }
+            }
+            if ( closed )
+            {
+                throw new IOException( "connection pool closed: " + path );
+            }
+            ++leaseCount;
+            if ( background )
+            {
+                ++backgroundCount;
+            }
+            if ( !idleConnections.isEmpty() )
+            {
+                final SQLiteDatabase reader = idleConnections.removeFirst();
+                lease( reader, background );
+                return reader;
+            }
+            ++openCount;
+        }
+
+        // open a new connection, outside the lock
+
+        try
+        {
+            final SQLiteDatabase reader = SQLiteDatabase.openDatabase( path, null, ConnectionPool.OPEN_FLAGS );
+            // each connection is used by one single thread at a time
+            reader.setLockingEnabled( false );
+            synchronized ( this )
+            {
+                lease( reader, background );
+            }
+            Debug.print( "connection opened:", this );
+            return reader;
+        }
+        catch ( final SQLiteException ex )
+        {
+            synchronized ( this )
+            {
+                --openCount;
+                if ( background )
+                {
+                    --backgroundCount;
+                }
+                this.notifyAll();
+            }
+            Debug.error( ex, "unable to open", path );
+            throw new IOException( "unable to open " + path + ": " + ex.getMessage() );
+        }
+    }
+
+    /**
+     * Give back a connection returned by {@link #acquire}. The connection is closed if this pool has been closed, or if
+     * it was not leased by this pool.
+     *
+     * @param reader the leased connection, or null.
+     */
+    public void release( final SQLiteDatabase reader )
+    {
+        if ( reader == null )
+        {
+            return;
+        }
+        synchronized ( this )
+        {
+            if ( leasedConnections.remove( reader ) )
+            {
+                if ( backgroundConnections.remove( reader ) )
+                {
+                    --backgroundCount;
+                }
+                if ( !closed )
+                {
+                    idleConnections.addFirst( reader );
+                    // wake up all callers: a background caller may not take the connection a foreground caller can
+                    this.notifyAll();
+                    return;
+                }
+                --openCount;
+            }
+        }
+        closeConnection( reader );
+    }
+
+    /**
+     * Close this pool: all idle connections are closed now, and all leased connections are closed when given back.
+     * Waiting callers get an {@link IOException}.
+     */
+    public void close()
+    {
+        Debug.enter();
+        final List<SQLiteDatabase> connections;
+        synchronized ( this )
+        {
+            closed = true;
+            connections = new ArrayList<SQLiteDatabase>( idleConnections );
+            openCount -= idleConnections.size();
+            idleConnections.clear();
+            this.notifyAll();
+        }
+        for ( final SQLiteDatabase reader : connections )
+        {
+            closeConnection( reader );
+        }
+        Debug.leave( this );
+    }
+
+    /**
+     * Check if a caller must wait for a connection - this must run inside the lock.
+     *
+     * @param background true if it is a background caller.
+     * @return true if there is no connection for the caller.
+     */
+    private boolean mustWait( final boolean background )
+    {
+        if ( background && backgroundSize <= backgroundCount )
+        {
+            return true;
+        }
+        return idleConnections.isEmpty() && poolSize <= openCount;
+    }
+
+    /**
+     * Record one lease - this must run inside the lock.
+     *
+     * @param reader the leased connection.
+     * @param background true if it is a background lease.
+     */
+    private void lease( final SQLiteDatabase reader, final boolean background )
+    {
+        leasedConnections.add( reader );
+        if ( background )
+        {
+            backgroundConnections.add( reader );
+        }
+    }
+
+    /**
+     * Close one connection, and its compiled statements.
+     *
+     * @param reader the connection.
+     */
+    private void closeConnection( final SQLiteDatabase reader )
+    {
+        // compiled statements must be closed before the database
+        graphStorage.closeStatements( reader );
+        reader.close();
+    }
+
+    // ----------
+    // Statistics
+    // ----------
+
+    /**
+     * Get how many connections are open, idle or leased.
+     *
+     * @return the open connection count.
+     */
+    public int getOpenCount()
+    {
+        synchronized ( this )
+        {
+            return openCount;
+        }
+    }
+
+    /**
+     * Get how many connections are idle.
+     *
+     * @return the idle connection count.
+     */
+    public int getIdleCount()
+    {
+        synchronized ( this )
+        {
+            return idleConnections.size();
+        }
+    }
+
+    /**
+     * Get how many leases have been given so far.
+     *
+     * @return the lease count.
+     */
+    public int getLeaseCount()
+    {
+        synchronized ( this )
+        {
+            return leaseCount;
+        }
+    }
+
+    /**
+     * Get how many times a caller had to wait for a connection.
+     *
+     * @return the wait count.
+     */
+    public int getWaitCount()
+    {
+        synchronized ( this )
+        {
+            return waitCount;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        synchronized ( this )
+        {
+            return "ConnectionPool[open=" + openCount + "/" + poolSize + ", idle=" + idleConnections.size()
+                + ", background=" + backgroundCount + "/" + backgroundSize + ", leases=" + leaseCount + ", waits="
+                + waitCount + ( closed ? ", closed" : "" ) + "]";
+        }
+    }
+}
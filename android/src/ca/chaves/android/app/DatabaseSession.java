@@ -4,6 +4,7 @@ import ca.chaves.android.BuildManifest;
 import ca.chaves.android.R;
 import ca.chaves.android.graph.GraphStorage;
 import ca.chaves.android.util.Debug;
+import ca.chaves.android.util.StartupTrace;
 
 import android.content.Context;
 import android.content.res.Configuration;
@@ -33,6 +34,16 @@ public class DatabaseSession
      */
     private static final String DATABASE_NAME = "v" + DatabaseSession.DATABASE_VERSION + ".db";
 
+    /**
+     * The binary graph file name - it is built from the same source than the database, see share/tools/graph_file.py.
+     */
+    private static final String GRAPH_FILE_NAME = "v" + DatabaseSession.DATABASE_VERSION + ".graph";
+
+    /**
+     * The ancestor index file name - it is built on the first kinship query, see {@link GraphStorage#getKinship}.
+     */
+    private static final String ANCESTOR_INDEX_FILE_NAME = "v" + DatabaseSession.DATABASE_VERSION + ".ancestors";
+
     /**
      * The global locker. It guarantees that some objects are not created/initialized by multiple threads at the same
      * time.
@@ -46,6 +57,11 @@ public class DatabaseSession
      */
     private static SQLiteDatabase databaseInstance;
 
+    /**
+     * The read-only connections for concurrent graph loads, see {@link #acquireReader}.
+     */
+    private static ConnectionPool readerPool;
+
     /**
      * The graph storage.
      */
@@ -82,27 +98,55 @@ public class DatabaseSession
             }
             else
             {
-                // get current locale
-                final Locale locale = Locale.getDefault();
-                Debug.print( "open database: language", locale.getLanguage(), "country", locale.getCountry() );
-                // open database
-                database = SQLiteDatabase.openDatabase( filename.getAbsolutePath(), null, openFlags );
-                database.setVersion( DatabaseSession.DATABASE_VERSION );
-                database.setLockingEnabled( true );
-                database.setLocale( locale );
-                // run initialization SQL statements
-                // NOTE: this must run inside the synchronized block
-                final String[] stmts = resources.getStringArray( R.array.database_sql_init );
-                for ( final String stmt : stmts )
+                final int span = StartupTrace.begin( "DatabaseSession.getDatabase" );
+                try
+                {
+                    // get current locale
+                    final Locale locale = Locale.getDefault();
+                    Debug.print( "open database: language", locale.getLanguage(), "country", locale.getCountry() );
+                    // open database
+                    database = SQLiteDatabase.openDatabase( filename.getAbsolutePath(), null, openFlags );
+                    database.setVersion( DatabaseSession.DATABASE_VERSION );
+                    database.setLockingEnabled( true );
+                    database.setLocale( locale );
+                    // run initialization SQL statements
+                    // NOTE: this must run inside the synchronized block
+                    final String[] stmts = resources.getStringArray( R.array.database_sql_init );
+                    final int initSpan = StartupTrace.begin( "database_sql_init" );
+                    try
+                    {
+                        for ( final String stmt : stmts )
+                        {
+                            Debug.print( stmt );
+                            database.execSQL( stmt );
+                        }
+                    }
+                    finally
+                    {
+                        StartupTrace.end( initSpan );
+                    }
+                    // browse the binary graph file, if present
+                    DatabaseSession.GRAPH_STORE.setGraphFile( new File( filename.getParentFile(),
+                                                                        DatabaseSession.GRAPH_FILE_NAME ) );
+                    // keep the ancestor index next to the database
+                    final File ancestorIndexFile =
+                        new File( filename.getParentFile(), DatabaseSession.ANCESTOR_INDEX_FILE_NAME );
+                    DatabaseSession.GRAPH_STORE.setAncestorIndexFile( ancestorIndexFile,
+                                                                      DatabaseSession.DATABASE_VERSION );
+                    // load database initial data
+                    // NOTE: this must run inside the synchronized block
+                    DatabaseSession.resetStorage( app, DatabaseSession.GRAPH_STORE, database, locale );
+                    // readers are opened after the initialization, so they see its schema changes
+                    DatabaseSession.readerPool =
+                        new ConnectionPool( database.getPath(), ConnectionPool.DEFAULT_POOL_SIZE,
+                                            DatabaseSession.GRAPH_STORE );
+                    // finally, this.database
+                    DatabaseSession.databaseInstance = database;
+                }
+                finally
                 {
-                    Debug.print( stmt );
-                    database.execSQL( stmt );
+                    StartupTrace.end( span );
                 }
-                // load database initial data
-                // NOTE: this must run inside the synchronized block
-                DatabaseSession.resetStorage( app, DatabaseSession.GRAPH_STORE, database, locale );
-                // finally, this.database
-                DatabaseSession.databaseInstance = database;
                 Debug.leave( "open database" );
             }
         }
@@ -110,6 +154,88 @@ public class DatabaseSession
         return database;
     }
 
+    /**
+     * Lease one read-only connection to the application database, for the foreground loads. Graph loads running on
+     * different leases do not wait for each other, and the foreground ones never wait for the background leases. The
+     * connection must be given back by calling {@link #releaseReader}, even on errors.
+     *
+     * @param app the application context.
+     * @return the leased connection.
+     * @throws IOException on error.
+     */
+    public static SQLiteDatabase acquireReader( final Android app )
+        throws IOException
+    {
+        return DatabaseSession.getReaderPool( app ).acquire();
+    }
+
+    /**
+     * Lease one read-only connection to the application database, for the background tasks - see
+     * {@link ConnectionPool#acquireBackground}. The connection must be given back by calling {@link #releaseReader},
+     * even on errors.
+     *
+     * @param app the application context.
+     * @return the leased connection.
+     * @throws IOException on error.
+     */
+    public static SQLiteDatabase acquireBackgroundReader( final Android app )
+        throws IOException
+    {
+        return DatabaseSession.getReaderPool( app ).acquireBackground();
+    }
+
+    /**
+     * Get the read-only connection pool, opening the database if needed.
+     *
+     * @param app the application context.
+     * @return the connection pool.
+     * @throws IOException if the database is closed.
+     */
+    private static ConnectionPool getReaderPool( final Android app )
+        throws IOException
+    {
+        DatabaseSession.getDatabase( app );
+        final ConnectionPool pool;
+        synchronized ( DatabaseSession.LOCK )
+        {
+            pool = DatabaseSession.readerPool;
+        }
+        if ( pool == null )
+        {
+            throw new IOException( "database closed" );
+        }
+        return pool;
+    }
+
+    /**
+     * Give back a connection returned by {@link #acquireReader} or {@link #acquireBackgroundReader}. The connection is
+     * closed if the database has been closed, or re-opened, meanwhile.
+     *
+     * @param reader the leased connection, or null.
+     */
+    public static void releaseReader( final SQLiteDatabase reader )
+    {
+        if ( reader == null )
+        {
+            return;
+        }
+        final ConnectionPool pool;
+        synchronized ( DatabaseSession.LOCK )
+        {
+            pool = DatabaseSession.readerPool;
+        }
+        if ( pool != null )
+        {
+            pool.release( reader );
+        }
+        else
+        {
+            // the pool is gone - this lease outlived the database session
+            DatabaseSession.GRAPH_STORE.closeStatements( reader );
+            reader.close();
+        }
+    }
+
     /**
      * Close this database.
      */
@@ -117,13 +243,23 @@ public class DatabaseSession
     {
         Debug.enter();
         SQLiteDatabase database;
+        ConnectionPool pool;
         synchronized ( DatabaseSession.LOCK )
         {
             database = DatabaseSession.databaseInstance;
             DatabaseSession.databaseInstance = null;
+            pool = DatabaseSession.readerPool;
+            DatabaseSession.readerPool = null;
+        }
+        if ( pool != null )
+        {
+            // leased readers are closed when given back
+            pool.close();
         }
         if ( database != null )
         {
+            // compiled statements must be closed before the database
+            DatabaseSession.GRAPH_STORE.closeStatements();
             database.close();
         }
         Debug.leave();
@@ -145,6 +281,7 @@ public class DatabaseSession
         final Resources resources = context.getResources();
 
         // reload the database locale as well
+        final SQLiteDatabase database;
         synchronized ( DatabaseSession.LOCK )
         {
             final DisplayMetrics displayMetrics = resources.getDisplayMetrics();
@@ -158,12 +295,17 @@ public class DatabaseSession
 
             // reset database locale as well
             // NOTE: this must run inside the synchronized block
-            final SQLiteDatabase database = DatabaseSession.databaseInstance;
+            database = DatabaseSession.databaseInstance;
             if ( database != null )
             {
-                DatabaseSession.resetStorage( context, DatabaseSession.GRAPH_STORE, database, locale );
+                database.setLocale( locale );
             }
         }
+        // switch the graph storage caches outside the global lock, so that other readers are not blocked
+        if ( database != null )
+        {
+            DatabaseSession.GRAPH_STORE.setLocale( context, database, locale );
+        }
         Debug.leave( locale );
     }
 
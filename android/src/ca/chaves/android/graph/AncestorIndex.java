@@ -0,0 +1,565 @@
+package ca.chaves.android.graph;
+
+import ca.chaves.android.util.Debug;
+import ca.chaves.android.util.IntArrays;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * This class stores all ancestors of every node, so that kinship - "second cousin once removed" - is computed in
+ * microseconds, without walking the graph. For each node, it keeps its generation - 0 for nodes without parents, and 1
+ * more than its deepest parent otherwise - and the sorted list of all its ancestors, with the number of generations up
+ * to each one. Ancestor lists are stored in flat int arrays, in compressed-row format: a sparse ancestor bitset, with
+ * distances. Two nodes are related by merging both lists.
+ * <p/>
+ * The index is built from the parent links in one single pass, parents before children, and saved into a small binary
+ * file next to the database. The file records the database version, so a new database ignores - and rebuilds - any
+ * older index. Parent cycles, which only bad data can create, are broken: the parents still in the cycle are ignored.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public final class AncestorIndex
+{
+    /**
+     * The file magic number, "FBA1".
+     */
+    private static final int MAGIC = 0x46424131;
+
+    /**
+     * The header size, in int(s): magic, database version, node count and ancestor count.
+     */
+    private static final int HEADER_SIZE = 4;
+
+    /**
+     * The node_id(s), sorted. Nodes are addressed by their index in this array.
+     */
+    private final int[] nodeIds;
+
+    /**
+     * The generation of each node.
+     */
+    private final int[] generations;
+
+    /**
+     * Where the ancestors of each node start - the ancestors of node i are in [ ancestorStarts[i],
+     * ancestorStarts[i + 1] ).
+     */
+    private final int[] ancestorStarts;
+
+    /**
+     * The ancestors of each node: node indexes, sorted.
+     */
+    private final int[] ancestors;
+
+    /**
+     * How many generations up to each ancestor - the shortest way, if there are many.
+     */
+    private final int[] ancestorDistances;
+
+    /**
+     * Constructor.
+     *
+     * @param nodeIds the node_id(s), sorted.
+     * @param generations the generation of each node.
+     * @param ancestorStarts where the ancestors of each node start.
+     * @param ancestors the ancestors of each node.
+     * @param ancestorDistances how many generations up to each ancestor.
+     */
+    private AncestorIndex( final int[] nodeIds, final int[] generations, final int[] ancestorStarts,
+                           final int[] ancestors, final int[] ancestorDistances )
+    {
+        this.nodeIds = nodeIds;
+        this.generations = generations;
+        this.ancestorStarts = ancestorStarts;
+        this.ancestors = ancestors;
+        this.ancestorDistances = ancestorDistances;
+    }
+
+    // --------
+    // Building
+    // --------
+
+    /**
+     * Build the index from the parent links.
+     *
+     * @param childIds the node_id of each link.
+     * @param parentIds the parent node_id of each link.
+     * @param linkCount how many links there are.
+     * @return the ancestor index.
+     */
+    public static AncestorIndex build( final int[] childIds, final int[] parentIds, final int linkCount )
+    {
+        Debug.enter( linkCount );
+
+        // collect the node_id(s): every node with a parent, and every parent
+
+        final int[] allIds = new int[2 * linkCount];
+        System.arraycopy( childIds, 0, allIds, 0, linkCount );
+        System.arraycopy( parentIds, 0, allIds, linkCount, linkCount );
+        Arrays.sort( allIds );
+        int nodeCount = 0;
+        for ( int index = 0; index < allIds.length; ++index )
+        {
+            if ( nodeCount == 0 || allIds[nodeCount - 1] != allIds[index] )
+            {
+                allIds[nodeCount++] = allIds[index];
+            }
+        }
+        final int[] nodeIds = new int[nodeCount];
+        System.arraycopy( allIds, 0, nodeIds, 0, nodeCount );
+
+        // the parents and the children of each node, in compressed-row format
+
+        final int[] parentStarts = new int[nodeCount + 1];
+        final int[] childStarts = new int[nodeCount + 1];
+        final int[] links = new int[2 * linkCount];
+        for ( int link = 0; link < linkCount; ++link )
+        {
+            links[2 * link] = Arrays.binarySearch( nodeIds, childIds[link] );
+            links[2 * link + 1] = Arrays.binarySearch( nodeIds, parentIds[link] );
+            ++parentStarts[links[2 * link] + 1];
+            ++childStarts[links[2 * link + 1] + 1];
+        }
+        for ( int node = 0; node < nodeCount; ++node )
+        {
+            parentStarts[node + 1] += parentStarts[node];
+            childStarts[node + 1] += childStarts[node];
+        }
+        final int[] parents = new int[linkCount];
+        final int[] children = new int[linkCount];
+        final int[] parentFill = new int[nodeCount];
+        final int[] childFill = new int[nodeCount];
+        for ( int link = 0; link < linkCount; ++link )
+        {
+            final int child = links[2 * link];
+            final int parent = links[2 * link + 1];
+            parents[parentStarts[child] + parentFill[child]++] = parent;
+            children[childStarts[parent] + childFill[parent]++] = child;
+        }
+
+        // sort the nodes, parents before children - the nodes left in parent cycles go last
+
+        final int[] order = AncestorIndex.sortParentsFirst( nodeCount, parentStarts, childStarts, children );
+
+        // the ancestors of each node: its parents, and the ancestors of its parents
+
+        final int[] generations = new int[nodeCount];
+        final boolean[] done = new boolean[nodeCount];
+        final int[][] nodeAncestors = new int[nodeCount][];
+        final int[][] nodeDistances = new int[nodeCount][];
+        final int[] distances = new int[nodeCount]; // 0 means "not an ancestor"
+        final int[] touched = new int[nodeCount];
+        int ancestorCount = 0;
+        for ( final int node : order )
+        {
+            int touchedCount = 0;
+            int generation = 0;
+            for ( int position = parentStarts[node]; position < parentStarts[node + 1]; ++position )
+            {
+                final int parent = parents[position];
+                if ( !done[parent] || parent == node )
+                {
+                    continue; // a parent cycle
+                }
+                generation = Math.max( generation, generations[parent] + 1 );
+                touchedCount = AncestorIndex.touch( distances, touched, touchedCount, parent, 1 );
+                final int[] grandParents = nodeAncestors[parent];
+                final int[] grandDistances = nodeDistances[parent];
+                for ( int index = 0; index < grandParents.length; ++index )
+                {
+                    touchedCount =
+                        AncestorIndex.touch( distances, touched, touchedCount, grandParents[index],
+                                             grandDistances[index] + 1 );
+                }
+            }
+            Arrays.sort( touched, 0, touchedCount );
+            final int[] nodeAncestor = new int[touchedCount];
+            final int[] nodeDistance = new int[touchedCount];
+            for ( int index = 0; index < touchedCount; ++index )
+            {
+                nodeAncestor[index] = touched[index];
+                nodeDistance[index] = distances[touched[index]];
+                distances[touched[index]] = 0;
+            }
+            nodeAncestors[node] = nodeAncestor;
+            nodeDistances[node] = nodeDistance;
+            generations[node] = generation;
+            ancestorCount += touchedCount;
+            done[node] = true;
+        }
+
+        // flatten the ancestor lists
+
+        final int[] ancestorStarts = new int[nodeCount + 1];
+        final int[] ancestors = new int[ancestorCount];
+        final int[] ancestorDistances = new int[ancestorCount];
+        for ( int node = 0; node < nodeCount; ++node )
+        {
+            final int start = ancestorStarts[node];
+            System.arraycopy( nodeAncestors[node], 0, ancestors, start, nodeAncestors[node].length );
+            System.arraycopy( nodeDistances[node], 0, ancestorDistances, start, nodeDistances[node].length );
+            ancestorStarts[node + 1] = start + nodeAncestors[node].length;
+        }
+
+        final AncestorIndex index =
+            new AncestorIndex( nodeIds, generations, ancestorStarts, ancestors, ancestorDistances );
+        Debug.leave( index );
+        return index;
+    }
+
+    /**
+     * Sort the nodes, parents before children: Kahn's topological sort. The nodes left in parent cycles are added last,
+     * in node order.
+     *
+     * @param nodeCount how many nodes there are.
+     * @param parentStarts where the parents of each node start.
+     * @param childStarts where the children of each node start.
+     * @param children the children of each node.
+     * @return the node indexes, parents first.
+     */
+    private static int[] sortParentsFirst( final int nodeCount, final int[] parentStarts, final int[] childStarts,
+                                           final int[] children )
+    {
+        final int[] order = new int[nodeCount];
+        final int[] pendingParents = new int[nodeCount];
+        int orderCount = 0;
+        for ( int node = 0; node < nodeCount; ++node )
+        {
+            pendingParents[node] = parentStarts[node + 1] - parentStarts[node];
+            if ( pendingParents[node] == 0 )
+            {
+                order[orderCount++] = node;
+            }
+        }
+        for ( int next = 0; next < orderCount; ++next )
+        {
+            final int node = order[next];
+            for ( int position = childStarts[node]; position < childStarts[node + 1]; ++position )
+            {
+                if ( --pendingParents[children[position]] == 0 )
+                {
+                    order[orderCount++] = children[position];
+                }
+            }
+        }
+        if ( orderCount < nodeCount )
+        {
+            Debug.print( "parent cycles:", nodeCount - orderCount, "nodes" );
+            for ( int node = 0; node < nodeCount; ++node )
+            {
+                if ( 0 < pendingParents[node] )
+                {
+                    order[orderCount++] = node;
+                }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Add one ancestor to the ancestors being collected, keeping the shortest distance.
+     *
+     * @param distances the distance to each ancestor collected so far, or 0.
+     * @param touched the ancestors collected so far.
+     * @param touchedCount how many ancestors were collected so far.
+     * @param ancestor the ancestor.
+     * @param distance the distance to the ancestor.
+     * @return the new number of collected ancestors.
+     */
+    private static int touch( final int[] distances, final int[] touched, final int touchedCount, final int ancestor,
+                              final int distance )
+    {
+        if ( distances[ancestor] == 0 )
+        {
+            distances[ancestor] = distance;
+            touched[touchedCount] = ancestor;
+            return touchedCount + 1;
+        }
+        if ( distance < distances[ancestor] )
+        {
+            distances[ancestor] = distance;
+        }
+        return touchedCount;
+    }
+
+    // ---------
+    // Index I/O
+    // ---------
+
+    /**
+     * Read the index from the given file.
+     *
+     * @param file the index file.
+     * @param databaseVersion the current database version.
+     * @return the ancestor index, or null if the file is missing or it was built for another database version.
+     * @throws IOException on error.
+     */
+    public static AncestorIndex read( final File file, final int databaseVersion )
+        throws IOException
+    {
+        Debug.enter( file, databaseVersion );
+        if ( !file.isFile() )
+        {
+            Debug.leave( "missing" );
+            return null;
+        }
+        final RandomAccessFile input = new RandomAccessFile( file, "r" );
+        try
+        {
+            final FileChannel channel = input.getChannel();
+            final IntBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() ).asIntBuffer();
+            if ( buffer.remaining() < AncestorIndex.HEADER_SIZE || buffer.get( 0 ) != AncestorIndex.MAGIC )
+            {
+                throw new IOException( "not an ancestor index: " + file );
+            }
+            if ( buffer.get( 1 ) != databaseVersion )
+            {
+                Debug.leave( "obsolete version", buffer.get( 1 ) );
+                return null;
+            }
+            final int nodeCount = buffer.get( 2 );
+            final int ancestorCount = buffer.get( 3 );
+            if ( buffer.remaining() != AncestorIndex.HEADER_SIZE + 3 * nodeCount + 1 + 2 * ancestorCount )
+            {
+                throw new IOException( "truncated ancestor index: " + file );
+            }
+            buffer.position( AncestorIndex.HEADER_SIZE );
+            final int[] nodeIds = new int[nodeCount];
+            final int[] generations = new int[nodeCount];
+            final int[] ancestorStarts = new int[nodeCount + 1];
+            final int[] ancestors = new int[ancestorCount];
+            final int[] ancestorDistances = new int[ancestorCount];
+            buffer.get( nodeIds );
+            buffer.get( generations );
+            buffer.get( ancestorStarts );
+            buffer.get( ancestors );
+            buffer.get( ancestorDistances );
+            final AncestorIndex index =
+                new AncestorIndex( nodeIds, generations, ancestorStarts, ancestors, ancestorDistances );
+            Debug.leave( index );
+            return index;
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     * Write the index into the given file. The file is written under a temporary name first, and then renamed, so it
+     * is never seen half written.
+     *
+     * @param file the index file.
+     * @param databaseVersion the current database version.
+     * @throws IOException on error.
+     */
+    public void write( final File file, final int databaseVersion )
+        throws IOException
+    {
+        Debug.enter( file, databaseVersion );
+        final File temporary = new File( file.getPath() + ".tmp" );
+        final DataOutputStream output =
+            new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temporary ) ) );
+        try
+        {
+            output.writeInt( AncestorIndex.MAGIC );
+            output.writeInt( databaseVersion );
+            output.writeInt( nodeIds.length );
+            output.writeInt( ancestors.length );
+            AncestorIndex.writeInts( output, nodeIds );
+            AncestorIndex.writeInts( output, generations );
+            AncestorIndex.writeInts( output, ancestorStarts );
+            AncestorIndex.writeInts( output, ancestors );
+            AncestorIndex.writeInts( output, ancestorDistances );
+        }
+        finally
+        {
+            output.close();
+        }
+        if ( !temporary.renameTo( file ) )
+        {
+            temporary.delete();
+            throw new IOException( "unable to rename " + temporary + " to " + file );
+        }
+        Debug.leave();
+    }
+
+    /**
+     * Write an int array - big-endian, as {@link ByteBuffer} reads it by default.
+     *
+     * @param output where to write.
+     * @param values the values to write.
+     * @throws IOException on error.
+     */
+    private static void writeInts( final DataOutputStream output, final int[] values )
+        throws IOException
+    {
+        for ( final int value : values )
+        {
+            output.writeInt( value );
+        }
+    }
+
+    // --------
+    // Querying
+    // --------
+
+    /**
+     * Get the number of indexed nodes: the nodes with a parent, and the parents.
+     *
+     * @return the number of indexed nodes.
+     */
+    public int getNodeCount()
+    {
+        return nodeIds.length;
+    }
+
+    /**
+     * Get the generation of the given node: 0 for nodes without parents, and 1 more than its deepest parent otherwise.
+     *
+     * @param nodeId the node_id.
+     * @return the generation.
+     */
+    public int getGeneration( final int nodeId )
+    {
+        final int node = Arrays.binarySearch( nodeIds, nodeId );
+        return ( node < 0 ) ? 0 : generations[node];
+    }
+
+    /**
+     * Get how many generations up the given ancestor is.
+     *
+     * @param nodeId the node_id.
+     * @param ancestorId the ancestor node_id.
+     * @return the number of generations up - the shortest way - or -1 if 'ancestorId' is not an ancestor.
+     */
+    public int getAncestorDistance( final int nodeId, final int ancestorId )
+    {
+        final int node = Arrays.binarySearch( nodeIds, nodeId );
+        final int ancestor = Arrays.binarySearch( nodeIds, ancestorId );
+        final int position = ( node < 0 || ancestor < 0 ) ? -1 : findAncestor( node, ancestor );
+        return ( position < 0 ) ? -1 : ancestorDistances[position];
+    }
+
+    /**
+     * Find how two nodes are blood related: their closest common ancestors - those with the fewest generations down to
+     * both nodes - and how many generations each node is below them. One node may be the common ancestor itself.
+     *
+     * @param firstId the first node_id.
+     * @param secondId the second node_id.
+     * @return the kinship - without common ancestor labels - or null if both nodes have no common ancestor.
+     */
+    public Kinship getKinship( final int firstId, final int secondId )
+    {
+        final int first = Arrays.binarySearch( nodeIds, firstId );
+        final int second = Arrays.binarySearch( nodeIds, secondId );
+        if ( firstId == secondId )
+        {
+            return new Kinship( 0, 0, new int[]{firstId} );
+        }
+        if ( first < 0 || second < 0 )
+        {
+            return null;
+        }
+
+        // one node is an ancestor of the other one
+
+        final int secondUp = findAncestor( first, second );
+        if ( 0 <= secondUp )
+        {
+            return new Kinship( ancestorDistances[secondUp], 0, new int[]{secondId} );
+        }
+        final int firstUp = findAncestor( second, first );
+        if ( 0 <= firstUp )
+        {
+            return new Kinship( 0, ancestorDistances[firstUp], new int[]{firstId} );
+        }
+
+        // merge both ancestor lists, keeping the common ancestors with the fewest generations down to both nodes
+
+        final int firstEnd = ancestorStarts[first + 1];
+        final int secondEnd = ancestorStarts[second + 1];
+        final int[] commonIds =
+            new int[Math.min( firstEnd - ancestorStarts[first], secondEnd - ancestorStarts[second] )];
+        int commonCount = 0;
+        int bestFirst = 0;
+        int bestSecond = 0;
+        int firstPosition = ancestorStarts[first];
+        int secondPosition = ancestorStarts[second];
+        while ( firstPosition < firstEnd && secondPosition < secondEnd )
+        {
+            final int firstAncestor = ancestors[firstPosition];
+            final int secondAncestor = ancestors[secondPosition];
+            if ( firstAncestor < secondAncestor )
+            {
+                ++firstPosition;
+            }
+            else if ( secondAncestor < firstAncestor )
+            {
+                ++secondPosition;
+            }
+            else
+            {
+                final int firstDistance = ancestorDistances[firstPosition];
+                final int secondDistance = ancestorDistances[secondPosition];
+                // prefer the fewest generations, and then the closest cousin degree
+                final boolean closer = commonCount == 0 //
+                    || firstDistance + secondDistance < bestFirst + bestSecond //
+                    || ( firstDistance + secondDistance == bestFirst + bestSecond //
+                    && Math.min( firstDistance, secondDistance ) < Math.min( bestFirst, bestSecond ) );
+                if ( closer )
+                {
+                    commonCount = 0;
+                    bestFirst = firstDistance;
+                    bestSecond = secondDistance;
+                }
+                if ( firstDistance == bestFirst && secondDistance == bestSecond )
+                {
+                    commonIds[commonCount++] = nodeIds[firstAncestor];
+                }
+                ++firstPosition;
+                ++secondPosition;
+            }
+        }
+        if ( commonCount == 0 )
+        {
+            return null;
+        }
+        final int[] commonAncestorIds = new int[commonCount];
+        System.arraycopy( commonIds, 0, commonAncestorIds, 0, commonCount );
+        return new Kinship( bestFirst, bestSecond, commonAncestorIds );
+    }
+
+    /**
+     * Find one ancestor in the ancestor list of a node.
+     *
+     * @param node the node index.
+     * @param ancestor the ancestor node index.
+     * @return the ancestor position - see ancestorDistances - or -1 if 'ancestor' is not an ancestor of 'node'.
+     */
+    private int findAncestor( final int node, final int ancestor )
+    {
+        final int position =
+            IntArrays.binarySearch( ancestors, ancestorStarts[node], ancestorStarts[node + 1], ancestor );
+        return ( position < 0 ) ? -1 : position;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "AncestorIndex[nodes=" + nodeIds.length + ", ancestors=" + ancestors.length + "]";
+    }
+}
@@ -0,0 +1,179 @@
+package ca.chaves.android.graph;
+
+import ca.chaves.android.util.Debug;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * This class holds the {@link AncestorIndex} of the {@link GraphStorage} nodes. The index is read from its file, or
+ * built from the parent links in the database, the first time it is needed - and then it is kept until the storage is
+ * reset.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+final class AncestorIndexCache
+{
+    /**
+     * The storage resources - the SQL statements.
+     */
+    private final GraphResources resources;
+
+    /**
+     * The compiled statements cache.
+     */
+    private final StatementCache statements;
+
+    /**
+     * The ancestor index file to use - see {@link AncestorIndex} - or null to keep the index in memory only.
+     */
+    private File fileName;
+
+    /**
+     * The database version the ancestor index file must match.
+     */
+    private int fileVersion;
+
+    /**
+     * The ancestor index, or null if it was not loaded yet.
+     */
+    private volatile AncestorIndex ancestorIndex;
+
+    /**
+     * Constructor.
+     *
+     * @param resources the storage resources - the SQL statements.
+     * @param statements the compiled statements cache.
+     */
+    AncestorIndexCache( final GraphResources resources, final StatementCache statements )
+    {
+        this.resources = resources;
+        this.statements = statements;
+    }
+
+    /**
+     * Set the ancestor index file. The file is written the first time the index is built, and it is only read back if
+     * it was built for the same database version.
+     *
+     * @param file the ancestor index file, or null to keep the index in memory only.
+     * @param databaseVersion the current database version.
+     */
+    void setFile( final File file, final int databaseVersion )
+    {
+        fileName = file;
+        fileVersion = databaseVersion;
+    }
+
+    /**
+     * Load the ancestor index: read it from the ancestor index file if it is up to date, or build it from the parent
+     * links - in one single scan - and save it otherwise. The index is loaded the first time {@link #get} is called,
+     * so call this function in background to have it ready sooner.
+     *
+     * @param database where to read the parent links from.
+     * @return the ancestor index.
+     * @throws IOException on error.
+     */
+    AncestorIndex load( final SQLiteDatabase database )
+        throws IOException
+    {
+        Debug.enter();
+
+        final long loadStart = System.nanoTime();
+        final File file = fileName;
+        AncestorIndex index = null;
+        if ( file != null )
+        {
+            try
+            {
+                index = AncestorIndex.read( file, fileVersion );
+            }
+            catch ( final IOException ex )
+            {
+                // rebuild it
+                Debug.error( ex, "unable to read", file );
+            }
+        }
+
+        if ( index == null )
+        {
+            int[] childIds = new int[1024];
+            int[] parentIds = new int[1024];
+            int linkCount = 0;
+            final String selectStmt = resources.selectParentLinksStmt;
+            Debug.print( "execute:", selectStmt );
+            final Cursor cursor = statements.query( database, selectStmt, null );
+            try
+            {
+                if ( cursor.moveToFirst() )
+                {
+                    do
+                    {
+                        if ( linkCount == childIds.length )
+                        {
+                            final int[] newChildIds = new int[2 * linkCount];
+                            final int[] newParentIds = new int[2 * linkCount];
+                            System.arraycopy( childIds, 0, newChildIds, 0, linkCount );
+                            System.arraycopy( parentIds, 0, newParentIds, 0, linkCount );
+                            childIds = newChildIds;
+                            parentIds = newParentIds;
+                        }
+                        childIds[linkCount] = cursor.getInt( 0 );
+                        parentIds[linkCount] = cursor.getInt( 1 );
+                        ++linkCount;
+                    }
+                    while ( cursor.moveToNext() );
+                }
+            }
+            finally
+            {
+                statements.release( database, selectStmt, cursor );
+            }
+            index = AncestorIndex.build( childIds, parentIds, linkCount );
+
+            if ( file != null )
+            {
+                try
+                {
+                    index.write( file, fileVersion );
+                }
+                catch ( final IOException ex )
+                {
+                    // keep it in memory only
+                    Debug.error( ex, "unable to write", file );
+                }
+            }
+        }
+
+        ancestorIndex = index;
+
+        Debug.leave( index, ( System.nanoTime() - loadStart ) / 1000, "us" );
+        return index;
+    }
+
+    /**
+     * Get the ancestor index, loading it first if needed.
+     *
+     * @param database where to read the parent links from, if the ancestor index was not loaded yet.
+     * @return the ancestor index.
+     * @throws IOException on error.
+     */
+    AncestorIndex get( final SQLiteDatabase database )
+        throws IOException
+    {
+        final AncestorIndex index = ancestorIndex;
+        // benign race: all threads load the same index
+        return ( index != null ) ? index : load( database );
+    }
+
+    /**
+     * Drop the ancestor index. The next {@link #get} loads it again.
+     */
+    void reset()
+    {
+        ancestorIndex = null;
+    }
+}
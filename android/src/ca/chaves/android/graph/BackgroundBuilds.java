@@ -0,0 +1,106 @@
+package ca.chaves.android.graph;
+
+import ca.chaves.android.util.Debug;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * This class runs the {@link GraphStorage} index builds off the foreground threads. All builds share one single
+ * daemon thread, below the foreground priority, so they never compete with each other for the database - they just
+ * queue up. Build errors are logged as soon as they happen, and reported again to whoever waits for the build.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+final class BackgroundBuilds
+{
+    /**
+     * The build thread - created on the first build.
+     */
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor( new ThreadFactory()
+    {
+        @Override
+        public Thread newThread( final Runnable runnable )
+        {
+            final Thread thread = new Thread( runnable, "graph-builds" );
+            thread.setPriority( Thread.NORM_PRIORITY - 1 );
+            thread.setDaemon( true );
+            return thread;
+        }
+    } );
+
+    /**
+     * Constructor - no instances.
+     */
+    private BackgroundBuilds()
+    {
+        // nothing
+    }
+
+    /**
+     * Queue the given build on the build thread.
+     *
+     * @param <ResultType> the build result type.
+     * @param name the build name, for logging.
+     * @param build the build to run.
+     * @return the queued build.
+     */
+    static <ResultType> FutureTask<ResultType> start( final String name, final Callable<ResultType> build )
+    {
+        final FutureTask<ResultType> task = new FutureTask<ResultType>( build )
+        {
+            @Override
+            protected void setException( final Throwable ex )
+            {
+                Debug.error( ex, "background build failed:", name );
+                super.setException( ex );
+            }
+        };
+        BackgroundBuilds.EXECUTOR.execute( task );
+        return task;
+    }
+
+    /**
+     * Wait for the given build to finish.
+     *
+     * @param <ResultType> the build result type.
+     * @param build the build, or null.
+     * @return the build result, or null if there was no build.
+     * @throws IOException if the build failed.
+     */
+    static <ResultType> ResultType await( final FutureTask<ResultType> build )
+        throws IOException
+    {
+        if ( build == null )
+        {
+            return null;
+        }
+        try
+        {
+            return build.get();
+        }
+        catch ( final InterruptedException ex )
+        {
+            Thread.currentThread().interrupt();
+            final IOException error = new IOException( "interrupted while waiting for a background build" );
+            error.initCause( ex );
+            throw error;
+        }
+        catch ( final ExecutionException ex )
+        {
+            if ( ex.getCause() instanceof IOException )
+            {
+                throw (IOException) ex.getCause();
+            }
+            final IOException error = new IOException( "background build failed" );
+            error.initCause( ex.getCause() );
+            throw error;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package ca.chaves.android.graph;
+
+import ca.chaves.android.util.CacheReference;
+import ca.chaves.android.util.IntLruCache;
+
+import java.util.Locale;
+
+/**
+ * This class holds the {@link GraphStorage} caches for one locale: the node cache, the attributes, and the graph file
+ * view - whose nodes carry the edge group names in that language. {@link GraphStorage#resetStorage} and
+ * {@link GraphStorage#setLocale} replace them all at once.
+ * <p/>
+ * These caches keep the edge group names and statements they were created with, so a load always builds its nodes
+ * from the caches it started with, even if the storage resources are reloaded meanwhile.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+final class GraphCache
+{
+    /**
+     * The caches locale, or null before the first locale is set.
+     */
+    final Locale locale;
+
+    /**
+     * The edge group names, in the caches language - the titles of the node edge lists.
+     */
+    final String[] edgeNames;
+
+    /**
+     * The SELECT statements for each edge group - see {@link GraphResources#selectEdgesByNodeIdStmt}.
+     */
+    final String[] selectEdgesStmts;
+
+    /**
+     * The edge index for each attribute_id, or -1 if the attribute_id is not an edge.
+     */
+    final int[] edgeIndexByAttributeId;
+
+    /**
+     * The node cache - a bounded LRU cache indexed by node_id.
+     */
+    final IntLruCache<GraphNode> nodesCache;
+
+    /**
+     * The attributes cache.
+     */
+    final CacheReference<GraphAttributes> attributesCache = new CacheReference<GraphAttributes>();
+
+    /**
+     * The node loads in flight - concurrent loads of the same node share one single read.
+     */
+    final SingleFlight flights = new SingleFlight();
+
+    /**
+     * The memory-mapped graph file, or null if nodes must be read from the database.
+     */
+    volatile GraphFile graphFile;
+
+    /**
+     * Constructor.
+     *
+     * @param locale the caches locale.
+     * @param maxNodes the maximum number of cached nodes.
+     * @param edgeNames the edge group names.
+     * @param selectEdgesStmts the SELECT statements for each edge group.
+     * @param edgeIndexByAttributeId the edge index for each attribute_id.
+     */
+    GraphCache( final Locale locale, final int maxNodes, final String[] edgeNames, final String[] selectEdgesStmts,
+                final int[] edgeIndexByAttributeId )
+    {
+        this.locale = locale;
+        this.nodesCache = new IntLruCache<GraphNode>( maxNodes );
+        this.edgeNames = edgeNames;
+        this.selectEdgesStmts = selectEdgesStmts;
+        this.edgeIndexByAttributeId = edgeIndexByAttributeId;
+    }
+
+    /**
+     * Get the edge index for the given attribute_id.
+     *
+     * @param attributeId the attribute_id.
+     * @return the edge index, or -1 if the attribute_id is not an edge.
+     */
+    int getEdgeIndex( final int attributeId )
+    {
+        final int[] table = edgeIndexByAttributeId;
+        return ( 0 <= attributeId && attributeId < table.length ) ? table[attributeId] : -1;
+    }
+
+    /**
+     * Check if these caches are the ones for the given locale.
+     *
+     * @param other the locale.
+     * @return true if both locales are equal.
+     */
+    boolean isFor( final Locale other )
+    {
+        return ( locale == null ) ? ( other == null ) : locale.equals( other );
+    }
+
+    /**
+     * Release all the cached nodes and attributes.
+     */
+    void clear()
+    {
+        nodesCache.clear();
+        attributesCache.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "GraphCache[" + locale + ", nodes=" + nodesCache.size() + "/" + nodesCache.maxSize() + "]";
+    }
+}
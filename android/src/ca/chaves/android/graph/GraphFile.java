@@ -0,0 +1,443 @@
+package ca.chaves.android.graph;
+
+import ca.chaves.android.util.Debug;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class reads the read-only binary graph file written by share/tools/graph_file.py. The whole file is mapped into
+ * memory, and nodes are decoded straight from the mapped buffer: there is no SQL parsing and no cursor allocation.
+ * Please read share/tools/graph_file.py for the file layout.
+ * <p/>
+ * Only absolute buffer reads are used, so one instance can be shared by any number of threads.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public final class GraphFile
+{
+    /**
+     * The file magic number, "FBG1" - please keep it synchronized with share/tools/graph_file.py.
+     */
+    private static final int MAGIC = 0x46424731;
+
+    /**
+     * The file format version - please keep it synchronized with share/tools/graph_file.py.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * The header size, in bytes.
+     */
+    private static final int HEADER_SIZE = 10 * 4;
+
+    /**
+     * The mapped file.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The edge group names.
+     */
+    private final String[] edgeNames;
+
+    /**
+     * The edge index for each attribute_id - see {@link GraphResources#getEdgeIndex}.
+     */
+    private final int[] edgeIndexByAttributeId;
+
+    /**
+     * How many nodes are in the node table.
+     */
+    private final int nodeCount;
+
+    /**
+     * The node table offset: node_id and record offset, for each node.
+     */
+    private final int nodeTableOffset;
+
+    /**
+     * The string table offset: the string data offset, for each string.
+     */
+    private final int stringTableOffset;
+
+    /**
+     * The attribute table offset.
+     */
+    private final int attributeTableOffset;
+
+    /**
+     * The decoded strings, indexed by string index - each string is decoded the first time it is used.
+     */
+    private final String[] strings;
+
+    /**
+     * The hidden flag for each attribute_id, indexed by attribute_id.
+     */
+    private final boolean[] hiddenByAttributeId;
+
+    /**
+     * Constructor.
+     *
+     * @param buffer the mapped file.
+     * @param edgeNames the edge group names.
+     * @param edgeIndexByAttributeId the edge index for each attribute_id.
+     * @throws IOException if the file is not a valid graph file.
+     */
+    private GraphFile( final ByteBuffer buffer, final String[] edgeNames, final int[] edgeIndexByAttributeId )
+        throws IOException
+    {
+        this.buffer = buffer;
+        this.edgeNames = edgeNames;
+        this.edgeIndexByAttributeId = edgeIndexByAttributeId;
+
+        if ( buffer.capacity() < GraphFile.HEADER_SIZE || buffer.getInt( 0 ) != GraphFile.MAGIC )
+        {
+            throw new IOException( "not a graph file" );
+        }
+        if ( buffer.getInt( 4 ) != GraphFile.FORMAT_VERSION )
+        {
+            throw new IOException( "unsupported graph file version: " + buffer.getInt( 4 ) );
+        }
+        if ( buffer.getInt( 36 ) != buffer.capacity() )
+        {
+            throw new IOException( "truncated graph file: " + buffer.capacity() );
+        }
+        nodeCount = buffer.getInt( 8 );
+        strings = new String[buffer.getInt( 12 )];
+        nodeTableOffset = buffer.getInt( 16 );
+        stringTableOffset = buffer.getInt( 20 );
+        attributeTableOffset = buffer.getInt( 24 );
+
+        // attribute_id hidden flags
+
+        final int[] position = new int[]{attributeTableOffset};
+        final int attributeCount = readVarint( position );
+        int maxAttributeId = 0;
+        for ( int index = 0; index < attributeCount; ++index )
+        {
+            maxAttributeId = Math.max( maxAttributeId, readVarint( position ) );
+            readVarint( position );
+            readVarint( position );
+        }
+        hiddenByAttributeId = new boolean[maxAttributeId + 1];
+        position[0] = attributeTableOffset;
+        readVarint( position );
+        for ( int index = 0; index < attributeCount; ++index )
+        {
+            final int attributeId = readVarint( position );
+            hiddenByAttributeId[attributeId] = ( readVarint( position ) != 0 );
+            readVarint( position );
+        }
+    }
+
+    /**
+     * Map the given graph file into memory.
+     *
+     * @param file the graph file.
+     * @param edgeNames the edge group names.
+     * @param edgeIndexByAttributeId the edge index for each attribute_id.
+     * @return the graph file.
+     * @throws IOException on error.
+     */
+    static GraphFile open( final File file, final String[] edgeNames, final int[] edgeIndexByAttributeId )
+        throws IOException
+    {
+        Debug.enter( file );
+        final RandomAccessFile input = new RandomAccessFile( file, "r" );
+        try
+        {
+            final FileChannel channel = input.getChannel();
+            // the mapping stays valid after the channel is closed
+            final ByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+            final GraphFile graph = new GraphFile( buffer, edgeNames, edgeIndexByAttributeId );
+            Debug.leave( graph.nodeCount, "nodes" );
+            return graph;
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     * Read the given graph file into memory - for small graph files shipped as resources, which cannot be mapped, like
+     * the bootstrap slice, see {@link GraphStorage#loadBootstrap}.
+     *
+     * @param input the graph file contents - it is not closed.
+     * @param edgeNames the edge group names.
+     * @param edgeIndexByAttributeId the edge index for each attribute_id.
+     * @return the graph file.
+     * @throws IOException on error.
+     */
+    static GraphFile read( final InputStream input, final String[] edgeNames, final int[] edgeIndexByAttributeId )
+        throws IOException
+    {
+        Debug.enter();
+        final ByteArrayOutputStream output = new ByteArrayOutputStream( 64 * 1024 );
+        final byte[] buffer = new byte[8 * 1024];
+        for ( int count = input.read( buffer ); count != -1; count = input.read( buffer ) )
+        {
+            output.write( buffer, 0, count );
+        }
+        final GraphFile graph =
+            new GraphFile( ByteBuffer.wrap( output.toByteArray() ), edgeNames, edgeIndexByAttributeId );
+        Debug.leave( graph.nodeCount, "nodes" );
+        return graph;
+    }
+
+    /**
+     * Constructor: a view of the given graph file, with other edge group names.
+     *
+     * @param graph the graph file to share.
+     * @param edgeNames the edge group names.
+     */
+    private GraphFile( final GraphFile graph, final String[] edgeNames )
+    {
+        this.buffer = graph.buffer;
+        this.edgeNames = edgeNames;
+        this.edgeIndexByAttributeId = graph.edgeIndexByAttributeId;
+        this.nodeCount = graph.nodeCount;
+        this.nodeTableOffset = graph.nodeTableOffset;
+        this.stringTableOffset = graph.stringTableOffset;
+        this.attributeTableOffset = graph.attributeTableOffset;
+        this.strings = graph.strings;
+        this.hiddenByAttributeId = graph.hiddenByAttributeId;
+    }
+
+    /**
+     * Get a view of this graph file with other edge group names - the names in another language, for example. Both
+     * instances share the same mapped buffer and the same decoded strings.
+     *
+     * @param names the edge group names, one for each edge group in this file.
+     * @return the new graph file.
+     */
+    public GraphFile withEdgeNames( final String[] names )
+    {
+        if ( names.length != edgeNames.length )
+        {
+            throw new IllegalArgumentException( "bad edge count: " + names.length );
+        }
+        return new GraphFile( this, names );
+    }
+
+    // -------
+    // Reading
+    // -------
+
+    /**
+     * Get the number of nodes.
+     *
+     * @return the number of nodes.
+     */
+    public int getNodeCount()
+    {
+        return nodeCount;
+    }
+
+    /**
+     * Load all the attributes from this file.
+     *
+     * @param attributes where to add the attributes to.
+     */
+    public void loadAttributes( final GraphAttributes attributes )
+    {
+        final int[] position = new int[]{attributeTableOffset};
+        final int attributeCount = readVarint( position );
+        for ( int index = 0; index < attributeCount; ++index )
+        {
+            final Integer id = Integer.valueOf( readVarint( position ) );
+            final boolean hidden = ( readVarint( position ) != 0 );
+            final String value = getString( readVarint( position ) );
+            Debug.print( "fetch attribute:", id, value, hidden );
+            attributes.addAttribute( id, hidden, value );
+        }
+    }
+
+    /**
+     * Find the node index for the given node_id.
+     *
+     * @param nodeId the node_id.
+     * @return the node index, or a negative value if the node_id is not in this file.
+     */
+    public int indexOf( final int nodeId )
+    {
+        int low = 0;
+        int high = nodeCount - 1;
+        while ( low <= high )
+        {
+            final int middle = ( low + high ) >>> 1;
+            final int middleId = buffer.getInt( nodeTableOffset + 8 * middle );
+            if ( middleId < nodeId )
+            {
+                low = middle + 1;
+            }
+            else if ( nodeId < middleId )
+            {
+                high = middle - 1;
+            }
+            else
+            {
+                return middle;
+            }
+        }
+        return -( low + 1 );
+    }
+
+    /**
+     * Create a {@link GraphNode}, with the same lists that {@link GraphStorage#loadNode} reads from the database. A
+     * node_id which is not in this file has no rows in the database either, so an empty node is returned.
+     *
+     * @param nodeId the node_id.
+     * @param nodeLabel the default node label, if the node has no label.
+     * @return the new graph node.
+     */
+    public GraphNode createNode( final Integer nodeId, final String nodeLabel )
+    {
+        final GraphNode node = new GraphNode( nodeId, nodeLabel, edgeNames.length );
+        final GraphValueList attributeList = new GraphValueList( null );
+        node.values[GraphNode.INDEX_ATTRIBUTE_VALUES] = attributeList;
+        for ( int edge = 0; edge < edgeNames.length; ++edge )
+        {
+            node.values[edge + GraphNode.INDEX_EXTRA_VALUES] = new GraphValueList( edgeNames[edge] );
+        }
+
+        final int index = indexOf( nodeId.intValue() );
+        if ( index < 0 )
+        {
+            return node;
+        }
+
+        final int[] position = new int[]{buffer.getInt( nodeTableOffset + 8 * index + 4 )};
+        final int rowCount = readVarint( position );
+        int attributeId = 0;
+        for ( int row = 0; row < rowCount; ++row )
+        {
+            attributeId += readVarint( position );
+            final int link = readVarint( position );
+            final String textValue = getString( readVarint( position ) );
+            // overwrite the given attribute "name"
+            if ( attributeId == GraphStorage.NAME_ATTRIBUTE_ID )
+            {
+                node.label = textValue;
+            }
+            // filter-out all hidden attributes
+            if ( hiddenByAttributeId.length <= attributeId || !hiddenByAttributeId[attributeId] )
+            {
+                attributeList.add( attributeId, textValue );
+            }
+            // is this row an edge too?
+            if ( link != 0 && attributeId < edgeIndexByAttributeId.length && 0 <= edgeIndexByAttributeId[attributeId] )
+            {
+                final int zigzag = link - 1;
+                final int linkId = nodeId.intValue() + ( ( zigzag >>> 1 ) ^ -( zigzag & 1 ) );
+                final GraphValueList edgeList =
+                    node.values[edgeIndexByAttributeId[attributeId] + GraphNode.INDEX_EXTRA_VALUES];
+                edgeList.add( linkId, textValue );
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Visit all the links of the given node, without decoding any string.
+     *
+     * @param nodeId the node_id.
+     * @param visitor the link visitor.
+     */
+    public void visitLinks( final int nodeId, final GraphStorage.LinkVisitor visitor )
+    {
+        final int index = indexOf( nodeId );
+        if ( index < 0 )
+        {
+            return;
+        }
+
+        final int[] position = new int[]{buffer.getInt( nodeTableOffset + 8 * index + 4 )};
+        final int rowCount = readVarint( position );
+        int attributeId = 0;
+        for ( int row = 0; row < rowCount; ++row )
+        {
+            attributeId += readVarint( position );
+            final int link = readVarint( position );
+            readVarint( position ); // skip the string index
+            if ( link != 0 && attributeId < edgeIndexByAttributeId.length && 0 <= edgeIndexByAttributeId[attributeId] )
+            {
+                final int zigzag = link - 1;
+                visitor.onLink( nodeId, edgeIndexByAttributeId[attributeId],
+                                nodeId + ( ( zigzag >>> 1 ) ^ -( zigzag & 1 ) ) );
+            }
+        }
+    }
+
+    /**
+     * Get the string at the given string index.
+     *
+     * @param index the string index.
+     * @return the string.
+     */
+    private String getString( final int index )
+    {
+        String value = strings[index];
+        if ( value == null )
+        {
+            final int start = buffer.getInt( stringTableOffset + 4 * index );
+            final int end = buffer.getInt( stringTableOffset + 4 * index + 4 );
+            final byte[] bytes = new byte[end - start];
+            for ( int offset = 0; offset < bytes.length; ++offset )
+            {
+                bytes[offset] = buffer.get( start + offset );
+            }
+            try
+            {
+                value = new String( bytes, "UTF-8" );
+            }
+            catch ( final UnsupportedEncodingException ex )
+            {
+                throw new IllegalStateException( ex );
+            }
+            // benign race: all threads decode the same value
+            strings[index] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Read one unsigned varint - 7 bits per byte, low bits first.
+     *
+     * @param position the buffer position, which is moved past the varint.
+     * @return the varint value.
+     */
+    private int readVarint( final int[] position )
+    {
+        int offset = position[0];
+        int value = 0;
+        int shift = 0;
+        byte data;
+        do
+        {
+            data = buffer.get( offset++ );
+            value |= ( data & 0x7f ) << shift;
+            shift += 7;
+        }
+        while ( data < 0 );
+        position[0] = offset;
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "GraphFile[nodes=" + nodeCount + ", strings=" + strings.length + ", bytes=" + buffer.capacity() + "]";
+    }
+}
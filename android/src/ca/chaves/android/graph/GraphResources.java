@@ -6,6 +6,8 @@ import ca.chaves.android.util.Debug;
 import android.content.Context;
 import android.content.res.Resources;
 
+import java.util.Arrays;
+
 /**
  * This class contains the SQL Statements which are build from the application resources.
  *
@@ -29,6 +31,99 @@ class GraphResources
      */
     protected String[] selectEdgesByNodeIdStmt;
 
+    /**
+     * This SELECT statement returns all attribute_id(s), link_id(s) and text values for a given node_id, in one single
+     * ordered scan.
+     */
+    protected String selectRowsByNodeIdStmt;
+
+    /**
+     * How many node_id(s) are bound to each selectRowsByNodeIdsStmt execution. Shorter batches are padded with
+     * repeated node_id(s), so that one single compiled statement is reused for all batches.
+     */
+    protected static final int NODE_ID_CHUNK_SIZE = 32;
+
+    /**
+     * This SELECT statement returns all node_id(s), attribute_id(s), link_id(s) and text values for NODE_ID_CHUNK_SIZE
+     * node_id(s), in one single scan ordered by node_id.
+     */
+    protected String selectRowsByNodeIdsStmt;
+
+    /**
+     * This SELECT statement returns all node_id(s), attribute_id(s) and link_id(s) for NODE_ID_CHUNK_SIZE node_id(s),
+     * in one single scan ordered by node_id. Only rows with a link_id are returned.
+     */
+    protected String selectLinksByNodeIdsStmt;
+
+    /**
+     * The edge index of the parents: the parents edge group is always the first one in R.array.graph_edge_ids.
+     */
+    protected static final int PARENTS_EDGE = 0;
+
+    /**
+     * The edge index of the children: the edge group with the R.string.graph_edge_id_children attribute_id(s), or -1
+     * if there is no such edge group.
+     */
+    protected int childrenEdge;
+
+    /**
+     * This SELECT statement returns all (node_id, parent node_id) pairs, in one single scan.
+     */
+    protected String selectParentLinksStmt;
+
+    /**
+     * This SELECT statement returns 1 if the database has the node index, 0 otherwise.
+     */
+    protected String selectNodeIndexStmt;
+
+    /**
+     * These statements create the node index - for databases built without it.
+     */
+    protected String[] createNodeIndexStmts;
+
+    /**
+     * This SELECT statement returns 1 if the database has the name index, 0 otherwise.
+     */
+    protected String selectNameIndexStmt;
+
+    /**
+     * This SELECT statement returns the {@link NameSearch#FOLD_VERSION} the name index was built with.
+     */
+    protected String selectNameVersionStmt;
+
+    /**
+     * These statements create the name index, dropping any older one.
+     */
+    protected String[] createNameIndexStmts;
+
+    /**
+     * This SELECT statement returns all node_id(s), attribute_id(s) and names, the "name" attribute first for each
+     * node_id.
+     */
+    protected String selectNamesStmt;
+
+    /**
+     * This INSERT statement adds one name word to the name index.
+     */
+    protected String insertNameStmt;
+
+    /**
+     * This INSERT statement saves the {@link NameSearch#FOLD_VERSION} the name index is built with.
+     */
+    protected String insertNameVersionStmt;
+
+    /**
+     * This SELECT statement returns all node_id(s), attribute_id(s), folded names and node labels with a name word in
+     * the given range.
+     */
+    protected String selectNamesByKeyStmt;
+
+    /**
+     * The edge index for each attribute_id, or -1 if the attribute_id is not an edge. This table is indexed by
+     * attribute_id, and it is used to split the rows returned by selectRowsByNodeIdStmt into the edge lists.
+     */
+    protected int[] edgeIndexByAttributeId;
+
     /**
      * Types of adjacency edges/links/arcs: parent, child, sibling, etc...
      */
@@ -57,6 +152,58 @@ class GraphResources
         selectNodeByNodeIdStmt = resources.getString( R.string.graph_sql_select_node_by_node_id );
         Debug.print( "select node by node_id:", selectNodeByNodeIdStmt );
 
+        selectRowsByNodeIdStmt = resources.getString( R.string.graph_sql_select_rows_by_node_id );
+        Debug.print( "select rows by node_id:", selectRowsByNodeIdStmt );
+
+        final StringBuilder placeholders = new StringBuilder( "?" );
+        for ( int index = 1; index < GraphResources.NODE_ID_CHUNK_SIZE; ++index )
+        {
+            placeholders.append( ",?" );
+        }
+        selectRowsByNodeIdsStmt =
+            String.format( resources.getString( R.string.graph_sql_select_rows_by_node_ids ), placeholders );
+        Debug.print( "select rows by node_ids:", selectRowsByNodeIdsStmt );
+
+        selectLinksByNodeIdsStmt =
+            String.format( resources.getString( R.string.graph_sql_select_links_by_node_ids ), placeholders );
+        Debug.print( "select links by node_ids:", selectLinksByNodeIdsStmt );
+
+        selectParentLinksStmt =
+            String.format( resources.getString( R.string.graph_sql_select_parent_links ),
+                           selectEdgesByNodeId[GraphResources.PARENTS_EDGE] );
+        Debug.print( "select parent links:", selectParentLinksStmt );
+
+        // sql statements for the node index
+
+        selectNodeIndexStmt = resources.getString( R.string.graph_sql_select_node_index );
+        Debug.print( "select node index:", selectNodeIndexStmt );
+
+        createNodeIndexStmts = resources.getStringArray( R.array.graph_sql_create_node_index );
+
+        // sql statements for the name index
+
+        selectNameIndexStmt = resources.getString( R.string.graph_sql_select_name_index );
+        Debug.print( "select name index:", selectNameIndexStmt );
+
+        selectNameVersionStmt = resources.getString( R.string.graph_sql_select_name_version );
+        Debug.print( "select name version:", selectNameVersionStmt );
+
+        createNameIndexStmts = resources.getStringArray( R.array.graph_sql_create_name_index );
+
+        selectNamesStmt =
+            String.format( resources.getString( R.string.graph_sql_select_names ),
+                           resources.getString( R.string.graph_name_ids ) );
+        Debug.print( "select names:", selectNamesStmt );
+
+        insertNameStmt = resources.getString( R.string.graph_sql_insert_name );
+        Debug.print( "insert name:", insertNameStmt );
+
+        insertNameVersionStmt = resources.getString( R.string.graph_sql_insert_name_version );
+        Debug.print( "insert name version:", insertNameVersionStmt );
+
+        selectNamesByKeyStmt = resources.getString( R.string.graph_sql_select_names_by_key );
+        Debug.print( "select names by key:", selectNamesByKeyStmt );
+
         // sql statements for node links
 
         final String stmtTemplate = resources.getString( R.string.graph_sql_select_edges_by_node_id );
@@ -68,6 +215,68 @@ class GraphResources
             Debug.print( "select", adjacencyEdgeNameList[index], //
                          "by node_id:", selectEdgesByNodeIdStmt[index] );
         }
+
+        // attribute_id to edge index table
+
+        edgeIndexByAttributeId = createEdgeIndexTable( selectEdgesByNodeId );
+
+        final String childrenIds = resources.getString( R.string.graph_edge_id_children );
+        childrenEdge = getEdgeIndex( Integer.parseInt( childrenIds.split( "," )[0].trim() ) );
+        Debug.print( "children edge:", childrenEdge );
+    }
+
+    /**
+     * Create the attribute_id to edge index table.
+     *
+     * @param selectEdgesByNodeId the comma-separated attribute_id(s) for each edge.
+     * @return the edge index table, indexed by attribute_id.
+     */
+    private static int[] createEdgeIndexTable( final String[] selectEdgesByNodeId )
+    {
+        final int[][] attributeIds = new int[selectEdgesByNodeId.length][];
+        int maxAttributeId = -1;
+        for ( int index = 0; index < selectEdgesByNodeId.length; ++index )
+        {
+            final String[] fields = selectEdgesByNodeId[index].split( "," );
+            attributeIds[index] = new int[fields.length];
+            for ( int field = 0; field < fields.length; ++field )
+            {
+                final int attributeId = Integer.parseInt( fields[field].trim() );
+                attributeIds[index][field] = attributeId;
+                if ( maxAttributeId < attributeId )
+                {
+                    maxAttributeId = attributeId;
+                }
+            }
+        }
+
+        final int[] table = new int[maxAttributeId + 1];
+        Arrays.fill( table, -1 );
+        for ( int index = 0; index < attributeIds.length; ++index )
+        {
+            for ( final int attributeId : attributeIds[index] )
+            {
+                if ( 0 <= table[attributeId] )
+                {
+                    Debug.print( "attribute_id", attributeId, "in edge", table[attributeId], "and edge", index );
+                    continue; // the first edge wins
+                }
+                table[attributeId] = index;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Get the edge index for the given attribute_id.
+     *
+     * @param attributeId the attribute_id.
+     * @return the edge index, or -1 if the attribute_id is not an edge.
+     */
+    protected int getEdgeIndex( final int attributeId )
+    {
+        final int[] table = edgeIndexByAttributeId;
+        return ( 0 <= attributeId && attributeId < table.length ) ? table[attributeId] : -1;
     }
 
     /**
@@ -1,21 +1,35 @@
 package ca.chaves.android.graph;
 
+import ca.chaves.android.BuildManifest;
 import ca.chaves.android.profile.AbstractProfile;
-import ca.chaves.android.util.CacheReference;
-import ca.chaves.android.util.CacheReferenceMap;
 import ca.chaves.android.util.Debug;
+import ca.chaves.android.util.IntArrays;
+import ca.chaves.android.util.IntLruCache;
+import ca.chaves.android.util.StartupTrace;
+import ca.chaves.android.util.StringPool;
 
 import android.content.Context;
+import android.database.CharArrayBuffer;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class defines the graph storage being used in the current database session. For example, it takes care of
  * caching nodes and attributes, as well as reading and writing the graph database.
+ * <p/>
+ * Nodes, attributes and links are served by the binary graph file shipped next to the database - see
+ * {@link #setGraphFile} - once {@link #resetStorage} maps it. The SQL loader is the fallback when the file is missing
+ * or cannot be mapped: only then do the node index, the compiled statements, the string pool, the in-flight load
+ * sharing and the neighbour prefetching come into play. The name search, the trigram index and the ancestor index
+ * always read the database.
  *
  * @see "http://code.google.com/p/android-family-browser/"
  * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
@@ -23,6 +37,21 @@ import java.util.Locale;
 public class GraphStorage
     extends GraphResources
 {
+    /**
+     * Link visitor: receives the links - edge ids only - of the nodes given to {@link GraphStorage#loadLinks}.
+     */
+    public interface LinkVisitor
+    {
+        /**
+         * Action for each link.
+         *
+         * @param nodeId the node_id.
+         * @param edge the edge index: parents, partners, children, siblings, etc.
+         * @param linkId the linked node_id.
+         */
+        void onLink( int nodeId, int edge, int linkId );
+    };
+
     /**
      * The magic column ID for the field "name" - the source file share/tools/familyTree_yaml.py defines this value.
      */
@@ -35,19 +64,123 @@ public class GraphStorage
      */
     public static final int DEFAULT_NODE_ID = 1000000;
 
+    /**
+     * The node load mode. If true, {@link #loadNode} reads all the node's rows in one single ordered scan, and splits
+     * them into the attribute list and the edge lists in memory. Otherwise, it runs one query for the attribute list,
+     * plus one query for each edge list.
+     */
+    private volatile boolean singlePassLoad = true;
+
+    /**
+     * The default node cache size, in number of nodes.
+     */
+    public static final int DEFAULT_NODE_CACHE_SIZE = 256;
+
+    /**
+     * The default string pool size, in number of slots.
+     */
+    public static final int DEFAULT_STRING_POOL_SIZE = 1024;
+
+    /**
+     * The default prefetch fan-out, in number of nodes.
+     */
+    public static final int DEFAULT_PREFETCH_FAN_OUT = 8;
+
+    /**
+     * The maximum number of neighbour nodes loaded by {@link #prefetchNeighbours} - zero disables prefetching.
+     */
+    private volatile int prefetchFanOut = GraphStorage.DEFAULT_PREFETCH_FAN_OUT;
+
+    /**
+     * The binary graph file to use, if present - see {@link GraphFile}.
+     */
+    private File graphFileName;
+
+    /**
+     * The bootstrap slice of the graph, or null once the database is ready - see {@link #loadBootstrap}.
+     */
+    private volatile GraphFile bootstrapGraph;
+
+    /**
+     * The attributes of the bootstrap slice.
+     */
+    private volatile GraphAttributes bootstrapAttributes;
+
+    /**
+     * This flag becomes true once {@link #resetStorage} has run: nodes are read from the database from then on.
+     */
+    private volatile boolean storageReady;
+
+    /**
+     * The default minimum similarity for {@link #searchSimilarNames}.
+     */
+    public static final float DEFAULT_MIN_SIMILARITY = 0.3f;
+
+    /**
+     * The foreground load generation. This value is incremented on every {@link #loadNode} call, and it is used to
+     * stop any prefetch in progress. Loads run on several threads at once, so each one must get its own generation.
+     */
+    private final AtomicInteger foregroundGeneration = new AtomicInteger();
+
     // -----------
     // Cache Areas
     // -----------
 
     /**
-     * The node cache.
+     * The node cache size, in number of nodes. Guarded by the storage lock.
+     */
+    private int nodeCacheSize = GraphStorage.DEFAULT_NODE_CACHE_SIZE;
+
+    /**
+     * The storage lock: it serializes the storage resets, the locale switches and the bootstrap slice swap.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * The active caches: the node cache, the attributes cache and the graph being browsed. Every function reads this
+     * reference once, so a locale switch never blocks nor mixes up the readers in progress.
+     */
+    private volatile GraphCache caches;
+
+    /**
+     * The shared text values - equal values read from the database are kept only once.
+     */
+    private final StringPool stringPool = new StringPool( GraphStorage.DEFAULT_STRING_POOL_SIZE );
+
+    /**
+     * How many nodes have been read through the string pool: the nodes read by SQL queries. Nodes built from the graph
+     * file are not counted, their strings are not pooled.
+     */
+    private final AtomicInteger pooledNodeCount = new AtomicInteger();
+
+    /**
+     * The compiled statements cache.
+     */
+    private final StatementCache statements = new StatementCache();
+
+    /**
+     * The name index.
+     */
+    private final NameIndex nameIndex = new NameIndex( this, statements );
+
+    /**
+     * The trigram index, built on first use.
+     */
+    private final TrigramIndexCache trigrams = new TrigramIndexCache( this, statements );
+
+    /**
+     * The ancestor index, loaded on first use.
      */
-    private final CacheReferenceMap<Integer, GraphNode> nodesCache = new CacheReferenceMap<Integer, GraphNode>();
+    private final AncestorIndexCache ancestors = new AncestorIndexCache( this, statements );
 
     /**
-     * The attributes cache.
+     * Constructor.
      */
-    private final CacheReference<GraphAttributes> attributesCache = new CacheReference<GraphAttributes>();
+    public GraphStorage()
+    {
+        // no resources were loaded yet: these caches are replaced once they are - see reloadResources()
+        caches = newCaches( null );
+    }
 
     // -------------
     // Attribute I/O
@@ -67,7 +200,8 @@ public class GraphStorage
 
         // load from cache, if possible
 
-        final GraphAttributes cached = attributesCache.get();
+        final GraphCache current = caches;
+        final GraphAttributes cached = current.attributesCache.get();
         if ( cached != null )
         {
             Debug.leave( "reuse cached" );
@@ -78,42 +212,61 @@ public class GraphStorage
 
         final GraphAttributes attributes = new GraphAttributes();
 
-        Debug.print( "execute:", super.selectAttributesStmt );
-        final Cursor cursor = database.rawQuery( super.selectAttributesStmt, null );
+        final GraphFile file = current.graphFile;
+        if ( file != null )
+        {
+            // read from the graph file, if possible
 
-        try
+            file.loadAttributes( attributes );
+        }
+        else
         {
-            if ( cursor.moveToFirst() )
+            // read from the database, otherwise
+
+            Debug.print( "execute:", super.selectAttributesStmt );
+            final Cursor cursor = statements.query( database, super.selectAttributesStmt, null );
+
+            try
             {
-                do
+                if ( cursor.moveToFirst() )
                 {
-                    final Integer id = Integer.valueOf( cursor.getInt( 0 ) );
-                    final boolean hidden = ( cursor.getInt( 1 ) != 0 );
-                    final String value = cursor.getString( 2 );
-                    Debug.print( "fetch attribute:", id, value, hidden );
-                    attributes.addAttribute( id, hidden, value );
+                    do
+                    {
+                        final Integer id = Integer.valueOf( cursor.getInt( 0 ) );
+                        final boolean hidden = ( cursor.getInt( 1 ) != 0 );
+                        final String value = cursor.getString( 2 );
+                        Debug.print( "fetch attribute:", id, value, hidden );
+                        attributes.addAttribute( id, hidden, value );
+                    }
+                    while ( cursor.moveToNext() );
                 }
-                while ( cursor.moveToNext() );
             }
-        }
-        finally
-        {
-            if ( cursor != null )
+            finally
             {
-                cursor.close();
+                statements.release( database, super.selectAttributesStmt, cursor );
             }
         }
 
         // update cache and return
 
         Debug.leave();
-        return attributesCache.put( attributes );
+        return current.attributesCache.put( attributes );
     }
 
     // --------
     // Node I/O
     // --------
 
+    /**
+     * Set the node load mode - see {@link #singlePassLoad}.
+     *
+     * @param singlePass true to read all the node's rows in one single ordered scan.
+     */
+    public void setSinglePassLoad( final boolean singlePass )
+    {
+        singlePassLoad = singlePass;
+    }
+
     /**
      * Load the Node from the database, given the 'nodeId' value.
      *
@@ -130,6 +283,44 @@ public class GraphStorage
 
         // load from cache, if possible
 
+        final Integer trueNodeId = GraphStorage.trueNodeId( nodeId );
+        // any prefetch running must stop now
+        foregroundGeneration.incrementAndGet();
+
+        final GraphCache current = caches;
+        final GraphNode cached = current.nodesCache.get( trueNodeId.intValue() );
+        if ( cached != null )
+        {
+            // batch-loaded nodes have no default label
+            if ( cached.label == null )
+            {
+                cached.label = nodeLabel;
+            }
+            Debug.leave( "reuse cached:", trueNodeId );
+            return cached;
+        }
+
+        // load new data buffer, otherwise
+
+        final GraphNode node = readSharedNode( database, current, trueNodeId, nodeLabel );
+        if ( node == null )
+        {
+            // unknown node_id(s) are never cached
+            Debug.leave( "unknown node:", trueNodeId );
+            return GraphStorage.createNode( current, trueNodeId, nodeLabel );
+        }
+        Debug.leave();
+        return node;
+    }
+
+    /**
+     * Get the node_id to load: the given one, or else the active profile node, or else {@link #DEFAULT_NODE_ID}.
+     *
+     * @param nodeId the requested node_id, or null.
+     * @return the node_id to load.
+     */
+    private static Integer trueNodeId( final Integer nodeId )
+    {
         Integer trueNodeId = nodeId;
         if ( trueNodeId == null )
         {
@@ -139,156 +330,1207 @@ public class GraphStorage
         {
             trueNodeId = Integer.valueOf( GraphStorage.DEFAULT_NODE_ID );
         }
-        final GraphNode cached = nodesCache.get( trueNodeId );
-        if ( cached != null )
+        return trueNodeId;
+    }
+
+    /**
+     * Read the Node from the database, unless another thread is reading it already - then wait for its result. Nodes
+     * built from the graph file are never shared.
+     *
+     * @param database where to load the node from.
+     * @param current the caches to read from, and to save into.
+     * @param trueNodeId the node id to load.
+     * @param nodeLabel the node label to load.
+     * @return the graph node, or null if there is no such node.
+     * @throws IOException on error.
+     */
+    private GraphNode readSharedNode( final SQLiteDatabase database, final GraphCache current,
+                                      final Integer trueNodeId, final String nodeLabel )
+        throws IOException
+    {
+        if ( current.graphFile != null )
         {
-            Debug.leave( "reuse cached:", trueNodeId );
-            return cached;
+            // building from the mapped file is cheaper than waiting for another thread
+            return readNode( database, current, trueNodeId, nodeLabel );
         }
 
-        // load new data buffer, otherwise
+        final int key = trueNodeId.intValue();
+        final SingleFlight.Flight flight = current.flights.join( key );
+        if ( !flight.isLeader() )
+        {
+            Debug.print( "share in-flight load:", trueNodeId );
+            final GraphNode node = flight.await();
+            if ( node != null && node.label == null )
+            {
+                node.label = nodeLabel;
+            }
+            return node;
+        }
 
-        final GraphAttributes attributes = loadAttributes( database );
-        final GraphNode node = new GraphNode( trueNodeId, nodeLabel, //
-                                              super.selectEdgesByNodeIdStmt.length );
+        GraphNode node = null;
+        IOException error = null;
+        boolean read = false;
+        try
+        {
+            // the previous load may have landed between the cache miss and the join
+            node = current.nodesCache.containsKey( key ) ? current.nodesCache.get( key ) : null;
+            if ( node == null )
+            {
+                node = readNode( database, current, trueNodeId, nodeLabel );
+            }
+            else if ( node.label == null )
+            {
+                node.label = nodeLabel;
+            }
+            read = true;
+            return node;
+        }
+        catch ( final IOException ex )
+        {
+            error = ex;
+            throw ex;
+        }
+        finally
+        {
+            // a null node without error means "no such node" to the other threads
+            if ( !read && error == null )
+            {
+                error = new IOException( "unable to read node " + trueNodeId );
+            }
+            current.flights.complete( flight, node, error );
+        }
+    }
+
+    /**
+     * Read the Node from the database, and save it into the node cache.
+     *
+     * @param database where to load the node from.
+     * @param current the caches to read from, and to save into.
+     * @param trueNodeId the node id to load.
+     * @param nodeLabel the node label to load.
+     * @return the graph node, or null if there is no such node - then nothing is cached.
+     * @throws IOException on error.
+     */
+    private GraphNode readNode( final SQLiteDatabase database, final GraphCache current, final Integer trueNodeId,
+                                final String nodeLabel )
+        throws IOException
+    {
+        Debug.enter();
+
+        final long loadStart = System.nanoTime();
+
+        // build from the graph file, if mapped
+
+        final GraphFile file = current.graphFile;
+        if ( file != null )
+        {
+            if ( file.indexOf( trueNodeId.intValue() ) < 0 )
+            {
+                Debug.leave( "no such node" );
+                return null;
+            }
+            final GraphNode node = file.createNode( trueNodeId, nodeLabel );
+            current.nodesCache.recordLoad( System.nanoTime() - loadStart );
+            Debug.leave( "from graph file" );
+            return current.nodesCache.put( trueNodeId.intValue(), node );
+        }
+
+        // read from the database, otherwise
 
-        // load node attribute's list
+        final GraphAttributes attributes = loadAttributes( database );
+        final GraphNode node = createNode( current, trueNodeId, nodeLabel );
 
         final String[] selectArgs = new String[]{trueNodeId.toString()};
+        final int rowCount;
 
+        if ( singlePassLoad )
         {
-            final GraphValueList valueList = new GraphValueList( null );
-            node.values[GraphNode.INDEX_ATTRIBUTE_VALUES] = valueList;
+            // load all node's lists at once
 
-            final String selectStmt = super.selectNodeByNodeIdStmt;
-            loadNodeList( database, attributes, node, valueList, selectStmt, selectArgs );
+            rowCount = loadNodeRows( database, current, attributes, node, super.selectRowsByNodeIdStmt, selectArgs );
         }
+        else
+        {
+            // load node attribute's list
 
-        // load node edge's lists
+            {
+                final GraphValueList valueList = node.values[GraphNode.INDEX_ATTRIBUTE_VALUES];
+                final String selectStmt = super.selectNodeByNodeIdStmt;
+                rowCount = loadNodeList( database, attributes, node, valueList, selectStmt, selectArgs );
+            }
 
-        for ( int index = 0; index < super.selectEdgesByNodeIdStmt.length; ++index )
-        {
-            final GraphValueList valueList = new GraphValueList( super.adjacencyEdgeNameList[index] );
-            node.values[index + GraphNode.INDEX_EXTRA_VALUES] = valueList;
+            // load node edge's lists
 
-            final String selectStmt = super.selectEdgesByNodeIdStmt[index];
-            loadEdgeList( database, node, valueList, selectStmt, selectArgs );
+            for ( int index = 0; index < current.selectEdgesStmts.length; ++index )
+            {
+                final GraphValueList valueList = node.values[index + GraphNode.INDEX_EXTRA_VALUES];
+                final String selectStmt = current.selectEdgesStmts[index];
+                loadEdgeList( database, node, valueList, selectStmt, selectArgs );
+            }
         }
 
         // update cache and return
 
+        if ( rowCount <= 0 )
+        {
+            Debug.leave( "no such node" );
+            return null;
+        }
+        pooledNodeCount.incrementAndGet();
+        current.nodesCache.recordLoad( System.nanoTime() - loadStart );
         Debug.leave();
-        return nodesCache.put( trueNodeId, node );
+        return current.nodesCache.put( trueNodeId.intValue(), node );
     }
 
     /**
-     * Load the node's Attribute list from the database.
+     * Create an empty node, with its attribute list and all its edge lists.
      *
-     * @param database where to load the attributes from
-     * @param attributes the graph attributes
-     * @param node the graph node
-     * @param valueList the attribute list object to load to
-     * @param selectStmt the select statement
-     * @param selectArgs the arguments to be applied to 'selectStmt'
-     * @throws IOException on error
+     * @param current the caches the node is built for - its edge group names are the edge list titles.
+     * @param nodeId the node id.
+     * @param nodeLabel the node label.
+     * @return the new graph node.
      */
-    private void loadNodeList( final SQLiteDatabase database, final GraphAttributes attributes, final GraphNode node,
-                               final GraphValueList valueList, final String selectStmt, final String[] selectArgs )
+    private static GraphNode createNode( final GraphCache current, final Integer nodeId, final String nodeLabel )
+    {
+        final GraphNode node = new GraphNode( nodeId, nodeLabel, current.edgeNames.length );
+
+        node.values[GraphNode.INDEX_ATTRIBUTE_VALUES] = new GraphValueList( null );
+        for ( int index = 0; index < current.edgeNames.length; ++index )
+        {
+            final GraphValueList valueList = new GraphValueList( current.edgeNames[index] );
+            node.values[index + GraphNode.INDEX_EXTRA_VALUES] = valueList;
+        }
+        return node;
+    }
+
+    // --------------
+    // Batch Node I/O
+    // --------------
+
+    /**
+     * Load many Nodes at once. Cached nodes are reused, and the other nodes are read with one single query for every
+     * {@link GraphResources#NODE_ID_CHUNK_SIZE} node_id(s). All loaded nodes are saved into the node cache; unknown
+     * node id(s) are not cached, so a later load looks for them again.
+     *
+     * @param database where to load the nodes from.
+     * @param nodeIds the node id(s) to load - repeated node id(s) are allowed.
+     * @return the graph nodes, in the same order as 'nodeIds' - null for each unknown node id.
+     * @throws IOException on error.
+     */
+    public GraphNode[] loadNodes( final SQLiteDatabase database, final int[] nodeIds )
         throws IOException
     {
-        Debug.enter();
+        Debug.enter( nodeIds.length );
 
-        Debug.print( "execute:", selectStmt, Arrays.toString( selectArgs ) );
-        final Cursor cursor = database.rawQuery( selectStmt, selectArgs );
+        // load from cache, if possible
 
-        try
+        final GraphCache current = caches;
+        final GraphNode[] result = new GraphNode[nodeIds.length];
+        final int[] missingIds = new int[nodeIds.length];
+        int missingCount = 0;
+        for ( int index = 0; index < nodeIds.length; ++index )
         {
-            if ( cursor.moveToFirst() )
+            result[index] = current.nodesCache.get( nodeIds[index] );
+            if ( result[index] == null )
             {
-                do
-                {
-                    final Integer attributeId = Integer.valueOf( cursor.getInt( 0 ) );
-                    final String attributeValue = cursor.getString( 1 );
-                    final boolean attributeHidden = attributes.isHiddingAttributeId( attributeId );
-                    Debug.print( "fetch value:", valueList.title, attributeId, attributeValue, attributeHidden );
-                    // overwrite the given attribute "name"
-                    if ( attributeId.intValue() == GraphStorage.NAME_ATTRIBUTE_ID )
-                    {
-                        node.label = attributeValue;
-                    }
-                    // filter-out all hidden attributes
-                    if ( attributeHidden )
-                    {
-                        continue;
-                    }
-                    valueList.add( attributeId, attributeValue );
-                }
-                while ( cursor.moveToNext() );
+                missingIds[missingCount++] = nodeIds[index];
             }
         }
-        finally
+        if ( missingCount <= 0 )
         {
-            if ( cursor != null )
+            Debug.leave( "all cached" );
+            return result;
+        }
+
+        // load missing nodes, otherwise
+
+        missingCount = GraphStorage.sortUnique( missingIds, missingCount );
+        final GraphNode[] missingNodes = new GraphNode[missingCount];
+        for ( int offset = 0; offset < missingCount; offset += GraphResources.NODE_ID_CHUNK_SIZE )
+        {
+            final int count = Math.min( missingCount - offset, GraphResources.NODE_ID_CHUNK_SIZE );
+            readSharedNodes( database, current, missingIds, offset, count, missingNodes, true );
+        }
+
+        for ( int index = 0; index < nodeIds.length; ++index )
+        {
+            if ( result[index] == null )
             {
-                cursor.close();
+                result[index] = missingNodes[IntArrays.binarySearch( missingIds, 0, missingCount, nodeIds[index] )];
             }
         }
 
-        Debug.leave();
+        Debug.leave( missingCount );
+        return result;
     }
 
     /**
-     * This internal function loads ValueList from the database containing link_id(s) to other nodes.
+     * Read one chunk of Nodes, sharing the reads with other threads: node_id(s) being read by another thread are not
+     * read again. All the other node_id(s) are read in one single cursor pass, and published to the other threads
+     * before waiting for theirs - so concurrent chunks never wait for each other in a cycle. Nodes built from the graph
+     * file are never shared.
      *
-     * @param database
-     * @param node
-     * @param valueList
-     * @param selectStmt
-     * @param selectArgs
-     * @throws IOException
+     * @param database where to load the nodes from.
+     * @param current the caches to read from, and to save into.
+     * @param nodeIds the node id(s) to load, sorted and without duplicates.
+     * @param offset the first node id to load.
+     * @param count how many node id(s) to load, up to {@link GraphResources#NODE_ID_CHUNK_SIZE}.
+     * @param nodes where to save the loaded nodes, at the same positions as in 'nodeIds' - unknown node_id(s) are left
+     *            null.
+     * @param wait true to wait for the node_id(s) read by other threads, false to leave them null in 'nodes'.
+     * @throws IOException on error.
      */
-    private void loadEdgeList( final SQLiteDatabase database, final GraphNode node, final GraphValueList valueList,
-                               final String selectStmt, final String[] selectArgs )
+    private void readSharedNodes( final SQLiteDatabase database, final GraphCache current, final int[] nodeIds,
+                                  final int offset, final int count, final GraphNode[] nodes, final boolean wait )
         throws IOException
     {
-        Debug.enter();
+        if ( current.graphFile != null )
+        {
+            // building from the mapped file is cheaper than waiting for another thread
+            readNodes( database, current, nodeIds, offset, count, nodes );
+            return;
+        }
 
-        Debug.print( "execute:", selectStmt, Arrays.toString( selectArgs ) );
-        final Cursor cursor = database.rawQuery( selectStmt, selectArgs );
+        // lead the loads nobody else is running
+
+        final SingleFlight.Flight[] flights = new SingleFlight.Flight[count];
+        final int[] ledIds = new int[count];
+        int ledCount = 0;
+        for ( int index = 0; index < count; ++index )
+        {
+            final int nodeId = nodeIds[offset + index];
+            flights[index] = current.flights.join( nodeId );
+            if ( !flights[index].isLeader() )
+            {
+                continue;
+            }
+            // the previous load may have landed between the cache miss and the join
+            nodes[offset + index] = current.nodesCache.containsKey( nodeId ) ? current.nodesCache.get( nodeId ) : null;
+            if ( nodes[offset + index] == null )
+            {
+                ledIds[ledCount++] = nodeId;
+            }
+        }
+
+        final GraphNode[] ledNodes = new GraphNode[ledCount];
+        IOException error = null;
+        boolean read = false;
         try
         {
-            if ( cursor.moveToFirst() )
+            if ( 0 < ledCount )
             {
-                do
-                {
-                    final Integer attributeId = Integer.valueOf( cursor.getInt( 0 ) );
-                    final String attributeValue = cursor.getString( 1 );
-                    Debug.print( "fetch link:", valueList.title, attributeId, attributeValue );
-                    valueList.add( attributeId, attributeValue );
-                }
-                while ( cursor.moveToNext() );
+                readNodes( database, current, ledIds, 0, ledCount, ledNodes );
             }
+            read = true;
+        }
+        catch ( final IOException ex )
+        {
+            error = ex;
+            throw ex;
         }
         finally
         {
-            if ( cursor != null )
+            // a null node without error means "no such node" to the other threads
+            if ( !read && error == null )
+            {
+                error = new IOException( "unable to read nodes" );
+            }
+            for ( int index = 0, led = 0; index < count; ++index )
             {
-                cursor.close();
+                if ( flights[index].isLeader() )
+                {
+                    if ( nodes[offset + index] == null )
+                    {
+                        nodes[offset + index] = ledNodes[led++];
+                    }
+                    current.flights.complete( flights[index], nodes[offset + index], error );
+                }
             }
         }
 
-        Debug.leave();
-    }
+        // share the loads run by other threads
 
-    // -------------
-    // Reset Storage
-    // -------------
+        for ( int index = 0; wait && index < count; ++index )
+        {
+            if ( !flights[index].isLeader() )
+            {
+                nodes[offset + index] = flights[index].await();
+            }
+        }
+    }
 
     /**
-     * Reinitialize the storage parameters. This function must be called at least once - during the application
-     * start-up.
+     * Read one chunk of Nodes from the database in one single cursor pass, and save them into the node cache.
      *
-     * @param context the application context
+     * @param database where to load the nodes from.
+     * @param current the caches to read from, and to save into.
+     * @param nodeIds the node id(s) to load, sorted and without duplicates.
+     * @param offset the first node id to load.
+     * @param count how many node id(s) to load, up to {@link GraphResources#NODE_ID_CHUNK_SIZE}.
+     * @param nodes where to save the loaded nodes, at the same positions as in 'nodeIds' - unknown node_id(s) are left
+     *            null, and they are not cached.
+     * @throws IOException on error.
+     */
+    private void readNodes( final SQLiteDatabase database, final GraphCache current, final int[] nodeIds,
+                            final int offset, final int count, final GraphNode[] nodes )
+        throws IOException
+    {
+        Debug.enter( offset, count );
+
+        final long loadStart = System.nanoTime();
+
+        // build from the graph file, if mapped
+
+        final GraphFile file = current.graphFile;
+        if ( file != null )
+        {
+            for ( int index = offset; index < offset + count; ++index )
+            {
+                final long nodeStart = System.nanoTime();
+                if ( file.indexOf( nodeIds[index] ) < 0 )
+                {
+                    nodes[index] = null;
+                    continue;
+                }
+                nodes[index] = file.createNode( Integer.valueOf( nodeIds[index] ), null );
+                current.nodesCache.recordLoad( System.nanoTime() - nodeStart );
+                current.nodesCache.put( nodeIds[index], nodes[index] );
+            }
+            Debug.leave( "from graph file" );
+            return;
+        }
+
+        // read from the database, otherwise
+
+        final GraphAttributes attributes = loadAttributes( database );
+        final String[] selectArgs = new String[GraphResources.NODE_ID_CHUNK_SIZE];
+        for ( int index = 0; index < selectArgs.length; ++index )
+        {
+            // pad short chunks with the last node_id, so the compiled statement can be reused
+            final int nodeId = nodeIds[offset + Math.min( index, count - 1 )];
+            if ( index < count )
+            {
+                nodes[offset + index] = GraphStorage.createNode( current, Integer.valueOf( nodeId ), null );
+            }
+            selectArgs[index] = Integer.toString( nodeId );
+        }
+
+        final String selectStmt = super.selectRowsByNodeIdsStmt;
+        Debug.print( "execute:", selectStmt, Arrays.toString( selectArgs ) );
+        final Cursor cursor = statements.query( database, selectStmt, selectArgs );
+        final CharArrayBuffer buffer = new CharArrayBuffer( 64 );
+        final boolean[] found = new boolean[count];
+
+        try
+        {
+            // rows are ordered by node_id, and so are nodes[]
+            int index = offset;
+            if ( cursor.moveToFirst() )
+            {
+                do
+                {
+                    final int nodeId = cursor.getInt( 0 );
+                    while ( nodes[index].id.intValue() != nodeId )
+                    {
+                        ++index;
+                    }
+                    addNodeRow( current, attributes, nodes[index], cursor, 1, buffer );
+                    found[index - offset] = true;
+                }
+                while ( cursor.moveToNext() );
+            }
+        }
+        finally
+        {
+            statements.release( database, selectStmt, cursor );
+        }
+
+        // update cache
+
+        pooledNodeCount.addAndGet( count );
+        final long loadTime = ( System.nanoTime() - loadStart ) / count;
+        for ( int index = offset; index < offset + count; ++index )
+        {
+            if ( !found[index - offset] )
+            {
+                nodes[index] = null;
+                continue;
+            }
+            current.nodesCache.recordLoad( loadTime );
+            current.nodesCache.put( nodeIds[index], nodes[index] );
+        }
+
+        Debug.leave();
+    }
+
+    /**
+     * Sort the given node id(s), and remove duplicates.
+     *
+     * @param nodeIds the node id(s) to sort.
+     * @param length how many node id(s) to sort.
+     * @return the number of unique node id(s), which are now at the start of 'nodeIds'.
+     */
+    private static int sortUnique( final int[] nodeIds, final int length )
+    {
+        Arrays.sort( nodeIds, 0, length );
+        int unique = 0;
+        for ( int index = 0; index < length; ++index )
+        {
+            if ( unique == 0 || nodeIds[unique - 1] != nodeIds[index] )
+            {
+                nodeIds[unique++] = nodeIds[index];
+            }
+        }
+        return unique;
+    }
+
+    // ----------
+    // Graph File
+    // ----------
+
+    /**
+     * Set the binary graph file to use. If this file is present, {@link #resetStorage} maps it into memory and all
+     * attributes and nodes are read from it instead of the database.
+     *
+     * @param file the graph file, or null to always use the database.
+     */
+    public void setGraphFile( final File file )
+    {
+        graphFileName = file;
+    }
+
+    /**
+     * Map the given binary graph file into memory. From now on, all attributes and nodes of the active caches are read
+     * from it.
+     *
+     * @param file the graph file.
+     * @return the graph file.
+     * @throws IOException on error.
+     */
+    public GraphFile loadGraphFile( final File file )
+        throws IOException
+    {
+        Debug.enter( file );
+        final GraphCache current = caches;
+        final GraphFile graph = GraphFile.open( file, current.edgeNames, current.edgeIndexByAttributeId );
+        current.graphFile = graph;
+        current.attributesCache.clear();
+        Debug.leave( graph );
+        return graph;
+    }
+
+    /**
+     * Get the memory-mapped graph file.
+     *
+     * @return the graph file, or null if it is not being used.
+     */
+    public GraphFile getGraphFile()
+    {
+        return caches.graphFile;
+    }
+
+    // ---------------
+    // Bootstrap Slice
+    // ---------------
+
+    /**
+     * Load the bootstrap slice of the graph: the default node and its neighbourhood, written by
+     * share/tools/graph_file.py with the --root and --hops options, and shipped apart from the tarball. This is done
+     * before the database is restored, so the first nodes can be browsed right away - see {@link #loadBootstrapNode}.
+     * The slice is dropped by {@link #resetStorage}, once the database is ready.
+     *
+     * @param context the application context.
+     * @param input the bootstrap slice contents - it is not closed.
+     * @return false if the database is ready already, so the slice is not needed.
+     * @throws IOException if the slice is not a valid graph file.
+     */
+    public boolean loadBootstrap( final Context context, final InputStream input )
+        throws IOException
+    {
+        Debug.enter();
+        synchronized ( lock )
+        {
+            if ( storageReady )
+            {
+                Debug.leave( "database ready" );
+                return false;
+            }
+            // the edge group names come from the resources, not from the database
+            reloadResources( context );
+            final GraphFile graph = GraphFile.read( input, super.adjacencyEdgeNameList, super.edgeIndexByAttributeId );
+            final GraphAttributes attributes = new GraphAttributes();
+            graph.loadAttributes( attributes );
+            bootstrapAttributes = attributes;
+            bootstrapGraph = graph;
+            Debug.leave( graph );
+        }
+        return true;
+    }
+
+    /**
+     * Build the given node from the bootstrap slice. Bootstrap nodes are not cached, so no node built from the slice
+     * outlives it. The slice is built around {@link #DEFAULT_NODE_ID}, so a user profile starting elsewhere - or any
+     * other node out of the slice - misses it: the caller must then load the node with {@link #loadNode}, which waits
+     * for the database.
+     *
+     * @param nodeId the node id to load, or null for the default one - as in {@link #loadNode}.
+     * @param nodeLabel the node label to load.
+     * @return the graph node, or null if the database is ready, or the node is not in the slice - then use
+     *         {@link #loadNode} instead.
+     */
+    public GraphNode loadBootstrapNode( final Integer nodeId, final String nodeLabel )
+    {
+        final GraphFile graph = bootstrapGraph;
+        if ( graph == null )
+        {
+            return null;
+        }
+        final Integer trueNodeId = GraphStorage.trueNodeId( nodeId );
+        if ( graph.indexOf( trueNodeId.intValue() ) < 0 )
+        {
+            Debug.print( "not in the bootstrap slice:", trueNodeId );
+            return null;
+        }
+        return graph.createNode( trueNodeId, nodeLabel );
+    }
+
+    /**
+     * Get the attributes of the bootstrap slice - they are the same as in the database.
+     *
+     * @return the graph attributes, or null if there is no bootstrap slice.
+     */
+    public GraphAttributes loadBootstrapAttributes()
+    {
+        return bootstrapAttributes;
+    }
+
+    // -----------
+    // Prefetching
+    // -----------
+
+    /**
+     * Get the foreground load generation. This value changes on every {@link #loadNode} call.
+     *
+     * @return the foreground load generation.
+     */
+    public int getForegroundGeneration()
+    {
+        return foregroundGeneration.get();
+    }
+
+    /**
+     * Get the prefetch fan-out - see {@link #prefetchNeighbours}.
+     *
+     * @return the maximum number of neighbour nodes to prefetch, zero if prefetching is disabled.
+     */
+    public int getPrefetchFanOut()
+    {
+        return prefetchFanOut;
+    }
+
+    /**
+     * Set the prefetch fan-out - see {@link #prefetchNeighbours}.
+     *
+     * @param fanOut the maximum number of neighbour nodes to prefetch, zero to disable prefetching.
+     */
+    public void setPrefetchFanOut( final int fanOut )
+    {
+        prefetchFanOut = fanOut;
+    }
+
+    /**
+     * Warm the node cache with the neighbours of the given node: parents, partners, children and siblings. Neighbours
+     * are taken in turns from each edge list, up to {@link #prefetchFanOut} nodes. Cached neighbours are skipped, and
+     * the others are read with {@link #loadNodes}-style batch queries. This function stops before the next batch as
+     * soon as a foreground {@link #loadNode} call arrives. Nothing is prefetched while the graph file is mapped: any
+     * node is built from it faster than a background task starts.
+     *
+     * @param database where to load the neighbour nodes from.
+     * @param node the node whose neighbours are loaded.
+     * @param generation the foreground load generation when the prefetch was requested.
+     * @return the number of nodes loaded.
+     * @throws IOException on error.
+     */
+    public int prefetchNeighbours( final SQLiteDatabase database, final GraphNode node, final int generation )
+        throws IOException
+    {
+        Debug.enter( node.id, generation );
+
+        final GraphCache current = caches;
+        if ( current.graphFile != null )
+        {
+            Debug.leave( "served by the graph file" );
+            return 0;
+        }
+
+        // pick the neighbours to load
+
+        final int[] nodeIds = new int[Math.max( 0, prefetchFanOut )];
+        int count = 0;
+        boolean more = true;
+        for ( int item = 0; more && count < nodeIds.length; ++item )
+        {
+            more = false;
+            for ( int index = GraphNode.INDEX_EXTRA_VALUES; index < node.values.length && count < nodeIds.length;
+                  ++index )
+            {
+                final GraphValueList valueList = node.values[index];
+                if ( valueList == null || valueList.length <= item )
+                {
+                    continue;
+                }
+                more = true;
+                final int nodeId = valueList.array_0[item];
+                if ( !current.nodesCache.containsKey( nodeId ) )
+                {
+                    nodeIds[count++] = nodeId;
+                }
+            }
+        }
+        count = GraphStorage.sortUnique( nodeIds, count );
+
+        // load them, one chunk at a time
+
+        final GraphNode[] nodes = new GraphNode[count];
+        int loadCount = 0;
+        while ( loadCount < count )
+        {
+            if ( generation != foregroundGeneration.get() )
+            {
+                Debug.leave( "superseded by foreground load", loadCount );
+                return loadCount;
+            }
+            final int chunk = Math.min( count - loadCount, GraphResources.NODE_ID_CHUNK_SIZE );
+            // nodes being loaded by other threads are skipped: somebody else is warming them already
+            readSharedNodes( database, current, nodeIds, loadCount, chunk, nodes, false );
+            loadCount += chunk;
+        }
+
+        Debug.leave( loadCount );
+        return loadCount;
+    }
+
+    // -----
+    // Links
+    // -----
+
+    /**
+     * Get the number of edge groups: parents, partners, children, siblings, etc.
+     *
+     * @return the number of edge groups.
+     */
+    public int getEdgeCount()
+    {
+        return caches.edgeNames.length;
+    }
+
+    /**
+     * Get the name of the given edge group.
+     *
+     * @param edge the edge index.
+     * @return the edge group name.
+     */
+    public String getEdgeName( final int edge )
+    {
+        return caches.edgeNames[edge];
+    }
+
+    /**
+     * Get the edge index of the parents.
+     *
+     * @return the parents edge index.
+     */
+    public int getParentsEdge()
+    {
+        return GraphResources.PARENTS_EDGE;
+    }
+
+    /**
+     * Get the edge index of the children.
+     *
+     * @return the children edge index, or -1 if no edge group lists the children.
+     */
+    public int getChildrenEdge()
+    {
+        return super.childrenEdge;
+    }
+
+    /**
+     * Visit the links of many nodes - edge ids only. No {@link GraphNode} is built, no attribute is read and no string
+     * is decoded, so this is the cheapest way to walk the graph. Links come from the graph file if mapped, otherwise
+     * from the database, NODE_ID_CHUNK_SIZE node_id(s) per query.
+     *
+     * @param database where to read the links from.
+     * @param nodeIds the node_id(s).
+     * @param offset where the node_id(s) start in 'nodeIds'.
+     * @param count how many node_id(s) to visit.
+     * @param visitor the link visitor.
+     * @throws IOException on error.
+     */
+    public void loadLinks( final SQLiteDatabase database, final int[] nodeIds, final int offset, final int count,
+                           final LinkVisitor visitor )
+        throws IOException
+    {
+        final GraphCache current = caches;
+        final GraphFile file = current.graphFile;
+        if ( file != null )
+        {
+            for ( int index = offset; index < offset + count; ++index )
+            {
+                file.visitLinks( nodeIds[index], visitor );
+            }
+            return;
+        }
+
+        final String selectStmt = super.selectLinksByNodeIdsStmt;
+        final String[] selectArgs = new String[GraphResources.NODE_ID_CHUNK_SIZE];
+        for ( int chunk = offset; chunk < offset + count; chunk += GraphResources.NODE_ID_CHUNK_SIZE )
+        {
+            final int chunkCount = Math.min( offset + count - chunk, GraphResources.NODE_ID_CHUNK_SIZE );
+            for ( int index = 0; index < selectArgs.length; ++index )
+            {
+                // pad short chunks with the last node_id, so the compiled statement can be reused
+                selectArgs[index] = Integer.toString( nodeIds[chunk + Math.min( index, chunkCount - 1 )] );
+            }
+            final Cursor cursor = statements.query( database, selectStmt, selectArgs );
+            try
+            {
+                if ( cursor.moveToFirst() )
+                {
+                    do
+                    {
+                        final int edge = current.getEdgeIndex( cursor.getInt( 1 ) );
+                        if ( 0 <= edge )
+                        {
+                            visitor.onLink( cursor.getInt( 0 ), edge, cursor.getInt( 2 ) );
+                        }
+                    }
+                    while ( cursor.moveToNext() );
+                }
+            }
+            finally
+            {
+                statements.release( database, selectStmt, cursor );
+            }
+        }
+    }
+
+    // ----------
+    // Node Index
+    // ----------
+
+    /**
+     * Build the node index, unless the database has it already. Node queries seek through this index by node_id, and
+     * link queries are covered by it. share/tools/familyTree_yaml.py builds it together with the database, which ships
+     * with it: so this function is just a cheap schema check. Building the index here is a fallback for databases
+     * built without it, and it is logged as an error, since it holds the database for as long as the build takes.
+     *
+     * @param database where to build the node index.
+     * @return true if the node index was built now, false if it was there already.
+     */
+    public boolean createNodeIndex( final SQLiteDatabase database )
+    {
+        Debug.enter();
+
+        final SQLiteStatement countStmt = database.compileStatement( super.selectNodeIndexStmt );
+        try
+        {
+            if ( 0 < countStmt.simpleQueryForLong() )
+            {
+                Debug.leave( "node index found" );
+                return false;
+            }
+        }
+        finally
+        {
+            countStmt.close();
+        }
+
+        Debug.error( null, "node index not found: the database was built without it" );
+        final long buildStart = System.nanoTime();
+
+        database.beginTransaction();
+        try
+        {
+            for ( final String stmt : super.createNodeIndexStmts )
+            {
+                Debug.print( stmt );
+                database.execSQL( stmt );
+            }
+            database.setTransactionSuccessful();
+        }
+        finally
+        {
+            database.endTransaction();
+        }
+
+        Debug.leave( "node index built in", ( System.nanoTime() - buildStart ) / 1000, "us" );
+        return true;
+    }
+
+    // -----------
+    // Name Search
+    // -----------
+
+    /**
+     * Build the name index, unless the database has it already - see {@link NameIndex#create}. The index ships with
+     * the database, so this function is just a cheap schema check.
+     *
+     * @param database where to build the name index.
+     * @return true if the name index was built now, false if it was there already.
+     */
+    public boolean createNameIndex( final SQLiteDatabase database )
+    {
+        return nameIndex.create( database );
+    }
+
+    /**
+     * Search nodes by name. Each query word must be the prefix of a different word in the node "name" or "aka"
+     * attributes; case and accents are ignored. The name index must exist - see {@link #createNameIndex}.
+     * <p/>
+     * The listener, if any, receives the best matches found so far while the name index is scanned, and then the final
+     * results. It may stop the search early.
+     *
+     * @param database where the name index is.
+     * @param query the text entered by the user.
+     * @param maxResults the maximum number of results.
+     * @param listener the search listener, or null.
+     * @return the ranked node_id(s) and node label(s).
+     * @throws IOException on error.
+     */
+    public GraphValueList searchNames( final SQLiteDatabase database, final String query, final int maxResults,
+                                       final NameSearch.Listener listener )
+        throws IOException
+    {
+        return nameIndex.search( database, query, maxResults, listener );
+    }
+
+    // -------------
+    // Similar Names
+    // -------------
+
+    /**
+     * Build the trigram index over the node "name" and "aka" attributes, in one single scan.
+     * {@link #searchSimilarNames} builds the index only once, on a background thread, the first time it is called.
+     *
+     * @param database where to read the names from.
+     * @return the new trigram index.
+     * @throws IOException on error.
+     */
+    public TrigramIndex loadTrigramIndex( final SQLiteDatabase database )
+        throws IOException
+    {
+        return trigrams.load( database );
+    }
+
+    /**
+     * Search the nodes whose "name" or "aka" attributes are similar to the given query - see {@link TrigramIndex}.
+     * Use this function when {@link #searchNames} finds nothing, for misspelled or uncertain names.
+     *
+     * @param database where to read the names from, if the trigram index was not built yet and the storage was not
+     *            reset.
+     * @param query the text entered by the user.
+     * @param minSimilarity the minimum similarity, from 0 to 1.
+     * @param maxResults the maximum number of results.
+     * @return the ranked node_id(s) and node label(s).
+     * @throws IOException on error.
+     */
+    public GraphValueList searchSimilarNames( final SQLiteDatabase database, final String query,
+                                              final float minSimilarity, final int maxResults )
+        throws IOException
+    {
+        return trigrams.search( database, query, minSimilarity, maxResults );
+    }
+
+    // -------
+    // Kinship
+    // -------
+
+    /**
+     * Set the ancestor index file. The file is written the first time the index is built, and it is only read back if
+     * it was built for the same database version.
+     *
+     * @param file the ancestor index file, or null to keep the index in memory only.
+     * @param databaseVersion the current database version.
+     */
+    public void setAncestorIndexFile( final File file, final int databaseVersion )
+    {
+        ancestors.setFile( file, databaseVersion );
+    }
+
+    /**
+     * Load the ancestor index: read it from the ancestor index file if it is up to date, or build it from the parent
+     * links and save it otherwise. The index is loaded the first time {@link #getKinship} is called, so call this
+     * function in background to have it ready sooner.
+     *
+     * @param database where to read the parent links from.
+     * @return the ancestor index.
+     * @throws IOException on error.
+     */
+    public AncestorIndex loadAncestorIndex( final SQLiteDatabase database )
+        throws IOException
+    {
+        return ancestors.load( database );
+    }
+
+    /**
+     * Find how two nodes are blood related - see {@link AncestorIndex#getKinship}.
+     *
+     * @param database where to read the parent links from, if the ancestor index was not loaded yet.
+     * @param firstId the first node_id.
+     * @param secondId the second node_id.
+     * @return the kinship, with the common ancestor labels, or null if both nodes have no common ancestor.
+     * @throws IOException on error.
+     */
+    public Kinship getKinship( final SQLiteDatabase database, final int firstId, final int secondId )
+        throws IOException
+    {
+        Debug.enter( firstId, secondId );
+        final Kinship kinship = ancestors.get( database ).getKinship( firstId, secondId );
+        if ( kinship == null )
+        {
+            Debug.leave( "not related" );
+            return null;
+        }
+
+        // label the common ancestors
+        final GraphNode[] nodes = loadNodes( database, kinship.commonAncestorIds );
+        for ( int item = 0; item < nodes.length; ++item )
+        {
+            kinship.commonAncestorLabels[item] = ( nodes[item] != null ) ? nodes[item].label : null;
+        }
+        Debug.leave( kinship );
+        return kinship;
+    }
+
+    /**
+     * Load the node's Attribute list from the database.
+     *
+     * @param database where to load the attributes from
+     * @param attributes the graph attributes
+     * @param node the graph node
+     * @param valueList the attribute list object to load to
+     * @param selectStmt the select statement
+     * @param selectArgs the arguments to be applied to 'selectStmt'
+     * @return the number of rows read, hidden attributes included
+     * @throws IOException on error
+     */
+    private int loadNodeList( final SQLiteDatabase database, final GraphAttributes attributes, final GraphNode node,
+                               final GraphValueList valueList, final String selectStmt, final String[] selectArgs )
+        throws IOException
+    {
+        Debug.enter();
+
+        Debug.print( "execute:", selectStmt, Arrays.toString( selectArgs ) );
+        final Cursor cursor = statements.query( database, selectStmt, selectArgs );
+        final CharArrayBuffer buffer = new CharArrayBuffer( 64 );
+        int rowCount = 0;
+
+        try
+        {
+            if ( cursor.moveToFirst() )
+            {
+                do
+                {
+                    final int attributeId = cursor.getInt( 0 );
+                    final String attributeValue = getPooledString( cursor, 1, buffer );
+                    addAttributeValue( attributes, node, valueList, attributeId, attributeValue );
+                    ++rowCount;
+                }
+                while ( cursor.moveToNext() );
+            }
+        }
+        finally
+        {
+            statements.release( database, selectStmt, cursor );
+        }
+
+        Debug.leave( rowCount );
+        return rowCount;
+    }
+
+    /**
+     * Load all the node's lists from the database, in one single ordered scan. Each row is added to the attribute list,
+     * unless it is hidden, and also to the edge list its attribute_id belongs to, if any.
+     *
+     * @param database where to load the rows from
+     * @param current the caches the node is built for
+     * @param attributes the graph attributes
+     * @param node the graph node, with all its value lists already created
+     * @param selectStmt the select statement
+     * @param selectArgs the arguments to be applied to 'selectStmt'
+     * @return the number of rows read, hidden attributes included
+     * @throws IOException on error
+     */
+    private int loadNodeRows( final SQLiteDatabase database, final GraphCache current,
+                               final GraphAttributes attributes, final GraphNode node, final String selectStmt,
+                               final String[] selectArgs )
+        throws IOException
+    {
+        Debug.enter();
+
+        Debug.print( "execute:", selectStmt, Arrays.toString( selectArgs ) );
+        final Cursor cursor = statements.query( database, selectStmt, selectArgs );
+        final CharArrayBuffer buffer = new CharArrayBuffer( 64 );
+        int rowCount = 0;
+
+        try
+        {
+            if ( cursor.moveToFirst() )
+            {
+                do
+                {
+                    addNodeRow( current, attributes, node, cursor, 0, buffer );
+                    ++rowCount;
+                }
+                while ( cursor.moveToNext() );
+            }
+        }
+        finally
+        {
+            statements.release( database, selectStmt, cursor );
+        }
+
+        Debug.leave( rowCount );
+        return rowCount;
+    }
+
+    /**
+     * Add the current cursor row to the node's attribute list, unless it is hidden, and also to the edge list its
+     * attribute_id belongs to, if any.
+     *
+     * @param current the caches the node is built for
+     * @param attributes the graph attributes
+     * @param node the graph node, with all its value lists already created
+     * @param cursor the cursor, positioned on the row to add
+     * @param column the attr_id column, followed by the link_id and text_value columns
+     * @param buffer the buffer used to read text values
+     */
+    private void addNodeRow( final GraphCache current, final GraphAttributes attributes, final GraphNode node,
+                             final Cursor cursor, final int column, final CharArrayBuffer buffer )
+    {
+        final int attributeId = cursor.getInt( column );
+        final String textValue = getPooledString( cursor, column + 2, buffer );
+        addAttributeValue( attributes, node, node.values[GraphNode.INDEX_ATTRIBUTE_VALUES], attributeId, textValue );
+        // is this row an edge too?
+        final int edgeIndex = current.getEdgeIndex( attributeId );
+        if ( 0 <= edgeIndex && !cursor.isNull( column + 1 ) )
+        {
+            final GraphValueList edgeList = node.values[edgeIndex + GraphNode.INDEX_EXTRA_VALUES];
+            final int linkId = cursor.getInt( column + 1 );
+            if ( BuildManifest.DEBUG_ENABLED )
+            {
+                Debug.print( "fetch link:", edgeList.title, linkId, textValue );
+            }
+            edgeList.add( linkId, textValue );
+        }
+    }
+
+    /**
+     * Read a text value from the cursor, through the string pool. The characters are copied into the given buffer, so
+     * no new string is allocated when the value is pooled already.
+     *
+     * @param cursor the cursor, positioned on the row to read
+     * @param column the text column
+     * @param buffer the buffer used to read the text value
+     * @return the pooled text value, or null
+     */
+    private String getPooledString( final Cursor cursor, final int column, final CharArrayBuffer buffer )
+    {
+        cursor.copyStringToBuffer( column, buffer );
+        if ( buffer.sizeCopied == 0 && cursor.isNull( column ) )
+        {
+            return null;
+        }
+        return stringPool.intern( buffer.data, buffer.sizeCopied );
+    }
+
+    /**
+     * Add one attribute value to the node's attribute list, unless the attribute is hidden.
+     *
+     * @param attributes the graph attributes
+     * @param node the graph node
+     * @param valueList the attribute list to add to
+     * @param attributeId the attribute_id
+     * @param attributeValue the attribute value
+     */
+    private static void addAttributeValue( final GraphAttributes attributes, final GraphNode node,
+                                           final GraphValueList valueList, final int attributeId,
+                                           final String attributeValue )
+    {
+        final Integer id = Integer.valueOf( attributeId );
+        final boolean attributeHidden = attributes.isHiddingAttributeId( id );
+        if ( BuildManifest.DEBUG_ENABLED )
+        {
+            Debug.print( "fetch value:", valueList.title, id, attributeValue, attributeHidden );
+        }
+        // overwrite the given attribute "name"
+        if ( attributeId == GraphStorage.NAME_ATTRIBUTE_ID )
+        {
+            node.label = attributeValue;
+        }
+        // filter-out all hidden attributes
+        if ( !attributeHidden )
+        {
+            valueList.add( attributeId, attributeValue );
+        }
+    }
+
+    /**
+     * This internal function loads ValueList from the database containing link_id(s) to other nodes.
+     *
+     * @param database
+     * @param node
+     * @param valueList
+     * @param selectStmt
+     * @param selectArgs
+     * @throws IOException
+     */
+    private void loadEdgeList( final SQLiteDatabase database, final GraphNode node, final GraphValueList valueList,
+                               final String selectStmt, final String[] selectArgs )
+        throws IOException
+    {
+        Debug.enter();
+
+        Debug.print( "execute:", selectStmt, Arrays.toString( selectArgs ) );
+        final Cursor cursor = statements.query( database, selectStmt, selectArgs );
+        final CharArrayBuffer buffer = new CharArrayBuffer( 64 );
+
+        try
+        {
+            if ( cursor.moveToFirst() )
+            {
+                do
+                {
+                    final int attributeId = cursor.getInt( 0 );
+                    final String attributeValue = getPooledString( cursor, 1, buffer );
+                    if ( BuildManifest.DEBUG_ENABLED )
+                    {
+                        Debug.print( "fetch link:", valueList.title, attributeId, attributeValue );
+                    }
+                    valueList.add( attributeId, attributeValue );
+                }
+                while ( cursor.moveToNext() );
+            }
+        }
+        finally
+        {
+            statements.release( database, selectStmt, cursor );
+        }
+
+        Debug.leave();
+    }
+
+    // -------------
+    // Reset Storage
+    // -------------
+
+    /**
+     * Reinitialize the storage parameters. This function must be called at least once - during the application
+     * start-up. All caches are dropped, and the graph is loaded again into new caches for the given locale. The
+     * bootstrap slice, if any, is dropped: all nodes are read from the graph file or the database from now on.
+     *
+     * @param context the application context
      * @param database is the new database object to use
      * @param locale the new language locale
      * @throws IOException on error
@@ -297,13 +1539,284 @@ public class GraphStorage
         throws IOException
     {
         Debug.enter( locale.getDisplayName() );
-        // reset caches
-        nodesCache.clear();
-        attributesCache.clear();
-        // reload resources
-        reloadResources( context );
+        final int span = StartupTrace.begin( "GraphStorage.resetStorage" );
+        try
+        {
+            // the builds of the previous reset must not run together with the new ones
+            finishBackgroundBuilds();
+            synchronized ( lock )
+            {
+                // reset caches
+                Debug.print( "caches:", caches );
+                Debug.print( "string pool:", stringPool, "saved bytes per node:", getSavedBytesPerNode() );
+                statements.clear();
+                caches.clear();
+                trigrams.reset( database );
+                ancestors.reset();
+                // reload resources
+                reloadResources( context );
+                // readers see the new, empty, caches from now on
+                caches = newCaches( locale );
+                // check the node and name indexes, built together with the database - nobody else reads it yet
+                createNodeIndex( database );
+                createNameIndex( database );
+                // map the graph file, if present
+                final File file = graphFileName;
+                if ( file != null && file.isFile() )
+                {
+                    try
+                    {
+                        loadGraphFile( file );
+                    }
+                    catch ( final IOException ex )
+                    {
+                        // fall back to the database
+                        Debug.error( ex, "unable to map", file );
+                    }
+                }
+                else
+                {
+                    // the tarball ships the graph file: without it, every node is read by the SQL loader
+                    Debug.error( null, "no graph file, nodes are read from the database:", file );
+                }
+            }
+            // reload default data
+            loadNode( database, null, null );
+            // from now on, all nodes are read from the graph file or from the database
+            synchronized ( lock )
+            {
+                storageReady = true;
+                bootstrapGraph = null;
+                bootstrapAttributes = null;
+            }
+        }
+        finally
+        {
+            StartupTrace.end( span );
+        }
+        Debug.leave();
+    }
+
+    // -----------------
+    // Background Builds
+    // -----------------
+
+    /**
+     * Wait for the background builds - the trigram index - to finish. Nobody needs to wait for them: this function is
+     * meant for tests and benchmarks, which want to measure the storage once it is complete.
+     *
+     * @throws IOException if any build failed.
+     */
+    public void awaitBackgroundBuilds()
+        throws IOException
+    {
+        trigrams.await();
+    }
+
+    /**
+     * Wait for the background builds to finish, if any. Build errors were logged already.
+     */
+    private void finishBackgroundBuilds()
+    {
+        try
+        {
+            awaitBackgroundBuilds();
+        }
+        catch ( final IOException ex )
+        {
+            Debug.print( "background build failed:", ex.getMessage() );
+        }
+    }
+
+    // -------
+    // Locales
+    // -------
+
+    /**
+     * Switch to the given locale. The edge group names are translated, so the nodes are built again into new caches,
+     * which share the mapped graph file of the old ones. The name index and the ancestor index do not depend on the
+     * locale, and they are kept.
+     * <p/>
+     * Readers in progress finish with the caches they started with: they are never blocked by a locale switch.
+     *
+     * @param context the application context, already configured for the new locale.
+     * @param database the database.
+     * @param locale the new language locale.
+     * @throws IOException on error.
+     */
+    public void setLocale( final Context context, final SQLiteDatabase database, final Locale locale )
+        throws IOException
+    {
+        Debug.enter( locale.getDisplayName() );
+        synchronized ( lock )
+        {
+            final GraphCache active = caches;
+            if ( active.isFor( locale ) )
+            {
+                Debug.leave( "same locale" );
+                return;
+            }
+            // the edge group names are translated
+            reloadResources( context );
+            final GraphCache next = newCaches( locale );
+            final GraphFile file = active.graphFile;
+            if ( file != null )
+            {
+                next.graphFile = file.withEdgeNames( next.edgeNames );
+            }
+            caches = next;
+            active.clear();
+            Debug.print( "caches:", next );
+        }
         // reload default data
         loadNode( database, null, null );
         Debug.leave();
     }
+
+    /**
+     * Create new, empty, caches with the edge group names and statements loaded last.
+     *
+     * @param locale the caches locale.
+     * @return the new caches.
+     */
+    private GraphCache newCaches( final Locale locale )
+    {
+        return new GraphCache( locale, nodeCacheSize, super.adjacencyEdgeNameList, super.selectEdgesByNodeIdStmt,
+                               super.edgeIndexByAttributeId );
+    }
+
+    /**
+     * {@inheritDoc} The caches created before any resources were loaded are replaced by new ones with these
+     * resources - they are still empty.
+     */
+    @Override
+    protected void reloadResources( final Context context, final String[] adjacencyEdgeNames,
+                                    final String[] selectEdgesByNodeId )
+    {
+        synchronized ( lock )
+        {
+            super.reloadResources( context, adjacencyEdgeNames, selectEdgesByNodeId );
+            final GraphCache active = caches;
+            if ( active.edgeNames == null )
+            {
+                caches = newCaches( active.locale );
+            }
+        }
+    }
+
+    /**
+     * Get the active locale.
+     *
+     * @return the locale of the active caches, or null if no locale was set yet.
+     */
+    public Locale getLocale()
+    {
+        return caches.locale;
+    }
+
+    /**
+     * Change the node cache size. The least recently used nodes are evicted if needed.
+     *
+     * @param maxNodes the maximum number of cached nodes.
+     */
+    public void setNodeCacheSize( final int maxNodes )
+    {
+        if ( maxNodes <= 0 )
+        {
+            throw new IllegalArgumentException( "maxNodes <= 0" );
+        }
+        synchronized ( lock )
+        {
+            nodeCacheSize = maxNodes;
+            caches.nodesCache.resize( maxNodes );
+        }
+    }
+
+    /**
+     * Get the node cache of the active caches. Use it to read the cache statistics: hits, misses, evictions
+     * and load times.
+     *
+     * @return the node cache.
+     */
+    public IntLruCache<GraphNode> getNodeCache()
+    {
+        return caches.nodesCache;
+    }
+
+    /**
+     * Get the string pool. Use it to read the pool statistics: hits, misses and saved bytes.
+     *
+     * @return the string pool.
+     */
+    public StringPool getStringPool()
+    {
+        return stringPool;
+    }
+
+    /**
+     * Get how many node loads were shared with another thread loading the same node at the same time.
+     *
+     * @return the shared load count, in the active caches.
+     */
+    public int getSharedLoadCount()
+    {
+        return caches.flights.sharedCount();
+    }
+
+    /**
+     * Get the average heap saved by the string pool, for each node read through it so far. Use this value together
+     * with the average node size to choose the node cache size.
+     *
+     * @return the saved heap size per node read from the database, in bytes.
+     */
+    public long getSavedBytesPerNode()
+    {
+        return stringPool.savedBytes() / Math.max( 1, pooledNodeCount.get() );
+    }
+
+    /**
+     * Close all compiled statements. This function must be called before the database is closed. It waits for the
+     * background builds first, since they use the database too.
+     */
+    public void closeStatements()
+    {
+        Debug.enter();
+        finishBackgroundBuilds();
+        statements.clear();
+        Debug.leave();
+    }
+
+    /**
+     * Close the compiled statements of one database handle. This function must be called before that database handle
+     * is closed - see {@link ca.chaves.android.app.ConnectionPool}.
+     *
+     * @param database the database handle.
+     */
+    public void closeStatements( final SQLiteDatabase database )
+    {
+        Debug.enter();
+        statements.clear( database );
+        Debug.leave();
+    }
+
+    /**
+     * Get how many SQL statements have been compiled so far.
+     *
+     * @return the statement prepare count.
+     */
+    public int getPrepareCount()
+    {
+        return statements.getPrepareCount();
+    }
+
+    /**
+     * Get how many SQL statements have been executed so far. Compare this value against {@link #getPrepareCount()} to
+     * confirm that compiled statements are being reused.
+     *
+     * @return the statement execute count.
+     */
+    public int getExecuteCount()
+    {
+        return statements.getExecuteCount();
+    }
 }
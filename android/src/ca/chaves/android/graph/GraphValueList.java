@@ -1,9 +1,9 @@
 package ca.chaves.android.graph;
 
-import ca.chaves.android.util.PairList;
+import ca.chaves.android.util.IntPairList;
 
 /**
- * This class stores a list of tuples (integer, string). For example, it can be used to store either the node
+ * This class stores a list of tuples (int, string). For example, it can be used to store either the node
  * attribute(s) or the node parent/partner/child/sibling lists, for a given node_id. This class is implemented to
  * minimize memory allocations, which are expensive in Android.
  *
@@ -11,7 +11,7 @@ import ca.chaves.android.util.PairList;
  * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
  */
 public class GraphValueList
-    extends PairList<Integer, String>
+    extends IntPairList
 {
     /**
      * Constructor.
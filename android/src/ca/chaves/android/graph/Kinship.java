@@ -0,0 +1,199 @@
+package ca.chaves.android.graph;
+
+/**
+ * This class describes how two blood relatives are related, as computed by {@link AncestorIndex#getKinship}: how many
+ * generations each one is below their closest common ancestors, and the relationship name derived from both
+ * distances - for example, "second cousin once removed". The name tells what the second node is to the first one.
+ * <p/>
+ * Names are gender-neutral, because the index only knows parent links: "parent", "aunt/uncle", "niece/nephew", etc.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public final class Kinship
+{
+    /**
+     * The ordinal names for the cousin degrees.
+     */
+    private static final String[] ORDINALS = new String[]{ //
+        "zeroth", "first", "second", "third", "fourth", "fifth", "sixth", "seventh", "eighth", "ninth", "tenth", //
+        };
+
+    /**
+     * The names for the removed counts.
+     */
+    private static final String[] REMOVED = new String[]{ //
+        "", " once removed", " twice removed", //
+        };
+
+    /**
+     * How many generations the first node is below the common ancestors - 0 if it is the common ancestor.
+     */
+    public final int firstDistance;
+
+    /**
+     * How many generations the second node is below the common ancestors - 0 if it is the common ancestor.
+     */
+    public final int secondDistance;
+
+    /**
+     * The closest common ancestors: their node_id(s).
+     */
+    public final int[] commonAncestorIds;
+
+    /**
+     * The closest common ancestors: their node label(s) - null until {@link GraphStorage#getKinship} loads them.
+     */
+    public final String[] commonAncestorLabels;
+
+    /**
+     * Constructor.
+     *
+     * @param firstDistance how many generations the first node is below the common ancestors.
+     * @param secondDistance how many generations the second node is below the common ancestors.
+     * @param commonAncestorIds the closest common ancestors.
+     */
+    public Kinship( final int firstDistance, final int secondDistance, final int[] commonAncestorIds )
+    {
+        this.firstDistance = firstDistance;
+        this.secondDistance = secondDistance;
+        this.commonAncestorIds = commonAncestorIds;
+        this.commonAncestorLabels = new String[commonAncestorIds.length];
+    }
+
+    /**
+     * Get the cousin degree: 1 for first cousins, 2 for second cousins, and so on. Siblings are degree 0.
+     *
+     * @return the cousin degree, or -1 if one node is an ancestor of the other one.
+     */
+    public int getCousinDegree()
+    {
+        return Math.min( firstDistance, secondDistance ) - 1;
+    }
+
+    /**
+     * Get how many generations apart both nodes are - the "removed" count for cousins.
+     *
+     * @return the generation difference.
+     */
+    public int getRemoved()
+    {
+        return Math.abs( firstDistance - secondDistance );
+    }
+
+    /**
+     * Get the relationship name: what the second node is to the first one.
+     *
+     * @return the relationship name, like "grandparent", "sibling" or "first cousin twice removed".
+     */
+    public String getName()
+    {
+        if ( firstDistance == 0 && secondDistance == 0 )
+        {
+            return "self";
+        }
+        if ( secondDistance == 0 )
+        {
+            return Kinship.generations( firstDistance, "grand", "parent" );
+        }
+        if ( firstDistance == 0 )
+        {
+            return Kinship.generations( secondDistance, "grand", "child" );
+        }
+        if ( firstDistance == 1 && secondDistance == 1 )
+        {
+            return "sibling";
+        }
+        if ( firstDistance == 1 )
+        {
+            return Kinship.generations( secondDistance - 1, "grand-", "niece/nephew" );
+        }
+        if ( secondDistance == 1 )
+        {
+            return Kinship.generations( firstDistance - 1, "grand-", "aunt/uncle" );
+        }
+
+        final int degree = getCousinDegree();
+        final int removed = getRemoved();
+        final StringBuilder name = new StringBuilder();
+        name.append( ( degree < Kinship.ORDINALS.length ) ? Kinship.ORDINALS[degree] : Kinship.ordinal( degree ) );
+        name.append( " cousin" );
+        if ( removed < Kinship.REMOVED.length )
+        {
+            name.append( Kinship.REMOVED[removed] );
+        }
+        else
+        {
+            name.append( ' ' ).append( removed ).append( " times removed" );
+        }
+        return name.toString();
+    }
+
+    /**
+     * Name a direct ancestor or descendant - "parent", "grandparent", "great-grandparent" - or the sibling of a direct
+     * ancestor or the descendant of a sibling - "aunt/uncle", "grand-aunt/uncle", "great-grand-aunt/uncle". From three
+     * "great-" on, they are counted: "3rd great-grandparent".
+     *
+     * @param distance how many generations apart.
+     * @param grand the prefix for two generations apart.
+     * @param name the name for one generation apart.
+     * @return the relationship name.
+     */
+    private static String generations( final int distance, final String grand, final String name )
+    {
+        if ( distance == 1 )
+        {
+            return name;
+        }
+        // "great-", "great-great-", and then "3rd great-", "4th great-", etc
+        final int greatCount = distance - 2;
+        final StringBuilder text = new StringBuilder();
+        if ( 2 < greatCount )
+        {
+            text.append( Kinship.ordinal( greatCount ) ).append( " great-" );
+        }
+        else
+        {
+            for ( int great = 0; great < greatCount; ++great )
+            {
+                text.append( "great-" );
+            }
+        }
+        return text.append( grand ).append( name ).toString();
+    }
+
+    /**
+     * Write a number as an ordinal: "1st", "2nd", "3rd", "4th", "11th", "21st", etc.
+     *
+     * @param number the number.
+     * @return the ordinal.
+     */
+    private static String ordinal( final int number )
+    {
+        final int lastDigit = number % 10;
+        final boolean teen = ( number % 100 ) / 10 == 1;
+        if ( !teen && lastDigit == 1 )
+        {
+            return number + "st";
+        }
+        if ( !teen && lastDigit == 2 )
+        {
+            return number + "nd";
+        }
+        if ( !teen && lastDigit == 3 )
+        {
+            return number + "rd";
+        }
+        return number + "th";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "Kinship[" + getName() + ", distances=" + firstDistance + "/" + secondDistance + ", ancestors="
+            + commonAncestorIds.length + "]";
+    }
+}
@@ -0,0 +1,289 @@
+package ca.chaves.android.graph;
+
+import ca.chaves.android.util.Debug;
+import ca.chaves.android.util.IntIntMap;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.IOException;
+
+/**
+ * This class walks the ancestors - or the descendants - of one node, one generation at a time, up to a maximum depth:
+ * each call to {@link #next} loads the next generation, so the caller can show the first generations before the
+ * walk is over, or stop at any time. It follows one single edge group - the parents, or the children - and it only
+ * reads links, see {@link GraphStorage#loadLinks}: no {@link GraphNode} is built for the nodes visited, and each
+ * generation is read {@link GraphResources#NODE_ID_CHUNK_SIZE} nodes per query.
+ * <p/>
+ * Each node is returned once only, in the first generation which reaches it. Pedigree collapse - an ancestor reached
+ * through more than one line, as when cousins marry - is common in the family tree: those repeated links are counted,
+ * see {@link #getRepeatCount}, but not followed again; so are parent cycles in bad data.
+ * <p/>
+ * Typical use:
+ *
+ * <pre>
+ * final LineageTraversal walk = new LineageTraversal( storage, database, nodeId, storage.getParentsEdge(), 4 );
+ * while ( walk.hasNext() )
+ * {
+ *     final int count = walk.next();
+ *     for ( int index = 0; index &lt; count; ++index )
+ *     {
+ *         show( walk.getDepth(), walk.getNodeId( index ), walk.getFromId( walk.getNodeId( index ) ) );
+ *     }
+ * }
+ * </pre>
+ *
+ * A walk can be canceled from another thread with {@link #cancel}; it is checked between chunks.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public final class LineageTraversal
+    implements GraphStorage.LinkVisitor
+{
+    /**
+     * The node_id stored as the "reached from" node of the root.
+     */
+    public static final int NO_NODE_ID = Integer.MIN_VALUE;
+
+    /**
+     * The graph storage.
+     */
+    private final GraphStorage storage;
+
+    /**
+     * The database.
+     */
+    private final SQLiteDatabase database;
+
+    /**
+     * The edge group to follow.
+     */
+    private final int edge;
+
+    /**
+     * The maximum depth.
+     */
+    private final int maxDepth;
+
+    /**
+     * The visited node_id(s), mapped to the node_id they were first reached from.
+     */
+    private final IntIntMap visited = new IntIntMap( 64 );
+
+    /**
+     * The current generation: the node_id(s) returned by the last call to {@link #next}.
+     */
+    private int[] generation = new int[16];
+
+    /**
+     * How many node_id(s) there are in the current generation.
+     */
+    private int generationLength;
+
+    /**
+     * The next generation, being loaded.
+     */
+    private int[] nextGeneration = new int[16];
+
+    /**
+     * How many node_id(s) there are in the next generation.
+     */
+    private int nextGenerationLength;
+
+    /**
+     * The depth of the current generation: 0 for the root, 1 for its parents - or children - and so on.
+     */
+    private int depth;
+
+    /**
+     * How many links led to nodes visited already.
+     */
+    private int repeatCount;
+
+    /**
+     * Is this walk canceled?
+     */
+    private volatile boolean canceled;
+
+    /**
+     * Constructor. The root node itself is the generation at depth 0: the first call to {@link #next} returns its
+     * parents - or children.
+     *
+     * @param storage the graph storage.
+     * @param database the database.
+     * @param rootId the root node_id.
+     * @param edge the edge group to follow - see {@link GraphStorage#getParentsEdge} and
+     *            {@link GraphStorage#getChildrenEdge}.
+     * @param maxDepth the maximum depth: how many generations to walk.
+     */
+    public LineageTraversal( final GraphStorage storage, final SQLiteDatabase database, final int rootId,
+                             final int edge, final int maxDepth )
+    {
+        if ( edge < 0 || storage.getEdgeCount() <= edge )
+        {
+            throw new IllegalArgumentException( "bad edge index: " + edge );
+        }
+        this.storage = storage;
+        this.database = database;
+        this.edge = edge;
+        this.maxDepth = maxDepth;
+        visited.put( rootId, LineageTraversal.NO_NODE_ID );
+        generation[generationLength++] = rootId;
+    }
+
+    /**
+     * Cancel this walk: {@link #hasNext} returns false, and {@link #next} returns as soon as possible.
+     */
+    public void cancel()
+    {
+        canceled = true;
+    }
+
+    /**
+     * Was this walk canceled?
+     *
+     * @return true if {@link #cancel} was called.
+     */
+    public boolean isCanceled()
+    {
+        return canceled;
+    }
+
+    /**
+     * Is there any generation left to walk? This is true until the maximum depth is reached, or the last generation
+     * was empty, or this walk was canceled.
+     *
+     * @return true if {@link #next} may return more nodes.
+     */
+    public boolean hasNext()
+    {
+        return !canceled && depth < maxDepth && 0 < generationLength;
+    }
+
+    /**
+     * Load the next generation.
+     *
+     * @return how many new nodes there are in the next generation - see {@link #getNodeId}.
+     * @throws IOException on error.
+     */
+    public int next()
+        throws IOException
+    {
+        Debug.enter( depth + 1 );
+
+        final int chunkSize = GraphResources.NODE_ID_CHUNK_SIZE;
+        for ( int offset = 0; offset < generationLength && !canceled; offset += chunkSize )
+        {
+            final int count = Math.min( generationLength - offset, chunkSize );
+            storage.loadLinks( database, generation, offset, count, this );
+        }
+
+        final int[] swap = generation;
+        generation = nextGeneration;
+        generationLength = nextGenerationLength;
+        nextGeneration = swap;
+        nextGenerationLength = 0;
+        ++depth;
+
+        Debug.leave( generationLength, "nodes", canceled ? "(canceled)" : "" );
+        return generationLength;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onLink( final int nodeId, final int linkEdge, final int linkId )
+    {
+        if ( linkEdge != edge )
+        {
+            return;
+        }
+        if ( !visited.putIfAbsent( linkId, nodeId ) )
+        {
+            ++repeatCount;
+            return;
+        }
+        if ( nextGenerationLength == nextGeneration.length )
+        {
+            final int[] array = new int[2 * nextGeneration.length];
+            System.arraycopy( nextGeneration, 0, array, 0, nextGenerationLength );
+            nextGeneration = array;
+        }
+        nextGeneration[nextGenerationLength++] = linkId;
+    }
+
+    /**
+     * Get the depth of the current generation.
+     *
+     * @return 0 before the first call to {@link #next}, then 1, 2, and so on.
+     */
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    /**
+     * Get one node_id of the current generation.
+     *
+     * @param index the node index, from 0 up to the value returned by {@link #next}.
+     * @return the node_id.
+     */
+    public int getNodeId( final int index )
+    {
+        return generation[index];
+    }
+
+    /**
+     * Get the node_id which the given visited node was first reached from: its child when walking the ancestors, or its
+     * parent when walking the descendants.
+     *
+     * @param nodeId the visited node_id.
+     * @return the node_id it was reached from, or NO_NODE_ID for the root and for nodes not visited.
+     */
+    public int getFromId( final int nodeId )
+    {
+        return visited.get( nodeId, LineageTraversal.NO_NODE_ID );
+    }
+
+    /**
+     * Was the given node visited?
+     *
+     * @param nodeId the node_id.
+     * @return true if the node is the root, or it was returned in some generation.
+     */
+    public boolean isVisited( final int nodeId )
+    {
+        return visited.containsKey( nodeId );
+    }
+
+    /**
+     * Get how many nodes were visited, including the root.
+     *
+     * @return the number of visited nodes.
+     */
+    public int getVisitedCount()
+    {
+        return visited.size();
+    }
+
+    /**
+     * Get how many links led to nodes visited already: pedigree collapse, and parent cycles.
+     *
+     * @return the number of repeated links.
+     */
+    public int getRepeatCount()
+    {
+        return repeatCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "LineageTraversal[depth=" + depth + "/" + maxDepth + ", visited=" + visited.size() + ", repeated="
+            + repeatCount + "]";
+    }
+}
@@ -0,0 +1,263 @@
+package ca.chaves.android.graph;
+
+import ca.chaves.android.util.Debug;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class manages the name index of the {@link GraphStorage} database: the names_tab table, with one row for each
+ * word of each node name, folded by {@link NameSearch#fold}. It checks that the index is there - rebuilding it if
+ * needed - and it runs the prefix searches against it.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+final class NameIndex
+{
+    /**
+     * How many name index rows are scanned between two {@link NameSearch.Listener} updates.
+     */
+    private static final int ROWS_PER_UPDATE = 64;
+
+    /**
+     * The storage resources - the SQL statements.
+     */
+    private final GraphResources resources;
+
+    /**
+     * The compiled statements cache.
+     */
+    private final StatementCache statements;
+
+    /**
+     * Constructor.
+     *
+     * @param resources the storage resources - the SQL statements.
+     * @param statements the compiled statements cache.
+     */
+    NameIndex( final GraphResources resources, final StatementCache statements )
+    {
+        this.resources = resources;
+        this.statements = statements;
+    }
+
+    /**
+     * Build the name index, unless the database has it already. The index has one row for each word in the "name" and
+     * "aka" attributes, folded by {@link NameSearch#fold}, so that prefix searches are plain index range scans. The
+     * index is saved with the {@link NameSearch#FOLD_VERSION} it was built with, and an index built with other folding
+     * rules is built again.
+     * <p/>
+     * share/tools/familyTree_yaml.py builds the name index together with the database, which ships with it: so this
+     * function is just a cheap schema check. Building the index here is a fallback for databases built without it, and
+     * it is logged as an error. {@link GraphStorage#resetStorage} calls this function before returning, so the index
+     * is never being written while other connections read the database.
+     *
+     * @param database where to build the name index.
+     * @return true if the name index was built now, false if it was there already.
+     */
+    boolean create( final SQLiteDatabase database )
+    {
+        Debug.enter();
+
+        long foldVersion = -1;
+        final SQLiteStatement countStmt = database.compileStatement( resources.selectNameIndexStmt );
+        try
+        {
+            if ( 0 < countStmt.simpleQueryForLong() )
+            {
+                final SQLiteStatement versionStmt = database.compileStatement( resources.selectNameVersionStmt );
+                try
+                {
+                    foldVersion = versionStmt.simpleQueryForLong();
+                }
+                finally
+                {
+                    versionStmt.close();
+                }
+            }
+        }
+        finally
+        {
+            countStmt.close();
+        }
+        if ( foldVersion == NameSearch.FOLD_VERSION )
+        {
+            Debug.leave( "name index found" );
+            return false;
+        }
+        Debug.error( null, "name index not found: fold version", foldVersion, "expected", NameSearch.FOLD_VERSION );
+
+        final long buildStart = System.nanoTime();
+        int nameCount = 0;
+        int wordCount = 0;
+
+        database.beginTransaction();
+        try
+        {
+            for ( final String stmt : resources.createNameIndexStmts )
+            {
+                Debug.print( stmt );
+                database.execSQL( stmt );
+            }
+            final SQLiteStatement insertStmt = database.compileStatement( resources.insertNameStmt );
+            Debug.print( "execute:", resources.selectNamesStmt );
+            final Cursor cursor = database.rawQuery( resources.selectNamesStmt, null );
+            try
+            {
+                if ( cursor.moveToFirst() )
+                {
+                    int lastNodeId = 0;
+                    String nodeLabel = null;
+                    do
+                    {
+                        final int nodeId = cursor.getInt( 0 );
+                        final int attributeId = cursor.getInt( 1 );
+                        final String name = cursor.getString( 2 );
+                        // rows come in attribute_id order, so the "name" attribute is the first one - if present
+                        if ( nameCount == 0 || nodeId != lastNodeId || attributeId == GraphStorage.NAME_ATTRIBUTE_ID )
+                        {
+                            nodeLabel = name;
+                            lastNodeId = nodeId;
+                        }
+                        final String foldedName = NameSearch.fold( name );
+                        final String[] words = NameSearch.split( foldedName );
+                        for ( int word = 0; word < words.length; ++word )
+                        {
+                            if ( NameIndex.indexOf( words, word ) < word )
+                            {
+                                continue; // repeated word
+                            }
+                            insertStmt.bindString( 1, words[word] );
+                            insertStmt.bindLong( 2, nodeId );
+                            insertStmt.bindLong( 3, attributeId );
+                            insertStmt.bindString( 4, foldedName );
+                            insertStmt.bindString( 5, nodeLabel );
+                            insertStmt.executeInsert();
+                            ++wordCount;
+                        }
+                        ++nameCount;
+                    }
+                    while ( cursor.moveToNext() );
+                }
+            }
+            finally
+            {
+                cursor.close();
+                insertStmt.close();
+            }
+            final SQLiteStatement versionStmt = database.compileStatement( resources.insertNameVersionStmt );
+            try
+            {
+                versionStmt.bindLong( 1, NameSearch.FOLD_VERSION );
+                versionStmt.executeInsert();
+            }
+            finally
+            {
+                versionStmt.close();
+            }
+            database.setTransactionSuccessful();
+        }
+        finally
+        {
+            database.endTransaction();
+        }
+
+        Debug.leave( nameCount, "names", wordCount, "words", ( System.nanoTime() - buildStart ) / 1000, "us" );
+        return true;
+    }
+
+    /**
+     * Search nodes by name. Each query word must be the prefix of a different word in the node "name" or "aka"
+     * attributes; case and accents are ignored. The name index must exist - see {@link #create}.
+     * <p/>
+     * The listener, if any, receives the best matches found so far while the name index is scanned, and then the final
+     * results. It may stop the search early.
+     *
+     * @param database where the name index is.
+     * @param query the text entered by the user.
+     * @param maxResults the maximum number of results.
+     * @param listener the search listener, or null.
+     * @return the ranked node_id(s) and node label(s).
+     * @throws IOException on error.
+     */
+    GraphValueList search( final SQLiteDatabase database, final String query, final int maxResults,
+                           final NameSearch.Listener listener )
+        throws IOException
+    {
+        Debug.enter( query );
+
+        final long searchStart = System.nanoTime();
+
+        final NameSearch search = new NameSearch( query );
+        boolean searching = !search.isEmpty();
+        if ( searching )
+        {
+            // all words starting with the key word: keyWord <= word < keyWord + U+FFFF
+            final String keyWord = search.getKeyWord();
+            final String selectStmt = resources.selectNamesByKeyStmt;
+            final String[] selectArgs = new String[]{keyWord, keyWord + '\uffff'};
+            Debug.print( "execute:", selectStmt, Arrays.toString( selectArgs ) );
+            final Cursor cursor = statements.query( database, selectStmt, selectArgs );
+            try
+            {
+                if ( cursor.moveToFirst() )
+                {
+                    int rowCount = 0;
+                    int reportCount = 0;
+                    do
+                    {
+                        final int score = search.score( cursor.getInt( 1 ), cursor.getString( 2 ) );
+                        if ( 0 <= score )
+                        {
+                            search.add( Integer.valueOf( cursor.getInt( 0 ) ), cursor.getString( 3 ), score );
+                        }
+                        if ( listener != null && ++rowCount % NameIndex.ROWS_PER_UPDATE == 0
+                            && reportCount < search.getMatchCount() )
+                        {
+                            reportCount = search.getMatchCount();
+                            searching = listener.onResults( search.getResults( maxResults ), false );
+                        }
+                    }
+                    while ( searching && cursor.moveToNext() );
+                }
+            }
+            finally
+            {
+                statements.release( database, selectStmt, cursor );
+            }
+        }
+
+        final GraphValueList results = search.getResults( maxResults );
+        if ( listener != null && ( searching || search.isEmpty() ) )
+        {
+            listener.onResults( results, true );
+        }
+
+        Debug.leave( results.length, "results", ( System.nanoTime() - searchStart ) / 1000, "us" );
+        return results;
+    }
+
+    /**
+     * Find the first occurrence of a word.
+     *
+     * @param words the words.
+     * @param end where to stop looking.
+     * @return the index of the first word equal to words[end].
+     */
+    private static int indexOf( final String[] words, final int end )
+    {
+        for ( int index = 0; index < end; ++index )
+        {
+            if ( words[index].equals( words[end] ) )
+            {
+                return index;
+            }
+        }
+        return end;
+    }
+}
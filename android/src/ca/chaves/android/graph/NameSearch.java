@@ -0,0 +1,322 @@
+package ca.chaves.android.graph;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * This class matches and ranks node names against one name search query. Names and queries are folded first - see
+ * {@link #fold} - so "jose munoz" finds "Jos&eacute; Mu&ntilde;oz". Each query word must be the prefix of a different
+ * word in the name, in any order.
+ * <p/>
+ * Matches are ranked by: "name" attribute before "aka" attributes, more whole words, the first query word matching the
+ * first name word, and shorter names. Use {@link GraphStorage#searchNames} to run the query against the name index.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public final class NameSearch
+{
+    /**
+     * Search listener.
+     */
+    public interface Listener
+    {
+        /**
+         * Action after more matches were found.
+         *
+         * @param results the best matches found so far, ranked: node_id(s) and node label(s).
+         * @param complete true if the search is over, false if more results may follow.
+         * @return true to keep searching, false to stop now.
+         */
+        boolean onResults( GraphValueList results, boolean complete );
+    };
+
+    /**
+     * The default maximum number of results.
+     */
+    public static final int DEFAULT_MAX_RESULTS = 50;
+
+    /**
+     * The version of the {@link #fold} and {@link #split} rules. The name index is saved with the version it was built
+     * with, and it is built again on a mismatch: so bump this value whenever these rules change - and change
+     * share/tools/familyTree_yaml.py too, which builds the shipped name index with the same rules.
+     */
+    public static final int FOLD_VERSION = 1;
+
+    /**
+     * The folded letters for the characters U+00C0 to U+00FF - a blank means "not a letter".
+     */
+    private static final String LATIN_1_FOLDING = //
+        "aaaaaaaceeeeiiiidnooooo ouuuuy\u00fes" + //
+        "aaaaaaaceeeeiiiidnooooo ouuuuy\u00fey";
+
+    /**
+     * The query words, folded.
+     */
+    private final String[] queryWords;
+
+    /**
+     * The best match for each node_id: the index into the arrays below.
+     */
+    private final HashMap<Integer, Integer> matchByNodeId = new HashMap<Integer, Integer>();
+
+    /**
+     * The matched node_id(s).
+     */
+    private Integer[] nodeIds = new Integer[16];
+
+    /**
+     * The matched node label(s).
+     */
+    private String[] nodeLabels = new String[16];
+
+    /**
+     * The match scores - higher is better.
+     */
+    private int[] scores = new int[16];
+
+    /**
+     * How many nodes were matched.
+     */
+    private int length;
+
+    /**
+     * Constructor.
+     *
+     * @param query the text entered by the user.
+     */
+    public NameSearch( final String query )
+    {
+        queryWords = NameSearch.split( NameSearch.fold( query ) );
+    }
+
+    // -------
+    // Folding
+    // -------
+
+    /**
+     * Fold the given text: lower case, accents removed, and words separated by one single blank. For example,
+     * "Mu&ntilde;oz Chaves, &Aacute;ngela" becomes "munoz chaves angela".
+     *
+     * @param text the text to fold.
+     * @return the folded text.
+     */
+    public static String fold( final CharSequence text )
+    {
+        final StringBuilder folded = new StringBuilder( text.length() );
+        boolean blank = true;
+        for ( int index = 0; index < text.length(); ++index )
+        {
+            final char letter = Character.toLowerCase( text.charAt( index ) );
+            if ( letter == '\u00e6' )
+            {
+                folded.append( "ae" );
+                blank = false;
+            }
+            else if ( letter == '\u00df' )
+            {
+                folded.append( "ss" );
+                blank = false;
+            }
+            else if ( '\u00e0' <= letter && letter <= '\u00ff'
+                && NameSearch.LATIN_1_FOLDING.charAt( letter - '\u00c0' ) != ' ' )
+            {
+                folded.append( NameSearch.LATIN_1_FOLDING.charAt( letter - '\u00c0' ) );
+                blank = false;
+            }
+            else if ( letter < '\u00c0' ? Character.isLetterOrDigit( letter ) : Character.isLetter( letter ) )
+            {
+                folded.append( letter );
+                blank = false;
+            }
+            else if ( !blank )
+            {
+                folded.append( ' ' );
+                blank = true;
+            }
+        }
+        if ( blank && 0 < folded.length() )
+        {
+            folded.setLength( folded.length() - 1 );
+        }
+        return folded.toString();
+    }
+
+    /**
+     * Split a folded text into words.
+     *
+     * @param folded the folded text.
+     * @return the words.
+     */
+    public static String[] split( final String folded )
+    {
+        return ( folded.length() == 0 ) ? new String[0] : folded.split( " " );
+    }
+
+    // --------
+    // Matching
+    // --------
+
+    /**
+     * Is the query empty?
+     *
+     * @return true if the query has no words.
+     */
+    public boolean isEmpty()
+    {
+        return queryWords.length == 0;
+    }
+
+    /**
+     * Get the query word to look up in the name index: the longest one, because it matches the fewest names.
+     *
+     * @return the key word, or null if the query is empty.
+     */
+    public String getKeyWord()
+    {
+        String keyWord = null;
+        for ( final String word : queryWords )
+        {
+            if ( keyWord == null || keyWord.length() < word.length() )
+            {
+                keyWord = word;
+            }
+        }
+        return keyWord;
+    }
+
+    /**
+     * Score one name against the query.
+     *
+     * @param attributeId the name attribute_id.
+     * @param foldedName the folded name.
+     * @return the match score - higher is better - or -1 if the name does not match.
+     */
+    public int score( final int attributeId, final String foldedName )
+    {
+        final String[] nameWords = NameSearch.split( foldedName );
+        final boolean[] used = new boolean[nameWords.length];
+        int score = ( attributeId == GraphStorage.NAME_ATTRIBUTE_ID ) ? 1000 : 0;
+        for ( int query = 0; query < queryWords.length; ++query )
+        {
+            final String queryWord = queryWords[query];
+            // prefer a whole word, then the first prefix
+            int match = -1;
+            for ( int name = 0; name < nameWords.length; ++name )
+            {
+                if ( !used[name] && nameWords[name].startsWith( queryWord ) )
+                {
+                    if ( match < 0 || nameWords[name].length() == queryWord.length() )
+                    {
+                        match = name;
+                    }
+                    if ( nameWords[name].length() == queryWord.length() )
+                    {
+                        break;
+                    }
+                }
+            }
+            if ( match < 0 )
+            {
+                return -1;
+            }
+            used[match] = true;
+            score += ( nameWords[match].length() == queryWord.length() ) ? 100 : 50;
+            if ( query == 0 && match == 0 )
+            {
+                score += 80;
+            }
+        }
+        return score - nameWords.length;
+    }
+
+    /**
+     * Add one matched node. If the node was matched already, only the best score is kept.
+     *
+     * @param nodeId the node_id.
+     * @param nodeLabel the node label.
+     * @param score the match score.
+     */
+    public void add( final Integer nodeId, final String nodeLabel, final int score )
+    {
+        final Integer match = matchByNodeId.get( nodeId );
+        if ( match != null )
+        {
+            final int index = match.intValue();
+            if ( scores[index] < score )
+            {
+                scores[index] = score;
+            }
+            return;
+        }
+        if ( length == nodeIds.length )
+        {
+            final int capacity = 2 * length;
+            final Integer[] newNodeIds = new Integer[capacity];
+            final String[] newNodeLabels = new String[capacity];
+            final int[] newScores = new int[capacity];
+            System.arraycopy( nodeIds, 0, newNodeIds, 0, length );
+            System.arraycopy( nodeLabels, 0, newNodeLabels, 0, length );
+            System.arraycopy( scores, 0, newScores, 0, length );
+            nodeIds = newNodeIds;
+            nodeLabels = newNodeLabels;
+            scores = newScores;
+        }
+        matchByNodeId.put( nodeId, Integer.valueOf( length ) );
+        nodeIds[length] = nodeId;
+        nodeLabels[length] = nodeLabel;
+        scores[length] = score;
+        ++length;
+    }
+
+    /**
+     * Get how many nodes were matched so far.
+     *
+     * @return the number of matched nodes.
+     */
+    public int getMatchCount()
+    {
+        return length;
+    }
+
+    /**
+     * Get the best matches found so far.
+     *
+     * @param maxResults the maximum number of results.
+     * @return the ranked node_id(s) and node label(s).
+     */
+    public GraphValueList getResults( final int maxResults )
+    {
+        final Integer[] order = new Integer[length];
+        for ( int index = 0; index < length; ++index )
+        {
+            order[index] = Integer.valueOf( index );
+        }
+        Arrays.sort( order, new Comparator<Integer>()
+        {
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public int compare( final Integer left, final Integer right )
+            {
+                final int leftScore = scores[left.intValue()];
+                final int rightScore = scores[right.intValue()];
+                if ( leftScore != rightScore )
+                {
+                    return ( leftScore < rightScore ) ? 1 : -1;
+                }
+                return nodeLabels[left.intValue()].compareTo( nodeLabels[right.intValue()] );
+            }
+        } );
+
+        final GraphValueList results = new GraphValueList( null );
+        for ( int rank = 0; rank < order.length && rank < maxResults; ++rank )
+        {
+            final int index = order[rank].intValue();
+            results.add( nodeIds[index].intValue(), nodeLabels[index] );
+        }
+        return results;
+    }
+}
@@ -13,7 +13,7 @@ public class NavigationMenu
     /**
      * The history of nodeId(s). The most recent is the first in this array.
      */
-    public final Integer[] nodeIds;
+    public final int[] nodeIds;
 
     /**
      * The history of nodeLabel(s). The most recent is the first in this array.
@@ -34,7 +34,7 @@ public class NavigationMenu
 
         if ( path.length <= maxLen )
         {
-            nodeIds = new Integer[path.length];
+            nodeIds = new int[path.length];
             nodeLabels = new String[path.length];
 
             System.arraycopy( path.array_0, 0, nodeIds, 0, path.length );
@@ -42,7 +42,7 @@ public class NavigationMenu
         }
         else
         {
-            nodeIds = new Integer[maxLen];
+            nodeIds = new int[maxLen];
             nodeLabels = new String[maxLen];
 
             nodeIds[0] = path.array_0[0];
@@ -71,6 +71,24 @@ public class NavigationMenu
         Debug.leave();
     }
 
+    /**
+     * Reverse array in-place.
+     *
+     * @param array to be reversed.
+     */
+    private static void reverse( final int[] array )
+    {
+        int head = -1;
+        int tail = array.length;
+        while ( ++head < --tail )
+        {
+            // swap them
+            final int elem = array[head];
+            array[head] = array[tail];
+            array[tail] = elem;
+        }
+    }
+
     /**
      * Reverse array in-place.
      *
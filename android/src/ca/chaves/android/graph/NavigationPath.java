@@ -1,7 +1,7 @@
 package ca.chaves.android.graph;
 
 import ca.chaves.android.util.Debug;
-import ca.chaves.android.util.PairList;
+import ca.chaves.android.util.IntPairList;
 
 /**
  * This class stores a navigation path, from a starting <code>(nodeId, nodeLabel)</code> up to an ending
@@ -11,7 +11,7 @@ import ca.chaves.android.util.PairList;
  * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
  */
 public class NavigationPath
-    extends PairList<Integer, String>
+    extends IntPairList
 {
     /**
      * The max depth to keep in the navigation path.
@@ -34,14 +34,14 @@ public class NavigationPath
     /**
      * Get the current position's nodeId.
      *
-     * @return the current nodeId.
+     * @return the current nodeId, or null if the path is empty.
      */
     public Integer getNodeId()
     {
         Integer nodeId = null;
         if ( 0 < next )
         {
-            nodeId = array_0[next - 1];
+            nodeId = Integer.valueOf( array_0[next - 1] );
         }
         return nodeId;
     }
@@ -93,15 +93,15 @@ public class NavigationPath
      * @param nodeId the nodeId for the new position forward.
      * @param nodeLabel the nodeLabel for the new position forward.
      */
-    public void stepForward( final Integer nodeId, final String nodeLabel )
+    public void stepForward( final int nodeId, final String nodeLabel )
     {
         Debug.enter( next, nodeId, nodeLabel );
 
-        if ( next < length && nodeId.equals( array_0[next] ) )
+        if ( next < length && nodeId == array_0[next] )
         {
             ++next;
         }
-        else if ( 0 < next && nodeId.equals( array_0[next - 1] ) )
+        else if ( 0 < next && nodeId == array_0[next - 1] )
         {
             // do nothing - just remain here
         }
@@ -111,13 +111,10 @@ public class NavigationPath
             remove( next, length - next );
 
             // remove any previous instance, just in case we are re-visiting an old position
-            for ( int index = 0; index < length; ++index )
+            final int index = indexOf( nodeId );
+            if ( 0 <= index )
             {
-                if ( nodeId.equals( array_0[index] ) )
-                {
-                    remove( index, 1 );
-                    break;
-                }
+                remove( index, 1 );
             }
 
             // discard all old steps once we reach the MAX_DEPTH limit,
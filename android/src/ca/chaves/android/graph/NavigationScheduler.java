@@ -0,0 +1,301 @@
+package ca.chaves.android.graph;
+
+import ca.chaves.android.util.Debug;
+
+/**
+ * This class schedules the background node loads of a navigation: only the latest requested node is loaded. Each new
+ * request supersedes all previous ones, and superseded requests are dropped before they touch the database - so rapid
+ * clicks or back-taps do not queue stale loads. Requesting the node already being loaded is coalesced into the running
+ * request.
+ * <p/>
+ * The request life cycle is: {@link #submit} in foreground, {@link #start} in background right before the load,
+ * {@link #isCurrent} before reporting its results, and {@link #finish} in foreground once done or canceled.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public final class NavigationScheduler
+{
+    /**
+     * One node load request.
+     */
+    public static final class Request
+    {
+        /**
+         * The node to load, or null for the default node.
+         */
+        public final Integer nodeId;
+
+        /**
+         * The default node label.
+         */
+        public final String nodeLabel;
+
+        /**
+         * The request generation - only the latest generation is current.
+         */
+        final int generation;
+
+        /**
+         * When this request was submitted, in nanoseconds.
+         */
+        final long submitTime;
+
+        /**
+         * How long this request waited until its load started, in nanoseconds; or -1 if not started.
+         */
+        long queueLatency = -1;
+
+        /**
+         * Whether this request has finished.
+         */
+        boolean finished;
+
+        /**
+         * Constructor.
+         *
+         * @param nodeId the node to load.
+         * @param nodeLabel the default node label.
+         * @param generation the request generation.
+         */
+        Request( final Integer nodeId, final String nodeLabel, final int generation )
+        {
+            this.nodeId = nodeId;
+            this.nodeLabel = nodeLabel;
+            this.generation = generation;
+            this.submitTime = System.nanoTime();
+        }
+
+        /**
+         * Get how long this request waited until its load started.
+         *
+         * @return the queue latency in nanoseconds, or -1 if the load has not started.
+         */
+        public long getQueueLatency()
+        {
+            return queueLatency;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString()
+        {
+            return "Request[" + nodeId + ", generation=" + generation + ", queued=" + ( queueLatency / 1000 ) + "us]";
+        }
+    }
+
+    /**
+     * The latest request, or null if none yet.
+     */
+    private Request latest;
+
+    /**
+     * The latest request generation.
+     */
+    private int generation;
+
+    /**
+     * How many requests were submitted, coalesced ones included.
+     */
+    private int submitCount;
+
+    /**
+     * How many requests were coalesced into an identical unfinished request.
+     */
+    private int coalescedCount;
+
+    /**
+     * How many requests were dropped before their load started.
+     */
+    private int supersededCount;
+
+    /**
+     * How many loads were started.
+     */
+    private int startCount;
+
+    /**
+     * The sum of all queue latencies, in nanoseconds.
+     */
+    private long totalQueueLatency;
+
+    /**
+     * The maximum queue latency, in nanoseconds.
+     */
+    private long maxQueueLatency;
+
+    /**
+     * Submit a new load request, which supersedes all previous ones.
+     *
+     * @param nodeId the node to load, or null for the default node.
+     * @param nodeLabel the default node label.
+     * @return the new request, or null if the same node is already being loaded.
+     */
+    public Request submit( final Integer nodeId, final String nodeLabel )
+    {
+        synchronized ( this )
+        {
+            ++submitCount;
+            if ( latest != null && !latest.finished
+                && ( ( latest.nodeId == null ) ? ( nodeId == null ) : latest.nodeId.equals( nodeId ) ) )
+            {
+                ++coalescedCount;
+                Debug.print( "coalesced into", latest );
+                return null;
+            }
+            latest = new Request( nodeId, nodeLabel, ++generation );
+            return latest;
+        }
+    }
+
+    /**
+     * Start loading the given request. This function must be called in background, before touching the database.
+     *
+     * @param request the request.
+     * @return true if the request must be loaded, false if it has been superseded.
+     */
+    public boolean start( final Request request )
+    {
+        synchronized ( this )
+        {
+            if ( request.generation != generation )
+            {
+                ++supersededCount;
+                Debug.print( "superseded", request );
+                return false;
+            }
+            request.queueLatency = System.nanoTime() - request.submitTime;
+            ++startCount;
+            totalQueueLatency += request.queueLatency;
+            maxQueueLatency = Math.max( maxQueueLatency, request.queueLatency );
+            Debug.print( "started", request );
+            return true;
+        }
+    }
+
+    /**
+     * Check if the given request is still the latest one.
+     *
+     * @param request the request.
+     * @return true if no other request has been submitted since.
+     */
+    public boolean isCurrent( final Request request )
+    {
+        synchronized ( this )
+        {
+            return request.generation == generation;
+        }
+    }
+
+    /**
+     * Finish the given request, loaded or canceled. From now on, requesting the same node loads it again.
+     *
+     * @param request the request.
+     */
+    public void finish( final Request request )
+    {
+        synchronized ( this )
+        {
+            request.finished = true;
+        }
+    }
+
+    // ----------
+    // Statistics
+    // ----------
+
+    /**
+     * Get how many requests were submitted, coalesced ones included.
+     *
+     * @return the submit count.
+     */
+    public int getSubmitCount()
+    {
+        synchronized ( this )
+        {
+            return submitCount;
+        }
+    }
+
+    /**
+     * Get how many requests were coalesced into an identical unfinished request.
+     *
+     * @return the coalesced count.
+     */
+    public int getCoalescedCount()
+    {
+        synchronized ( this )
+        {
+            return coalescedCount;
+        }
+    }
+
+    /**
+     * Get how many requests were dropped before their load started.
+     *
+     * @return the superseded count.
+     */
+    public int getSupersededCount()
+    {
+        synchronized ( this )
+        {
+            return supersededCount;
+        }
+    }
+
+    /**
+     * Get how many loads were started.
+     *
+     * @return the start count.
+     */
+    public int getStartCount()
+    {
+        synchronized ( this )
+        {
+            return startCount;
+        }
+    }
+
+    /**
+     * Get the average queue latency of all started loads.
+     *
+     * @return the average queue latency, in nanoseconds.
+     */
+    public long getAverageQueueLatency()
+    {
+        synchronized ( this )
+        {
+            return totalQueueLatency / Math.max( 1, startCount );
+        }
+    }
+
+    /**
+     * Get the maximum queue latency of all started loads.
+     *
+     * @return the maximum queue latency, in nanoseconds.
+     */
+    public long getMaxQueueLatency()
+    {
+        synchronized ( this )
+        {
+            return maxQueueLatency;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        synchronized ( this )
+        {
+            return "NavigationScheduler[submitted=" + submitCount + ", coalesced=" + coalescedCount + ", superseded="
+                + supersededCount + ", started=" + startCount + ", queue latency avg="
+                + ( totalQueueLatency / Math.max( 1, startCount ) / 1000 ) + "us max=" + ( maxQueueLatency / 1000 )
+                + "us]";
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package ca.chaves.android.graph;
+
+import ca.chaves.android.util.Debug;
+import ca.chaves.android.util.IntIntMap;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.IOException;
+
+/**
+ * This class finds how two nodes are related: the shortest path between them, following the parent, partner, child
+ * and sibling links. It runs a bidirectional breadth-first search - one search from each node, always expanding the
+ * smaller frontier, until both searches meet - so it only visits a small part of the graph, even for distant
+ * relatives. Relations are followed both ways: a path may go up to a common ancestor and then down again. The search
+ * from the second node assumes that links are stored both ways, as they are in the family tree; across the rare links
+ * stored only one way, the path found may be one step longer than the shortest one.
+ * <p/>
+ * The search only reads links - see {@link GraphStorage#loadLinks} - so it works the same against the database,
+ * {@link GraphResources#NODE_ID_CHUNK_SIZE} nodes per query, as against the in-memory graph or the graph file. Only
+ * the nodes on the shortest path are loaded, once the path is found, to get their labels and edge group names.
+ * <p/>
+ * A search can be canceled from another thread with {@link #cancel}; it is checked between chunks.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public final class PathFinder
+{
+    /**
+     * The default maximum path distance.
+     */
+    public static final int DEFAULT_MAX_DEPTH = 12;
+
+    /**
+     * The node_id stored as the "previous node" of the search roots.
+     */
+    private static final int NO_NODE_ID = Integer.MIN_VALUE;
+
+    /**
+     * The graph storage.
+     */
+    private final GraphStorage storage;
+
+    /**
+     * The database.
+     */
+    private final SQLiteDatabase database;
+
+    /**
+     * Is the current search canceled?
+     */
+    private volatile boolean canceled;
+
+    /**
+     * One search side: the visited nodes, with the node each one was reached from, and the current frontier.
+     */
+    private static final class Side
+        implements GraphStorage.LinkVisitor
+    {
+        /**
+         * The visited node_id(s), mapped to the node_id they were reached from.
+         */
+        final IntIntMap previous = new IntIntMap( 64 );
+
+        /**
+         * The other search side.
+         */
+        Side other;
+
+        /**
+         * The current frontier: the node_id(s) found in the last level.
+         */
+        int[] frontier = new int[16];
+
+        /**
+         * How many node_id(s) there are in the current frontier.
+         */
+        int frontierLength;
+
+        /**
+         * The next frontier, being built.
+         */
+        int[] nextFrontier = new int[16];
+
+        /**
+         * How many node_id(s) there are in the next frontier.
+         */
+        int nextFrontierLength;
+
+        /**
+         * The distance between the search root and the current frontier.
+         */
+        int depth;
+
+        /**
+         * The node_id(s) where both searches met, during the last level.
+         */
+        int[] meetings = new int[4];
+
+        /**
+         * How many node_id(s) there are in 'meetings'.
+         */
+        int meetingCount;
+
+        /**
+         * Constructor.
+         *
+         * @param rootId the search root node_id.
+         */
+        Side( final int rootId )
+        {
+            previous.put( rootId, PathFinder.NO_NODE_ID );
+            frontier[frontierLength++] = rootId;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onLink( final int nodeId, final int edge, final int linkId )
+        {
+            if ( !previous.putIfAbsent( linkId, nodeId ) )
+            {
+                return;
+            }
+            if ( nextFrontierLength == nextFrontier.length )
+            {
+                nextFrontier = PathFinder.grow( nextFrontier );
+            }
+            nextFrontier[nextFrontierLength++] = linkId;
+            if ( other.previous.containsKey( linkId ) )
+            {
+                if ( meetingCount == meetings.length )
+                {
+                    meetings = PathFinder.grow( meetings );
+                }
+                meetings[meetingCount++] = linkId;
+            }
+        }
+
+        /**
+         * Replace the current frontier by the next one.
+         */
+        void advance()
+        {
+            final int[] swap = frontier;
+            frontier = nextFrontier;
+            frontierLength = nextFrontierLength;
+            nextFrontier = swap;
+            nextFrontierLength = 0;
+            ++depth;
+        }
+
+        /**
+         * Get the distance between the search root and the given visited node.
+         *
+         * @param nodeId the visited node_id.
+         * @return the distance.
+         */
+        int depthOf( final int nodeId )
+        {
+            int distance = 0;
+            int id = previous.get( nodeId, PathFinder.NO_NODE_ID );
+            while ( id != PathFinder.NO_NODE_ID )
+            {
+                id = previous.get( id, PathFinder.NO_NODE_ID );
+                ++distance;
+            }
+            return distance;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param storage the graph storage.
+     * @param database the database.
+     */
+    public PathFinder( final GraphStorage storage, final SQLiteDatabase database )
+    {
+        this.storage = storage;
+        this.database = database;
+    }
+
+    /**
+     * Cancel the current search: {@link #findPath} returns null as soon as possible.
+     */
+    public void cancel()
+    {
+        canceled = true;
+    }
+
+    /**
+     * Was the search canceled?
+     *
+     * @return true if {@link #cancel} was called.
+     */
+    public boolean isCanceled()
+    {
+        return canceled;
+    }
+
+    /**
+     * Find the shortest path between two nodes.
+     *
+     * @param fromId the first node_id.
+     * @param toId the second node_id.
+     * @param maxDepth the maximum path distance.
+     * @return the shortest path, or null if there is no path within 'maxDepth' links, or the search was canceled.
+     * @throws IOException on error.
+     */
+    public RelationshipPath findPath( final int fromId, final int toId, final int maxDepth )
+        throws IOException
+    {
+        Debug.enter( fromId, toId, maxDepth );
+
+        if ( fromId == toId )
+        {
+            final RelationshipPath path = createPath( new int[]{fromId} );
+            Debug.leave( path );
+            return path;
+        }
+
+        final Side forward = new Side( fromId );
+        final Side backward = new Side( toId );
+        forward.other = backward;
+        backward.other = forward;
+
+        while ( !canceled && forward.depth + backward.depth < maxDepth )
+        {
+            // expand the smaller frontier, one level - but never an empty one, because a few links are only stored
+            // one way, so the other side may still reach it
+            final Side side = ( 0 < forward.frontierLength && forward.frontierLength <= backward.frontierLength ) //
+                || backward.frontierLength == 0 ? forward : backward;
+            if ( side.frontierLength == 0 )
+            {
+                break;
+            }
+            final int chunkSize = GraphResources.NODE_ID_CHUNK_SIZE;
+            for ( int offset = 0; offset < side.frontierLength && !canceled; offset += chunkSize )
+            {
+                final int count = Math.min( side.frontierLength - offset, chunkSize );
+                storage.loadLinks( database, side.frontier, offset, count, side );
+            }
+            side.advance();
+
+            if ( canceled )
+            {
+                break;
+            }
+            if ( 0 < side.meetingCount )
+            {
+                final RelationshipPath path = createPath( join( forward, backward, side ) );
+                Debug.leave( path );
+                return path;
+            }
+        }
+
+        Debug.leave( "no path", canceled );
+        return null;
+    }
+
+    /**
+     * Join both searches into one single path, through the meeting node closest to both search roots.
+     *
+     * @param forward the search from the first node.
+     * @param backward the search from the second node.
+     * @param side the search side which found the meeting nodes.
+     * @return the path node_id(s), from the first node up to the second one.
+     */
+    private static int[] join( final Side forward, final Side backward, final Side side )
+    {
+        // all meetings are at the same distance from 'side', but not always from the other side
+        int meeting = side.meetings[0];
+        int otherDepth = side.other.depthOf( meeting );
+        for ( int index = 1; index < side.meetingCount; ++index )
+        {
+            final int depth = side.other.depthOf( side.meetings[index] );
+            if ( depth < otherDepth )
+            {
+                meeting = side.meetings[index];
+                otherDepth = depth;
+            }
+        }
+
+        final int forwardDepth = forward.depthOf( meeting );
+        final int[] nodeIds = new int[forwardDepth + backward.depthOf( meeting ) + 1];
+        int index = forwardDepth;
+        for ( int id = meeting; id != PathFinder.NO_NODE_ID; id = forward.previous.get( id, PathFinder.NO_NODE_ID ) )
+        {
+            nodeIds[index--] = id;
+        }
+        index = forwardDepth;
+        for ( int id = meeting; id != PathFinder.NO_NODE_ID; id = backward.previous.get( id, PathFinder.NO_NODE_ID ) )
+        {
+            nodeIds[index++] = id;
+        }
+        return nodeIds;
+    }
+
+    /**
+     * Load the path nodes, to get their labels and the edge group linking each one to the previous one.
+     *
+     * @param nodeIds the path node_id(s).
+     * @return the path.
+     * @throws IOException on error.
+     */
+    private RelationshipPath createPath( final int[] nodeIds )
+        throws IOException
+    {
+        final GraphNode[] nodes = storage.loadNodes( database, nodeIds );
+        final String[] nodeLabels = new String[nodeIds.length];
+        final String[] edgeNames = new String[nodeIds.length];
+        for ( int index = 0; index < nodeIds.length; ++index )
+        {
+            if ( nodes[index] == null )
+            {
+                throw new IOException( "path node not found: " + nodeIds[index] );
+            }
+            nodeLabels[index] = nodes[index].label;
+            if ( index == 0 )
+            {
+                continue;
+            }
+            final GraphNode previous = nodes[index - 1];
+            for ( int edge = 0; edge < storage.getEdgeCount() && edgeNames[index] == null; ++edge )
+            {
+                final GraphValueList links = previous.values[edge + GraphNode.INDEX_EXTRA_VALUES];
+                for ( int link = 0; link < links.length; ++link )
+                {
+                    if ( nodeIds[index] == links.array_0[link] )
+                    {
+                        edgeNames[index] = storage.getEdgeName( edge );
+                        break;
+                    }
+                }
+            }
+        }
+        return new RelationshipPath( nodeIds, nodeLabels, edgeNames );
+    }
+
+    /**
+     * Double the size of an int array.
+     *
+     * @param array the array.
+     * @return a copy of the array, twice as long.
+     */
+    private static int[] grow( final int[] array )
+    {
+        final int[] newArray = new int[2 * array.length];
+        System.arraycopy( array, 0, newArray, 0, array.length );
+        return newArray;
+    }
+}
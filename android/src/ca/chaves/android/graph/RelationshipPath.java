@@ -0,0 +1,65 @@
+package ca.chaves.android.graph;
+
+/**
+ * This class stores the shortest path between two related nodes, as found by {@link PathFinder}. It is a regular
+ * {@link NavigationPath} - <code>(nodeId, nodeLabel)</code> from the first node up to the second one - so the browser
+ * can replay it step by step. Each step also keeps the edge group which links it to the previous node: for example,
+ * "Parents" means that the node is one of the previous node's parents.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public class RelationshipPath
+    extends NavigationPath
+{
+    /**
+     * The edge group name for each step: edgeNames[i] is the previous node's edge group containing the node i.
+     * edgeNames[0] is always null, and so is any link which is only stored the other way around.
+     */
+    public final String[] edgeNames;
+
+    /**
+     * Constructor.
+     *
+     * @param nodeIds the node_id(s), from the first node up to the second one.
+     * @param nodeLabels the node label(s).
+     * @param edgeNames the edge group name for each step.
+     */
+    public RelationshipPath( final int[] nodeIds, final String[] nodeLabels, final String[] edgeNames )
+    {
+        super();
+        for ( int index = 0; index < nodeIds.length; ++index )
+        {
+            add( nodeIds[index], nodeLabels[index] );
+        }
+        this.edgeNames = edgeNames;
+    }
+
+    /**
+     * Get the number of links between the first and the last node.
+     *
+     * @return the path distance.
+     */
+    public int getDistance()
+    {
+        return length - 1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        final StringBuilder text = new StringBuilder( "RelationshipPath[" );
+        for ( int index = 0; index < length; ++index )
+        {
+            if ( 0 < index )
+            {
+                text.append( " -" ).append( edgeNames[index] ).append( "-> " );
+            }
+            text.append( array_1[index] ).append( '#' ).append( array_0[index] );
+        }
+        return text.append( ']' ).toString();
+    }
+}
@@ -0,0 +1,292 @@
+package ca.chaves.android.graph;
+
+import java.io.IOException;
+
+/**
+ * This class keeps the node loads in flight for one {@link GraphCache}, so concurrent callers asking for the same
+ * node - the foreground load, a prefetch, a bookmark warm-up - share one single database read. The first caller for a
+ * node_id leads the load; the others wait for its result. The in-flight table is split in stripes, each one with its
+ * own lock, so loads of different node_id(s) do not wait for each other. Each stripe only holds a handful of flights at
+ * a time, so it keeps them in a small array, scanned by node_id - no node_id is boxed.
+ * <p/>
+ * Typical use:
+ *
+ * <pre>
+ * final SingleFlight.Flight flight = flights.join( nodeId );
+ * if ( !flight.isLeader() )
+ * {
+ *     return flight.await();
+ * }
+ * ... read the node, and then - even on errors:
+ * flights.complete( flight, node, error );
+ * </pre>
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+final class SingleFlight
+{
+    /**
+     * The number of stripes - a power of two.
+     */
+    private static final int STRIPE_COUNT = 8;
+
+    /**
+     * The initial number of flight slots in each stripe.
+     */
+    private static final int STRIPE_CAPACITY = 4;
+
+    /**
+     * One node load in flight.
+     */
+    static final class Flight
+    {
+        /**
+         * The node_id being loaded.
+         */
+        final int nodeId;
+
+        /**
+         * The thread loading the node.
+         */
+        private final Thread leader = Thread.currentThread();
+
+        /**
+         * The loaded node, or null if the load failed or there is no such node.
+         */
+        private GraphNode node;
+
+        /**
+         * The load error, or null.
+         */
+        private IOException error;
+
+        /**
+         * Whether the load has finished.
+         */
+        private boolean done;
+
+        /**
+         * Constructor.
+         *
+         * @param nodeId the node_id being loaded.
+         */
+        Flight( final int nodeId )
+        {
+            this.nodeId = nodeId;
+        }
+
+        /**
+         * Check if the calling thread leads this load.
+         *
+         * @return true if the caller must load the node, and then call {@link SingleFlight#complete}.
+         */
+        boolean isLeader()
+        {
+            return leader == Thread.currentThread();
+        }
+
+        /**
+         * Wait for the leader to finish loading the node.
+         *
+         * @return the loaded node, or null if there is no such node.
+         * @throws IOException if the leader failed to load the node.
+         */
+        GraphNode await()
+            throws IOException
+        {
+            boolean interrupted = false;
+            synchronized ( this )
+            {
+                // the leader always completes its flight, so this wait is not interruptible
+                while ( !done )
+                {
+                    try
+                    {
+                        this.wait();
+                    }
+                    catch ( final InterruptedException ex )
+                    {
+                        interrupted = true;
+                    }
+                }
+            }
+            if ( interrupted )
+            {
+                Thread.currentThread().interrupt();
+            }
+            if ( error != null )
+            {
+                throw new IOException( "unable to load node " + nodeId + ": " + error.getMessage() );
+            }
+            return node;
+        }
+    }
+
+    /**
+     * One stripe of the in-flight table - the stripe itself is its lock.
+     */
+    private static final class Stripe
+    {
+        /**
+         * The loads in flight, in no particular order - the first {@link #flightCount} slots are used.
+         */
+        Flight[] flights = new Flight[SingleFlight.STRIPE_CAPACITY];
+
+        /**
+         * How many loads are in flight.
+         */
+        int flightCount;
+
+        /**
+         * How many callers waited for another caller's load.
+         */
+        int sharedCount;
+
+        /**
+         * Find the load in flight for the given node_id.
+         *
+         * @param nodeId the node_id.
+         * @return the flight slot, or -1 if the node is not being loaded.
+         */
+        int indexOf( final int nodeId )
+        {
+            for ( int index = 0; index < flightCount; ++index )
+            {
+                if ( flights[index].nodeId == nodeId )
+                {
+                    return index;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Add a new load in flight.
+         *
+         * @param flight the new flight.
+         */
+        void add( final Flight flight )
+        {
+            if ( flightCount == flights.length )
+            {
+                final Flight[] newFlights = new Flight[2 * flightCount];
+                System.arraycopy( flights, 0, newFlights, 0, flightCount );
+                flights = newFlights;
+            }
+            flights[flightCount++] = flight;
+        }
+
+        /**
+         * Remove the given load in flight, if present - the last flight takes its slot.
+         *
+         * @param flight the flight.
+         */
+        void remove( final Flight flight )
+        {
+            for ( int index = 0; index < flightCount; ++index )
+            {
+                if ( flights[index] == flight )
+                {
+                    flights[index] = flights[--flightCount];
+                    flights[flightCount] = null;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * The in-flight loads, one map and one lock per stripe.
+     */
+    private final Stripe[] stripes = new Stripe[SingleFlight.STRIPE_COUNT];
+
+    /**
+     * Constructor.
+     */
+    SingleFlight()
+    {
+        for ( int index = 0; index < stripes.length; ++index )
+        {
+            stripes[index] = new Stripe();
+        }
+    }
+
+    /**
+     * Join the load in flight for the given node_id, or start a new one led by the calling thread.
+     *
+     * @param nodeId the node_id to load.
+     * @return the flight - see {@link Flight#isLeader()}.
+     */
+    Flight join( final int nodeId )
+    {
+        final Stripe stripe = stripeOf( nodeId );
+        synchronized ( stripe )
+        {
+            final int index = stripe.indexOf( nodeId );
+            if ( 0 <= index )
+            {
+                ++stripe.sharedCount;
+                return stripe.flights[index];
+            }
+            final Flight flight = new Flight( nodeId );
+            stripe.add( flight );
+            return flight;
+        }
+    }
+
+    /**
+     * Finish the given load, and wake up all callers waiting for it. The leader must call this function even on
+     * errors.
+     *
+     * @param flight the flight led by the calling thread.
+     * @param node the loaded node, or null on error or if there is no such node.
+     * @param error the load error, or null - it must not be null when the load failed.
+     */
+    void complete( final Flight flight, final GraphNode node, final IOException error )
+    {
+        final Stripe stripe = stripeOf( flight.nodeId );
+        synchronized ( stripe )
+        {
+            stripe.remove( flight );
+        }
+        synchronized ( flight )
+        {
+            flight.node = node;
+            flight.error = error;
+            flight.done = true;
+            flight.notifyAll();
+        }
+    }
+
+    /**
+     * Get how many callers shared another caller's load so far.
+     *
+     * @return the shared load count.
+     */
+    int sharedCount()
+    {
+        int count = 0;
+        for ( final Stripe stripe : stripes )
+        {
+            synchronized ( stripe )
+            {
+                count += stripe.sharedCount;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the stripe for the given node_id.
+     *
+     * @param nodeId the node_id.
+     * @return the stripe.
+     */
+    private Stripe stripeOf( final int nodeId )
+    {
+        // node_id(s) are often consecutive: spread them
+        final int hash = nodeId * 0x9E3779B9;
+        return stripes[( hash >>> 16 ) & ( SingleFlight.STRIPE_COUNT - 1 )];
+    }
+}
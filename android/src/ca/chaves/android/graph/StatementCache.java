@@ -0,0 +1,206 @@
+package ca.chaves.android.graph;
+
+import ca.chaves.android.util.Debug;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * This class caches the compiled SELECT statements used by {@link GraphStorage}. Each SQL statement is compiled once
+ * per database handle, and then it is re-executed with new selection arguments - so SQLite does not need to re-parse
+ * and re-plan the same statement on every navigation step. Idle cursors are kept for each database handle, so the
+ * read-only connections of a pool keep their own compiled statements.
+ * <p/>
+ * Compiled statements are kept inside idle {@link SQLiteCursor}s: {@link SQLiteCursor#setSelectionArguments} rebinds
+ * the statement arguments, and {@link Cursor#requery()} runs the statement again. Each cursor is leased to one caller
+ * at a time, so concurrent callers running the same statement just compile one more copy.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+final class StatementCache
+{
+    /**
+     * The idle cursors, indexed by database handle, and then by SQL statement.
+     */
+    private final Map<SQLiteDatabase, Map<String, LinkedList<Cursor>>> idleCursors =
+        new IdentityHashMap<SQLiteDatabase, Map<String, LinkedList<Cursor>>>();
+
+    /**
+     * How many statements have been compiled so far.
+     */
+    private int prepareCount;
+
+    /**
+     * How many statements have been executed so far, compiled or reused.
+     */
+    private int executeCount;
+
+    /**
+     * Execute the given SELECT statement, reusing an idle compiled statement if possible. The returned cursor must be
+     * given back by calling {@link #release}.
+     *
+     * @param db where to execute the statement.
+     * @param selectStmt the select statement.
+     * @param selectArgs the arguments to be applied to 'selectStmt'.
+     * @return the cursor with the query results.
+     */
+    public Cursor query( final SQLiteDatabase db, final String selectStmt, final String[] selectArgs )
+    {
+        Cursor cursor = null;
+        synchronized ( this )
+        {
+            final Map<String, LinkedList<Cursor>> statements = idleCursors.get( db );
+            final LinkedList<Cursor> cursors = ( statements == null ) ? null : statements.get( selectStmt );
+            if ( cursors != null && !cursors.isEmpty() )
+            {
+                cursor = cursors.removeFirst();
+            }
+            ++executeCount;
+        }
+
+        // reuse the compiled statement, if possible
+
+        if ( cursor != null )
+        {
+            ( (SQLiteCursor) cursor ).setSelectionArguments( selectArgs );
+            if ( cursor.requery() )
+            {
+                return cursor;
+            }
+            Debug.print( "requery failed:", selectStmt );
+            cursor.close();
+        }
+
+        // compile the statement, otherwise
+
+        cursor = db.rawQuery( selectStmt, selectArgs );
+        synchronized ( this )
+        {
+            ++prepareCount;
+        }
+        return cursor;
+    }
+
+    /**
+     * Give back a cursor returned by {@link #query}. The cursor is kept for reuse, unless its database handle has been
+     * closed.
+     *
+     * @param db where the cursor was executed.
+     * @param selectStmt the cursor select statement.
+     * @param cursor the cursor to give back.
+     */
+    public void release( final SQLiteDatabase db, final String selectStmt, final Cursor cursor )
+    {
+        if ( cursor == null )
+        {
+            return;
+        }
+        synchronized ( this )
+        {
+            if ( db.isOpen() && ( cursor instanceof SQLiteCursor ) )
+            {
+                // free the cursor window, but keep the compiled statement
+                cursor.deactivate();
+                Map<String, LinkedList<Cursor>> statements = idleCursors.get( db );
+                if ( statements == null )
+                {
+                    statements = new HashMap<String, LinkedList<Cursor>>();
+                    idleCursors.put( db, statements );
+                }
+                LinkedList<Cursor> cursors = statements.get( selectStmt );
+                if ( cursors == null )
+                {
+                    cursors = new LinkedList<Cursor>();
+                    statements.put( selectStmt, cursors );
+                }
+                cursors.add( cursor );
+                return;
+            }
+        }
+        cursor.close();
+    }
+
+    /**
+     * Close all idle cursors, on all database handles. This function must be called before the database handles are
+     * closed.
+     */
+    public void clear()
+    {
+        synchronized ( this )
+        {
+            Debug.print( "statements prepared:", prepareCount, "executed:", executeCount );
+            for ( final Map<String, LinkedList<Cursor>> statements : idleCursors.values() )
+            {
+                StatementCache.close( statements );
+            }
+            idleCursors.clear();
+        }
+    }
+
+    /**
+     * Close the idle cursors of one database handle. This function must be called before that database handle is
+     * closed.
+     *
+     * @param db the database handle.
+     */
+    public void clear( final SQLiteDatabase db )
+    {
+        synchronized ( this )
+        {
+            final Map<String, LinkedList<Cursor>> statements = idleCursors.remove( db );
+            if ( statements != null )
+            {
+                StatementCache.close( statements );
+            }
+        }
+    }
+
+    /**
+     * Close all the given idle cursors.
+     *
+     * @param statements the idle cursors, indexed by SQL statement.
+     */
+    private static void close( final Map<String, LinkedList<Cursor>> statements )
+    {
+        for ( final LinkedList<Cursor> cursors : statements.values() )
+        {
+            for ( final Cursor cursor : cursors )
+            {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Get how many statements have been compiled so far.
+     *
+     * @return the prepare count.
+     */
+    public int getPrepareCount()
+    {
+        synchronized ( this )
+        {
+            return prepareCount;
+        }
+    }
+
+    /**
+     * Get how many statements have been executed so far.
+     *
+     * @return the execute count.
+     */
+    public int getExecuteCount()
+    {
+        synchronized ( this )
+        {
+            return executeCount;
+        }
+    }
+}
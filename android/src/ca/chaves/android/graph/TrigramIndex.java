@@ -0,0 +1,448 @@
+package ca.chaves.android.graph;
+
+import ca.chaves.android.util.IntArrays;
+
+import java.util.Arrays;
+
+/**
+ * This class defines an in-memory trigram index over node names, to find names similar to a misspelled query: "Chavez"
+ * finds "Chaves", and "Gonsales" finds "Gonz&aacute;lez". Names are folded by {@link NameSearch#fold} and split into
+ * trigrams - every three consecutive characters, with one blank added before and after. The similarity between the
+ * query and a name is the mean of two ratios over their trigram sets: how much of the query is in the name - shared /
+ * query trigrams - and the Dice coefficient - 2 * shared / ( query trigrams + name trigrams ). The first one lets one
+ * single surname find a long full name, and the second one ranks the closest full names first.
+ * <p/>
+ * Trigrams are coded as int(s), and the postings - which names contain each trigram - are kept in flat int arrays, in
+ * compressed-row format. Queries only use scratch arrays allocated once, so the query path allocates no more than the
+ * folded query and the results. Names must be added with {@link #add}, then {@link #build} must be called once before
+ * any query.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public final class TrigramIndex
+{
+    /**
+     * How many bits code each trigram character.
+     */
+    private static final int CHARACTER_BITS = 6;
+
+    /**
+     * How many trigram codes there are.
+     */
+    private static final int TRIGRAM_CODES = 1 << ( 3 * TrigramIndex.CHARACTER_BITS );
+
+    /**
+     * How many entries - indexed names - there are.
+     */
+    private int entryCount;
+
+    /**
+     * The node_id of each entry.
+     */
+    private int[] entryNodeIds;
+
+    /**
+     * The node label of each entry.
+     */
+    private String[] entryLabels;
+
+    /**
+     * The folded name of each entry - only kept until {@link #build} is called.
+     */
+    private String[] entryNames;
+
+    /**
+     * How many distinct trigrams each entry has.
+     */
+    private int[] entryTrigramCounts;
+
+    /**
+     * How many distinct trigrams there are.
+     */
+    private int trigramCount;
+
+    /**
+     * The distinct trigram codes, sorted.
+     */
+    private int[] trigramCodes;
+
+    /**
+     * Where the postings of each trigram start - the postings of trigramCodes[i] are in [ postingStarts[i],
+     * postingStarts[i + 1] ).
+     */
+    private int[] postingStarts;
+
+    /**
+     * The entries containing each trigram, in entry order.
+     */
+    private int[] postings;
+
+    /**
+     * Scratch array: the trigram codes of one name.
+     */
+    private int[] scratchCodes = new int[64];
+
+    /**
+     * Scratch array: how many trigrams each entry shares with the query.
+     */
+    private int[] sharedCounts;
+
+    /**
+     * Scratch array: the entries sharing at least one trigram with the query.
+     */
+    private int[] touchedEntries;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the expected number of names.
+     */
+    public TrigramIndex( final int capacity )
+    {
+        final int length = Math.max( 16, capacity );
+        entryNodeIds = new int[length];
+        entryLabels = new String[length];
+        entryNames = new String[length];
+    }
+
+    // --------
+    // Building
+    // --------
+
+    /**
+     * Add one name to this index. One node may have many names.
+     *
+     * @param nodeId the node_id.
+     * @param nodeLabel the node label, returned by the queries.
+     * @param name the name to index.
+     */
+    public void add( final int nodeId, final String nodeLabel, final String name )
+    {
+        synchronized ( this )
+        {
+            if ( entryNames == null )
+            {
+                throw new IllegalStateException( "the trigram index was built already" );
+            }
+            if ( entryCount == entryNodeIds.length )
+            {
+                final int capacity = 2 * entryCount;
+                final int[] newNodeIds = new int[capacity];
+                final String[] newLabels = new String[capacity];
+                final String[] newNames = new String[capacity];
+                System.arraycopy( entryNodeIds, 0, newNodeIds, 0, entryCount );
+                System.arraycopy( entryLabels, 0, newLabels, 0, entryCount );
+                System.arraycopy( entryNames, 0, newNames, 0, entryCount );
+                entryNodeIds = newNodeIds;
+                entryLabels = newLabels;
+                entryNames = newNames;
+            }
+            entryNodeIds[entryCount] = nodeId;
+            entryLabels[entryCount] = nodeLabel;
+            entryNames[entryCount] = NameSearch.fold( name );
+            ++entryCount;
+        }
+    }
+
+    /**
+     * Build the postings. Two passes over the names: the first one counts the entries for each trigram code, and the
+     * second one fills the postings. No name can be added afterwards.
+     */
+    public void build()
+    {
+        synchronized ( this )
+        {
+            if ( entryNames == null )
+            {
+                return;
+            }
+
+            // pass 1 - count the entries for each trigram code
+
+            final int[] counts = new int[TrigramIndex.TRIGRAM_CODES];
+            entryTrigramCounts = new int[entryCount];
+            int postingCount = 0;
+            for ( int entry = 0; entry < entryCount; ++entry )
+            {
+                final int length = extractTrigrams( entryNames[entry] );
+                entryTrigramCounts[entry] = length;
+                postingCount += length;
+                for ( int index = 0; index < length; ++index )
+                {
+                    ++counts[scratchCodes[index]];
+                }
+            }
+
+            // compress the trigram codes
+
+            trigramCount = 0;
+            for ( int code = 0; code < TrigramIndex.TRIGRAM_CODES; ++code )
+            {
+                if ( counts[code] != 0 )
+                {
+                    ++trigramCount;
+                }
+            }
+            trigramCodes = new int[trigramCount];
+            postingStarts = new int[trigramCount + 1];
+            int trigram = 0;
+            int start = 0;
+            for ( int code = 0; code < TrigramIndex.TRIGRAM_CODES; ++code )
+            {
+                if ( counts[code] != 0 )
+                {
+                    trigramCodes[trigram] = code;
+                    postingStarts[trigram] = start;
+                    start += counts[code];
+                    // from now on, counts[code] is the next free posting for this code
+                    counts[code] = postingStarts[trigram];
+                    ++trigram;
+                }
+            }
+            postingStarts[trigramCount] = start;
+
+            // pass 2 - fill the postings
+
+            postings = new int[postingCount];
+            for ( int entry = 0; entry < entryCount; ++entry )
+            {
+                final int length = extractTrigrams( entryNames[entry] );
+                for ( int index = 0; index < length; ++index )
+                {
+                    postings[counts[scratchCodes[index]]++] = entry;
+                }
+            }
+
+            entryNames = null;
+            sharedCounts = new int[entryCount];
+            touchedEntries = new int[entryCount];
+        }
+    }
+
+    // --------
+    // Querying
+    // --------
+
+    /**
+     * Get the number of indexed names.
+     *
+     * @return the number of indexed names.
+     */
+    public int size()
+    {
+        synchronized ( this )
+        {
+            return entryCount;
+        }
+    }
+
+    /**
+     * Find the names most similar to the given query.
+     *
+     * @param query the text entered by the user.
+     * @param minSimilarity the minimum similarity, from 0 to 1.
+     * @param maxResults the maximum number of results.
+     * @return the ranked node_id(s) and node label(s) - each node appears once, with its most similar name.
+     */
+    public GraphValueList search( final String query, final float minSimilarity, final int maxResults )
+    {
+        final GraphValueList results = new GraphValueList( null );
+        if ( maxResults <= 0 )
+        {
+            return results;
+        }
+        final String foldedQuery = NameSearch.fold( query );
+
+        synchronized ( this )
+        {
+            if ( entryNames != null )
+            {
+                throw new IllegalStateException( "the trigram index was not built" );
+            }
+
+            // count the shared trigrams, for each entry
+
+            final int queryLength = extractTrigrams( foldedQuery );
+            int touchedCount = 0;
+            for ( int index = 0; index < queryLength; ++index )
+            {
+                final int trigram = IntArrays.binarySearch( trigramCodes, 0, trigramCount, scratchCodes[index] );
+                if ( trigram < 0 )
+                {
+                    continue;
+                }
+                for ( int posting = postingStarts[trigram]; posting < postingStarts[trigram + 1]; ++posting )
+                {
+                    final int entry = postings[posting];
+                    if ( sharedCounts[entry]++ == 0 )
+                    {
+                        touchedEntries[touchedCount++] = entry;
+                    }
+                }
+            }
+
+            // keep the best 'maxResults' nodes, best first
+
+            final int[] topEntries = new int[maxResults];
+            final float[] topScores = new float[maxResults];
+            int topCount = 0;
+            for ( int touched = 0; touched < touchedCount; ++touched )
+            {
+                final int entry = touchedEntries[touched];
+                final int shared = sharedCounts[entry];
+                final float score = 0.5f * ( (float) shared / queryLength //
+                    + 2.0f * shared / ( queryLength + entryTrigramCounts[entry] ) );
+                sharedCounts[entry] = 0;
+                if ( score < minSimilarity || ( topCount == maxResults && score <= topScores[topCount - 1] ) )
+                {
+                    continue;
+                }
+                topCount = TrigramIndex.insert( topEntries, topScores, topCount, entry, score, entryNodeIds );
+            }
+
+            for ( int index = 0; index < topCount; ++index )
+            {
+                final int entry = topEntries[index];
+                results.add( entryNodeIds[entry], entryLabels[entry] );
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Insert one entry into the sorted top list. If the same node is in the list already, only the best score is
+     * kept.
+     *
+     * @param topEntries the top entries, best first.
+     * @param topScores the top scores, best first.
+     * @param topCount how many top entries there are.
+     * @param entry the new entry.
+     * @param score the new entry score.
+     * @param nodeIds the node_id of each entry.
+     * @return the new number of top entries.
+     */
+    private static int insert( final int[] topEntries, final float[] topScores, final int topCount, final int entry,
+                               final float score, final int[] nodeIds )
+    {
+        int count = topCount;
+        for ( int index = 0; index < count; ++index )
+        {
+            if ( nodeIds[topEntries[index]] == nodeIds[entry] )
+            {
+                if ( score <= topScores[index] )
+                {
+                    return count;
+                }
+                // remove the worse entry of the same node
+                System.arraycopy( topEntries, index + 1, topEntries, index, count - index - 1 );
+                System.arraycopy( topScores, index + 1, topScores, index, count - index - 1 );
+                --count;
+                break;
+            }
+        }
+        if ( count == topEntries.length )
+        {
+            if ( score <= topScores[count - 1] )
+            {
+                return count;
+            }
+            // drop the worst entry
+            --count;
+        }
+        int position = count;
+        while ( 0 < position && topScores[position - 1] < score )
+        {
+            topEntries[position] = topEntries[position - 1];
+            topScores[position] = topScores[position - 1];
+            --position;
+        }
+        topEntries[position] = entry;
+        topScores[position] = score;
+        return count + 1;
+    }
+
+    // --------
+    // Trigrams
+    // --------
+
+    /**
+     * Extract the distinct trigram codes of a folded name into scratchCodes, sorted.
+     *
+     * @param folded the folded name.
+     * @return how many distinct trigram codes there are.
+     */
+    private int extractTrigrams( final String folded )
+    {
+        // the name is padded with one blank on each side: it has one trigram per character
+        final int length = folded.length();
+        if ( scratchCodes.length < length )
+        {
+            scratchCodes = new int[2 * length];
+        }
+        int code = 0;
+        for ( int index = 0; index <= length; ++index )
+        {
+            final char letter = ( index < length ) ? folded.charAt( index ) : ' ';
+            code = ( ( code << TrigramIndex.CHARACTER_BITS ) | TrigramIndex.codeOf( letter ) ) //
+                & ( TrigramIndex.TRIGRAM_CODES - 1 );
+            if ( 1 <= index )
+            {
+                scratchCodes[index - 1] = code;
+            }
+        }
+        if ( length <= 1 )
+        {
+            return length;
+        }
+
+        // sort and remove duplicates
+        Arrays.sort( scratchCodes, 0, length );
+        int count = 1;
+        for ( int index = 1; index < length; ++index )
+        {
+            if ( scratchCodes[index] != scratchCodes[count - 1] )
+            {
+                scratchCodes[count++] = scratchCodes[index];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Code one folded character: the blank is 0, letters are 1 to 26, digits are 27 to 36, and all other characters
+     * share the codes 37 to 63.
+     *
+     * @param letter the folded character.
+     * @return the character code.
+     */
+    private static int codeOf( final char letter )
+    {
+        if ( letter == ' ' )
+        {
+            return 0;
+        }
+        if ( 'a' <= letter && letter <= 'z' )
+        {
+            return letter - 'a' + 1;
+        }
+        if ( '0' <= letter && letter <= '9' )
+        {
+            return letter - '0' + 27;
+        }
+        return 37 + letter % 27;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        synchronized ( this )
+        {
+            return "TrigramIndex[names=" + entryCount + ", trigrams=" + trigramCount + ", postings="
+                + ( ( postings == null ) ? 0 : postings.length ) + "]";
+        }
+    }
+}
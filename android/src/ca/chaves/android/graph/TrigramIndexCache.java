@@ -0,0 +1,198 @@
+package ca.chaves.android.graph;
+
+import ca.chaves.android.util.Debug;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+/**
+ * This class holds the {@link TrigramIndex} of the {@link GraphStorage} names. The index is built from the database
+ * the first time a similar name is searched, on the background build thread, and then it is kept until the storage is
+ * reset.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+final class TrigramIndexCache
+{
+    /**
+     * The storage resources - the SQL statements.
+     */
+    private final GraphResources resources;
+
+    /**
+     * The compiled statements cache.
+     */
+    private final StatementCache statements;
+
+    /**
+     * The trigram index over all names, or null if it was not built yet.
+     */
+    private volatile TrigramIndex trigramIndex;
+
+    /**
+     * The background build of the trigram index, or null if none was started. Guarded by this object.
+     */
+    private FutureTask<TrigramIndex> trigramBuild;
+
+    /**
+     * The database given to {@link #reset} - the builds read from it, so they do not hold the connection of the caller
+     * that started them.
+     */
+    private volatile SQLiteDatabase buildDatabase;
+
+    /**
+     * Constructor.
+     *
+     * @param resources the storage resources - the SQL statements.
+     * @param statements the compiled statements cache.
+     */
+    TrigramIndexCache( final GraphResources resources, final StatementCache statements )
+    {
+        this.resources = resources;
+        this.statements = statements;
+    }
+
+    /**
+     * Build the trigram index over the node "name" and "aka" attributes, in one single scan. {@link #search} builds
+     * the index only once, on a background thread, the first time it is called.
+     *
+     * @param database where to read the names from.
+     * @return the new trigram index.
+     * @throws IOException on error.
+     */
+    TrigramIndex load( final SQLiteDatabase database )
+        throws IOException
+    {
+        Debug.enter();
+
+        final long buildStart = System.nanoTime();
+
+        final TrigramIndex index = new TrigramIndex( 1024 );
+        final String selectStmt = resources.selectNamesStmt;
+        Debug.print( "execute:", selectStmt );
+        final Cursor cursor = statements.query( database, selectStmt, null );
+        try
+        {
+            if ( cursor.moveToFirst() )
+            {
+                int lastNodeId = 0;
+                String nodeLabel = null;
+                do
+                {
+                    final int nodeId = cursor.getInt( 0 );
+                    final String name = cursor.getString( 2 );
+                    // rows come in attribute_id order, so the "name" attribute is the first one - if present
+                    if ( index.size() == 0 || nodeId != lastNodeId
+                        || cursor.getInt( 1 ) == GraphStorage.NAME_ATTRIBUTE_ID )
+                    {
+                        nodeLabel = name;
+                        lastNodeId = nodeId;
+                    }
+                    index.add( nodeId, nodeLabel, name );
+                }
+                while ( cursor.moveToNext() );
+            }
+        }
+        finally
+        {
+            statements.release( database, selectStmt, cursor );
+        }
+        index.build();
+
+        trigramIndex = index;
+
+        Debug.leave( index, ( System.nanoTime() - buildStart ) / 1000, "us" );
+        return index;
+    }
+
+    /**
+     * Search the nodes whose "name" or "aka" attributes are similar to the given query - see {@link TrigramIndex}.
+     * Use this function when {@link NameIndex#search} finds nothing, for misspelled or uncertain names.
+     *
+     * @param database where to read the names from, if the trigram index was not built yet and the storage was not
+     *            reset.
+     * @param query the text entered by the user.
+     * @param minSimilarity the minimum similarity, from 0 to 1.
+     * @param maxResults the maximum number of results.
+     * @return the ranked node_id(s) and node label(s).
+     * @throws IOException on error.
+     */
+    GraphValueList search( final SQLiteDatabase database, final String query, final float minSimilarity,
+                           final int maxResults )
+        throws IOException
+    {
+        Debug.enter( query );
+        TrigramIndex index = trigramIndex;
+        if ( index == null )
+        {
+            // all concurrent first queries wait for the same build
+            index = BackgroundBuilds.await( start( database ) );
+        }
+        final GraphValueList results = index.search( query, minSimilarity, maxResults );
+        Debug.leave( results.length, "results" );
+        return results;
+    }
+
+    /**
+     * Queue the trigram index build, unless it is being built already - or it was built
+     * successfully.
+     *
+     * @param database where to read the names from, if the storage was not reset.
+     * @return the background build.
+     */
+    private FutureTask<TrigramIndex> start( final SQLiteDatabase database )
+    {
+        synchronized ( this )
+        {
+            FutureTask<TrigramIndex> build = trigramBuild;
+            if ( build == null || ( build.isDone() && trigramIndex == null ) )
+            {
+                final SQLiteDatabase source = ( buildDatabase != null ) ? buildDatabase : database;
+                build = BackgroundBuilds.start( "trigrams", new Callable<TrigramIndex>()
+                {
+                    @Override
+                    public TrigramIndex call()
+                        throws IOException
+                    {
+                        return load( source );
+                    }
+                } );
+                trigramBuild = build;
+            }
+            return build;
+        }
+    }
+
+    /**
+     * Drop the trigram index. The next {@link #search} builds it again, from the given database.
+     *
+     * @param database where to read the names from, from now on.
+     */
+    synchronized void reset( final SQLiteDatabase database )
+    {
+        buildDatabase = database;
+        trigramIndex = null;
+        trigramBuild = null;
+    }
+
+    /**
+     * Wait for the trigram index build to finish, if any.
+     *
+     * @throws IOException if the build failed.
+     */
+    void await()
+        throws IOException
+    {
+        final FutureTask<TrigramIndex> build;
+        synchronized ( this )
+        {
+            build = trigramBuild;
+        }
+        BackgroundBuilds.await( build );
+    }
+}
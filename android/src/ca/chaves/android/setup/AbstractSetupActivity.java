@@ -7,6 +7,7 @@ import ca.chaves.android.app.SettingsCRUD;
 import ca.chaves.android.profile.AbstractProfile;
 import ca.chaves.android.util.AbstractAsyncTask;
 import ca.chaves.android.util.Debug;
+import ca.chaves.android.util.StartupTrace;
 
 import android.os.AsyncTask;
 import android.os.Bundle;
@@ -129,6 +130,21 @@ public abstract class AbstractSetupActivity
     private abstract class AbstractSetupTask
         extends SettingsCRUD
     {
+        /**
+         * The start-up trace span of this step.
+         */
+        private int span = StartupTrace.NO_SPAN;
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void onPreExecute()
+        {
+            super.onPreExecute();
+            span = StartupTrace.begin( "setup." + getClass().getSimpleName() );
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -145,6 +161,7 @@ public abstract class AbstractSetupActivity
         protected void onPostExecute( final Void result )
         {
             Debug.enter();
+            StartupTrace.end( span );
 
             if ( errorMessage != null )
             {
@@ -201,8 +218,16 @@ public abstract class AbstractSetupActivity
                 // getHome()/getDatabase() also restore all missing files
                 if ( !canceled() && !failed() )
                 {
-                    Android.App.getHome();
-                    Android.App.getDatabase();
+                    if ( Android.App.loadBootstrap() )
+                    {
+                        // browse the bootstrap slice right now, while the files are restored
+                        AbstractSetupActivity.restoreInBackground();
+                    }
+                    else
+                    {
+                        Android.App.getHome();
+                        Android.App.getDatabase();
+                    }
                 }
 
                 if ( !canceled() && !failed() )
@@ -233,6 +258,36 @@ public abstract class AbstractSetupActivity
         }
     }
 
+    /**
+     * Restore all missing files and open the database on a background thread. Any error is reported again by the first
+     * database access, which tries the restore once more.
+     */
+    private static void restoreInBackground()
+    {
+        Debug.enter();
+        final Thread thread = new Thread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                Debug.enter();
+                try
+                {
+                    Android.App.getHome();
+                    Android.App.getDatabase();
+                }
+                catch ( final IOException ex )
+                {
+                    Debug.error( ex, "unable to restore assets in background" );
+                }
+                Debug.leave();
+            }
+        }, "restore" );
+        thread.setPriority( Thread.NORM_PRIORITY - 1 );
+        thread.start();
+        Debug.leave();
+    }
+
     /**
      * {@link AsyncTask} to load the EULA.
      */
@@ -0,0 +1,50 @@
+package ca.chaves.android.util;
+
+/**
+ * Functions on primitive <code>int</code> arrays which java.util.Arrays lacks before Android API level 9.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public final class IntArrays
+{
+    /**
+     * Search a sorted range of an array - like Arrays.binarySearch( int[], int, int, int ), which needs API level 9.
+     *
+     * @param array the sorted array.
+     * @param fromIndex the first index to search - inclusive.
+     * @param toIndex the last index to search - exclusive.
+     * @param key the value to search for.
+     * @return the key index if found, or ( -insertionPoint - 1 ) if not found.
+     */
+    public static int binarySearch( final int[] array, final int fromIndex, final int toIndex, final int key )
+    {
+        int low = fromIndex;
+        int high = toIndex - 1;
+        while ( low <= high )
+        {
+            final int middle = ( low + high ) >>> 1;
+            if ( array[middle] < key )
+            {
+                low = middle + 1;
+            }
+            else if ( key < array[middle] )
+            {
+                high = middle - 1;
+            }
+            else
+            {
+                return middle;
+            }
+        }
+        return -( low + 1 );
+    }
+
+    /**
+     * This class has no instances.
+     */
+    private IntArrays()
+    {
+        // nothing
+    }
+}
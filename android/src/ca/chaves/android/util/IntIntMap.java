@@ -0,0 +1,194 @@
+package ca.chaves.android.util;
+
+import java.util.Arrays;
+
+/**
+ * This class defines a hash map from primitive <code>int</code> keys to primitive <code>int</code> values. Nothing is
+ * boxed: keys and values live in parallel arrays, with open addressing and linear probing. Entries cannot be removed,
+ * only cleared all at once - which is what graph traversals need: visited sets, parent pointers and depths.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public class IntIntMap
+{
+    /**
+     * The initial number of slots.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The slot keys.
+     */
+    private int[] keys;
+
+    /**
+     * The slot values.
+     */
+    private int[] values;
+
+    /**
+     * The slots in use.
+     */
+    private boolean[] used;
+
+    /**
+     * The number of entries in this map.
+     */
+    private int count;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the expected number of entries.
+     */
+    public IntIntMap( final int capacity )
+    {
+        int length = IntIntMap.INITIAL_CAPACITY;
+        while ( length < 2 * capacity )
+        {
+            length <<= 1;
+        }
+        keys = new int[length];
+        values = new int[length];
+        used = new boolean[length];
+    }
+
+    /**
+     * Get the value for the given key.
+     *
+     * @param key the key.
+     * @param defaultValue the value to return if the key is not in this map.
+     * @return the value, or 'defaultValue'.
+     */
+    public int get( final int key, final int defaultValue )
+    {
+        final int slot = find( key );
+        return used[slot] ? values[slot] : defaultValue;
+    }
+
+    /**
+     * Is the given key in this map?
+     *
+     * @param key the key.
+     * @return true if the key is in this map.
+     */
+    public boolean containsKey( final int key )
+    {
+        return used[find( key )];
+    }
+
+    /**
+     * Set the value for the given key.
+     *
+     * @param key the key.
+     * @param value the value.
+     * @return true if the key was added, false if it was in this map already - its value is replaced anyway.
+     */
+    public boolean put( final int key, final int value )
+    {
+        int slot = find( key );
+        if ( used[slot] )
+        {
+            values[slot] = value;
+            return false;
+        }
+        if ( keys.length <= 2 * ( count + 1 ) )
+        {
+            resize( 2 * keys.length );
+            slot = find( key );
+        }
+        used[slot] = true;
+        keys[slot] = key;
+        values[slot] = value;
+        ++count;
+        return true;
+    }
+
+    /**
+     * Set the value for the given key, unless the key is in this map already.
+     *
+     * @param key the key.
+     * @param value the value.
+     * @return true if the key was added, false if it was in this map already - its value is kept.
+     */
+    public boolean putIfAbsent( final int key, final int value )
+    {
+        if ( used[find( key )] )
+        {
+            return false;
+        }
+        return put( key, value );
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public void clear()
+    {
+        Arrays.fill( used, false );
+        count = 0;
+    }
+
+    /**
+     * Get the number of entries.
+     *
+     * @return the number of entries.
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * Find the slot for the given key: either the slot holding the key, or the free slot where it would be added.
+     *
+     * @param key the key.
+     * @return the slot.
+     */
+    private int find( final int key )
+    {
+        final int mask = keys.length - 1;
+        final int hash = key * 0x9E3779B9;
+        int slot = ( hash ^ ( hash >>> 16 ) ) & mask;
+        while ( used[slot] && keys[slot] != key )
+        {
+            slot = ( slot + 1 ) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Change the number of slots, keeping all entries.
+     *
+     * @param length the new number of slots - a power of two.
+     */
+    private void resize( final int length )
+    {
+        final int[] oldKeys = keys;
+        final int[] oldValues = values;
+        final boolean[] oldUsed = used;
+        keys = new int[length];
+        values = new int[length];
+        used = new boolean[length];
+        for ( int slot = 0; slot < oldKeys.length; ++slot )
+        {
+            if ( oldUsed[slot] )
+            {
+                final int newSlot = find( oldKeys[slot] );
+                used[newSlot] = true;
+                keys[newSlot] = oldKeys[slot];
+                values[newSlot] = oldValues[slot];
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "IntIntMap[count=" + count + ", slots=" + keys.length + "]";
+    }
+}
@@ -0,0 +1,633 @@
+package ca.chaves.android.util;
+
+import java.util.Arrays;
+
+/**
+ * This class defines a bounded LRU (least recently used) cache, indexed by primitive <code>int</code> keys. Keys are
+ * never boxed: entries live in parallel arrays, chained in a hash table and in a doubly-linked LRU list. When the cache
+ * size exceeds its budget, the least recently used entries are evicted, in order, until the size fits again.
+ * <p/>
+ * By default the cache size is the number of entries. Override {@link #sizeOf} to use another budget unit, like an
+ * estimation of the entry size in bytes.
+ *
+ * @param <ValueType> the instance type to be cached
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public class IntLruCache<ValueType>
+{
+    /**
+     * The "null" slot index.
+     */
+    private static final int NIL = -1;
+
+    /**
+     * The initial number of slots.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The maximum cache size, in {@link #sizeOf} units.
+     */
+    private int maxSize;
+
+    /**
+     * The current cache size, in {@link #sizeOf} units.
+     */
+    private int size;
+
+    /**
+     * The number of entries in this cache.
+     */
+    private int count;
+
+    /**
+     * The hash table: the first slot for each hash bucket.
+     */
+    private int[] buckets;
+
+    /**
+     * The slot keys.
+     */
+    private int[] keys;
+
+    /**
+     * The slot values.
+     */
+    private Object[] values;
+
+    /**
+     * The slot sizes, in {@link #sizeOf} units.
+     */
+    private int[] sizes;
+
+    /**
+     * The next slot in the same hash bucket, or in the free slot list.
+     */
+    private int[] chain;
+
+    /**
+     * The previous slot in the LRU list - towards the least recently used entry.
+     */
+    private int[] older;
+
+    /**
+     * The next slot in the LRU list - towards the most recently used entry.
+     */
+    private int[] newer;
+
+    /**
+     * The least recently used slot.
+     */
+    private int eldest = IntLruCache.NIL;
+
+    /**
+     * The most recently used slot.
+     */
+    private int youngest = IntLruCache.NIL;
+
+    /**
+     * The first free slot.
+     */
+    private int free = IntLruCache.NIL;
+
+    // ----------
+    // Statistics
+    // ----------
+
+    /**
+     * How many times {@link #get} returned a value.
+     */
+    private int hitCount;
+
+    /**
+     * How many times {@link #get} returned null.
+     */
+    private int missCount;
+
+    /**
+     * How many entries were evicted to fit the cache size.
+     */
+    private int evictionCount;
+
+    /**
+     * How many loads were reported by {@link #recordLoad}.
+     */
+    private int loadCount;
+
+    /**
+     * The total load time reported by {@link #recordLoad}, in nanoseconds.
+     */
+    private long loadTime;
+
+    /**
+     * Constructor.
+     *
+     * @param maxSize the maximum cache size, in {@link #sizeOf} units.
+     */
+    public IntLruCache( final int maxSize )
+    {
+        if ( maxSize <= 0 )
+        {
+            throw new IllegalArgumentException( "maxSize <= 0" );
+        }
+        this.maxSize = maxSize;
+        allocate( IntLruCache.INITIAL_CAPACITY );
+    }
+
+    // ---------------
+    // Cache functions
+    // ---------------
+
+    /**
+     * Get the cached value for the given key. The entry, if found, becomes the most recently used.
+     *
+     * @param key to retrieve the value for.
+     * @return the cached value, or null if the key is not in this cache.
+     */
+    public ValueType get( final int key )
+    {
+        synchronized ( this )
+        {
+            final int slot = find( key );
+            if ( slot == IntLruCache.NIL )
+            {
+                ++missCount;
+                return null;
+            }
+            ++hitCount;
+            unlink( slot );
+            link( slot );
+            @SuppressWarnings( "unchecked" )
+            final ValueType value = (ValueType) values[slot];
+            return value;
+        }
+    }
+
+    /**
+     * Check if the given key is cached, without changing the LRU order nor the statistics.
+     *
+     * @param key to look for.
+     * @return true if the key is in this cache.
+     */
+    public boolean containsKey( final int key )
+    {
+        synchronized ( this )
+        {
+            return find( key ) != IntLruCache.NIL;
+        }
+    }
+
+    /**
+     * Set the cached value associated with the given key. The entry becomes the most recently used, and the least
+     * recently used entries are evicted if needed.
+     *
+     * @param key where to save the value at.
+     * @param value to save.
+     * @return value.
+     */
+    public ValueType put( final int key, final ValueType value )
+    {
+        if ( value == null )
+        {
+            throw new NullPointerException( "value == null" );
+        }
+        final int valueSize = sizeOf( key, value );
+        synchronized ( this )
+        {
+            int slot = find( key );
+            if ( slot != IntLruCache.NIL )
+            {
+                unlink( slot );
+                size -= sizes[slot];
+            }
+            else
+            {
+                if ( free == IntLruCache.NIL )
+                {
+                    allocate( keys.length * 2 );
+                }
+                slot = free;
+                free = chain[slot];
+                keys[slot] = key;
+                final int bucket = hash( key ) & ( buckets.length - 1 );
+                chain[slot] = buckets[bucket];
+                buckets[bucket] = slot;
+                ++count;
+            }
+            values[slot] = value;
+            sizes[slot] = valueSize;
+            size += valueSize;
+            link( slot );
+            trimToSize( maxSize );
+        }
+        return value;
+    }
+
+    /**
+     * Remove the entry for the given key, if it exists.
+     *
+     * @param key to remove.
+     * @return the removed value, or null if the key was not cached.
+     */
+    public ValueType remove( final int key )
+    {
+        synchronized ( this )
+        {
+            final int slot = find( key );
+            if ( slot == IntLruCache.NIL )
+            {
+                return null;
+            }
+            @SuppressWarnings( "unchecked" )
+            final ValueType value = (ValueType) values[slot];
+            release( slot );
+            return value;
+        }
+    }
+
+    /**
+     * Clear this cache, making it empty. Statistics are not reset.
+     */
+    public void clear()
+    {
+        synchronized ( this )
+        {
+            trimToSize( -1, false );
+        }
+    }
+
+    /**
+     * Change the maximum cache size, evicting entries if needed.
+     *
+     * @param newMaxSize the maximum cache size, in {@link #sizeOf} units.
+     */
+    public void resize( final int newMaxSize )
+    {
+        if ( newMaxSize <= 0 )
+        {
+            throw new IllegalArgumentException( "maxSize <= 0" );
+        }
+        synchronized ( this )
+        {
+            maxSize = newMaxSize;
+            trimToSize( maxSize );
+        }
+    }
+
+    /**
+     * Report the time spent loading one value which was missing in this cache.
+     *
+     * @param nanoseconds the load time.
+     */
+    public void recordLoad( final long nanoseconds )
+    {
+        synchronized ( this )
+        {
+            ++loadCount;
+            loadTime += nanoseconds;
+        }
+    }
+
+    /**
+     * Return the size of the given entry, in user-defined units. The default implementation returns 1, so the cache
+     * size is the number of entries. The size of an entry must not change while it is cached.
+     *
+     * @param key the entry key.
+     * @param value the entry value.
+     * @return the entry size.
+     */
+    protected int sizeOf( final int key, final ValueType value )
+    {
+        return 1;
+    }
+
+    // ----------
+    // Statistics
+    // ----------
+
+    /**
+     * Get the current cache size, in {@link #sizeOf} units.
+     *
+     * @return the current cache size, in {@link #sizeOf} units.
+     */
+    public int size()
+    {
+        synchronized ( this )
+        {
+            return size;
+        }
+    }
+
+    /**
+     * Get the maximum cache size, in {@link #sizeOf} units.
+     *
+     * @return the maximum cache size, in {@link #sizeOf} units.
+     */
+    public int maxSize()
+    {
+        synchronized ( this )
+        {
+            return maxSize;
+        }
+    }
+
+    /**
+     * Get the number of entries in this cache.
+     *
+     * @return the number of entries in this cache.
+     */
+    public int count()
+    {
+        synchronized ( this )
+        {
+            return count;
+        }
+    }
+
+    /**
+     * Get how many times {@link #get} returned a value.
+     *
+     * @return how many times {@link #get} returned a value.
+     */
+    public int hitCount()
+    {
+        synchronized ( this )
+        {
+            return hitCount;
+        }
+    }
+
+    /**
+     * Get how many times {@link #get} returned null.
+     *
+     * @return how many times {@link #get} returned null.
+     */
+    public int missCount()
+    {
+        synchronized ( this )
+        {
+            return missCount;
+        }
+    }
+
+    /**
+     * Get how many entries were evicted to fit the cache size.
+     *
+     * @return how many entries were evicted to fit the cache size.
+     */
+    public int evictionCount()
+    {
+        synchronized ( this )
+        {
+            return evictionCount;
+        }
+    }
+
+    /**
+     * Get how many loads were reported by {@link #recordLoad}.
+     *
+     * @return how many loads were reported by {@link #recordLoad}.
+     */
+    public int loadCount()
+    {
+        synchronized ( this )
+        {
+            return loadCount;
+        }
+    }
+
+    /**
+     * Get the total load time reported by {@link #recordLoad}, in nanoseconds.
+     *
+     * @return the total load time reported by {@link #recordLoad}, in nanoseconds.
+     */
+    public long loadTime()
+    {
+        synchronized ( this )
+        {
+            return loadTime;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        synchronized ( this )
+        {
+            final int accesses = hitCount + missCount;
+            final int hitPercent = ( accesses != 0 ) ? ( 100 * hitCount / accesses ) : 0;
+            final long loadAverage = ( loadCount != 0 ) ? ( loadTime / loadCount / 1000 ) : 0;
+            final StringBuilder builder = new StringBuilder( "IntLruCache[" );
+            builder.append( "size=" ).append( size ).append( ",maxSize=" ).append( maxSize );
+            builder.append( ",count=" ).append( count );
+            builder.append( ",hits=" ).append( hitCount ).append( ",misses=" ).append( missCount );
+            builder.append( ",hitRate=" ).append( hitPercent ).append( '%' );
+            builder.append( ",evictions=" ).append( evictionCount );
+            builder.append( ",loads=" ).append( loadCount ).append( ",loadAverage=" ).append( loadAverage );
+            builder.append( "us]" );
+            return builder.toString();
+        }
+    }
+
+    // -------
+    // Helpers
+    // -------
+
+    /**
+     * Evict the least recently used entries, until the cache size fits 'limit'.
+     *
+     * @param limit the maximum cache size.
+     */
+    private void trimToSize( final int limit )
+    {
+        trimToSize( limit, true );
+    }
+
+    /**
+     * Remove the least recently used entries, until the cache size fits 'limit'.
+     *
+     * @param limit the maximum cache size.
+     * @param evicting true to count the removed entries as evictions.
+     */
+    private void trimToSize( final int limit, final boolean evicting )
+    {
+        while ( limit < size && eldest != IntLruCache.NIL )
+        {
+            release( eldest );
+            if ( evicting )
+            {
+                ++evictionCount;
+            }
+        }
+    }
+
+    /**
+     * Find the slot for the given key.
+     *
+     * @param key to look for.
+     * @return the slot, or NIL if not found.
+     */
+    private int find( final int key )
+    {
+        int slot = buckets[hash( key ) & ( buckets.length - 1 )];
+        while ( slot != IntLruCache.NIL && keys[slot] != key )
+        {
+            slot = chain[slot];
+        }
+        return slot;
+    }
+
+    /**
+     * Remove the given slot from the hash table and the LRU list, and add it to the free slot list.
+     *
+     * @param slot to release.
+     */
+    private void release( final int slot )
+    {
+        // unlink from the hash bucket
+        final int bucket = hash( keys[slot] ) & ( buckets.length - 1 );
+        if ( buckets[bucket] == slot )
+        {
+            buckets[bucket] = chain[slot];
+        }
+        else
+        {
+            int previous = buckets[bucket];
+            while ( chain[previous] != slot )
+            {
+                previous = chain[previous];
+            }
+            chain[previous] = chain[slot];
+        }
+        // unlink from the LRU list
+        unlink( slot );
+        size -= sizes[slot];
+        --count;
+        // add to the free list
+        values[slot] = null;
+        sizes[slot] = 0;
+        chain[slot] = free;
+        free = slot;
+    }
+
+    /**
+     * Remove the given slot from the LRU list.
+     *
+     * @param slot to unlink.
+     */
+    private void unlink( final int slot )
+    {
+        final int before = older[slot];
+        final int after = newer[slot];
+        if ( before != IntLruCache.NIL )
+        {
+            newer[before] = after;
+        }
+        else
+        {
+            eldest = after;
+        }
+        if ( after != IntLruCache.NIL )
+        {
+            older[after] = before;
+        }
+        else
+        {
+            youngest = before;
+        }
+        older[slot] = IntLruCache.NIL;
+        newer[slot] = IntLruCache.NIL;
+    }
+
+    /**
+     * Add the given slot at the end of the LRU list, as the most recently used.
+     *
+     * @param slot to link.
+     */
+    private void link( final int slot )
+    {
+        older[slot] = youngest;
+        newer[slot] = IntLruCache.NIL;
+        if ( youngest != IntLruCache.NIL )
+        {
+            newer[youngest] = slot;
+        }
+        else
+        {
+            eldest = slot;
+        }
+        youngest = slot;
+    }
+
+    /**
+     * Allocate, or grow, all slot arrays and rebuild the hash table.
+     *
+     * @param capacity the new number of slots.
+     */
+    private void allocate( final int capacity )
+    {
+        final int oldCapacity = ( keys != null ) ? keys.length : 0;
+
+        keys = IntLruCache.grow( keys, capacity );
+        sizes = IntLruCache.grow( sizes, capacity );
+        chain = IntLruCache.grow( chain, capacity );
+        older = IntLruCache.grow( older, capacity );
+        newer = IntLruCache.grow( newer, capacity );
+        final Object[] newValues = new Object[capacity];
+        if ( values != null )
+        {
+            System.arraycopy( values, 0, newValues, 0, oldCapacity );
+        }
+        values = newValues;
+
+        // rebuild the hash table - keep the load factor under 50%
+        buckets = new int[capacity * 2];
+        Arrays.fill( buckets, IntLruCache.NIL );
+        for ( int slot = eldest; slot != IntLruCache.NIL; slot = newer[slot] )
+        {
+            final int bucket = hash( keys[slot] ) & ( buckets.length - 1 );
+            chain[slot] = buckets[bucket];
+            buckets[bucket] = slot;
+        }
+
+        // add all new slots to the free list
+        for ( int slot = capacity - 1; oldCapacity <= slot; --slot )
+        {
+            chain[slot] = free;
+            free = slot;
+        }
+    }
+
+    /**
+     * Grow an int[] array.
+     *
+     * @param oldArray the original array, or null.
+     * @param capacity the new array length.
+     * @return the new array.
+     */
+    private static int[] grow( final int[] oldArray, final int capacity )
+    {
+        final int[] newArray = new int[capacity];
+        if ( oldArray != null )
+        {
+            System.arraycopy( oldArray, 0, newArray, 0, oldArray.length );
+        }
+        return newArray;
+    }
+
+    /**
+     * Spread the key bits, since node_id(s) are usually consecutive numbers.
+     *
+     * @param key to hash.
+     * @return the hash value.
+     */
+    private static int hash( final int key )
+    {
+        final int h = key * 0x9E3779B9;
+        return h ^ ( h >>> 16 );
+    }
+}
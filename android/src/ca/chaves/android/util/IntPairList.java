@@ -0,0 +1,139 @@
+package ca.chaves.android.util;
+
+import java.util.Arrays;
+
+/**
+ * This class stores a list of pairs <int, String>. It is the {@link PairList} for node_id(s) and attribute_id(s):
+ * the first values are kept in a primitive <code>int[]</code>, so they are never boxed, and the arrays are grown
+ * without reflection. This class is implemented to minimize memory allocations, which are expensive in Android.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public class IntPairList
+{
+    /**
+     * The initial array length.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The shared empty arrays, until the first pair is added.
+     */
+    private static final int[] EMPTY_INTS = new int[0];
+
+    /**
+     * The shared empty arrays, until the first pair is added.
+     */
+    private static final String[] EMPTY_STRINGS = new String[0];
+
+    /**
+     * This is the list name or title.
+     */
+    public final String title;
+
+    /**
+     * This is the logical list length. Outsiders, consider this a read-only value.
+     */
+    public int length;
+
+    /**
+     * This is the list of <code>int</code> values. The logical length is <code>this.length</code>.
+     */
+    public int[] array_0 = IntPairList.EMPTY_INTS;
+
+    /**
+     * This is the list of <code>String</code> values. The logical length is <code>this.length</code>.
+     */
+    public String[] array_1 = IntPairList.EMPTY_STRINGS;
+
+    /**
+     * Constructor.
+     *
+     * @param title the list title.
+     */
+    public IntPairList( final String title )
+    {
+        this.title = title;
+    }
+
+    /**
+     * Clear list.
+     */
+    public void clear()
+    {
+        Arrays.fill( array_1, 0, length, null );
+        length = 0;
+    }
+
+    /**
+     * Remove pair.
+     *
+     * @param index pair index to remove, between <code>0</code> and <code>(length-1)</code>.
+     * @param count number of elements to remove, between <code>1</code> and <code>(length - index)</code>.
+     */
+    public void remove( final int index, final int count )
+    {
+        if ( 0 <= index && index < length && 0 < count )
+        {
+            final int shiftCount = length - index - count;
+            if ( 0 <= shiftCount )
+            {
+                System.arraycopy( array_0, index + count, array_0, index, shiftCount );
+                System.arraycopy( array_1, index + count, array_1, index, shiftCount );
+
+                length -= count;
+                Arrays.fill( array_1, length, length + count, null );
+            }
+        }
+    }
+
+    /**
+     * Append pair.
+     *
+     * @param first the first value of the pair to add.
+     * @param second the second value of the pair to add - it may be null.
+     */
+    public void add( final int first, final String second )
+    {
+        // expand internal lists if needed
+        if ( array_0.length <= length )
+        {
+            int newLength = length + ( length / 2 ); // 50% more
+            if ( newLength < IntPairList.INITIAL_CAPACITY )
+            {
+                newLength = IntPairList.INITIAL_CAPACITY;
+            }
+            final int[] ints = new int[newLength];
+            System.arraycopy( array_0, 0, ints, 0, length );
+            array_0 = ints;
+            final String[] strings = new String[newLength];
+            System.arraycopy( array_1, 0, strings, 0, length );
+            array_1 = strings;
+        }
+
+        // store new id/value at the end of our lists
+        array_0[length] = first;
+        array_1[length] = second;
+        // now, we have one more element in here
+        ++length;
+    }
+
+    /**
+     * Find the first pair with the given first value.
+     *
+     * @param first the first value.
+     * @return the pair index, or -1 if not found.
+     */
+    public int indexOf( final int first )
+    {
+        for ( int index = 0; index < length; ++index )
+        {
+            if ( array_0[index] == first )
+            {
+                return index;
+            }
+        }
+        return -1;
+    }
+}
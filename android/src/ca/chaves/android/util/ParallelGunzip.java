@@ -0,0 +1,338 @@
+package ca.chaves.android.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * This class inflates a sequence of independently gzip-ed chunks - see "share/tools/gzsplit.py" - on a bounded thread
+ * pool, and reads them back as one single stream, in order. Only a few chunks are inflated ahead of the reader, so the
+ * memory used is bounded too.
+ * <p/>
+ * Typical use:
+ *
+ * <pre>
+ * final InputStream is = new ParallelGunzip( chunks, sizes, ParallelGunzip.defaultThreadCount( chunks.length ) );
+ * try
+ * {
+ *     ... read is
+ * }
+ * finally
+ * {
+ *     is.close();
+ * }
+ * </pre>
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public final class ParallelGunzip
+    extends InputStream
+{
+    /**
+     * The maximum number of inflater threads.
+     */
+    public static final int MAX_THREAD_COUNT = 4;
+
+    /**
+     * The compressed chunks, or null once submitted.
+     */
+    private final InputStream[] chunks;
+
+    /**
+     * The uncompressed chunk sizes, or -1 if unknown.
+     */
+    private final int[] sizes;
+
+    /**
+     * The inflated chunks, or null if not submitted yet.
+     */
+    private final Future<byte[]>[] results;
+
+    /**
+     * The inflater thread pool.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * How many chunks can be inflated ahead of the reader.
+     */
+    private final int window;
+
+    /**
+     * How many chunks have been submitted so far.
+     */
+    private int submitCount;
+
+    /**
+     * The chunk being read, or -1 before the first one.
+     */
+    private int chunkIndex = -1;
+
+    /**
+     * The inflated data of the chunk being read.
+     */
+    private byte[] chunk = new byte[0];
+
+    /**
+     * The read offset in the chunk being read.
+     */
+    private int chunkOffset;
+
+    /**
+     * Constructor.
+     *
+     * @param chunks the compressed chunks, in order - each one is closed once inflated.
+     * @param sizes the uncompressed chunk sizes, or null if unknown.
+     * @param threadCount how many chunks to inflate at the same time.
+     */
+    @SuppressWarnings( { "unchecked", "rawtypes" } )
+    public ParallelGunzip( final InputStream[] chunks, final int[] sizes, final int threadCount )
+    {
+        this.chunks = chunks.clone();
+        this.sizes = new int[chunks.length];
+        for ( int index = 0; index < chunks.length; ++index )
+        {
+            this.sizes[index] = ( sizes == null ) ? -1 : sizes[index];
+        }
+        this.results = new Future[chunks.length];
+        final int poolSize = Math.max( 1, threadCount );
+        this.window = poolSize + 1;
+        this.executor = Executors.newFixedThreadPool( poolSize, new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( final Runnable runnable )
+            {
+                final Thread thread = new Thread( runnable, "gunzip" );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+        submit();
+    }
+
+    /**
+     * Get the default number of inflater threads: one per processor, up to {@link #MAX_THREAD_COUNT}.
+     *
+     * @param chunkCount the number of chunks.
+     * @return the thread count.
+     */
+    public static int defaultThreadCount( final int chunkCount )
+    {
+        final int processors = Runtime.getRuntime().availableProcessors();
+        return Math.max( 1, Math.min( chunkCount, Math.min( processors, ParallelGunzip.MAX_THREAD_COUNT ) ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read()
+        throws IOException
+    {
+        if ( !nextChunk() )
+        {
+            return -1;
+        }
+        return chunk[chunkOffset++] & 0xff;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read( final byte[] buffer, final int offset, final int count )
+        throws IOException
+    {
+        if ( count <= 0 )
+        {
+            return 0;
+        }
+        if ( !nextChunk() )
+        {
+            return -1;
+        }
+        final int length = Math.min( count, chunk.length - chunkOffset );
+        System.arraycopy( chunk, chunkOffset, buffer, offset, length );
+        chunkOffset += length;
+        return length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int available()
+    {
+        return chunk.length - chunkOffset;
+    }
+
+    /**
+     * Stop inflating, and close all chunks not inflated yet.
+     *
+     * @throws IOException on failure.
+     */
+    @Override
+    public void close()
+        throws IOException
+    {
+        executor.shutdownNow();
+        for ( int index = 0; index < results.length; ++index )
+        {
+            if ( results[index] != null )
+            {
+                results[index].cancel( true );
+                results[index] = null;
+            }
+        }
+        synchronized ( chunks )
+        {
+            for ( int index = 0; index < chunks.length; ++index )
+            {
+                if ( chunks[index] != null )
+                {
+                    chunks[index].close();
+                    chunks[index] = null;
+                }
+            }
+        }
+        chunk = new byte[0];
+        chunkOffset = 0;
+    }
+
+    /**
+     * Make sure there is data left in the chunk being read, moving to the next chunks as needed.
+     *
+     * @return false at the end of the last chunk.
+     * @throws IOException on failure.
+     */
+    private boolean nextChunk()
+        throws IOException
+    {
+        while ( chunk.length <= chunkOffset )
+        {
+            if ( chunkIndex + 1 >= results.length )
+            {
+                return false;
+            }
+            ++chunkIndex;
+            submit();
+            final Future<byte[]> result = results[chunkIndex];
+            results[chunkIndex] = null;
+            try
+            {
+                chunk = result.get();
+            }
+            catch ( final InterruptedException ex )
+            {
+                Thread.currentThread().interrupt();
+                final IOException error = new IOException( "interrupted while inflating chunk " + chunkIndex );
+                error.initCause( ex );
+                throw error;
+            }
+            catch ( final ExecutionException ex )
+            {
+                if ( ex.getCause() instanceof IOException )
+                {
+                    throw (IOException) ex.getCause();
+                }
+                final IOException error = new IOException( "unable to inflate chunk " + chunkIndex );
+                error.initCause( ex.getCause() );
+                throw error;
+            }
+            chunkOffset = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Submit the next chunks to inflate, up to the window ahead of the reader.
+     */
+    private void submit()
+    {
+        while ( submitCount < results.length && submitCount <= chunkIndex + window )
+        {
+            final int index = submitCount++;
+            results[index] = executor.submit( new Callable<byte[]>()
+            {
+                @Override
+                public byte[] call()
+                    throws IOException
+                {
+                    return inflate( index );
+                }
+            } );
+        }
+    }
+
+    /**
+     * Inflate the given chunk.
+     *
+     * @param index the chunk index.
+     * @return the inflated data.
+     * @throws IOException on failure.
+     */
+    private byte[] inflate( final int index )
+        throws IOException
+    {
+        final InputStream source;
+        synchronized ( chunks )
+        {
+            source = chunks[index];
+            chunks[index] = null;
+        }
+        if ( source == null )
+        {
+            throw new IOException( "chunk " + index + " closed" );
+        }
+        final long start = System.nanoTime();
+        final GZIPInputStream is = new GZIPInputStream( source, 8 * 1024 );
+        try
+        {
+            final int size = sizes[index];
+            final byte[] data;
+            if ( 0 <= size )
+            {
+                data = new byte[size];
+                int offset = 0;
+                while ( offset < size )
+                {
+                    final int count = is.read( data, offset, size - offset );
+                    if ( count == -1 )
+                    {
+                        throw new IOException( "chunk " + index + " truncated at " + offset + " of " + size );
+                    }
+                    offset += count;
+                }
+                if ( is.read() != -1 )
+                {
+                    throw new IOException( "chunk " + index + " larger than " + size );
+                }
+            }
+            else
+            {
+                final ByteArrayOutputStream os = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[32 * 1024];
+                for ( int count = is.read( buffer ); count != -1; count = is.read( buffer ) )
+                {
+                    os.write( buffer, 0, count );
+                }
+                data = os.toByteArray();
+            }
+            Debug.print( "chunk", index, "inflated", data.length, "bytes in", ( System.nanoTime() - start ) / 1000,
+                         "us" );
+            return data;
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+}
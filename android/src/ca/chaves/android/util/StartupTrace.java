@@ -0,0 +1,342 @@
+package ca.chaves.android.util;
+
+import ca.chaves.android.BuildManifest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * This class traces the application start-up critical path, from {@link android.app.Application#onCreate} to the first
+ * node rendered on the screen, as a list of named spans with nanosecond timestamps. When the first node is rendered,
+ * the timeline is written into one file per launch, with one span per line and the span name first, so the timelines
+ * of two builds line up side by side; the span names alone are also written into another file, so that
+ * <code>diff</code> only shows the spans added, dropped or reordered between two launches. Any subsystem can add its
+ * own spans:
+ *
+ * <pre>
+ * final int span = StartupTrace.begin( &quot;loadSomething&quot; );
+ * try
+ * {
+ *     ... the work to trace
+ * }
+ * finally
+ * {
+ *     StartupTrace.end( span );
+ * }
+ * </pre>
+ *
+ * All functions do nothing, and cost nothing, unless {@link BuildManifest#TRACE_ENABLED} is true. Spans begun after
+ * the timeline is written, or beyond {@link #MAX_SPANS}, are ignored.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public final class StartupTrace
+{
+    /**
+     * The timeline file name.
+     */
+    public static final String FILE_NAME = "startup.trace";
+
+    /**
+     * The span names file name.
+     */
+    public static final String NAMES_FILE_NAME = "startup.names";
+
+    /**
+     * The maximum number of spans traced per launch.
+     */
+    public static final int MAX_SPANS = 256;
+
+    /**
+     * The value returned by {@link #begin} when the span is not traced.
+     */
+    public static final int NO_SPAN = -1;
+
+    /**
+     * The global locker - it guards all the span tables.
+     */
+    private static final Object LOCK = new Object();
+
+    /**
+     * The span names.
+     */
+    private static final String[] NAMES = new String[StartupTrace.MAX_SPANS];
+
+    /**
+     * The span thread names.
+     */
+    private static final String[] THREADS = new String[StartupTrace.MAX_SPANS];
+
+    /**
+     * The span start times, in nanoseconds.
+     */
+    private static final long[] STARTS = new long[StartupTrace.MAX_SPANS];
+
+    /**
+     * The span end times, in nanoseconds - or zero while the span is open.
+     */
+    private static final long[] ENDS = new long[StartupTrace.MAX_SPANS];
+
+    /**
+     * How many spans have been traced.
+     */
+    private static int spanCount;
+
+    /**
+     * The launch start time, in nanoseconds.
+     */
+    private static long origin = System.nanoTime();
+
+    /**
+     * This flag becomes true once the timeline has been written.
+     */
+    private static boolean finished;
+
+    /**
+     * Constructor.
+     */
+    private StartupTrace()
+    {
+        // static class
+    }
+
+    /**
+     * Start a new timeline: all spans traced so far are dropped, and all times are relative to now. This function is
+     * called from {@link android.app.Application#onCreate}.
+     */
+    public static void start()
+    {
+        if ( !BuildManifest.TRACE_ENABLED )
+        {
+            return;
+        }
+        synchronized ( StartupTrace.LOCK )
+        {
+            origin = System.nanoTime();
+            spanCount = 0;
+            finished = false;
+        }
+    }
+
+    /**
+     * Begin a new span, on the current thread.
+     *
+     * @param name the span name.
+     * @return the span to give to {@link #end}, or {@link #NO_SPAN} if it is not traced.
+     */
+    public static int begin( final String name )
+    {
+        if ( !BuildManifest.TRACE_ENABLED )
+        {
+            return StartupTrace.NO_SPAN;
+        }
+        final String thread = Thread.currentThread().getName();
+        synchronized ( StartupTrace.LOCK )
+        {
+            if ( finished || StartupTrace.MAX_SPANS <= spanCount )
+            {
+                return StartupTrace.NO_SPAN;
+            }
+            // the clock is read inside the lock, so the spans are in start order
+            final int span = spanCount++;
+            StartupTrace.NAMES[span] = name;
+            StartupTrace.THREADS[span] = thread;
+            StartupTrace.STARTS[span] = System.nanoTime();
+            StartupTrace.ENDS[span] = 0;
+            return span;
+        }
+    }
+
+    /**
+     * End the given span - it may end on another thread.
+     *
+     * @param span the span returned by {@link #begin}.
+     */
+    public static void end( final int span )
+    {
+        if ( !BuildManifest.TRACE_ENABLED || span == StartupTrace.NO_SPAN )
+        {
+            return;
+        }
+        final long now = System.nanoTime();
+        synchronized ( StartupTrace.LOCK )
+        {
+            if ( !finished && span < spanCount && StartupTrace.ENDS[span] == 0 )
+            {
+                StartupTrace.ENDS[span] = now;
+            }
+        }
+    }
+
+    /**
+     * Trace an instant event: a span of length zero.
+     *
+     * @param name the event name.
+     */
+    public static void mark( final String name )
+    {
+        StartupTrace.end( StartupTrace.begin( name ) );
+    }
+
+    /**
+     * Stop tracing and write the timeline into the given directory, on a background thread. Only the first call in
+     * each launch writes the timeline.
+     *
+     * @param directory where to write the {@link #FILE_NAME} file.
+     */
+    public static void finish( final File directory )
+    {
+        if ( !BuildManifest.TRACE_ENABLED )
+        {
+            return;
+        }
+        final String timeline;
+        final String names;
+        synchronized ( StartupTrace.LOCK )
+        {
+            if ( finished )
+            {
+                return;
+            }
+            finished = true;
+            timeline = StartupTrace.format();
+            names = StartupTrace.formatNames();
+        }
+        final Thread thread = new Thread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    StartupTrace.write( new File( directory, StartupTrace.FILE_NAME ), timeline );
+                    StartupTrace.write( new File( directory, StartupTrace.NAMES_FILE_NAME ), names );
+                }
+                catch ( final IOException ex )
+                {
+                    Debug.error( ex, "unable to write startup trace" );
+                }
+            }
+        }, "trace" );
+        thread.start();
+    }
+
+    /**
+     * Get the timeline: one line per span, in start order, as in "<code>name thread start_ns duration_ns</code>".
+     * Nested spans - on the same thread, within another span - are indented; spans still open have a duration of -1.
+     *
+     * @return the timeline text.
+     */
+    public static String format()
+    {
+        synchronized ( StartupTrace.LOCK )
+        {
+            final StringBuilder builder = new StringBuilder( "# name thread start_ns duration_ns\n" );
+            for ( int span = 0; span < spanCount; ++span )
+            {
+                final long start = StartupTrace.STARTS[span];
+                final long end = StartupTrace.ENDS[span];
+                StartupTrace.appendName( builder, span ).append( ' ' );
+                builder.append( StartupTrace.THREADS[span] ).append( ' ' );
+                builder.append( start - origin ).append( ' ' );
+                builder.append( ( end == 0 ) ? -1 : ( end - start ) ).append( '\n' );
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Get the span names of the timeline, without any time: one line per span, in start order and indented as in
+     * {@link #format}. The names of two launches differ only when spans are added, dropped or reordered.
+     *
+     * @return the span names text.
+     */
+    public static String formatNames()
+    {
+        synchronized ( StartupTrace.LOCK )
+        {
+            final StringBuilder builder = new StringBuilder( "# name\n" );
+            for ( int span = 0; span < spanCount; ++span )
+            {
+                StartupTrace.appendName( builder, span ).append( '\n' );
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Append the given span name, indented by its nesting depth. This function must be called while holding the global
+     * lock.
+     *
+     * @param builder where to append the name.
+     * @param span the span.
+     * @return the builder.
+     */
+    private static StringBuilder appendName( final StringBuilder builder, final int span )
+    {
+        for ( int depth = StartupTrace.depth( span ); 0 < depth; --depth )
+        {
+            builder.append( "  " );
+        }
+        return builder.append( StartupTrace.NAMES[span] );
+    }
+
+    /**
+     * Get how many spans, on the same thread, enclose the given span. This function must be called while holding the
+     * global lock.
+     *
+     * @param span the span.
+     * @return the nesting depth.
+     */
+    private static int depth( final int span )
+    {
+        int depth = 0;
+        final long end = StartupTrace.ENDS[span];
+        for ( int other = 0; other < span; ++other )
+        {
+            if ( !StartupTrace.THREADS[other].equals( StartupTrace.THREADS[span] ) )
+            {
+                continue;
+            }
+            // the other span started first: it encloses this one, unless it ended before
+            final long otherEnd = StartupTrace.ENDS[other];
+            if ( otherEnd == 0 || ( end != 0 && end <= otherEnd ) )
+            {
+                ++depth;
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * Write the timeline into the given file - the timeline of the previous launch is kept, with the ".old" suffix, so
+     * both can be compared.
+     *
+     * @param file the timeline file.
+     * @param timeline the timeline text.
+     * @throws IOException on failure.
+     */
+    private static void write( final File file, final String timeline )
+        throws IOException
+    {
+        final File old = new File( file.getPath() + ".old" );
+        if ( file.exists() && !file.renameTo( old ) )
+        {
+            Debug.print( "unable to keep", old );
+        }
+        final Writer writer = new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" );
+        try
+        {
+            writer.write( timeline );
+        }
+        finally
+        {
+            writer.close();
+        }
+        Debug.print( "startup trace written", file );
+    }
+}
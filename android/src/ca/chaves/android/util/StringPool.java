@@ -0,0 +1,241 @@
+package ca.chaves.android.util;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * This class defines a bounded pool of shared strings. Equal values - like "Male", "Female", professions, countries
+ * and places - are returned as one single {@link String} instance, no matter how many nodes use them.
+ * <p/>
+ * The pool is a fixed-size, lossy hash table keyed by the raw characters: each value has one single slot, and a new
+ * value just replaces whatever value was there before. Slots only keep {@link WeakReference}s, so pooled strings are
+ * garbage collected as soon as no node uses them. Lookups compare characters, so a string is only allocated when the
+ * value is not in the pool already.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public final class StringPool
+{
+    /**
+     * The estimated size of one {@link String} instance, not counting its characters: the String object and the
+     * char[] array headers.
+     */
+    public static final int STRING_OVERHEAD = 40;
+
+    /**
+     * The longest value to be pooled, in characters - longer values are unlikely to repeat.
+     */
+    private static final int MAX_LENGTH = 64;
+
+    /**
+     * The pool slots.
+     */
+    private final WeakReference<String>[] slots;
+
+    /**
+     * How many lookups returned a pooled string.
+     */
+    private int hitCount;
+
+    /**
+     * How many lookups allocated a new string.
+     */
+    private int missCount;
+
+    /**
+     * How many bytes were not allocated because a pooled string was returned instead.
+     */
+    private long savedBytes;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the number of slots - it is rounded up to a power of two.
+     */
+    @SuppressWarnings( { "unchecked", "rawtypes" } )
+    public StringPool( final int capacity )
+    {
+        int length = 16;
+        while ( length < capacity )
+        {
+            length <<= 1;
+        }
+        slots = new WeakReference[length];
+    }
+
+    /**
+     * Get the pooled string with the given characters.
+     *
+     * @param data the characters.
+     * @param length how many characters to use, from the start of 'data'.
+     * @return the pooled string.
+     */
+    public String intern( final char[] data, final int length )
+    {
+        if ( StringPool.MAX_LENGTH < length )
+        {
+            return new String( data, 0, length );
+        }
+        int hash = 0;
+        for ( int index = 0; index < length; ++index )
+        {
+            hash = 31 * hash + data[index];
+        }
+        final int slot = StringPool.spread( hash ) & ( slots.length - 1 );
+
+        synchronized ( this )
+        {
+            final WeakReference<String> reference = slots[slot];
+            final String pooled = ( reference == null ) ? null : reference.get();
+            if ( pooled != null && StringPool.equals( pooled, data, length ) )
+            {
+                ++hitCount;
+                savedBytes += StringPool.STRING_OVERHEAD + 2 * length;
+                return pooled;
+            }
+            final String value = new String( data, 0, length );
+            slots[slot] = new WeakReference<String>( value );
+            ++missCount;
+            return value;
+        }
+    }
+
+    /**
+     * Get the pooled string equal to the given value.
+     *
+     * @param value the value.
+     * @return the pooled string, or null if 'value' is null.
+     */
+    public String intern( final String value )
+    {
+        if ( value == null || StringPool.MAX_LENGTH < value.length() )
+        {
+            return value;
+        }
+        final int slot = StringPool.spread( value.hashCode() ) & ( slots.length - 1 );
+
+        synchronized ( this )
+        {
+            final WeakReference<String> reference = slots[slot];
+            final String pooled = ( reference == null ) ? null : reference.get();
+            if ( pooled != null && pooled.equals( value ) )
+            {
+                ++hitCount;
+                savedBytes += StringPool.STRING_OVERHEAD + 2 * value.length();
+                return pooled;
+            }
+            slots[slot] = new WeakReference<String>( value );
+            ++missCount;
+            return value;
+        }
+    }
+
+    /**
+     * Remove all pooled strings. Statistics are kept.
+     */
+    public void clear()
+    {
+        synchronized ( this )
+        {
+            for ( int slot = 0; slot < slots.length; ++slot )
+            {
+                slots[slot] = null;
+            }
+        }
+    }
+
+    /**
+     * Mix the hash code bits, so that similar values do not land in neighbour slots.
+     *
+     * @param hash the hash code.
+     * @return the mixed hash code.
+     */
+    private static int spread( final int hash )
+    {
+        final int value = hash * 0x9E3779B9;
+        return value ^ ( value >>> 16 );
+    }
+
+    /**
+     * Compare a string against some characters.
+     *
+     * @param value the string.
+     * @param data the characters.
+     * @param length how many characters to compare.
+     * @return true if both contain the same characters.
+     */
+    private static boolean equals( final String value, final char[] data, final int length )
+    {
+        if ( value.length() != length )
+        {
+            return false;
+        }
+        for ( int index = 0; index < length; ++index )
+        {
+            if ( value.charAt( index ) != data[index] )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ----------
+    // Statistics
+    // ----------
+
+    /**
+     * Get how many lookups returned a pooled string.
+     *
+     * @return how many lookups returned a pooled string.
+     */
+    public int hitCount()
+    {
+        synchronized ( this )
+        {
+            return hitCount;
+        }
+    }
+
+    /**
+     * Get how many lookups allocated a new string.
+     *
+     * @return how many lookups allocated a new string.
+     */
+    public int missCount()
+    {
+        synchronized ( this )
+        {
+            return missCount;
+        }
+    }
+
+    /**
+     * Get an estimation of the heap not allocated, because pooled strings were returned instead of new copies.
+     *
+     * @return the saved heap size, in bytes.
+     */
+    public long savedBytes()
+    {
+        synchronized ( this )
+        {
+            return savedBytes;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        synchronized ( this )
+        {
+            final StringBuilder text = new StringBuilder( "StringPool[slots=" ).append( slots.length );
+            text.append( ", hits=" ).append( hitCount );
+            text.append( ", misses=" ).append( missCount );
+            text.append( ", savedBytes=" ).append( savedBytes );
+            return text.append( ']' ).toString();
+        }
+    }
+}
@@ -0,0 +1,708 @@
+package ca.chaves.android.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+
+/**
+ * This class reads a tar archive through one single {@link ByteBuffer}: headers are parsed in place - only the entry
+ * name becomes a String - and, when the archive is a file, entry payloads are skipped by position and large files
+ * are written with {@link FileChannel#transferFrom}. Otherwise all data goes through the same buffer, and nothing is
+ * allocated per entry. The extraction semantics are the same as {@link TarArchive}'s - but each file is written under
+ * a temporary name, synced, and renamed once complete: a crash never leaves a half written file in place.
+ * <p/>
+ * Typical use:
+ *
+ * <pre>
+ * final TarReader reader = new TarReader( new GZIPInputStream( ... ) );
+ * try
+ * {
+ *     reader.extractChanged( targetDirectory );
+ * }
+ * finally
+ * {
+ *     reader.close();
+ * }
+ * </pre>
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public final class TarReader
+{
+    /**
+     * The tar record size.
+     */
+    private static final int RECORD_SIZE = 512;
+
+    /**
+     * The buffer size - a multiple of the record size.
+     */
+    private static final int BUFFER_SIZE = 64 * TarReader.RECORD_SIZE;
+
+    /**
+     * The smallest payload written with {@link FileChannel#transferFrom} - smaller ones are cheaper to copy.
+     */
+    private static final int TRANSFER_THRESHOLD = 256 * 1024;
+
+    /**
+     * The suffix of the files being extracted - each one is renamed once complete.
+     */
+    private static final String TEMPORARY_SUFFIX = ".part";
+
+    /**
+     * The "directory" entry type.
+     */
+    private static final byte TYPE_DIRECTORY = (byte) '5';
+
+    /**
+     * This flag must be false in order to overwrite any existing file. If this flag is true, then all existing files
+     * are kept, while that all missing files are restored automatically - see {@link TarArchive#keepOldFiles}.
+     */
+    public boolean keepOldFiles = true;
+
+    /**
+     * The archive source.
+     */
+    private final ReadableByteChannel channel;
+
+    /**
+     * The archive source, if it is a file; or null.
+     */
+    private final FileChannel fileChannel;
+
+    /**
+     * The read buffer - its [position, limit) range holds the bytes read but not consumed yet.
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocate( TarReader.BUFFER_SIZE );
+
+    /**
+     * The scratch space for entry names.
+     */
+    private final char[] nameChars = new char[256];
+
+    /**
+     * The current entry name, or null before the first entry and after the last one.
+     */
+    private String entryName;
+
+    /**
+     * The current entry type.
+     */
+    private byte entryType;
+
+    /**
+     * The current entry permissions.
+     */
+    private int entryMode;
+
+    /**
+     * The current entry size, in bytes.
+     */
+    private long entrySize;
+
+    /**
+     * The current entry payload bytes not consumed yet.
+     */
+    private long entryRemaining;
+
+    /**
+     * The current entry padding bytes, up to the next record.
+     */
+    private int entryPadding;
+
+    /**
+     * Whether the end of the archive has been reached.
+     */
+    private boolean endOfArchive;
+
+    /**
+     * Constructor.
+     *
+     * @param inputStream the tar archive source.
+     */
+    public TarReader( final InputStream inputStream )
+    {
+        this( ( inputStream instanceof FileInputStream ) ? ( (FileInputStream) inputStream ).getChannel()
+                        : Channels.newChannel( inputStream ) );
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param channel the tar archive source.
+     */
+    public TarReader( final ReadableByteChannel channel )
+    {
+        this.channel = channel;
+        this.fileChannel = ( channel instanceof FileChannel ) ? (FileChannel) channel : null;
+        buffer.limit( 0 );
+    }
+
+    /**
+     * Close the archive source.
+     *
+     * @throws IOException on failure.
+     */
+    public void close()
+        throws IOException
+    {
+        channel.close();
+    }
+
+    // -------
+    // Entries
+    // -------
+
+    /**
+     * Move to the next entry, skipping the rest of the current one, if any.
+     *
+     * @return true on success, false at the end of the archive.
+     * @throws IOException on failure.
+     */
+    public boolean nextEntry()
+        throws IOException
+    {
+        if ( endOfArchive )
+        {
+            return false;
+        }
+        skip( entryRemaining + entryPadding );
+        entryRemaining = 0;
+        entryPadding = 0;
+
+        if ( !fill( TarReader.RECORD_SIZE ) || isZeroRecord() )
+        {
+            endOfArchive = true;
+            entryName = null;
+            return false;
+        }
+
+        final int header = buffer.position();
+        checkMagic( header );
+        entryName = parseFileName( header );
+        entryMode = (int) parseOctal( header + 100, 8 );
+        entrySize = parseOctal( header + 124, 12 );
+        entryType = buffer.get( header + 156 );
+        buffer.position( header + TarReader.RECORD_SIZE );
+
+        entryRemaining = entrySize;
+        entryPadding = (int) ( ( -entrySize ) & ( TarReader.RECORD_SIZE - 1 ) );
+        return true;
+    }
+
+    /**
+     * Get the current entry name.
+     *
+     * @return the entry name, or null if there is no current entry.
+     */
+    public String getEntryName()
+    {
+        return entryName;
+    }
+
+    /**
+     * Get the current entry size.
+     *
+     * @return the entry size, in bytes.
+     */
+    public long getEntrySize()
+    {
+        return entrySize;
+    }
+
+    /**
+     * Get the current entry permissions.
+     *
+     * @return the entry posix permission mask.
+     */
+    public int getEntryMode()
+    {
+        return entryMode;
+    }
+
+    /**
+     * Check if the current entry is a directory.
+     *
+     * @return true if the entry is a directory.
+     */
+    public boolean isDirectory()
+    {
+        return entryType == TarReader.TYPE_DIRECTORY || ( entryName != null && entryName.endsWith( "/" ) );
+    }
+
+    /**
+     * Read the rest of the current entry into memory - for small entries only.
+     *
+     * @return the entry contents.
+     * @throws IOException on failure.
+     */
+    public byte[] readEntry()
+        throws IOException
+    {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream( (int) entryRemaining );
+        while ( 0 < entryRemaining )
+        {
+            if ( !fill( (int) Math.min( entryRemaining, TarReader.BUFFER_SIZE ) ) )
+            {
+                throw new TarArchive.TarException( "archive truncated in", entryName );
+            }
+            final int count = (int) Math.min( buffer.remaining(), entryRemaining );
+            data.write( buffer.array(), buffer.position(), count );
+            buffer.position( buffer.position() + count );
+            entryRemaining -= count;
+        }
+        return data.toByteArray();
+    }
+
+    // ----------
+    // Extraction
+    // ----------
+
+    /**
+     * Extract the contents of the archive - see {@link TarArchive#extract}.
+     *
+     * @param targetDirectory The destination directory into which to extract.
+     * @return number of entries extracted.
+     * @throws IOException on failure.
+     */
+    public int extract( final File targetDirectory )
+        throws IOException
+    {
+        int extractCount = 0;
+        while ( nextEntry() )
+        {
+            extractEntry( targetDirectory, !keepOldFiles, null );
+            ++extractCount;
+        }
+        return extractCount;
+    }
+
+    /**
+     * Perform a manifest-driven "extract" command. The first archive entry must be the {@link TarballManifest}, which
+     * is compared with the manifest installed by the previous extraction, if any: only the files whose hash changed, or
+     * which are missing or truncated, are extracted - and their contents are checked against the manifest. The data of
+     * all other files is skipped over without writing anything, and the extraction stops as soon as there is nothing
+     * left to extract. The new manifest is installed at the very end, once all files are in place. Archives without a
+     * manifest are extracted as in {@link #extract}.
+     * <p/>
+     * Each file extracted is recorded in a {@link TarballJournal}, so a restore interrupted by a crash resumes with the
+     * first file not completed; the journal is deleted once the new manifest is installed.
+     *
+     * @param targetDirectory The destination directory into which to extract.
+     * @return number of files extracted - or of entries, for archives without manifest.
+     * @throws IOException on failure.
+     */
+    public int extractChanged( final File targetDirectory )
+        throws IOException
+    {
+        if ( !nextEntry() )
+        {
+            return 0;
+        }
+        if ( !TarballManifest.FILE_NAME.equals( entryName ) )
+        {
+            Debug.print( "no manifest, extract all" );
+            int extractCount = 0;
+            do
+            {
+                extractEntry( targetDirectory, !keepOldFiles, null );
+                ++extractCount;
+            }
+            while ( nextEntry() );
+            return extractCount;
+        }
+
+        final TarballManifest manifest = TarballManifest.parse( readEntry() );
+        final File manifestFile = new File( targetDirectory, TarballManifest.FILE_NAME );
+        final TarballManifest installed = TarballManifest.load( manifestFile );
+
+        final TarballJournal journal =
+            TarballJournal.open( new File( targetDirectory, TarballJournal.FILE_NAME ), manifest.getContentHash() );
+        int extractCount = 0;
+        try
+        {
+            int pendingCount = manifest.countChanged( targetDirectory, installed, journal );
+            Debug.print( "manifest files", manifest.size(), "to extract", pendingCount, "resumed", journal.size() );
+            while ( 0 < pendingCount && nextEntry() )
+            {
+                final File entryFile = new File( targetDirectory, entryName.replace( '/', File.separatorChar ) );
+                if ( isDirectory() )
+                {
+                    extractEntry( targetDirectory, false, null );
+                }
+                else if ( manifest.isChanged( entryName, entryFile, installed, journal ) )
+                {
+                    final TarballManifest.Entry expected = manifest.get( entryName );
+                    extractEntry( targetDirectory, true, ( expected == null ) ? null : expected.hash );
+                    journal.commit( entryName );
+                    --pendingCount;
+                    ++extractCount;
+                }
+                // else: unchanged, or completed before the crash - the next nextEntry() skips its data
+            }
+            if ( 0 < pendingCount )
+            {
+                throw new TarArchive.TarException( "archive truncated,", pendingCount, "files missing" );
+            }
+            manifest.save( manifestFile );
+        }
+        finally
+        {
+            journal.close();
+        }
+        journal.delete();
+        return extractCount;
+    }
+
+    /**
+     * Extract the current entry.
+     *
+     * @param targetDirectory The destination directory into which to extract.
+     * @param overwrite true to overwrite an existing file.
+     * @param expectedHash the expected content hash - see {@link TarballManifest} - or null not to check it.
+     * @throws IOException on failure.
+     */
+    private void extractEntry( final File targetDirectory, final boolean overwrite, final String expectedHash )
+        throws IOException
+    {
+        final File entryFile = new File( targetDirectory, entryName.replace( '/', File.separatorChar ) );
+
+        if ( isDirectory() )
+        {
+            Debug.print( "extract directory:", entryFile.getAbsolutePath() );
+            if ( !entryFile.exists() )
+            {
+                if ( !entryFile.mkdirs() )
+                {
+                    throw new TarArchive.TarException( "could not make directory", entryFile.getPath() );
+                }
+                // fix directory permissions
+                if ( POSIX.chmod( entryFile.getAbsolutePath(), entryMode ) != POSIX.EZERO )
+                {
+                    Debug.print( "unable to fix directory permissions", entryFile, Integer.toOctalString( entryMode ) );
+                }
+            }
+            return;
+        }
+
+        final File parentFile = entryFile.getParentFile();
+        if ( !parentFile.exists() && !parentFile.mkdirs() )
+        {
+            throw new TarArchive.TarException( "could not make directory", parentFile.getPath() );
+        }
+
+        if ( !overwrite && entryFile.exists() )
+        {
+            return; // file exists - do not overwrite
+        }
+
+        // the file is written under a temporary name, so a crash never leaves it half written
+        Debug.print( "extract file:", entryFile.getAbsolutePath() );
+        final File temporary = new File( entryFile.getPath() + TarReader.TEMPORARY_SUFFIX );
+        final MessageDigest digest = ( expectedHash == null ) ? null : TarballManifest.newDigest();
+        final FileOutputStream os = new FileOutputStream( temporary );
+        try
+        {
+            copyEntry( os.getChannel(), digest );
+            os.getFD().sync();
+        }
+        finally
+        {
+            os.close();
+        }
+        if ( digest != null && !expectedHash.equals( TarballManifest.toHex( digest ) ) )
+        {
+            // drop it - the old file, if any, is kept
+            temporary.delete();
+            throw new TarArchive.TarException( "corrupt file", entryFile.getPath() );
+        }
+
+        // fix file permissions
+        if ( POSIX.chmod( temporary.getAbsolutePath(), entryMode ) != POSIX.EZERO )
+        {
+            Debug.print( "unable to fix file permissions", entryFile, Integer.toOctalString( entryMode ) );
+        }
+
+        // and then, replace the old file at once
+        if ( !temporary.renameTo( entryFile ) )
+        {
+            temporary.delete();
+            throw new TarArchive.TarException( "could not install file", entryFile.getPath() );
+        }
+    }
+
+    /**
+     * Copy the rest of the current entry into the given file.
+     *
+     * @param output the output file.
+     * @param digest the content hash digest to update, or null.
+     * @throws IOException on failure.
+     */
+    private void copyEntry( final FileChannel output, final MessageDigest digest )
+        throws IOException
+    {
+        // first, the bytes already buffered
+        long position = 0;
+        while ( 0 < entryRemaining && 0 < buffer.remaining() )
+        {
+            position += write( output, (int) Math.min( buffer.remaining(), entryRemaining ), digest );
+        }
+        // then, straight from the archive file to the output file, when the data need not be seen - never for the
+        // files extracted by extractChanged(), which are all checked against their manifest hash
+        if ( fileChannel != null && digest == null && TarReader.TRANSFER_THRESHOLD <= entryRemaining )
+        {
+            while ( 0 < entryRemaining )
+            {
+                final long count = output.transferFrom( fileChannel, position, entryRemaining );
+                if ( count <= 0 )
+                {
+                    throw new TarArchive.TarException( "archive truncated in", entryName );
+                }
+                position += count;
+                entryRemaining -= count;
+            }
+            return;
+        }
+        while ( 0 < entryRemaining )
+        {
+            if ( !fill( (int) Math.min( entryRemaining, TarReader.BUFFER_SIZE ) ) )
+            {
+                throw new TarArchive.TarException( "archive truncated in", entryName );
+            }
+            write( output, (int) Math.min( buffer.remaining(), entryRemaining ), digest );
+        }
+    }
+
+    /**
+     * Write the next buffered bytes of the current entry into the given file.
+     *
+     * @param output the output file.
+     * @param count how many bytes to write.
+     * @param digest the content hash digest to update, or null.
+     * @return the number of bytes written.
+     * @throws IOException on failure.
+     */
+    private int write( final FileChannel output, final int count, final MessageDigest digest )
+        throws IOException
+    {
+        final int start = buffer.position();
+        final int limit = buffer.limit();
+        if ( digest != null )
+        {
+            digest.update( buffer.array(), start, count );
+        }
+        buffer.limit( start + count );
+        while ( buffer.hasRemaining() )
+        {
+            output.write( buffer );
+        }
+        buffer.limit( limit );
+        entryRemaining -= count;
+        return count;
+    }
+
+    // ---------
+    // Buffering
+    // ---------
+
+    /**
+     * Make sure there are at least the given number of bytes buffered.
+     *
+     * @param count the number of bytes needed - at most the buffer size.
+     * @return false if the archive ended before.
+     * @throws IOException on failure.
+     */
+    private boolean fill( final int count )
+        throws IOException
+    {
+        if ( count <= buffer.remaining() )
+        {
+            return true;
+        }
+        buffer.compact();
+        try
+        {
+            while ( buffer.position() < count )
+            {
+                if ( channel.read( buffer ) < 0 )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        finally
+        {
+            buffer.flip();
+        }
+    }
+
+    /**
+     * Skip the given number of bytes: by position if the archive is a file, or else by reading them.
+     *
+     * @param count the number of bytes to skip.
+     * @throws IOException on failure.
+     */
+    private void skip( final long count )
+        throws IOException
+    {
+        final int buffered = (int) Math.min( buffer.remaining(), count );
+        buffer.position( buffer.position() + buffered );
+        long remaining = count - buffered;
+        if ( remaining <= 0 )
+        {
+            return;
+        }
+        if ( fileChannel != null )
+        {
+            fileChannel.position( fileChannel.position() + remaining );
+            return; // a truncated archive shows up at the next header
+        }
+        while ( 0 < remaining )
+        {
+            buffer.clear();
+            if ( remaining < buffer.capacity() )
+            {
+                buffer.limit( (int) remaining );
+            }
+            final int read = channel.read( buffer );
+            if ( read < 0 )
+            {
+                break;
+            }
+            remaining -= read;
+        }
+        buffer.clear();
+        buffer.limit( 0 );
+    }
+
+    // --------------
+    // Header Parsing
+    // --------------
+
+    /**
+     * Check if the buffered record is all zeros - the end of the archive.
+     *
+     * @return true if it is.
+     */
+    private boolean isZeroRecord()
+    {
+        final int start = buffer.position();
+        for ( int index = start + TarReader.RECORD_SIZE - 1; start <= index; --index )
+        {
+            if ( buffer.get( index ) != 0 )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check the header magic: "ustar", or zeros for old unix archives - as {@link TarArchive} does.
+     *
+     * @param header the header offset in the buffer.
+     * @throws TarArchive.TarHeaderException if the magic is unknown.
+     */
+    private void checkMagic( final int header )
+        throws TarArchive.TarHeaderException
+    {
+        final int magic = header + 257;
+        if ( buffer.get( magic ) == 0 && buffer.get( magic + 1 ) == 0 && buffer.get( magic + 2 ) == 0
+            && buffer.get( magic + 3 ) == 0 && buffer.get( magic + 4 ) == 0 )
+        {
+            return; // old unix format
+        }
+        if ( buffer.get( magic ) == 'u' && buffer.get( magic + 1 ) == 's' && buffer.get( magic + 2 ) == 't'
+            && buffer.get( magic + 3 ) == 'a' && buffer.get( magic + 4 ) == 'r' )
+        {
+            return; // posix or gnu format
+        }
+        throw new TarArchive.TarHeaderException( "header magic is not 'ustar' nor unix-style zeros" );
+    }
+
+    /**
+     * Parse the entry name, with its 'ustar' prefix if any.
+     *
+     * @param header the header offset in the buffer.
+     * @return the entry name.
+     */
+    private String parseFileName( final int header )
+    {
+        int length = 0;
+        if ( buffer.get( header + 345 ) != 0 )
+        {
+            length = parseName( header + 345, 155, length );
+            nameChars[length++] = '/';
+        }
+        length = parseName( header, 100, length );
+        return new String( nameChars, 0, length );
+    }
+
+    /**
+     * Copy a name field into the name scratch space.
+     *
+     * @param offset the field offset in the buffer.
+     * @param size the field size.
+     * @param length the scratch space length so far.
+     * @return the new scratch space length.
+     */
+    private int parseName( final int offset, final int size, final int length )
+    {
+        int result = length;
+        for ( int index = offset; index < offset + size; ++index )
+        {
+            final byte value = buffer.get( index );
+            if ( value == 0 )
+            {
+                break;
+            }
+            nameChars[result++] = (char) ( value & 0xff );
+        }
+        return result;
+    }
+
+    /**
+     * Parse an octal field - leading spaces and zeros are ignored, and a space or a NUL ends the field.
+     *
+     * @param offset the field offset in the buffer.
+     * @param size the field size.
+     * @return the field value.
+     */
+    private long parseOctal( final int offset, final int size )
+    {
+        long result = 0;
+        boolean stillPadding = true;
+        for ( int index = offset; index < offset + size; ++index )
+        {
+            final byte value = buffer.get( index );
+            if ( value == 0 )
+            {
+                break;
+            }
+            if ( value == ' ' || value == '0' )
+            {
+                if ( stillPadding )
+                {
+                    continue;
+                }
+                if ( value == ' ' )
+                {
+                    break;
+                }
+            }
+            stillPadding = false;
+            result = ( result << 3 ) + ( value - '0' );
+        }
+        return result;
+    }
+}
@@ -0,0 +1,205 @@
+package ca.chaves.android.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+
+/**
+ * This class keeps the journal of a tarball restore in progress: the first line identifies the tarball - its manifest
+ * hash - and then there is one line for each file already extracted, synced to disk before the next file is started.
+ * Each file is written under a temporary name and renamed once complete, so a file listed in the journal is complete
+ * for sure. If the process is killed in the middle of the restore, the next restore of the same tarball skips all the
+ * files in the journal and resumes with the first one missing. The journal is deleted once the restore is complete.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public final class TarballJournal
+{
+    /**
+     * The journal name, in the target directory.
+     */
+    public static final String FILE_NAME = "tarball.journal";
+
+    /**
+     * The paths of the files already extracted.
+     */
+    private final HashSet<String> completed = new HashSet<String>();
+
+    /**
+     * The journal file.
+     */
+    private final File file;
+
+    /**
+     * The journal output, or null once closed.
+     */
+    private FileOutputStream output;
+
+    /**
+     * Constructor.
+     *
+     * @param file the journal file.
+     */
+    private TarballJournal( final File file )
+    {
+        this.file = file;
+    }
+
+    /**
+     * Open the journal for the given tarball. The files already extracted are loaded if the journal was written for the
+     * same tarball; otherwise, the journal starts empty.
+     *
+     * @param file the journal file.
+     * @param tarballId the tarball identity - its manifest hash.
+     * @return the journal.
+     * @throws IOException on failure.
+     */
+    public static TarballJournal open( final File file, final String tarballId )
+        throws IOException
+    {
+        Debug.enter( file );
+        final TarballJournal journal = new TarballJournal( file );
+        final String[] lines = TarballJournal.readLines( file );
+        final StringBuilder text = new StringBuilder( tarballId );
+        if ( 0 < lines.length && lines[0].equals( tarballId ) )
+        {
+            for ( int index = 1; index < lines.length; ++index )
+            {
+                journal.completed.add( lines[index] );
+                text.append( '\n' ).append( lines[index] );
+            }
+        }
+        // the journal is written again, without the last line if it was cut short
+        journal.output = new FileOutputStream( file, false );
+        journal.append( text.toString() );
+        Debug.leave( journal.completed.size(), "files completed" );
+        return journal;
+    }
+
+    /**
+     * Check if the given file was extracted already.
+     *
+     * @param path the file path, as in the tarball.
+     * @return true if the file is complete.
+     */
+    public boolean isCompleted( final String path )
+    {
+        return completed.contains( path );
+    }
+
+    /**
+     * Get the number of files extracted already.
+     *
+     * @return the number of files.
+     */
+    public int size()
+    {
+        return completed.size();
+    }
+
+    /**
+     * Record that the given file is complete - it must be in place, and synced, already.
+     *
+     * @param path the file path, as in the tarball.
+     * @throws IOException on failure.
+     */
+    public void commit( final String path )
+        throws IOException
+    {
+        append( path );
+        completed.add( path );
+    }
+
+    /**
+     * Close this journal, keeping it - so the restore can be resumed.
+     *
+     * @throws IOException on failure.
+     */
+    public void close()
+        throws IOException
+    {
+        if ( output != null )
+        {
+            output.close();
+            output = null;
+        }
+    }
+
+    /**
+     * Close and delete this journal - once the restore is complete.
+     *
+     * @throws IOException on failure.
+     */
+    public void delete()
+        throws IOException
+    {
+        close();
+        if ( file.exists() && !file.delete() )
+        {
+            throw new IOException( "unable to delete journal " + file );
+        }
+    }
+
+    /**
+     * Append one line - or more - to the journal, and sync it to disk.
+     *
+     * @param line the line.
+     * @throws IOException on failure.
+     */
+    private void append( final String line )
+        throws IOException
+    {
+        if ( output == null )
+        {
+            throw new IOException( "journal closed " + file );
+        }
+        output.write( ( line + "\n" ).getBytes( "UTF-8" ) );
+        output.getFD().sync();
+    }
+
+    /**
+     * Read the complete lines of the given journal - the last line is ignored if it was not completely written.
+     *
+     * @param file the journal file.
+     * @return the lines, or none if the file is missing.
+     * @throws IOException on failure.
+     */
+    private static String[] readLines( final File file )
+        throws IOException
+    {
+        if ( !file.isFile() )
+        {
+            return new String[0];
+        }
+        final byte[] data = new byte[(int) file.length()];
+        final InputStream is = new FileInputStream( file );
+        try
+        {
+            int offset = 0;
+            while ( offset < data.length )
+            {
+                final int count = is.read( data, offset, data.length - offset );
+                if ( count == -1 )
+                {
+                    break;
+                }
+                offset += count;
+            }
+        }
+        finally
+        {
+            is.close();
+        }
+        final String text = new String( data, "UTF-8" );
+        final int end = text.lastIndexOf( '\n' );
+        if ( end < 0 )
+        {
+            return new String[0];
+        }
+        return text.substring( 0, end ).split( "\n", -1 );
+    }
+}
@@ -0,0 +1,352 @@
+package ca.chaves.android.util;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+
+/**
+ * This class represents the manifest of a tarball: one line per regular file, with its content hash (SHA-1), its size
+ * and its path - as in "<code>hash size path</code>". The build embeds the manifest as the very first tarball entry,
+ * and the application persists it once the tarball has been installed; so the next restore can compare both manifests
+ * and extract only the files that changed, or that are missing or truncated.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public final class TarballManifest
+{
+    /**
+     * The manifest name, both inside the tarball and once installed in the target directory.
+     */
+    public static final String FILE_NAME = "tarball.manifest";
+
+    /**
+     * The content hash algorithm.
+     */
+    private static final String HASH_ALGORITHM = "SHA-1";
+
+    /**
+     * One manifest line.
+     */
+    public static final class Entry
+    {
+        /**
+         * The file path, relative to the target directory.
+         */
+        public final String path;
+
+        /**
+         * The file size, in bytes.
+         */
+        public final long size;
+
+        /**
+         * The file content hash, in lowercase hexadecimal.
+         */
+        public final String hash;
+
+        /**
+         * Constructor.
+         *
+         * @param path the file path.
+         * @param size the file size.
+         * @param hash the file content hash.
+         */
+        Entry( final String path, final long size, final String hash )
+        {
+            this.path = path;
+            this.size = size;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * The manifest entries, indexed by path.
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+    /**
+     * The manifest contents, saved as they are.
+     */
+    private final byte[] data;
+
+    /**
+     * Constructor.
+     *
+     * @param data the manifest contents.
+     */
+    private TarballManifest( final byte[] data )
+    {
+        this.data = data;
+    }
+
+    /**
+     * Parse the given manifest contents.
+     *
+     * @param data the manifest contents.
+     * @return the manifest.
+     * @throws IOException if the contents are not a valid manifest.
+     */
+    public static TarballManifest parse( final byte[] data )
+        throws IOException
+    {
+        final TarballManifest manifest = new TarballManifest( data );
+        final BufferedReader reader =
+            new BufferedReader( new InputStreamReader( new ByteArrayInputStream( data ), "UTF-8" ) );
+        for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+        {
+            if ( line.length() <= 0 )
+            {
+                continue;
+            }
+            // paths may contain spaces, but hashes and sizes do not
+            final int hashEnd = line.indexOf( ' ' );
+            final int sizeEnd = ( hashEnd < 0 ) ? -1 : line.indexOf( ' ', hashEnd + 1 );
+            if ( hashEnd <= 0 || sizeEnd <= hashEnd + 1 || line.length() <= sizeEnd + 1 )
+            {
+                throw new IOException( "invalid manifest line: " + line );
+            }
+            final long size;
+            try
+            {
+                size = Long.parseLong( line.substring( hashEnd + 1, sizeEnd ) );
+            }
+            catch ( final NumberFormatException ex )
+            {
+                throw new IOException( "invalid manifest size: " + line );
+            }
+            final String path = line.substring( sizeEnd + 1 );
+            manifest.entries.put( path, new Entry( path, size, line.substring( 0, hashEnd ).toLowerCase() ) );
+        }
+        return manifest;
+    }
+
+    /**
+     * Load the manifest installed in the given file.
+     *
+     * @param file the manifest file.
+     * @return the manifest, or null if the file is missing or it is not a valid manifest.
+     */
+    public static TarballManifest load( final File file )
+    {
+        if ( !file.isFile() )
+        {
+            return null;
+        }
+        try
+        {
+            final byte[] data = new byte[(int) file.length()];
+            final InputStream is = new FileInputStream( file );
+            try
+            {
+                int offset = 0;
+                while ( offset < data.length )
+                {
+                    final int count = is.read( data, offset, data.length - offset );
+                    if ( count == -1 )
+                    {
+                        throw new IOException( "manifest truncated" );
+                    }
+                    offset += count;
+                }
+            }
+            finally
+            {
+                is.close();
+            }
+            return TarballManifest.parse( data );
+        }
+        catch ( final IOException ex )
+        {
+            // a broken manifest is like no manifest: all files are checked again
+            Debug.print( "unable to load manifest", file, ex.getMessage() );
+            return null;
+        }
+    }
+
+    /**
+     * Save this manifest into the given file. The file is replaced at once, so it is never left half written.
+     *
+     * @param file the manifest file.
+     * @throws IOException on failure.
+     */
+    public void save( final File file )
+        throws IOException
+    {
+        final File temporary = new File( file.getPath() + ".tmp" );
+        final FileOutputStream os = new FileOutputStream( temporary );
+        try
+        {
+            os.write( data );
+            os.getFD().sync();
+        }
+        finally
+        {
+            os.close();
+        }
+        if ( !temporary.renameTo( file ) )
+        {
+            temporary.delete();
+            throw new IOException( "unable to install manifest " + file );
+        }
+    }
+
+    /**
+     * Get the entry for the given path.
+     *
+     * @param path the file path, as in the tarball.
+     * @return the entry, or null if the path is not in this manifest.
+     */
+    public Entry get( final String path )
+    {
+        return entries.get( path );
+    }
+
+    /**
+     * Get the hash of this manifest contents - it identifies the tarball, see {@link TarballJournal}.
+     *
+     * @return the hexadecimal hash.
+     * @throws IOException if the hash algorithm is not available.
+     */
+    public String getContentHash()
+        throws IOException
+    {
+        final MessageDigest digest = TarballManifest.newDigest();
+        digest.update( data );
+        return TarballManifest.toHex( digest );
+    }
+
+    /**
+     * Get the number of entries.
+     *
+     * @return the entry count.
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Check if the given file must be extracted again: when its content hash changed since the installed manifest,
+     * when the file is missing, or when it is shorter than expected - that is, truncated. Files may grow once
+     * installed (the database does), so a longer file is not considered corrupt.
+     *
+     * @param path the file path, as in the tarball.
+     * @param file the installed file.
+     * @param installed the installed manifest, or null if none.
+     * @return true if the file must be extracted.
+     */
+    public boolean isChanged( final String path, final File file, final TarballManifest installed )
+    {
+        final Entry entry = entries.get( path );
+        if ( entry == null )
+        {
+            return true; // unknown file: better safe than sorry
+        }
+        final Entry old = ( installed == null ) ? null : installed.entries.get( path );
+        if ( old == null || !old.hash.equals( entry.hash ) )
+        {
+            return true;
+        }
+        return !file.isFile() || file.length() < entry.size;
+    }
+
+    /**
+     * Check if the given file must be extracted again, unless the journal of an interrupted restore says it is complete
+     * already - and it is still there, with its full size.
+     *
+     * @param path the file path, as in the tarball.
+     * @param file the installed file.
+     * @param installed the installed manifest, or null if none.
+     * @param journal the restore journal, or null if none.
+     * @return true if the file must be extracted.
+     */
+    public boolean isChanged( final String path, final File file, final TarballManifest installed,
+                              final TarballJournal journal )
+    {
+        if ( journal != null && journal.isCompleted( path ) )
+        {
+            final Entry entry = entries.get( path );
+            if ( entry != null && file.isFile() && entry.size <= file.length() )
+            {
+                return false;
+            }
+        }
+        return isChanged( path, file, installed );
+    }
+
+    /**
+     * Count the files which must be extracted into the given directory, resuming an interrupted restore - see
+     * {@link #isChanged}.
+     *
+     * @param targetDirectory the target directory.
+     * @param installed the installed manifest, or null if none.
+     * @param journal the restore journal, or null if none.
+     * @return the number of files to extract.
+     */
+    public int countChanged( final File targetDirectory, final TarballManifest installed,
+                             final TarballJournal journal )
+    {
+        int count = 0;
+        for ( final Entry entry : entries.values() )
+        {
+            if ( isChanged( entry.path, new File( targetDirectory, entry.path.replace( '/', File.separatorChar ) ),
+                            installed, journal ) )
+            {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    // -------
+    // Hashing
+    // -------
+
+    /**
+     * Create a new content hash digest.
+     *
+     * @return the digest.
+     * @throws IOException if the hash algorithm is not available.
+     */
+    public static MessageDigest newDigest()
+        throws IOException
+    {
+        try
+        {
+            return MessageDigest.getInstance( TarballManifest.HASH_ALGORITHM );
+        }
+        catch ( final NoSuchAlgorithmException ex )
+        {
+            final IOException error = new IOException( "unable to hash with " + TarballManifest.HASH_ALGORITHM );
+            error.initCause( ex );
+            throw error;
+        }
+    }
+
+    /**
+     * Get the given digest value in lowercase hexadecimal, as in the manifest.
+     *
+     * @param digest the digest.
+     * @return the hexadecimal hash.
+     */
+    public static String toHex( final MessageDigest digest )
+    {
+        final char[] digits = "0123456789abcdef".toCharArray();
+        final byte[] bytes = digest.digest();
+        final StringBuilder builder = new StringBuilder( bytes.length * 2 );
+        for ( final byte value : bytes )
+        {
+            builder.append( digits[( value >> 4 ) & 0x0f] ).append( digits[value & 0x0f] );
+        }
+        return builder.toString();
+    }
+}
@@ -53,7 +53,7 @@ public class BookmarkActivity
             final String[] values = new String[menu.nodeIds.length];
             for ( int index = 0; index < menu.nodeIds.length; ++index )
             {
-                values[index] = menu.nodeIds[index].toString();
+                values[index] = Integer.toString( menu.nodeIds[index] );
             }
 
             final ListPreference preference = (ListPreference) getPreference( BookmarkStorage.FIELD_NODE_ID );
@@ -2,10 +2,13 @@ package ca.chaves.familyBrowser.app.browser;
 
 import ca.chaves.android.app.AbstractActivity;
 import ca.chaves.android.app.Android;
+import ca.chaves.android.app.InputTextDialog;
 import ca.chaves.android.graph.GraphNode;
+import ca.chaves.android.graph.GraphValueList;
+import ca.chaves.android.graph.NameSearch;
 import ca.chaves.android.graph.NavigationMenu;
 import ca.chaves.android.util.Debug;
-import ca.chaves.android.util.PairList;
+import ca.chaves.android.util.StartupTrace;
 import ca.chaves.familyBrowser.app.R;
 import ca.chaves.familyBrowser.app.bookmark.BookmarksActivity;
 import ca.chaves.familyBrowser.app.settings.SettingsActivity;
@@ -152,7 +155,7 @@ public class BrowserActivity
                 public void onClick( final DialogInterface dialog, final int which )
                 {
                     Debug.enter();
-                    actionStepForward( menu.nodeIds[which], menu.nodeLabels[which] );
+                    actionStepForward( Integer.valueOf( menu.nodeIds[which] ), menu.nodeLabels[which] );
                     Debug.leave();
                 }
             } );
@@ -304,6 +307,14 @@ public class BrowserActivity
             startActivity( intent );
             handled = true;
         }
+        else if ( R.id.browser_search_menu_item == itemId )
+        {
+            handled = actionSearch();
+        }
+        else if ( R.id.browser_relate_menu_item == itemId )
+        {
+            handled = actionRelate();
+        }
         else if ( R.id.browser_bookmarks_menu_item == itemId )
         {
             final Intent intent = new Intent( this, BookmarksActivity.class );
@@ -333,6 +344,7 @@ public class BrowserActivity
     public void onControllerUpdated()
     {
         Debug.enter( BrowserController.graphNode.id, BrowserController.graphNode.label );
+        final int span = StartupTrace.begin( "BrowserActivity.onControllerUpdated" );
 
         // which title should we use?
         final String title = BrowserController.graphNode.label;
@@ -366,6 +378,21 @@ public class BrowserActivity
         // update the main view, to update the whole screen
         mainView.invalidate();
 
+        // the start-up ends once the first node is drawn
+        StartupTrace.end( span );
+        if ( visitCount == 0 )
+        {
+            mainView.post( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    StartupTrace.mark( "first node drawn" );
+                    StartupTrace.finish( getFilesDir() );
+                }
+            } );
+        }
+
         // increase count
         ++visitCount;
         Debug.leave();
@@ -409,15 +436,172 @@ public class BrowserActivity
     protected void actionStepForward( final int groupPosition, final int childPosition )
     {
         Debug.enter( groupPosition, childPosition );
-        final PairList<Integer, String> list =
+        final GraphValueList list =
             BrowserController.graphNode.values[( groupPosition + GraphNode.INDEX_EXTRA_VALUES )];
         // start loading new data
-        final Integer nodeId = list.array_0[childPosition];
+        final Integer nodeId = Integer.valueOf( list.array_0[childPosition] );
         final String nodeLabel = list.array_1[childPosition];
         actionStepForward( nodeId, nodeLabel );
         Debug.leave();
     }
 
+    /**
+     * Ask for a name, and show the nodes with that name.
+     *
+     * @return true on success, false on failure.
+     */
+    protected boolean actionSearch()
+    {
+        Debug.enter();
+        final boolean handled = pickNode( R.string.browser_search_title, new OnNodePickedListener()
+        {
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void onNodePicked( final Integer nodeId, final String nodeLabel )
+            {
+                actionStepForward( nodeId, nodeLabel );
+            }
+        } );
+        Debug.leave( handled );
+        return handled;
+    }
+
+    /**
+     * Ask for a name, and show how the node with that name is related to the node on the screen.
+     *
+     * @return true on success, false on failure.
+     */
+    protected boolean actionRelate()
+    {
+        Debug.enter();
+        if ( BrowserController.graphNode == null || BrowserController.graphNode.id == null )
+        {
+            Debug.leave( "no node on the screen" );
+            return false;
+        }
+        final Integer fromId = BrowserController.graphNode.id;
+        final boolean handled = pickNode( R.string.browser_relate_title, new OnNodePickedListener()
+        {
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void onNodePicked( final Integer nodeId, final String nodeLabel )
+            {
+                BrowserController.findRelationship( fromId, nodeId );
+            }
+        } );
+        Debug.leave( handled );
+        return handled;
+    }
+
+    // ------------
+    // Node Picking
+    // ------------
+
+    /**
+     * Listener for {@link BrowserActivity#pickNode}.
+     */
+    private interface OnNodePickedListener
+    {
+        /**
+         * Action after one node was picked.
+         *
+         * @param nodeId the picked node_id.
+         * @param nodeLabel the picked node label.
+         */
+        void onNodePicked( Integer nodeId, String nodeLabel );
+    };
+
+    /**
+     * Ask for a name, search the nodes with that name, and let the user pick one of them.
+     *
+     * @param titleId the dialog title.
+     * @param onNodePickedListener what to do with the picked node.
+     * @return true on success, false on failure.
+     */
+    private boolean pickNode( final int titleId, final OnNodePickedListener onNodePickedListener )
+    {
+        /**
+         * Show the search results, once the search is over.
+         */
+        final NameSearch.Listener onResultsListener = new NameSearch.Listener()
+        {
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public boolean onResults( final GraphValueList results, final boolean complete )
+            {
+                if ( !complete )
+                {
+                    return true;
+                }
+                Debug.enter( results.length );
+                if ( results.length == 0 )
+                {
+                    flash( getString( R.string.browser_search_not_found ) );
+                    Debug.leave();
+                    return true;
+                }
+
+                final String[] nodeLabels = new String[results.length];
+                System.arraycopy( results.array_1, 0, nodeLabels, 0, results.length );
+
+                final AlertDialog.Builder builder = new AlertDialog.Builder( BrowserActivity.this );
+                builder.setCancelable( true );
+                builder.setTitle( titleId );
+                builder.setItems( nodeLabels, new DialogInterface.OnClickListener()
+                {
+                    /**
+                     * {@inheritDoc}
+                     */
+                    @Override
+                    public void onClick( final DialogInterface dialog, final int which )
+                    {
+                        Debug.enter();
+                        onNodePickedListener.onNodePicked( Integer.valueOf( results.array_0[which] ),
+                                                           results.array_1[which] );
+                        Debug.leave();
+                    }
+                } );
+
+                final AlertDialog dialog = builder.create();
+                dialog.setCanceledOnTouchOutside( true );
+                dialog.show();
+
+                Debug.leave();
+                return true;
+            }
+        };
+
+        /**
+         * Start the search, once the query is entered.
+         */
+        final InputTextDialog.OnInputTextListener onInputListener = new InputTextDialog.OnInputTextListener()
+        {
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void onInputText( final String query )
+            {
+                Debug.enter( query );
+                BrowserController.searchNames( query, onResultsListener );
+                Debug.leave();
+            }
+        };
+
+        Debug.enter();
+        final InputTextDialog dialog =
+            new InputTextDialog( this, titleId, R.string.browser_search_prompt, onInputListener );
+        dialog.show();
+        Debug.leave();
+        return true;
+    }
+
     // ---------------
     // Private methods
     // ---------------
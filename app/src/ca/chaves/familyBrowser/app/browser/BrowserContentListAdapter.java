@@ -1,7 +1,7 @@
 package ca.chaves.familyBrowser.app.browser;
 
 import ca.chaves.android.graph.GraphNode;
-import ca.chaves.android.util.PairList;
+import ca.chaves.android.graph.GraphValueList;
 import ca.chaves.android.widget.WidgetUtils;
 import ca.chaves.familyBrowser.app.R;
 
@@ -66,8 +66,9 @@ class BrowserContentListAdapter
     @Override
     public View getView( final int position, final View convertView, final ViewGroup parentView )
     {
-        final PairList<Integer, String> list = BrowserController.graphNode.values[( GraphNode.INDEX_ATTRIBUTE_VALUES )];
-        final String text = BrowserController.graphAttributes.getAttributeLabel( list.array_0[position] );
+        final GraphValueList list = BrowserController.graphNode.values[( GraphNode.INDEX_ATTRIBUTE_VALUES )];
+        final Integer attributeId = Integer.valueOf( list.array_0[position] );
+        final String text = BrowserController.graphAttributes.getAttributeLabel( attributeId );
         final String text2 = list.array_1[position];
         return createView( text, text2, R.layout.browser_content_child, parentView );
     }
@@ -4,13 +4,22 @@ import ca.chaves.android.app.Android;
 import ca.chaves.android.app.DatabaseSession;
 import ca.chaves.android.graph.GraphAttributes;
 import ca.chaves.android.graph.GraphNode;
+import ca.chaves.android.graph.GraphStorage;
+import ca.chaves.android.graph.GraphValueList;
+import ca.chaves.android.graph.NameSearch;
 import ca.chaves.android.graph.NavigationPath;
+import ca.chaves.android.graph.NavigationScheduler;
+import ca.chaves.android.graph.PathFinder;
+import ca.chaves.android.graph.RelationshipPath;
 import ca.chaves.android.util.AbstractAsyncTask;
 import ca.chaves.android.util.AbstractController;
 import ca.chaves.android.util.Debug;
+import ca.chaves.android.util.StartupTrace;
 import ca.chaves.familyBrowser.app.R;
 
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.Process;
 
 import java.io.IOException;
 
@@ -33,6 +42,11 @@ public final class BrowserController
      */
     public static final NavigationPath NAVIGATION_PATH = new NavigationPath();
 
+    /**
+     * Navigation scheduler singleton - only the latest requested node is loaded.
+     */
+    public static final NavigationScheduler NAVIGATION_SCHEDULER = new NavigationScheduler();
+
     /**
      * Data buffer - node.
      */
@@ -43,6 +57,26 @@ public final class BrowserController
      */
     public static transient GraphAttributes graphAttributes;
 
+    /**
+     * The name search generation - only the most recent name search reports its results.
+     */
+    private static volatile int searchGeneration;
+
+    /**
+     * The relationship search generation - only the most recent relationship search reports its results.
+     */
+    private static volatile int relationshipGeneration;
+
+    /**
+     * The path finder of the running relationship search - starting a new one cancels it.
+     */
+    private static volatile PathFinder pathFinder;
+
+    /**
+     * The running node load task - a new node load cancels it.
+     */
+    private static AbstractAsyncTask<Void, Void, Void> loadTask;
+
     /**
      * Initializer.
      */
@@ -67,7 +101,8 @@ public final class BrowserController
     }
 
     /**
-     * Load the graph node in background.
+     * Load the graph node in background. Only the latest requested node is loaded: this cancels the previous load, and
+     * it is ignored if the same node is already being loaded - see {@link NavigationScheduler}.
      *
      * @param nodeId the node id to be loaded
      * @param nodeLabel default node label, if no label is included in the node storage
@@ -76,6 +111,13 @@ public final class BrowserController
     {
         Debug.enter();
 
+        final NavigationScheduler.Request request = BrowserController.NAVIGATION_SCHEDULER.submit( nodeId, nodeLabel );
+        if ( request == null )
+        {
+            Debug.leave( "already loading", nodeId );
+            return;
+        }
+
         /**
          * Background task used to load graph nodes.
          */
@@ -92,13 +134,23 @@ public final class BrowserController
              */
             private GraphAttributes attributesBuffer;
 
+            /**
+             * The foreground load generation, right after the node was loaded.
+             */
+            private int generation;
+
+            /**
+             * This flag is true if the node was built from the bootstrap slice, before the database was ready.
+             */
+            private boolean bootstrap;
+
             /**
              * {@inheritDoc}
              */
             @Override
             protected boolean isCanceling()
             {
-                return false;
+                return !BrowserController.NAVIGATION_SCHEDULER.isCurrent( request );
             }
 
             /**
@@ -108,11 +160,33 @@ public final class BrowserController
             protected Void doInBackground( final Void... params )
             {
                 Debug.enter();
+                if ( !BrowserController.NAVIGATION_SCHEDULER.start( request ) )
+                {
+                    Debug.leave( "superseded" );
+                    return null;
+                }
+                final int span = StartupTrace.begin( "BrowserController.loadNode" );
                 try
                 {
-                    final SQLiteDatabase database = Android.App.getDatabase();
-                    nodeBuffer = DatabaseSession.GRAPH_STORE.loadNode( database, nodeId, nodeLabel );
-                    attributesBuffer = DatabaseSession.GRAPH_STORE.loadAttributes( database );
+                    // while the database is being restored, the nodes near the default one are in the bootstrap slice
+                    nodeBuffer = DatabaseSession.GRAPH_STORE.loadBootstrapNode( nodeId, nodeLabel );
+                    attributesBuffer = DatabaseSession.GRAPH_STORE.loadBootstrapAttributes();
+                    bootstrap = ( nodeBuffer != null && attributesBuffer != null );
+                    if ( !bootstrap )
+                    {
+                        // the foreground lease never waits for the prefetch or search queries running meanwhile
+                        final SQLiteDatabase database = Android.App.acquireReader();
+                        try
+                        {
+                            nodeBuffer = DatabaseSession.GRAPH_STORE.loadNode( database, nodeId, nodeLabel );
+                            attributesBuffer = DatabaseSession.GRAPH_STORE.loadAttributes( database );
+                        }
+                        finally
+                        {
+                            Android.App.releaseReader( database );
+                        }
+                        generation = DatabaseSession.GRAPH_STORE.getForegroundGeneration();
+                    }
                     check( nodeBuffer != null && attributesBuffer != null, R.string.io_error );
                 }
                 catch ( final IOException ex )
@@ -120,6 +194,16 @@ public final class BrowserController
                     Debug.error( ex, "unable to read data", nodeId );
                     error( R.string.io_error );
                 }
+                catch ( final SQLiteException ex )
+                {
+                    // e.g. the database is busy or corrupt: report it like any other i/o error
+                    Debug.error( ex, "unable to read data", nodeId );
+                    error( R.string.io_error );
+                }
+                finally
+                {
+                    StartupTrace.end( span );
+                }
                 Debug.leave();
                 return null;
             }
@@ -131,6 +215,7 @@ public final class BrowserController
             protected void onPostExecute( final Void result )
             {
                 Debug.enter();
+                BrowserController.NAVIGATION_SCHEDULER.finish( request );
                 if ( canceled() )
                 {
                     Debug.print( "canceled - ignoring" );
@@ -146,15 +231,381 @@ public final class BrowserController
                     BrowserController.graphNode = nodeBuffer;
                     BrowserController.graphAttributes = attributesBuffer;
                     // update navigation path
-                    BrowserController.NAVIGATION_PATH.stepForward( nodeBuffer.id, nodeBuffer.label );
+                    BrowserController.NAVIGATION_PATH.stepForward( nodeBuffer.id.intValue(), nodeBuffer.label );
                     // update user interface
                     BrowserController.INSTANCE.onControllerUpdated();
+                    // warm the node cache for the next step - there is no node cache until the database is ready
+                    if ( !bootstrap )
+                    {
+                        BrowserController.prefetchNeighbours( nodeBuffer, generation );
+                    }
+                }
+                Debug.leave();
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            protected void onCancelled()
+            {
+                super.onCancelled();
+                BrowserController.NAVIGATION_SCHEDULER.finish( request );
+            }
+        }
+
+        // the previous load is stale now: drop it, unless it is already running
+        if ( BrowserController.loadTask != null )
+        {
+            BrowserController.loadTask.cancel( false );
+        }
+        BrowserController.loadTask = new Task();
+        BrowserController.loadTask.execute();
+        Debug.leave( BrowserController.NAVIGATION_SCHEDULER );
+    }
+
+    /**
+     * Search nodes by name in background. The listener is called in foreground: with the best matches found so far,
+     * while the search goes on, and then with the final results. If no name starts like the query, the final results
+     * are the most similar names instead. Starting a new search cancels the previous one.
+     *
+     * @param query the text entered by the user.
+     * @param listener the search listener.
+     */
+    public static void searchNames( final String query, final NameSearch.Listener listener )
+    {
+        Debug.enter( query );
+
+        final int generation = ++BrowserController.searchGeneration;
+
+        /**
+         * Background task used to search nodes by name.
+         */
+        final class SearchTask
+            extends AbstractAsyncTask<Void, GraphValueList, GraphValueList>
+        {
+            /**
+             * Forward the best matches found so far to the foreground, and stop searching once canceled.
+             */
+            private final NameSearch.Listener progressListener = new NameSearch.Listener()
+            {
+                /**
+                 * {@inheritDoc}
+                 */
+                @Override
+                public boolean onResults( final GraphValueList partialResults, final boolean complete )
+                {
+                    if ( !complete )
+                    {
+                        publishProgress( partialResults );
+                    }
+                    return !canceled();
+                }
+            };
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            protected boolean isCanceling()
+            {
+                return generation != BrowserController.searchGeneration;
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            protected GraphValueList doInBackground( final Void... params )
+            {
+                Debug.enter();
+                GraphValueList results = null;
+                try
+                {
+                    final SQLiteDatabase database = Android.App.acquireBackgroundReader();
+                    try
+                    {
+                        results =
+                            DatabaseSession.GRAPH_STORE.searchNames( database, query, NameSearch.DEFAULT_MAX_RESULTS,
+                                                                     progressListener );
+                        if ( results.length == 0 && !canceled() )
+                        {
+                            // nothing starts like that: try similar names, for misspelled or uncertain names
+                            results =
+                                DatabaseSession.GRAPH_STORE.searchSimilarNames( database, query,
+                                                                                GraphStorage.DEFAULT_MIN_SIMILARITY,
+                                                                                NameSearch.DEFAULT_MAX_RESULTS );
+                        }
+                    }
+                    finally
+                    {
+                        Android.App.releaseReader( database );
+                    }
+                }
+                catch ( final IOException ex )
+                {
+                    Debug.error( ex, "unable to search", query );
+                    error( R.string.io_error );
+                }
+                catch ( final SQLiteException ex )
+                {
+                    // e.g. the database is busy or corrupt: report it like any other i/o error
+                    Debug.error( ex, "unable to search", query );
+                    error( R.string.io_error );
+                }
+                Debug.leave();
+                return results;
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            protected void onProgressUpdate( final GraphValueList... partialResults )
+            {
+                if ( !canceled() )
+                {
+                    listener.onResults( partialResults[0], false );
+                }
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            protected void onPostExecute( final GraphValueList results )
+            {
+                Debug.enter();
+                if ( canceled() )
+                {
+                    Debug.print( "canceled - ignoring" );
+                }
+                else if ( failed() )
+                {
+                    Debug.print( "failed", query, errorMessage );
+                    BrowserController.INSTANCE.flash( errorMessage );
+                }
+                else
+                {
+                    listener.onResults( results, true );
                 }
                 Debug.leave();
             }
         }
 
-        new Task().execute();
+        new SearchTask().execute();
+        Debug.leave();
+    }
+
+    /**
+     * Find how two nodes are related, in background. Once found, the relationship path is replayed into the navigation
+     * path - so the back button walks it back - and the second node is shown. Starting a new search cancels the
+     * previous one.
+     *
+     * @param fromId the first node_id - usually the node on the screen.
+     * @param toId the second node_id.
+     */
+    public static void findRelationship( final Integer fromId, final Integer toId )
+    {
+        Debug.enter( fromId, toId );
+
+        final int generation = ++BrowserController.relationshipGeneration;
+        final PathFinder previousFinder = BrowserController.pathFinder;
+        if ( previousFinder != null )
+        {
+            previousFinder.cancel();
+        }
+
+        /**
+         * Background task used to find relationship paths.
+         */
+        final class RelationshipTask
+            extends AbstractAsyncTask<Void, Void, RelationshipPath>
+        {
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            protected boolean isCanceling()
+            {
+                return generation != BrowserController.relationshipGeneration;
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            protected RelationshipPath doInBackground( final Void... params )
+            {
+                Debug.enter();
+                RelationshipPath path = null;
+                try
+                {
+                    final SQLiteDatabase database = Android.App.acquireBackgroundReader();
+                    try
+                    {
+                        final PathFinder finder = new PathFinder( DatabaseSession.GRAPH_STORE, database );
+                        BrowserController.pathFinder = finder;
+                        if ( !canceled() )
+                        {
+                            path = finder.findPath( fromId.intValue(), toId.intValue(), PathFinder.DEFAULT_MAX_DEPTH );
+                        }
+                    }
+                    finally
+                    {
+                        Android.App.releaseReader( database );
+                    }
+                }
+                catch ( final IOException ex )
+                {
+                    Debug.error( ex, "unable to find path", fromId, toId );
+                    error( R.string.io_error );
+                }
+                catch ( final SQLiteException ex )
+                {
+                    // e.g. the database is busy or corrupt: report it like any other i/o error
+                    Debug.error( ex, "unable to find path", fromId, toId );
+                    error( R.string.io_error );
+                }
+                Debug.leave( path );
+                return path;
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            protected void onPostExecute( final RelationshipPath path )
+            {
+                Debug.enter();
+                if ( canceled() )
+                {
+                    Debug.print( "canceled - ignoring" );
+                }
+                else if ( failed() )
+                {
+                    Debug.print( "failed", fromId, toId, errorMessage );
+                    BrowserController.INSTANCE.flash( errorMessage );
+                }
+                else if ( path == null )
+                {
+                    final String message = Android.App.INSTANCE.getString( R.string.browser_relate_not_found );
+                    BrowserController.INSTANCE.flash( message );
+                }
+                else
+                {
+                    // replay the path, then load its last node
+                    final StringBuilder steps = new StringBuilder();
+                    for ( int index = 0; index < path.length; ++index )
+                    {
+                        if ( index + 1 < path.length )
+                        {
+                            BrowserController.NAVIGATION_PATH.stepForward( path.array_0[index], path.array_1[index] );
+                        }
+                        if ( 0 < index )
+                        {
+                            steps.append( ( 1 < index ) ? ", " : "" );
+                            steps.append( ( path.edgeNames[index] != null ) ? path.edgeNames[index] : "?" );
+                        }
+                    }
+                    final int last = path.length - 1;
+                    BrowserController.stepForward( Integer.valueOf( path.array_0[last] ), path.array_1[last] );
+                    if ( 0 < last )
+                    {
+                        final String message = Android.App.INSTANCE.getString( R.string.browser_relate_found, steps );
+                        BrowserController.INSTANCE.flash( message );
+                    }
+                }
+                Debug.leave();
+            }
+        }
+
+        new RelationshipTask().execute();
+        Debug.leave();
+    }
+
+    /**
+     * Load the neighbours of the given graph node in background, at low priority. The loaded nodes stay in the node
+     * cache, so the next navigation step does not need to wait for the database. This task stops as soon as another
+     * node is requested in foreground. No task is started while the graph file serves the loads.
+     *
+     * @param node the graph node just loaded.
+     * @param generation the foreground load generation when the node was loaded.
+     */
+    private static void prefetchNeighbours( final GraphNode node, final int generation )
+    {
+        Debug.enter();
+
+        if ( DatabaseSession.GRAPH_STORE.getPrefetchFanOut() <= 0 )
+        {
+            Debug.leave( "prefetch disabled" );
+            return;
+        }
+        if ( DatabaseSession.GRAPH_STORE.getGraphFile() != null )
+        {
+            Debug.leave( "served by the graph file" );
+            return;
+        }
+
+        /**
+         * Background task used to prefetch graph nodes.
+         */
+        final class PrefetchTask
+            extends AbstractAsyncTask<Void, Void, Void>
+        {
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            protected boolean isCanceling()
+            {
+                return generation != DatabaseSession.GRAPH_STORE.getForegroundGeneration();
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            protected Void doInBackground( final Void... params )
+            {
+                Debug.enter();
+                final int tid = Process.myTid();
+                final int priority = Process.getThreadPriority( tid );
+                Process.setThreadPriority( Process.THREAD_PRIORITY_LOWEST );
+                try
+                {
+                    if ( !canceled() )
+                    {
+                        final SQLiteDatabase database = Android.App.acquireBackgroundReader();
+                        try
+                        {
+                            DatabaseSession.GRAPH_STORE.prefetchNeighbours( database, node, generation );
+                        }
+                        finally
+                        {
+                            Android.App.releaseReader( database );
+                        }
+                    }
+                }
+                catch ( final IOException ex )
+                {
+                    // prefetching is best-effort: the foreground load will report any real error
+                    Debug.error( ex, "unable to prefetch", node.id );
+                }
+                catch ( final SQLiteException ex )
+                {
+                    Debug.error( ex, "unable to prefetch", node.id );
+                }
+                finally
+                {
+                    Process.setThreadPriority( priority );
+                }
+                Debug.leave();
+                return null;
+            }
+        }
+
+        new PrefetchTask().execute();
         Debug.leave();
     }
 }
@@ -1,7 +1,7 @@
 package ca.chaves.familyBrowser.app.browser;
 
 import ca.chaves.android.graph.GraphNode;
-import ca.chaves.android.util.PairList;
+import ca.chaves.android.graph.GraphValueList;
 import ca.chaves.android.widget.WidgetUtils;
 import ca.chaves.familyBrowser.app.R;
 
@@ -67,7 +67,7 @@ class BrowserIndexListAdapter
     public View getChildView( final int groupPosition, final int childPosition, final boolean isLastChild,
                               final View convertView, final ViewGroup parentView )
     {
-        final PairList<Integer, String> list =
+        final GraphValueList list =
             BrowserController.graphNode.values[( groupPosition + GraphNode.INDEX_EXTRA_VALUES )];
         final String text = list.array_1[childPosition];
         return createView( text, null, R.layout.browser_index_child, parentView );
@@ -107,7 +107,7 @@ class BrowserIndexListAdapter
     public View getGroupView( final int groupPosition, final boolean isExpanded, final View convertView,
                               final ViewGroup parentView )
     {
-        final PairList<Integer, String> list =
+        final GraphValueList list =
             BrowserController.graphNode.values[( groupPosition + GraphNode.INDEX_EXTRA_VALUES )];
         final String text = list.title;
         final String text2 = Integer.toString( list.length );
@@ -322,9 +322,18 @@ build_database() {
         export DROID_APP_VERSION="${_DROID_APP_VERSION}"
         python share/tools/familyTree_yaml.py
     )
+    build_graph_file
     optimize_images
 }
 
+# create the binary graph file from the database - assumes database already built
+# usage: build_graph_file
+build_graph_file() {
+    python share/tools/graph_file.py \
+        -i "main/tarball/databases/v${_DROID_APP_VERSION}.db" \
+        -o "main/tarball/databases/v${_DROID_APP_VERSION}.graph"
+}
+
 # create keystore for signing release packages
 # usage: build_keystore
 build_keystore() {
@@ -342,8 +351,19 @@ build_keystore() {
 create_tarball() {
     (
         cd $1/build/tarball/
-        find * -type d | sed 's,^\./,,' | sort > ../tarball.list
-        find * -type f | sed 's,^\./,,' | sort >> ../tarball.list
+        # the manifest lists "sha1 size path" for every file, and it goes first -
+        # so the app can tell which files changed before reading any of them
+        rm -f tarball.manifest
+        find * -type f | sed 's,^\./,,' | sort | while read _FILE ; do
+            _HASH="` sha1sum --binary "${_FILE}" | cut -f1 "-d " `"
+            _SIZE="` wc -c < "${_FILE}" | tr -d ' ' `"
+            echo "${_HASH} ${_SIZE} ${_FILE}"
+        done > ../tarball.manifest
+        cp ../tarball.manifest tarball.manifest
+        chmod 0600 tarball.manifest
+        echo tarball.manifest > ../tarball.list
+        find * -type d | sed 's,^\./,,' | sort >> ../tarball.list
+        find * -type f ! -name tarball.manifest | sed 's,^\./,,' | sort >> ../tarball.list
         # ... February 3rd, 2011 7:30am is the date when
         # ... my father, Modesto Chaves-Rodríguez, died in Costa Rica
         tar --format=ustar --no-recursion \
@@ -352,15 +372,32 @@ create_tarball() {
     )
     # NOTE: Apple does not have `sha1sum`
     sha1sum --binary $1/build/tarball.tar | cut -f1 "-d " > $1/build/tarball.sha1
-    gzip -9 < $1/build/tarball.tar > $1/build/tarball.tar.gz
-    #tar tvzf $1/build/tarball.tar.gz
     #ls -ld $1/build/tarball*
     # split tarball in pieces like "res/raw/tarball_%d" -
-    # prior to Android 2.3, we could not open compressed files that were larger than 1MB
-    python share/tools/split.py -i $1/build/tarball.tar.gz -o $1/res/raw/tarball_ -n 8
+    # prior to Android 2.3, we could not open compressed files that were larger than 1MB -
+    # each piece is gzip-ed on its own, so the app can inflate all of them in parallel
+    python share/tools/gzsplit.py -i $1/build/tarball.tar -o $1/res/raw/tarball_ -n 8 -x $1/res/raw/tarball_index
+    # the bootstrap slice - the default node and its neighbours - is browsed while the tarball is restored,
+    # so it stays out of the tarball; its root is the node the application starts browsing at
+    _ROOT="` default_node_id `"
+    if [ -z "${_ROOT}" ]
+    then
+        echo "*** unable to find GraphStorage.DEFAULT_NODE_ID!"
+        exit 1
+    fi
+    python share/tools/graph_file.py -i $1/build/tarball/databases/v${_DROID_APP_VERSION}.db \
+        -o $1/res/raw/bootstrap_graph --root "${_ROOT}" --hops 2
+    #cat $1/res/raw/tarball_[0-7] | tar tvz
     #ls -l $1/res/raw/tarball*
 }
 
+# print the node_id the application starts browsing at, when the user profile has none
+# usage: default_node_id
+default_node_id() {
+    sed -n 's/^.* int DEFAULT_NODE_ID = \([0-9][0-9]*\);.*$/\1/p' \
+        android/src/ca/chaves/android/graph/GraphStorage.java
+}
+
 # build {lite,main,test}/res/raw/tarball - assumes databases/jni already built
 # usage: build_tarballs
 build_tarballs() {
@@ -370,6 +407,8 @@ build_tarballs() {
     rm -fr */build/tarball*             2>/dev/null
   # rm -fr lite/res/raw/tarball*        2>/dev/null
     rm -fr main/res/raw/tarball*        2>/dev/null
+    rm -f  main/res/raw/bootstrap_graph 2>/dev/null
+    rm -f  test/res/raw/bootstrap_graph 2>/dev/null
     rm -fr test/res/raw/tarball*        2>/dev/null
     find */tarball -name \*~ -type f | xargs -r rm
     # init the "main" tarball
@@ -421,6 +460,10 @@ build_templates() {
         # in Python, an empty string means False
         [ "$1" = release ] && DROID_DEBUG_ENABLED=""
 
+        # the start-up trace is on for debug builds - run with DROID_TRACE_ENABLED=yes to trace release builds too
+        [ "$1" = release ] || DROID_TRACE_ENABLED="yes"
+        export DROID_TRACE_ENABLED
+
         # plain files
         find templates -type f ! -path ".svn" | sed -e "s,^templates/,," | sort | \
             while read _FILE
@@ -457,7 +500,14 @@ run_uuid() {
 # usage: do_build [ debug | release ]
 do_build() {
     [ -s "${_DROID_APP_KEYSTORE}" ] || build_keystore
-    [ -s "main/tarball/databases/v${_DROID_APP_VERSION}.db" ] || build_database
+    # rebuild the database when it is missing, or older than its sources - so it never ships without the indexes
+    _DB="main/tarball/databases/v${_DROID_APP_VERSION}.db"
+    _GRAPH="main/tarball/databases/v${_DROID_APP_VERSION}.graph"
+    if [ ! -s "${_DB}" ] || [ familyTree.yaml -nt "${_DB}" ] || [ share/tools/familyTree_yaml.py -nt "${_DB}" ] ; then
+        build_database
+    elif [ ! -s "${_GRAPH}" ] || [ "${_DB}" -nt "${_GRAPH}" ] || [ share/tools/graph_file.py -nt "${_GRAPH}" ] ; then
+        build_graph_file
+    fi
     clean_ant           # Ant sometimes get confused with BuildManifest.java
     build_templates $1
     build_jni $1
@@ -478,6 +528,9 @@ do_clean() {
   # rm -fr   lite/bin    lite/build    lite/gen    lite/res/raw/tarball*
     rm -fr   main/bin    main/build    main/gen    main/res/raw/tarball*
     rm -fr   test/bin    test/build    test/gen    test/res/raw/tarball*
+    rm -f    main/res/raw/bootstrap_graph test/res/raw/bootstrap_graph
+    # the android library keeps empty placeholders - so its R.raw ids exist - and no build data in them
+    : >      android/res/raw/bootstrap_graph
     # but keep Eclipse happy - it needs the "gen/" directory
     mkdir -p android/bin android/build android/gen
     mkdir -p app/bin     app/build     app/gen
@@ -495,6 +548,7 @@ do_clobber() {
     # clobber database
   # rm -f "lite/tarball/databases/v${_DROID_APP_VERSION}.db"
     rm -f "main/tarball/databases/v${_DROID_APP_VERSION}.db"
+    rm -f "main/tarball/databases/v${_DROID_APP_VERSION}.graph"
     # clobber signing file
     #rm -f "${_DROID_APP_KEYSTORE}"
 }
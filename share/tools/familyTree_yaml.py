@@ -15,6 +15,7 @@ import codecs
 import errno
 import os
 import sqlite3
+import unicodedata
 import yaml
 
 #--------------------------------------- constants
@@ -86,6 +87,17 @@ NAME_ATTRIBUTE = 1
 CHILD_ATTRIBUTE = 90
 SIBLING_ATTRIBUTE = 91
 
+# the name index covers the "name" and "aka" attributes - please keep
+# next values synchronized with graph_name_ids, in the source file
+# android/res/values/graph_strings.xml, and with the source file
+# android/src/ca/chaves/android/graph/NameSearch.java, which folds names
+NAME_INDEX_ATTRIBUTES = 1, 2, 3, 4,
+NAME_FOLD_VERSION = 1
+# the folded letters for the characters U+00C0 to U+00FF - a blank means
+# "not a letter"
+LATIN_1_FOLDING = u'aaaaaaaceeeeiiiidnooooo ouuuuy\u00fes' \
+                  u'aaaaaaaceeeeiiiidnooooo ouuuuy\u00fey'
+
 #--------------------------------------- general utilities
 
 def utf8(value):
@@ -404,6 +416,120 @@ def create_family_tree_indexes(conn):
     """)
     conn.commit()
 
+def fold_name(text):
+    """
+        fold a name the same way as NameSearch.fold() does: lower case,
+        no accents, and one single blank between words
+    """
+    folded = []
+    blank = True
+    for char in text:
+        letter = char.lower()[0]
+        category = unicodedata.category(letter)
+        if letter == u'\u00e6':
+            folded.append(u'ae')
+            blank = False
+        elif letter == u'\u00df':
+            folded.append(u'ss')
+            blank = False
+        elif u'\u00e0' <= letter <= u'\u00ff' \
+                and LATIN_1_FOLDING[ord(letter) - 0xc0] != u' ':
+            folded.append(LATIN_1_FOLDING[ord(letter) - 0xc0])
+            blank = False
+        elif category in ('Lu', 'Ll', 'Lt', 'Lm', 'Lo') \
+                or ( letter < u'\u00c0' and category == 'Nd' ):
+            folded.append(letter)
+            blank = False
+        elif not blank:
+            folded.append(u' ')
+            blank = True
+    if blank and folded:
+        folded.pop()
+    return u''.join(folded)
+
+def create_name_index(conn):
+    """
+        create the name index that the Android application searches, so
+        that it is not built on the device on first launch - one row for
+        each word in each name, folded by fold_name()
+
+        the tables are the same as in graph_sql_create_name_index, in the
+        source file android/res/values/graph_strings.xml, and the version
+        table is created last, since the application checks it first
+    """
+    log_info('. creating name index')
+    conn.execute("""
+        create table names_tab
+             ( name_key    text    not null
+             , node_id     integer not null
+             , attr_id     integer not null
+             , folded_name text    not null
+             , node_label  text    not null
+             );
+    """)
+    conn.execute("""
+        create index names_idx on
+            names_tab(name_key);
+    """)
+    rows = conn.execute("""
+        select node_id
+             , attr_id
+             , text_value
+          from nodes_tab
+         where attr_id in ( %s )
+         order by node_id
+                , attr_id
+    """ % commize(NAME_INDEX_ATTRIBUTES)).fetchall()
+    last_node_id = None
+    node_label = None
+    words_count = 0
+    for node_id, attr_id, name in rows:
+        # rows come in attr_id order, so the "name" attribute goes first
+        if node_id != last_node_id or attr_id == NAME_ATTRIBUTE:
+            node_label = name
+            last_node_id = node_id
+        folded_name = fold_name(name)
+        words = folded_name.split(u' ') if folded_name else []
+        for index, word in enumerate(words):
+            if word in words[:index]:
+                continue # repeated word
+            conn.execute("""
+                insert into names_tab
+                     ( name_key, node_id, attr_id, folded_name, node_label )
+                values ( ?, ?, ?, ?, ? )
+            """, (word, node_id, attr_id, folded_name, node_label))
+            words_count += 1
+    conn.execute("""
+        create table names_version_tab
+             ( fold_version integer not null
+             );
+    """)
+    conn.execute("""
+        insert into names_version_tab ( fold_version ) values ( ? );
+    """, (NAME_FOLD_VERSION,))
+    conn.commit()
+    log_info('.', len(rows), 'names,', words_count, 'words')
+
+def create_android_indexes(conn):
+    """
+        create the sqlite3 indexes that the Android application uses,
+        so that they are not built on the device on first launch
+
+        nodes_idx lets the node queries in android/res/values/graph_strings.xml
+        seek by node_id, and it covers the link queries; text_value is left
+        out, since it would double the database size, and the application
+        reads the nodes from the binary graph file anyway - remember to update
+        graph_sql_select_node_index and graph_sql_create_node_index in there
+        if you change this index
+    """
+    log_info('. creating application indexes')
+    conn.execute("""
+        create index nodes_idx on
+            nodes_tab(node_id, attr_id, link_id);
+    """)
+    conn.commit()
+    create_name_index(conn)
+
 def vacuum_family_tree_db(conn):
     """
         vacuum the sqlite3 database in order to
@@ -411,13 +537,15 @@ def vacuum_family_tree_db(conn):
 
         we also remove all the indexes that we created
         and used in here, since the Android application
-        really needs a different set of indexes
+        really needs a different set of indexes - and we
+        create those ones before the vacuum
     """
     log_info('. cleaning up database')
     conn.commit()
     conn.execute("drop index nodes_idx;")
     conn.execute("drop index nodes_idx2;")
     conn.commit()
+    create_android_indexes(conn)
     conn.execute("vacuum;")
     conn.commit()
 
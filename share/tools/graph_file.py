@@ -0,0 +1,222 @@
+#!/usr/bin/env python
+# coding: utf-8
+#
+# @(#) share/tools/graph_file.py
+#
+# USAGE
+#
+#   shell>  graph_file.py --input databases/v2.db --output databases/v2.graph
+#   shell>  graph_file.py --input databases/v2.db --output res/raw/bootstrap_graph \
+#               --root 1000000 --hops 2
+#
+#   The build takes the --root value from GraphStorage.DEFAULT_NODE_ID.
+#
+# DESCRIPTION
+#
+#   Convert the sqlite3 family tree database into the read-only binary graph
+#   file that the Android application maps into memory - see the Java source
+#   file android/src/ca/chaves/android/graph/GraphFile.java, which reads it.
+#
+#   With --root, only the nodes up to --hops links away from the root node
+#   are written: this is the bootstrap slice, browsed while the tarball is
+#   being restored. Each node keeps all its rows, so the links out of the
+#   slice are still there - the application loads them from the database.
+#
+#   All integers are big-endian. The file layout is:
+#
+#     header, 10 x int32:
+#       magic "FBG1", format version, node count, string count,
+#       node table offset, string table offset, attribute table offset,
+#       records offset, string data offset, file length
+#     node table, node count x ( int32 node_id, int32 record offset ),
+#       sorted by node_id
+#     string table, ( string count + 1 ) x int32 string data offset
+#     attribute table, varints:
+#       attribute count, then ( attr_id, attr_hidden, string index ) each
+#     records, one per node, varints:
+#       row count, then ( attr_id delta, link, string index ) for each row,
+#       in attr_id order - 'link' is zero if the row has no link_id,
+#       otherwise it is zigzag( link_id - node_id ) + 1
+#     string data, utf-8
+#
+
+import optparse
+import sqlite3
+import struct
+
+#--------------------------------------- constants
+
+# please keep next values synchronized with GraphFile.java
+GRAPH_FILE_MAGIC = 0x46424731 # "FBG1"
+GRAPH_FILE_VERSION = 1
+HEADER_SIZE = 10 * 4
+
+#--------------------------------------- encoding
+
+def varint(value):
+    """
+        encode an unsigned integer, 7 bits per byte, low bits first
+    """
+    out = bytearray()
+    while value >= 0x80:
+        out.append((value & 0x7f) | 0x80)
+        value >>= 7
+    out.append(value)
+    return out
+
+def zigzag(value):
+    """
+        map signed integers into unsigned integers: 0, -1, 1, -2, 2, ...
+    """
+    return (value << 1) if value >= 0 else ((-value << 1) - 1)
+
+class StringPool(object):
+    """
+        unique strings, in first-seen order
+    """
+    def __init__(self):
+        self.index = {}
+        self.data = []
+
+    def add(self, text):
+        if text not in self.index:
+            self.index[text] = len(self.data)
+            self.data.append(text.encode('utf-8'))
+        return self.index[text]
+
+#--------------------------------------- slice_node_ids
+
+def slice_node_ids(conn, root, hops):
+    """
+        return the node_ids up to 'hops' links away from the 'root' node
+    """
+    if conn.execute("select 1 from nodes_tab where node_id = ? limit 1",
+                    (root,)).fetchone() is None:
+        raise ValueError('root node %d is not in the database' % root)
+    node_ids = set([root])
+    frontier = [root]
+    for hop in range(hops):
+        reached = set()
+        for node_id in frontier:
+            for (link_id,) in conn.execute("""
+                select link_id
+                  from nodes_tab
+                 where node_id = ? and link_id is not null
+            """, (node_id,)):
+                if link_id not in node_ids:
+                    reached.add(link_id)
+        node_ids |= reached
+        frontier = sorted(reached)
+    return node_ids
+
+#--------------------------------------- create_graph_file
+
+def create_graph_file(input_name, output_name, root = None, hops = 0):
+    """
+        read the sqlite3 database 'input_name', and write the binary graph
+        file 'output_name' - only the slice around node 'root', if given
+    """
+    conn = sqlite3.connect(input_name)
+    node_ids = None if root is None else slice_node_ids(conn, root, hops)
+    strings = StringPool()
+
+    attributes = bytearray()
+    rows = conn.execute("""
+        select attr_id, attr_hidden, attr_value
+          from attrs_tab
+         order by attr_id
+    """).fetchall()
+    attributes += varint(len(rows))
+    for attr_id, attr_hidden, attr_value in rows:
+        attributes += varint(attr_id)
+        attributes += varint(1 if attr_hidden else 0)
+        attributes += varint(strings.add(attr_value))
+
+    nodes = []
+    records = bytearray()
+    node_rows = []
+    last_node_id = None
+
+    def flush():
+        if last_node_id is None:
+            return
+        nodes.append((last_node_id, len(records)))
+        records.extend(varint(len(node_rows)))
+        last_attr_id = 0
+        for attr_id, link_id, text_value in node_rows:
+            records.extend(varint(attr_id - last_attr_id))
+            last_attr_id = attr_id
+            records.extend(varint(0 if link_id is None else zigzag(link_id - last_node_id) + 1))
+            records.extend(varint(strings.add(text_value)))
+
+    for node_id, attr_id, link_id, text_value in conn.execute("""
+        select node_id, attr_id, link_id, text_value
+          from nodes_tab
+         order by node_id, attr_id
+    """):
+        if node_ids is not None and node_id not in node_ids:
+            continue
+        if node_id != last_node_id:
+            flush()
+            last_node_id, node_rows = node_id, []
+        node_rows.append((attr_id, link_id, text_value))
+    flush()
+    conn.close()
+
+    # layout
+    node_table_offset = HEADER_SIZE
+    string_table_offset = node_table_offset + 8 * len(nodes)
+    attribute_table_offset = string_table_offset + 4 * (len(strings.data) + 1)
+    records_offset = attribute_table_offset + len(attributes)
+    string_data_offset = records_offset + len(records)
+    file_length = string_data_offset + sum(len(data) for data in strings.data)
+
+    out = bytearray()
+    out += struct.pack('>10i', GRAPH_FILE_MAGIC, GRAPH_FILE_VERSION, len(nodes), len(strings.data),
+                       node_table_offset, string_table_offset, attribute_table_offset,
+                       records_offset, string_data_offset, file_length)
+    for node_id, record_offset in nodes:
+        out += struct.pack('>2i', node_id, records_offset + record_offset)
+    offset = string_data_offset
+    for data in strings.data:
+        out += struct.pack('>i', offset)
+        offset += len(data)
+    out += struct.pack('>i', offset)
+    out += attributes
+    out += records
+    for data in strings.data:
+        out += data
+    assert len(out) == file_length
+
+    with open(output_name, 'wb') as output:
+        output.write(out)
+    return len(nodes), len(strings.data), file_length
+
+#--------------------------------------- get_options
+
+def get_options():
+    """
+       parse the command-line options
+    """
+    parser = optparse.OptionParser()
+    parser.add_option('-i', '--input', dest = 'input_name',
+                      help = 'input sqlite3 FILE', metavar = 'FILE')
+    parser.add_option('-o', '--output', dest = 'output_name',
+                      help = 'output graph FILE', metavar = 'FILE')
+    parser.add_option('-r', '--root', dest = 'root', type = 'int',
+                      help = 'write only the slice around this node_id')
+    parser.add_option('-n', '--hops', dest = 'hops', type = 'int',
+                      default = 2, help = 'slice radius, in links')
+    (options, args) = parser.parse_args()
+    if not options.input_name or not options.output_name:
+        parser.error('both --input and --output are required')
+    return options
+
+#--------------------------------------- main
+
+if __name__ == '__main__':
+    options = get_options()
+    create_graph_file(options.input_name, options.output_name,
+                      options.root, options.hops)
+
+#--------------------------------------- The End
@@ -0,0 +1,131 @@
+#!/usr/bin/env python
+# coding: utf-8
+#
+# @(#) share/tools/gzsplit.py
+#
+# USAGE
+#
+#   shell>  gzsplit.py --input tarball.tar --output outfile_prefix --chunks 8 --index index_file
+#   # will split "tarball.tar" into "outfile_prefix0" ... "outfile_prefix7",
+#   # each one of them a gzip member which can be decompressed on its own -
+#   # you can recreate tarball.tar by running the following command:
+#   # shell>  cat outfile_prefix0 ... outfile_prefix7 | gzip -dc > tarball.tar
+#
+# DESCRIPTION
+#
+#   Split a tar file into a number of independently compressed pieces,
+#   cut at tar entry boundaries whenever possible - so the pieces can be
+#   inflated in parallel, and then concatenated in order. The index file
+#   has one line per piece: "compressed_size uncompressed_size".
+#
+
+import optparse
+import os
+import zlib
+
+#--------------------------------------- constants
+
+# there is a file size limit of 1048576 bytes
+# for resource files in raw and also in assets
+UNCOMPRESS_DATA_MAX = 1048576
+
+# the tar record size
+RECORD_SIZE = 512
+
+#--------------------------------------- get_options
+
+def get_options():
+    """
+       parse the command-line options
+    """
+    parser = optparse.OptionParser()
+    parser.add_option('-i', '--input', dest = 'input_name',
+                      help = 'input tar FILE', metavar = 'FILE')
+    parser.add_option('-o', '--output', dest = 'output_name',
+                      help = 'output FILE prefix')
+    parser.add_option('-n', '--chunks', dest = 'chunks', type = 'int',
+                      default = 8, help = 'number of chunks')
+    parser.add_option('-x', '--index', dest = 'index_name',
+                      help = 'output index FILE', metavar = 'FILE')
+    options, args = parser.parse_args()
+    return options
+
+#--------------------------------------- entry_offsets
+
+def entry_offsets(data):
+    """
+        return the offsets of all tar entry headers in 'data'
+    """
+    offsets = []
+    offset = 0
+    while offset + RECORD_SIZE <= len(data):
+        header = data[offset:offset + RECORD_SIZE]
+        if header.count(b'\0') == RECORD_SIZE:
+            break
+        offsets.append(offset)
+        size_field = header[124:136].replace(b'\0', b' ').strip()
+        size = int(size_field or b'0', 8)
+        offset += RECORD_SIZE + ((size + RECORD_SIZE - 1) // RECORD_SIZE) * RECORD_SIZE
+    return offsets
+
+#--------------------------------------- cut_points
+
+def cut_points(data, chunks):
+    """
+        choose where to cut 'data' into 'chunks' pieces of similar size:
+        at the closest entry header, unless it is too far away - then at
+        the closest record, in the middle of a large entry
+    """
+    offsets = entry_offsets(data)
+    target = (len(data) + chunks - 1) // chunks
+    cuts = [0]
+    for n in range(1, chunks):
+        ideal = n * target
+        cut = (ideal // RECORD_SIZE) * RECORD_SIZE
+        nearest = [o for o in offsets if abs(o - ideal) <= target // 4]
+        if nearest:
+            cut = min(nearest, key = lambda o: abs(o - ideal))
+        cuts.append(min(len(data), max(cuts[-1], cut)))
+    cuts.append(len(data))
+    return cuts
+
+#--------------------------------------- gzsplit_file
+
+def gzsplit_file(input_name, output_name, chunks, index_name):
+    """
+        split input tar file with name 'input_name',
+        into 'chunks' gzip files, with prefix
+        'output_name' and postfixes "0", "1",
+        up to str(chunks-1); and write the
+        index into file 'index_name'
+    """
+    input_file = open(input_name, 'rb')
+    data = input_file.read()
+    input_file.close()
+    cuts = cut_points(data, chunks)
+    index_lines = []
+    for n in range(chunks):
+        piece = data[cuts[n]:cuts[n + 1]]
+        # wbits 31 means gzip format, with a zero timestamp - the build is reproducible
+        compressor = zlib.compressobj(9, zlib.DEFLATED, 31)
+        output_data = compressor.compress(piece) + compressor.flush()
+        if int(UNCOMPRESS_DATA_MAX - 1024) <= len(output_data):
+            raise Exception('File %s too big: increase number of chunks' % input_name)
+        output_file = open(output_name + str(n), 'wb')
+        output_file.write(output_data)
+        output_file.flush()
+        output_file.close()
+        index_lines.append('%d %d\n' % (len(output_data), len(piece)))
+    index_file = open(index_name, 'w')
+    index_file.writelines(index_lines)
+    index_file.close()
+
+#--------------------------------------- main
+
+# main code
+options = get_options()
+gzsplit_file(
+    options.input_name, options.output_name,
+    int(options.chunks), options.index_name)
+
+#--------------------------------------- The End
@@ -0,0 +1,227 @@
+package ca.chaves.familyBrowser.test;
+
+import ca.chaves.android.graph.AncestorIndex;
+import ca.chaves.android.graph.GraphNode;
+import ca.chaves.android.graph.GraphValueList;
+import ca.chaves.android.graph.Kinship;
+import ca.chaves.familyBrowser.test.data.TestStorage;
+import ca.chaves.familyBrowser.test.util.GraphUtil;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+/**
+ * Test for the {@link AncestorIndex} and {@link Kinship} classes.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public class AncestorIndexTest
+    extends AndroidTestCase
+{
+    /**
+     * Tag for logging.
+     */
+    private static final String TAG = "Test";
+
+    /**
+     * How many nodes to sample.
+     */
+    private static final int SAMPLE_SIZE = 200;
+
+    /**
+     * How many random node pairs to relate.
+     */
+    private static final int PAIR_COUNT = 10000;
+
+    /**
+     * A small family: 1 and 2 are the parents of 3 and 4; 3 is the parent of 5, 4 is the parent of 6, 6 is the parent
+     * of 7. Node 8 is the child of 1 only, and 9 and 10 are each other's parent - a bad data cycle.
+     */
+    private static final int[][] FAMILY_LINKS = new int[][]{ //
+        {3, 1}, {3, 2}, {4, 1}, {4, 2}, {5, 3}, {6, 4}, {7, 6}, {8, 1}, {9, 10}, {10, 9}, //
+        };
+
+    private transient Context context;
+
+    // ----------
+    // Unit Tests
+    // ----------
+
+    /**
+     * Test function: relationship names.
+     */
+    public void testNames()
+    {
+        Assert.assertEquals( "self", new Kinship( 0, 0, new int[1] ).getName() );
+        Assert.assertEquals( "parent", new Kinship( 1, 0, new int[1] ).getName() );
+        Assert.assertEquals( "grandchild", new Kinship( 0, 2, new int[1] ).getName() );
+        Assert.assertEquals( "great-great-grandparent", new Kinship( 4, 0, new int[1] ).getName() );
+        Assert.assertEquals( "3rd great-grandparent", new Kinship( 5, 0, new int[1] ).getName() );
+        Assert.assertEquals( "sibling", new Kinship( 1, 1, new int[2] ).getName() );
+        Assert.assertEquals( "aunt/uncle", new Kinship( 2, 1, new int[2] ).getName() );
+        Assert.assertEquals( "grand-niece/nephew", new Kinship( 1, 3, new int[2] ).getName() );
+        Assert.assertEquals( "first cousin", new Kinship( 2, 2, new int[2] ).getName() );
+        Assert.assertEquals( "second cousin once removed", new Kinship( 3, 4, new int[2] ).getName() );
+        Assert.assertEquals( "first cousin 3 times removed", new Kinship( 5, 2, new int[2] ).getName() );
+        Assert.assertEquals( "12th cousin", new Kinship( 13, 13, new int[2] ).getName() );
+        Assert.assertEquals( 2, new Kinship( 3, 4, new int[2] ).getCousinDegree() );
+        Assert.assertEquals( 1, new Kinship( 3, 4, new int[2] ).getRemoved() );
+    }
+
+    /**
+     * Test function: kinship in a small family.
+     */
+    public void testSmallFamily()
+    {
+        final AncestorIndex index = AncestorIndexTest.createSmallFamily();
+        Assert.assertEquals( 10, index.getNodeCount() );
+        Assert.assertEquals( 0, index.getGeneration( 1 ) );
+        Assert.assertEquals( 1, index.getGeneration( 4 ) );
+        Assert.assertEquals( 3, index.getGeneration( 7 ) );
+        Assert.assertEquals( 3, index.getAncestorDistance( 7, 1 ) );
+        Assert.assertEquals( -1, index.getAncestorDistance( 1, 7 ) );
+
+        Assert.assertEquals( "sibling", index.getKinship( 3, 4 ).getName() );
+        Assert.assertEquals( 2, index.getKinship( 3, 4 ).commonAncestorIds.length );
+        Assert.assertEquals( "first cousin", index.getKinship( 5, 6 ).getName() );
+        Assert.assertEquals( "first cousin once removed", index.getKinship( 5, 7 ).getName() );
+        Assert.assertEquals( "grand-aunt/uncle", index.getKinship( 7, 3 ).getName() );
+        Assert.assertEquals( "great-grandparent", index.getKinship( 7, 2 ).getName() );
+        Assert.assertEquals( "grandchild", index.getKinship( 1, 6 ).getName() );
+        Assert.assertEquals( "sibling", index.getKinship( 8, 3 ).getName() );
+        Assert.assertEquals( 1, index.getKinship( 8, 3 ).commonAncestorIds[0] );
+        Assert.assertEquals( 1, index.getKinship( 8, 3 ).commonAncestorIds.length );
+        Assert.assertNull( index.getKinship( 1, 2 ) );
+        Assert.assertNull( index.getKinship( 5, 99 ) );
+
+        // the cycle is broken: one of both nodes is the parent of the other one
+        Assert.assertEquals( 1, index.getKinship( 9, 10 ).firstDistance + index.getKinship( 9, 10 ).secondDistance );
+    }
+
+    /**
+     * Test function: the index file is read back only for the same database version.
+     *
+     * @throws IOException on io error.
+     */
+    public void testIndexFile()
+        throws IOException
+    {
+        final File file = new File( context.getCacheDir(), "test.ancestors" );
+        final AncestorIndex index = AncestorIndexTest.createSmallFamily();
+        index.write( file, 7 );
+        Assert.assertNull( AncestorIndex.read( file, 8 ) );
+        final AncestorIndex copy = AncestorIndex.read( file, 7 );
+        Assert.assertNotNull( copy );
+        Assert.assertEquals( index.toString(), copy.toString() );
+        Assert.assertEquals( "first cousin once removed", copy.getKinship( 5, 7 ).getName() );
+        Assert.assertTrue( file.delete() );
+        Assert.assertNull( AncestorIndex.read( file, 7 ) );
+    }
+
+    /**
+     * Test function: parents and children are related as such, and kinship is symmetric. This test also logs the index
+     * build time and the average kinship latency.
+     *
+     * @throws IOException on io error.
+     */
+    public void testKinship()
+        throws IOException
+    {
+        final File file = new File( context.getCacheDir(), "test.ancestors" );
+        file.delete();
+        final TestStorage storage = new TestStorage( context );
+
+        long start = System.nanoTime();
+        final AncestorIndex index = storage.loadAncestorIndex( file, 1 );
+        final long buildTime = System.nanoTime() - start;
+        Assert.assertTrue( file.isFile() );
+        start = System.nanoTime();
+        storage.loadAncestorIndex( file, 1 );
+        final long readTime = System.nanoTime() - start;
+        Log.i( AncestorIndexTest.TAG, "ancestor index: " + index + ", built in " + ( buildTime / 1000 )
+            + " us, read in " + ( readTime / 1000 ) + " us" );
+
+        final List<Integer> nodeIds = GraphUtil.collectNodeIds( storage, AncestorIndexTest.SAMPLE_SIZE );
+        for ( final Integer nodeId : nodeIds )
+        {
+            final GraphNode node = storage.loadNode( nodeId.intValue() );
+            final GraphValueList parents = node.values[TestStorage.INDEX_PARENT_VALUES];
+            for ( int parent = 0; parent < parents.length; ++parent )
+            {
+                final Kinship kinship = storage.getKinship( nodeId.intValue(), parents.array_0[parent] );
+                Assert.assertEquals( "parent", kinship.getName() );
+                Assert.assertEquals( parents.array_1[parent], kinship.commonAncestorLabels[0] );
+                Assert.assertEquals( "child", storage.getKinship( parents.array_0[parent],
+                                                                 nodeId.intValue() ).getName() );
+            }
+        }
+
+        final Random random = new Random( 13 );
+        int relatedCount = 0;
+        start = System.nanoTime();
+        for ( int pair = 0; pair < AncestorIndexTest.PAIR_COUNT; ++pair )
+        {
+            final int firstId = nodeIds.get( random.nextInt( nodeIds.size() ) ).intValue();
+            final int secondId = nodeIds.get( random.nextInt( nodeIds.size() ) ).intValue();
+            final Kinship kinship = index.getKinship( firstId, secondId );
+            final Kinship reverse = index.getKinship( secondId, firstId );
+            Assert.assertEquals( kinship == null, reverse == null );
+            if ( kinship != null )
+            {
+                Assert.assertEquals( kinship.firstDistance, reverse.secondDistance );
+                Assert.assertEquals( kinship.secondDistance, reverse.firstDistance );
+                Assert.assertEquals( kinship.getCousinDegree(), reverse.getCousinDegree() );
+                ++relatedCount;
+            }
+        }
+        final long queryTime = System.nanoTime() - start;
+        Log.i( AncestorIndexTest.TAG, "getKinship: " + relatedCount + " of " + AncestorIndexTest.PAIR_COUNT
+            + " pairs related, " + ( queryTime / 2 / AncestorIndexTest.PAIR_COUNT ) + " ns/pair" );
+
+        Assert.assertTrue( file.delete() );
+        storage.close();
+    }
+
+    // -------
+    // Helpers
+    // -------
+
+    /**
+     * Build the ancestor index of a small family - see FAMILY_LINKS.
+     *
+     * @return the ancestor index.
+     */
+    private static AncestorIndex createSmallFamily()
+    {
+        final int linkCount = AncestorIndexTest.FAMILY_LINKS.length;
+        final int[] childIds = new int[linkCount];
+        final int[] parentIds = new int[linkCount];
+        for ( int link = 0; link < linkCount; ++link )
+        {
+            childIds[link] = AncestorIndexTest.FAMILY_LINKS[link][0];
+            parentIds[link] = AncestorIndexTest.FAMILY_LINKS[link][1];
+        }
+        return AncestorIndex.build( childIds, parentIds, linkCount );
+    }
+
+    // ------
+    // Set Up
+    // ------
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        context = super.getContext();
+    }
+}
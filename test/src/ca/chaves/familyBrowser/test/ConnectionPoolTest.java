@@ -0,0 +1,356 @@
+package ca.chaves.familyBrowser.test;
+
+import ca.chaves.android.app.Android;
+import ca.chaves.android.app.ConnectionPool;
+import ca.chaves.familyBrowser.test.data.TestStorage;
+import ca.chaves.familyBrowser.test.util.GraphUtil;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+/**
+ * Test for the {@link ConnectionPool} class.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public class ConnectionPoolTest
+    extends AndroidTestCase
+{
+    /**
+     * Tag for logging.
+     */
+    private static final String TAG = "Test";
+
+    /**
+     * How many nodes to load in the foreground.
+     */
+    private static final int SAMPLE_SIZE = 100;
+
+    /**
+     * How many nodes each background thread loads, over and over again.
+     */
+    private static final int SCAN_SIZE = 400;
+
+    /**
+     * How many background threads.
+     */
+    private static final int BACKGROUND_THREADS = 2;
+
+    private transient Context context;
+
+    // ----------
+    // Unit Tests
+    // ----------
+
+    /**
+     * Test function: connections are read-only and leased to one caller at a time, callers wait when all of them are
+     * leased, and a closed pool refuses new leases.
+     *
+     * @throws Exception on error.
+     */
+    public void testLeases()
+        throws Exception
+    {
+        final TestStorage storage = new TestStorage( context );
+        final ConnectionPool pool = storage.createConnectionPool( 2 );
+
+        final SQLiteDatabase first = pool.acquire();
+        final SQLiteDatabase second = pool.acquire();
+        Assert.assertNotSame( first, second );
+        Assert.assertTrue( first.isReadOnly() );
+        Assert.assertEquals( 2, pool.getOpenCount() );
+
+        // a third caller must wait for the first connection given back
+        final SQLiteDatabase[] third = new SQLiteDatabase[1];
+        final Thread waiter = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    third[0] = pool.acquire();
+                }
+                catch ( final IOException ex )
+                {
+                    Log.e( ConnectionPoolTest.TAG, "unable to acquire", ex );
+                }
+            }
+        };
+        waiter.start();
+        waiter.join( 100 );
+        Assert.assertTrue( waiter.isAlive() );
+        pool.release( first );
+        waiter.join();
+        Assert.assertSame( first, third[0] );
+        Assert.assertEquals( 1, pool.getWaitCount() );
+        Assert.assertEquals( 2, pool.getOpenCount() );
+
+        // leased connections are closed when given back to a closed pool
+        pool.release( third[0] );
+        pool.close();
+        Assert.assertFalse( first.isOpen() );
+        Assert.assertTrue( second.isOpen() );
+        pool.release( second );
+        Assert.assertFalse( second.isOpen() );
+        Assert.assertEquals( 0, pool.getOpenCount() );
+        try
+        {
+            pool.acquire();
+            Assert.fail( "pool closed" );
+        }
+        catch ( final IOException ex )
+        {
+            // expected
+        }
+
+        storage.close();
+    }
+
+    /**
+     * Test function: a pool must have at least two connections, so the foreground always has one of its own.
+     *
+     * @throws Exception on error.
+     */
+    public void testPoolSize()
+        throws Exception
+    {
+        final TestStorage storage = new TestStorage( context );
+        try
+        {
+            storage.createConnectionPool( 1 );
+            Assert.fail( "no connection left for the background" );
+        }
+        catch ( final IllegalArgumentException ex )
+        {
+            // expected
+        }
+        storage.close();
+    }
+
+    /**
+     * Test function: while the background tasks - prefetch, name search and relationship search - hold all their
+     * leases, the next background task waits, but the foreground load still gets the reserved connection.
+     *
+     * @throws Exception on error.
+     */
+    public void testForegroundReserve()
+        throws Exception
+    {
+        final TestStorage storage = new TestStorage( context );
+        final int nodeId = GraphUtil.collectNodeIds( storage, 1 ).get( 0 ).intValue();
+        final ConnectionPool pool = storage.createConnectionPool( ConnectionPool.DEFAULT_POOL_SIZE );
+
+        final SQLiteDatabase[] background = new SQLiteDatabase[ConnectionPool.DEFAULT_POOL_SIZE - 1];
+        for ( int index = 0; index < background.length; ++index )
+        {
+            background[index] = pool.acquireBackground();
+        }
+
+        // one more background task must wait for a background lease given back
+        final SQLiteDatabase[] waiting = new SQLiteDatabase[1];
+        final Thread waiter = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    waiting[0] = pool.acquireBackground();
+                }
+                catch ( final IOException ex )
+                {
+                    Log.e( ConnectionPoolTest.TAG, "unable to acquire", ex );
+                }
+            }
+        };
+        waiter.start();
+        waiter.join( 100 );
+        Assert.assertTrue( waiter.isAlive() );
+
+        // but the foreground load does not wait
+        final SQLiteDatabase foreground = pool.acquire();
+        try
+        {
+            Assert.assertEquals( 1, pool.getWaitCount() );
+            Assert.assertEquals( ConnectionPool.DEFAULT_POOL_SIZE, pool.getOpenCount() );
+            Assert.assertNotNull( storage.loadNode( foreground, nodeId ) );
+        }
+        finally
+        {
+            pool.release( foreground );
+        }
+
+        // the reserved connection given back is still not for the background task
+        waiter.join( 100 );
+        Assert.assertTrue( waiter.isAlive() );
+        pool.release( background[0] );
+        waiter.join();
+        Assert.assertSame( background[0], waiting[0] );
+
+        pool.release( waiting[0] );
+        for ( int index = 1; index < background.length; ++index )
+        {
+            pool.release( background[index] );
+        }
+        pool.close();
+        Assert.assertEquals( 0, pool.getOpenCount() );
+        storage.close();
+    }
+
+    /**
+     * Test function: foreground node loads keep their latency while background threads keep loading nodes on their own
+     * pooled connections, and log the latencies against all threads sharing the application connection.
+     *
+     * @throws Exception on error.
+     */
+    public void testForegroundLatency()
+        throws Exception
+    {
+        final TestStorage storage = new TestStorage( context );
+        final List<Integer> scanIds = GraphUtil.collectNodeIds( storage, ConnectionPoolTest.SCAN_SIZE );
+        storage.close();
+        final int[] sampleIds = new int[Math.min( ConnectionPoolTest.SAMPLE_SIZE, scanIds.size() )];
+        for ( int index = 0; index < sampleIds.length; ++index )
+        {
+            sampleIds[index] = scanIds.get( scanIds.size() - 1 - index ).intValue();
+        }
+        final int[] backgroundIds = new int[scanIds.size()];
+        for ( int index = 0; index < backgroundIds.length; ++index )
+        {
+            backgroundIds[index] = scanIds.get( index ).intValue();
+        }
+
+        final long idleTime = measureForeground( sampleIds, null, true );
+        final long pooledTime = measureForeground( sampleIds, backgroundIds, true );
+        final long sharedTime = measureForeground( sampleIds, backgroundIds, false );
+
+        Log.i( ConnectionPoolTest.TAG, "foreground load: idle " + idleTime + " us/node, pooled readers " + pooledTime
+            + " us/node, shared connection " + sharedTime + " us/node" );
+        Assert.assertTrue( pooledTime < sharedTime );
+    }
+
+    // -------
+    // Helpers
+    // -------
+
+    /**
+     * Load the given nodes in the foreground, one at a time, while the background threads load nodes over and over
+     * again.
+     *
+     * @param sampleIds the node_id(s) to load in the foreground.
+     * @param backgroundIds the node_id(s) to load in the background, or null to measure without background load.
+     * @param pooled true if each thread leases its own connection, false if all threads share the application one.
+     * @return the average foreground load time, in microseconds per node.
+     * @throws Exception on error.
+     */
+    private long measureForeground( final int[] sampleIds, final int[] backgroundIds, final boolean pooled )
+        throws Exception
+    {
+        final TestStorage foreground = new TestStorage( context );
+        final ConnectionPool pool = foreground.createConnectionPool( ConnectionPoolTest.BACKGROUND_THREADS + 1 );
+        final AtomicBoolean done = new AtomicBoolean( false );
+        final AtomicInteger scanCount = new AtomicInteger( 0 );
+        final Thread[] threads = new Thread[( backgroundIds == null ) ? 0 : ConnectionPoolTest.BACKGROUND_THREADS];
+        final CountDownLatch started = new CountDownLatch( threads.length );
+
+        for ( int index = 0; index < threads.length; ++index )
+        {
+            // each thread has its own caches, with room for one single node - so all loads hit the database
+            final TestStorage background = new TestStorage( context );
+            background.setNodeCacheSize( 1 );
+            threads[index] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    started.countDown();
+                    try
+                    {
+                        final SQLiteDatabase database =
+                            pooled ? pool.acquireBackground() : Android.App.getDatabase();
+                        try
+                        {
+                            while ( !done.get() )
+                            {
+                                background.loadNodes( database, backgroundIds );
+                                scanCount.incrementAndGet();
+                            }
+                        }
+                        finally
+                        {
+                            // compiled statements must be closed before the connection
+                            background.closeStatements( database );
+                            if ( pooled )
+                            {
+                                pool.release( database );
+                            }
+                        }
+                    }
+                    catch ( final IOException ex )
+                    {
+                        Log.e( ConnectionPoolTest.TAG, "background load failed", ex );
+                    }
+                }
+            };
+            threads[index].setPriority( Thread.MIN_PRIORITY );
+            threads[index].start();
+        }
+        started.await();
+
+        long loadTime = 0;
+        final SQLiteDatabase database = pooled ? pool.acquire() : Android.App.getDatabase();
+        try
+        {
+            for ( final int nodeId : sampleIds )
+            {
+                final long loadStart = System.nanoTime();
+                Assert.assertNotNull( foreground.loadNode( database, nodeId ) );
+                loadTime += System.nanoTime() - loadStart;
+            }
+        }
+        finally
+        {
+            if ( pooled )
+            {
+                pool.release( database );
+            }
+        }
+
+        done.set( true );
+        for ( final Thread thread : threads )
+        {
+            thread.join();
+        }
+        // the background threads made progress meanwhile, and nobody waited for a pooled connection
+        Assert.assertTrue( threads.length <= scanCount.get() );
+        Assert.assertEquals( 0, pool.getWaitCount() );
+
+        pool.close();
+        foreground.close();
+        return loadTime / 1000 / sampleIds.length;
+    }
+
+    // ------
+    // Set Up
+    // ------
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        context = super.getContext();
+    }
+}
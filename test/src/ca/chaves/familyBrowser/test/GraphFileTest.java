@@ -0,0 +1,138 @@
+package ca.chaves.familyBrowser.test;
+
+import ca.chaves.android.graph.GraphAttributes;
+import ca.chaves.android.graph.GraphFile;
+import ca.chaves.familyBrowser.test.data.TestStorage;
+import ca.chaves.familyBrowser.test.util.GraphUtil;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.List;
+
+import junit.framework.Assert;
+
+/**
+ * Test for the {@link GraphFile} class.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public class GraphFileTest
+    extends AndroidTestCase
+{
+    /**
+     * Tag for logging.
+     */
+    private static final String TAG = "Test";
+
+    /**
+     * How many nodes to compare against the database.
+     */
+    private static final int SAMPLE_SIZE = 200;
+
+    private transient Context context;
+
+    // ----------
+    // Unit Tests
+    // ----------
+
+    /**
+     * Test function: attributes read from the graph file are the same attributes read from the database.
+     *
+     * @throws IOException on io error.
+     */
+    public void testAttributes()
+        throws IOException
+    {
+        final TestStorage storage = new TestStorage( context );
+        final GraphFile file = storage.loadGraphFile();
+        Assert.assertTrue( 0 < file.getNodeCount() );
+
+        final GraphAttributes attributes = storage.loadAttributes();
+        Assert.assertNotNull( attributes );
+
+        // the "name" attribute must be hidden
+        Assert.assertTrue( attributes.isHiddingAttributeId( TestStorage.NAME_ATTRIBUTE_ID ) );
+
+        storage.close();
+    }
+
+    /**
+     * Test function: nodes read from the graph file are exactly the same nodes read from the database. This test also
+     * logs the average latency of both storages.
+     *
+     * @throws IOException on io error.
+     */
+    public void testSameNodes()
+        throws IOException
+    {
+        final TestStorage database = new TestStorage( context );
+        final List<Integer> nodeIds = GraphUtil.collectNodeIds( database, GraphFileTest.SAMPLE_SIZE );
+
+        final TestStorage mapped = new TestStorage( context );
+        final GraphFile file = mapped.loadGraphFile();
+        Log.i( GraphFileTest.TAG, "graph file: " + file );
+
+        // caches are cold on both
+        final long databaseTime = GraphFileTest.loadAll( new TestStorage( context ), false, nodeIds );
+        final long mappedTime = GraphFileTest.loadAll( new TestStorage( context ), true, nodeIds );
+        Log.i( GraphFileTest.TAG, "loadNode: " + nodeIds.size() + " nodes, database " //
+            + ( databaseTime / nodeIds.size() ) + " us/node, graph file " //
+            + ( mappedTime / nodeIds.size() ) + " us/node" );
+
+        for ( final Integer nodeId : nodeIds )
+        {
+            GraphUtil.assertSameNode( database.loadNode( nodeId.intValue() ), mapped.loadNode( nodeId.intValue() ) );
+        }
+
+        // unknown node_id(s) are empty nodes
+        GraphUtil.assertSameNode( database.loadNode( 1 ), mapped.loadNode( 1 ) );
+
+        mapped.close();
+        database.close();
+    }
+
+    // ------
+    // Set Up
+    // ------
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        context = super.getContext();
+    }
+
+    // -------
+    // Helpers
+    // -------
+
+    /**
+     * Load all the given nodes.
+     *
+     * @param storage where to load the nodes from
+     * @param useGraphFile true to read from the graph file, false to read from the database
+     * @param nodeIds the node_id(s) to load
+     * @return the elapsed time, in microseconds
+     * @throws IOException on io error
+     */
+    private static long loadAll( final TestStorage storage, final boolean useGraphFile, final List<Integer> nodeIds )
+        throws IOException
+    {
+        if ( useGraphFile )
+        {
+            storage.loadGraphFile();
+        }
+        storage.loadAttributes();
+        final long start = System.nanoTime();
+        for ( final Integer nodeId : nodeIds )
+        {
+            Assert.assertNotNull( storage.loadNode( nodeId.intValue() ) );
+        }
+        return ( System.nanoTime() - start ) / 1000;
+    }
+}
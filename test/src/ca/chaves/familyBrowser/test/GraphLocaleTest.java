@@ -0,0 +1,177 @@
+package ca.chaves.familyBrowser.test;
+
+import ca.chaves.android.graph.GraphFile;
+import ca.chaves.android.graph.GraphNode;
+import ca.chaves.android.graph.GraphStorage;
+import ca.chaves.familyBrowser.test.data.TestStorage;
+import ca.chaves.familyBrowser.test.util.GraphUtil;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+import junit.framework.Assert;
+
+/**
+ * Test for the {@link GraphStorage} locale switches.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public class GraphLocaleTest
+    extends AndroidTestCase
+{
+    /**
+     * Tag for logging.
+     */
+    private static final String TAG = "Test";
+
+    /**
+     * How many nodes to load in each locale.
+     */
+    private static final int SAMPLE_SIZE = 32;
+
+    /**
+     * The edge group names in Spanish.
+     */
+    private static final String[] SPANISH_EDGE_NAMES = new String[]{"Padres", "Hijos", "Hermanos"};
+
+    private transient Context context;
+
+    // ----------
+    // Unit Tests
+    // ----------
+
+    /**
+     * Test function: a new locale builds new nodes, from a view of the same graph file instead of mapping it again.
+     *
+     * @throws IOException on io error.
+     */
+    public void testSwitchLocale()
+        throws IOException
+    {
+        final TestStorage storage = new TestStorage( context );
+        storage.setLocale( Locale.ENGLISH );
+        final GraphFile english = storage.loadGraphFile();
+        Assert.assertEquals( Locale.ENGLISH, storage.getLocale() );
+
+        final List<Integer> nodeIds = GraphUtil.collectNodeIds( storage, GraphLocaleTest.SAMPLE_SIZE );
+        final GraphNode[] englishNodes = GraphLocaleTest.loadNodes( storage, nodeIds );
+
+        final long switchStart = System.nanoTime();
+        storage.setLocale( Locale.FRENCH );
+        final long switchTime = System.nanoTime() - switchStart;
+        Assert.assertEquals( Locale.FRENCH, storage.getLocale() );
+        final GraphFile french = storage.getGraphFile();
+        Assert.assertNotNull( french );
+        Assert.assertNotSame( english, french );
+        Assert.assertEquals( english.getNodeCount(), french.getNodeCount() );
+
+        // new caches, new nodes
+        final GraphNode[] frenchNodes = GraphLocaleTest.loadNodes( storage, nodeIds );
+        for ( int index = 0; index < frenchNodes.length; ++index )
+        {
+            Assert.assertNotSame( englishNodes[index], frenchNodes[index] );
+            Assert.assertEquals( englishNodes[index].id, frenchNodes[index].id );
+        }
+
+        Log.i( GraphLocaleTest.TAG, "locale switch: " + ( switchTime / 1000 ) + " us" );
+        storage.close();
+    }
+
+    /**
+     * Test function: when the resources are reloaded under the active caches - as during a locale switch - the nodes
+     * they build keep their own edge group names, in both load modes. Only a locale switch takes the new names.
+     *
+     * @throws IOException on io error.
+     */
+    public void testEdgeNames()
+        throws IOException
+    {
+        final TestStorage database = new TestStorage( context );
+        final List<Integer> nodeIds = GraphUtil.collectNodeIds( database, GraphLocaleTest.SAMPLE_SIZE );
+
+        final TestStorage storage = new TestStorage( context );
+        storage.setLocale( Locale.ENGLISH );
+        storage.setEdgeNames( GraphLocaleTest.SPANISH_EDGE_NAMES );
+        // reload the resources, without switching locales
+        storage.loadBootstrap();
+
+        for ( int index = 0; index < nodeIds.size(); ++index )
+        {
+            storage.setSinglePassLoad( index % 2 == 0 );
+            final GraphNode node = storage.loadNode( nodeIds.get( index ).intValue() );
+            GraphUtil.assertSameNode( database.loadNode( nodeIds.get( index ).intValue() ), node );
+            Assert.assertEquals( TestStorage.PARENTS_LABEL, node.values[TestStorage.INDEX_PARENT_VALUES].title );
+            Assert.assertEquals( TestStorage.CHILDREN_LABEL, node.values[TestStorage.INDEX_CHILDREN_VALUES].title );
+        }
+        Assert.assertEquals( TestStorage.PARENTS_LABEL, storage.getEdgeName( 0 ) );
+
+        final Locale spanish = new Locale( "es" );
+        storage.setLocale( spanish );
+        final GraphNode node = storage.loadNode( nodeIds.get( 0 ).intValue() );
+        Assert.assertEquals( "Padres", node.values[TestStorage.INDEX_PARENT_VALUES].title );
+        Assert.assertEquals( "Padres", storage.getEdgeName( 0 ) );
+
+        storage.close();
+        database.close();
+    }
+
+    /**
+     * Test function: switching to the active locale changes nothing.
+     *
+     * @throws IOException on io error.
+     */
+    public void testSameLocale()
+        throws IOException
+    {
+        final TestStorage storage = new TestStorage( context );
+        storage.setLocale( Locale.ENGLISH );
+        final int nodeId = GraphUtil.collectNodeIds( storage, 1 ).get( 0 ).intValue();
+        final GraphNode node = storage.loadNode( nodeId );
+
+        storage.setLocale( Locale.ENGLISH );
+        Assert.assertSame( node, storage.loadNode( nodeId ) );
+
+        storage.close();
+    }
+
+    // -------
+    // Helpers
+    // -------
+
+    /**
+     * Load the given nodes, one at a time.
+     *
+     * @param storage the test storage.
+     * @param nodeIds the node_id(s) to load.
+     * @return the nodes, in the same order as 'nodeIds'.
+     * @throws IOException on io error.
+     */
+    private static GraphNode[] loadNodes( final TestStorage storage, final List<Integer> nodeIds )
+        throws IOException
+    {
+        final GraphNode[] nodes = new GraphNode[nodeIds.size()];
+        for ( int index = 0; index < nodes.length; ++index )
+        {
+            nodes[index] = storage.loadNode( nodeIds.get( index ).intValue() );
+        }
+        return nodes;
+    }
+
+    // ------
+    // Set Up
+    // ------
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        context = super.getContext();
+    }
+}
@@ -1,7 +1,7 @@
 package ca.chaves.familyBrowser.test;
 
 import ca.chaves.android.graph.GraphNode;
-import ca.chaves.android.util.PairList;
+import ca.chaves.android.graph.GraphValueList;
 
 import android.test.AndroidTestCase;
 
@@ -53,7 +53,7 @@ public class GraphNodeTest
         try
         {
             @SuppressWarnings( "unused" )
-            final PairList<Integer, String> dummy = node.values[( GraphNode.INDEX_EXTRA_VALUES )];
+            final GraphValueList dummy = node.values[( GraphNode.INDEX_EXTRA_VALUES )];
             Assert.fail( "expected array index overflow exception" );
         }
         catch ( final ArrayIndexOutOfBoundsException ex )
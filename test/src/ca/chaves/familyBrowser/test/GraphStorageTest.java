@@ -3,18 +3,24 @@ package ca.chaves.familyBrowser.test;
 import ca.chaves.android.graph.GraphAttributes;
 import ca.chaves.android.graph.GraphNode;
 import ca.chaves.android.graph.GraphStorage;
-import ca.chaves.android.util.PairList;
+import ca.chaves.android.graph.GraphValueList;
 import ca.chaves.familyBrowser.test.data.TestData;
 import ca.chaves.familyBrowser.test.data.TestNode;
 import ca.chaves.familyBrowser.test.data.TestStorage;
 import ca.chaves.familyBrowser.test.util.GraphUtil;
 
 import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
 import android.test.AndroidTestCase;
+import android.util.Log;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 
 import junit.framework.Assert;
 
@@ -27,6 +33,27 @@ import junit.framework.Assert;
 public class GraphStorageTest
     extends AndroidTestCase
 {
+    /**
+     * Tag for logging.
+     */
+    private static final String TAG = "Test";
+
+    /**
+     * How many nodes to load when measuring load latencies.
+     */
+    private static final int SAMPLE_SIZE = 200;
+
+    /**
+     * How many threads load the same nodes at the same time.
+     */
+    private static final int THREAD_COUNT = 4;
+
+    /**
+     * How many links away from the default node the shipped bootstrap slice goes - please keep synchronized with the
+     * --hops option in share/tools/build_app.bash.
+     */
+    private static final int BOOTSTRAP_HOPS = 2;
+
     private transient Context context;
 
     // ----------
@@ -83,18 +110,18 @@ public class GraphStorageTest
         Assert.assertEquals( sample.id, node.id );
         Assert.assertEquals( sample.label, node.label );
 
-        final PairList<Integer, String> attributes = node.values[( GraphNode.INDEX_ATTRIBUTE_VALUES )];
+        final GraphValueList attributes = node.values[( GraphNode.INDEX_ATTRIBUTE_VALUES )];
         Assert.assertNotNull( attributes );
 
-        final PairList<Integer, String> parents = node.values[( TestStorage.INDEX_PARENT_VALUES )];
+        final GraphValueList parents = node.values[( TestStorage.INDEX_PARENT_VALUES )];
         Assert.assertNotNull( parents );
         Assert.assertEquals( parents.title, TestStorage.PARENTS_LABEL );
 
-        final PairList<Integer, String> children = node.values[( TestStorage.INDEX_CHILDREN_VALUES )];
+        final GraphValueList children = node.values[( TestStorage.INDEX_CHILDREN_VALUES )];
         Assert.assertNotNull( children );
         Assert.assertEquals( children.title, TestStorage.CHILDREN_LABEL );
 
-        final PairList<Integer, String> siblings = node.values[( TestStorage.INDEX_SIBLINGS_VALUES )];
+        final GraphValueList siblings = node.values[( TestStorage.INDEX_SIBLINGS_VALUES )];
         Assert.assertNotNull( siblings );
         Assert.assertEquals( siblings.title, TestStorage.SIBLINGS_LABEL );
     }
@@ -161,6 +188,504 @@ public class GraphStorageTest
         storage.close();
     }
 
+    /**
+     * Test function: the single-pass load mode returns exactly the same node lists than the multiple-query load mode.
+     * This test also logs the average latency of each load mode.
+     *
+     * @throws IOException on io error.
+     */
+    public void testSinglePassLoad()
+        throws IOException
+    {
+        final TestStorage multiPass = new TestStorage( context );
+        multiPass.setSinglePassLoad( false );
+        final TestStorage singlePass = new TestStorage( context );
+        singlePass.setSinglePassLoad( true );
+
+        // collect node_id(s) reachable from the default node
+        final List<Integer> nodeIds = GraphUtil.collectNodeIds( multiPass, GraphStorageTest.SAMPLE_SIZE );
+
+        // load all of them, using both load modes - caches are cold on both
+        final long multiPassTime = GraphStorageTest.loadAll( new TestStorage( context ), false, nodeIds );
+        final long singlePassTime = GraphStorageTest.loadAll( new TestStorage( context ), true, nodeIds );
+        Log.i( GraphStorageTest.TAG, "loadNode: " + nodeIds.size() + " nodes, multi-pass " //
+            + ( multiPassTime / nodeIds.size() ) + " us/node, single-pass " //
+            + ( singlePassTime / nodeIds.size() ) + " us/node" );
+
+        // compare results
+        for ( final Integer nodeId : nodeIds )
+        {
+            GraphUtil.assertSameNode( multiPass.loadNode( nodeId.intValue() ),
+                                      singlePass.loadNode( nodeId.intValue() ) );
+        }
+
+        singlePass.close();
+        multiPass.close();
+    }
+
+    /**
+     * Test function: compiled statements are reused across node loads.
+     *
+     * @throws IOException on io error.
+     */
+    public void testStatementCache()
+        throws IOException
+    {
+        final TestStorage storage = new TestStorage( context );
+        Assert.assertNotNull( storage );
+
+        final TestNode sample = TestData.getSampleTree( context );
+        final GraphNode node = storage.loadNode( GraphStorage.DEFAULT_NODE_ID );
+        doTestNode( storage, sample, node );
+
+        // load all the default node's neighbours - each one is a cache miss
+        int loadCount = 1;
+        for ( int edge = GraphNode.INDEX_EXTRA_VALUES; edge < node.values.length; ++edge )
+        {
+            final GraphValueList values = node.values[edge];
+            for ( int item = 0; item < values.length; ++item )
+            {
+                Assert.assertNotNull( storage.loadNode( values.array_0[item] ) );
+                ++loadCount;
+            }
+        }
+
+        final int prepareCount = storage.getPrepareCount();
+        final int executeCount = storage.getExecuteCount();
+        Log.i( GraphStorageTest.TAG, "statements: " + loadCount + " nodes, " + prepareCount + " prepared, " //
+            + executeCount + " executed" );
+
+        // one statement for the attributes, plus one statement for all the nodes
+        Assert.assertTrue( 2 < loadCount );
+        Assert.assertTrue( prepareCount <= 2 );
+        Assert.assertTrue( prepareCount < executeCount );
+
+        storage.close();
+    }
+
+    /**
+     * Test function: prefetched neighbours are served from the node cache.
+     *
+     * @throws IOException on io error.
+     */
+    public void testPrefetchNeighbours()
+        throws IOException
+    {
+        final TestStorage storage = new TestStorage( context );
+        storage.setPrefetchFanOut( Integer.MAX_VALUE );
+
+        final GraphNode node = storage.loadNode( GraphStorage.DEFAULT_NODE_ID );
+        final int generation = storage.getForegroundGeneration();
+
+        final int prefetchCount = storage.prefetchNeighbours( node, generation );
+        Assert.assertTrue( 0 < prefetchCount );
+        // all neighbours are cached now - nothing else to prefetch
+        Assert.assertEquals( 0, storage.prefetchNeighbours( node, generation ) );
+
+        // all neighbours are cache hits
+        final int hitCount = storage.getNodeCacheHitCount();
+        int neighbourCount = 0;
+        for ( int edge = GraphNode.INDEX_EXTRA_VALUES; edge < node.values.length; ++edge )
+        {
+            final GraphValueList values = node.values[edge];
+            for ( int item = 0; item < values.length; ++item )
+            {
+                Assert.assertNotNull( storage.loadNode( values.array_0[item] ) );
+                ++neighbourCount;
+            }
+        }
+        Assert.assertEquals( hitCount + neighbourCount, storage.getNodeCacheHitCount() );
+
+        // a foreground load stops any prefetch
+        final int childId = node.values[TestStorage.INDEX_CHILDREN_VALUES].array_0[0];
+        final GraphNode child = storage.loadNode( childId );
+        Assert.assertEquals( 0, storage.prefetchNeighbours( child, generation ) );
+
+        storage.close();
+    }
+
+    /**
+     * Test function: concurrent foreground loads never share the same generation - each one counts.
+     *
+     * @throws Exception on error.
+     */
+    public void testForegroundGeneration()
+        throws Exception
+    {
+        final TestStorage storage = new TestStorage( context );
+        storage.loadNode( GraphStorage.DEFAULT_NODE_ID );
+        final int generation = storage.getForegroundGeneration();
+
+        final IOException[] errors = new IOException[GraphStorageTest.THREAD_COUNT];
+        final CountDownLatch gate = new CountDownLatch( 1 );
+        final Thread[] threads = new Thread[errors.length];
+        for ( int index = 0; index < threads.length; ++index )
+        {
+            final int thread = index;
+            threads[index] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        gate.await();
+                        // cache hits only, so the loads overlap as much as possible
+                        for ( int count = 0; count < GraphStorageTest.SAMPLE_SIZE; ++count )
+                        {
+                            storage.loadNode( GraphStorage.DEFAULT_NODE_ID );
+                        }
+                    }
+                    catch ( final IOException ex )
+                    {
+                        errors[thread] = ex;
+                    }
+                    catch ( final InterruptedException ex )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            threads[index].start();
+        }
+        gate.countDown();
+        for ( final Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        for ( final IOException error : errors )
+        {
+            Assert.assertNull( error );
+        }
+        Assert.assertEquals( generation + threads.length * GraphStorageTest.SAMPLE_SIZE,
+                             storage.getForegroundGeneration() );
+
+        storage.close();
+    }
+
+    /**
+     * Test function: the batch load returns exactly the same nodes than the one-by-one load.
+     *
+     * @throws IOException on io error.
+     */
+    public void testLoadNodes()
+        throws IOException
+    {
+        final TestStorage single = new TestStorage( context );
+        final List<Integer> nodeIds = GraphUtil.collectNodeIds( single, GraphStorageTest.SAMPLE_SIZE );
+
+        // repeated node_id(s) are allowed
+        final int[] batchIds = new int[nodeIds.size() + 1];
+        for ( int index = 0; index < nodeIds.size(); ++index )
+        {
+            batchIds[index] = nodeIds.get( index ).intValue();
+        }
+        batchIds[nodeIds.size()] = batchIds[0];
+
+        final TestStorage batch = new TestStorage( context );
+        batch.loadAttributes();
+        final long start = System.nanoTime();
+        final GraphNode[] nodes = batch.loadNodes( batchIds );
+        final long batchTime = ( System.nanoTime() - start ) / 1000;
+        Log.i( GraphStorageTest.TAG, "loadNodes: " + nodeIds.size() + " nodes, " //
+            + ( batchTime / nodeIds.size() ) + " us/node" );
+
+        Assert.assertEquals( batchIds.length, nodes.length );
+        Assert.assertSame( nodes[0], nodes[nodeIds.size()] );
+        for ( int index = 0; index < batchIds.length; ++index )
+        {
+            GraphUtil.assertSameNode( single.loadNode( batchIds[index] ), nodes[index] );
+        }
+
+        // all nodes are cached now
+        final int hitCount = batch.getNodeCacheHitCount();
+        Assert.assertEquals( batchIds.length, batch.loadNodes( batchIds ).length );
+        Assert.assertEquals( hitCount + batchIds.length, batch.getNodeCacheHitCount() );
+
+        batch.close();
+        single.close();
+    }
+
+    /**
+     * Test function: unknown node id(s) are loaded as null, and they are not cached - neither by the SQL loader nor by
+     * the graph file.
+     *
+     * @throws IOException on io error.
+     */
+    public void testLoadUnknownNodes()
+        throws IOException
+    {
+        final TestStorage storage = new TestStorage( context );
+        final int knownId = GraphStorage.DEFAULT_NODE_ID;
+        final int unknownId = -1;
+
+        for ( int pass = 0; pass < 2; ++pass )
+        {
+            if ( pass == 1 )
+            {
+                storage.loadGraphFile();
+            }
+            final GraphNode[] nodes = storage.loadNodes( new int[]{unknownId, knownId, unknownId} );
+            Assert.assertNull( nodes[0] );
+            Assert.assertNotNull( nodes[1] );
+            Assert.assertNull( nodes[2] );
+            Assert.assertFalse( storage.getNodeCache().containsKey( unknownId ) );
+            Assert.assertTrue( storage.getNodeCache().containsKey( knownId ) );
+            storage.getNodeCache().clear();
+        }
+
+        storage.close();
+    }
+
+    /**
+     * Test function: concurrent loads of the same nodes share one single read per node, and they all get the same
+     * instances.
+     *
+     * @throws Exception on error.
+     */
+    public void testSharedLoads()
+        throws Exception
+    {
+        final TestStorage storage = new TestStorage( context );
+        final List<Integer> nodeIds = GraphUtil.collectNodeIds( storage, GraphStorageTest.SAMPLE_SIZE );
+        storage.close();
+
+        final TestStorage shared = new TestStorage( context );
+        shared.loadAttributes();
+        final int[] batchIds = new int[nodeIds.size()];
+        for ( int index = 0; index < batchIds.length; ++index )
+        {
+            batchIds[index] = nodeIds.get( index ).intValue();
+        }
+        final int loadCount = shared.getNodeCache().loadCount();
+
+        final GraphNode[][] results = new GraphNode[GraphStorageTest.THREAD_COUNT][];
+        final IOException[] errors = new IOException[results.length];
+        final CountDownLatch gate = new CountDownLatch( 1 );
+        final Thread[] threads = new Thread[results.length];
+        for ( int index = 0; index < threads.length; ++index )
+        {
+            final int thread = index;
+            threads[index] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        gate.await();
+                        // the foreground-like load, and then the prefetch-like batch
+                        shared.loadNode( batchIds[0] );
+                        results[thread] = shared.loadNodes( batchIds );
+                    }
+                    catch ( final IOException ex )
+                    {
+                        errors[thread] = ex;
+                    }
+                    catch ( final InterruptedException ex )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            threads[index].start();
+        }
+        gate.countDown();
+        for ( final Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        for ( int index = 0; index < results.length; ++index )
+        {
+            Assert.assertNull( errors[index] );
+            for ( int item = 0; item < batchIds.length; ++item )
+            {
+                Assert.assertSame( results[0][item], results[index][item] );
+            }
+        }
+        // every node was read once, no matter how many threads asked for it
+        Assert.assertEquals( loadCount + batchIds.length, shared.getNodeCache().loadCount() );
+        Log.i( GraphStorageTest.TAG, "shared loads: " + shared.getSharedLoadCount() + " of "
+            + ( results.length * ( batchIds.length + 1 ) ) + " node requests" );
+
+        shared.close();
+    }
+
+    /**
+     * Test function: siblings share their parent names, and the string pool keeps only one copy of them.
+     *
+     * @throws IOException on io error.
+     */
+    public void testStringPool()
+        throws IOException
+    {
+        final TestStorage storage = new TestStorage( context );
+
+        final GraphNode node = storage.loadNode( GraphStorage.DEFAULT_NODE_ID );
+        final GraphValueList parents = node.values[TestStorage.INDEX_PARENT_VALUES];
+        final GraphValueList siblings = node.values[TestStorage.INDEX_SIBLINGS_VALUES];
+        Assert.assertTrue( 0 < parents.length );
+
+        // the pool is lossy, so a few names may have been replaced - but not all of them
+        int parentCount = 0;
+        int sharedCount = 0;
+        for ( int item = 0; item < siblings.length; ++item )
+        {
+            final GraphNode sibling = storage.loadNode( siblings.array_0[item] );
+            final GraphValueList siblingParents = sibling.values[TestStorage.INDEX_PARENT_VALUES];
+            for ( int parent = 0; parent < siblingParents.length; ++parent )
+            {
+                final String name = GraphUtil.findValueStringById( parents, siblingParents.array_0[parent] );
+                if ( name != null )
+                {
+                    Assert.assertEquals( name, siblingParents.array_1[parent] );
+                    ++parentCount;
+                    if ( name == siblingParents.array_1[parent] )
+                    {
+                        ++sharedCount;
+                    }
+                }
+            }
+        }
+        final long savedBytesPerNode = storage.getSavedBytesPerNode();
+        Log.i( GraphStorageTest.TAG, "string pool: " + sharedCount + " of " + parentCount + " parent names shared, " //
+            + savedBytesPerNode + " bytes saved per node" );
+        Assert.assertTrue( parentCount == 0 || 0 < sharedCount );
+
+        // nodes built from the graph file do not go through the pool, so they do not dilute the average
+        storage.loadGraphFile();
+        for ( final Integer nodeId : GraphUtil.collectNodeIds( storage, GraphStorageTest.SAMPLE_SIZE ) )
+        {
+            storage.loadNode( nodeId.intValue() );
+        }
+        Assert.assertTrue( siblings.length + 1 < storage.getNodeCache().loadCount() );
+        Assert.assertEquals( savedBytesPerNode, storage.getSavedBytesPerNode() );
+
+        storage.close();
+    }
+
+    /**
+     * Test function: the node index ships with the database - the database extracted from the tarball has it, without
+     * any build on the device - so opening the database is just a schema check. This test also logs the check time.
+     *
+     * @throws IOException on io error.
+     */
+    public void testNodeIndex()
+        throws IOException
+    {
+        final TestStorage storage = new TestStorage( context );
+
+        final SQLiteDatabase shipped = storage.openShippedDatabase( context.getCacheDir() );
+        try
+        {
+            Assert.assertTrue( shipped.isReadOnly() );
+            Assert.assertTrue( storage.hasNodeIndex( shipped ) );
+        }
+        finally
+        {
+            shipped.close();
+            new File( shipped.getPath() ).delete();
+        }
+
+        final long start = System.nanoTime();
+        Assert.assertFalse( storage.createNodeIndex() );
+        final long checkTime = System.nanoTime() - start;
+        Log.i( GraphStorageTest.TAG, "node index check: " + ( checkTime / 1000 ) + " us" );
+
+        storage.close();
+    }
+
+    /**
+     * Test function: nodes built from the bootstrap slice are the same nodes read from the database, nodes out of the
+     * slice are not built, and the slice is dropped once the storage is reset. This test also logs the slice load time.
+     *
+     * @throws IOException on io error.
+     */
+    public void testBootstrapSlice()
+        throws IOException
+    {
+        final TestStorage database = new TestStorage( context );
+        final List<Integer> nodeIds = GraphUtil.collectNodeIds( database, GraphStorageTest.SAMPLE_SIZE );
+
+        final TestStorage storage = new TestStorage( context );
+        Assert.assertNull( storage.loadBootstrapNode( GraphStorage.DEFAULT_NODE_ID ) );
+        final long start = System.nanoTime();
+        Assert.assertTrue( storage.loadBootstrap() );
+        final long loadTime = System.nanoTime() - start;
+        Log.i( GraphStorageTest.TAG, "bootstrap slice load: " + ( loadTime / 1000 ) + " us" );
+
+        for ( final Integer nodeId : nodeIds )
+        {
+            GraphUtil.assertSameNode( database.loadNode( nodeId.intValue() ),
+                                      storage.loadBootstrapNode( nodeId.intValue() ) );
+        }
+        // unknown node_id(s) are not in the slice
+        Assert.assertNull( storage.loadBootstrapNode( 1 ) );
+
+        // once the database is ready, the slice is gone for good
+        storage.resetStorage();
+        Assert.assertNull( storage.loadBootstrapNode( GraphStorage.DEFAULT_NODE_ID ) );
+        Assert.assertFalse( storage.loadBootstrap() );
+        GraphUtil.assertSameNode( database.loadNode( GraphStorage.DEFAULT_NODE_ID ),
+                                  storage.loadNode( GraphStorage.DEFAULT_NODE_ID ) );
+
+        storage.close();
+        database.close();
+    }
+
+    /**
+     * Test function: the bootstrap slice shipped with the application has all the nodes up to two links away from the
+     * default node, the same as in the database. The neighbours of the last hop are out of the slice, so they are not
+     * built from it: they are loaded from the database instead.
+     *
+     * @throws IOException on io error.
+     */
+    public void testShippedBootstrapSlice()
+        throws IOException
+    {
+        final TestStorage database = new TestStorage( context );
+        final TestStorage storage = new TestStorage( context );
+        Assert.assertTrue( storage.loadShippedBootstrap() );
+
+        final Set<Integer> reached = new HashSet<Integer>();
+        List<Integer> frontier = new LinkedList<Integer>();
+        frontier.add( Integer.valueOf( GraphStorage.DEFAULT_NODE_ID ) );
+        reached.addAll( frontier );
+        for ( int hop = 0; hop <= GraphStorageTest.BOOTSTRAP_HOPS; ++hop )
+        {
+            final List<Integer> next = new LinkedList<Integer>();
+            for ( final Integer nodeId : frontier )
+            {
+                final GraphNode node = database.loadNode( nodeId.intValue() );
+                GraphUtil.assertSameNode( node, storage.loadBootstrapNode( nodeId.intValue() ) );
+                for ( final Integer neighbourId : GraphUtil.neighbourIds( node ) )
+                {
+                    if ( reached.add( neighbourId ) )
+                    {
+                        next.add( neighbourId );
+                    }
+                }
+            }
+            frontier = next;
+        }
+        // nodes one hop further may be in the slice through other links - e.g. partners - but not all of them
+        Integer outside = null;
+        for ( final Integer nodeId : frontier )
+        {
+            if ( outside == null && storage.loadBootstrapNode( nodeId.intValue() ) == null )
+            {
+                outside = nodeId;
+            }
+        }
+        Assert.assertNotNull( outside );
+        GraphUtil.assertSameNode( database.loadNode( outside.intValue() ), storage.loadNode( outside.intValue() ) );
+
+        storage.close();
+        database.close();
+    }
+
     // ------
     // Set Up
     // ------
@@ -179,6 +704,28 @@ public class GraphStorageTest
     // Helpers
     // -------
 
+    /**
+     * Load all the given nodes.
+     *
+     * @param storage where to load the nodes from
+     * @param singlePassLoad the node load mode
+     * @param nodeIds the node_id(s) to load
+     * @return the elapsed time, in microseconds
+     * @throws IOException on io error
+     */
+    private static long loadAll( final TestStorage storage, final boolean singlePassLoad, final List<Integer> nodeIds )
+        throws IOException
+    {
+        storage.setSinglePassLoad( singlePassLoad );
+        storage.loadAttributes();
+        final long start = System.nanoTime();
+        for ( final Integer nodeId : nodeIds )
+        {
+            Assert.assertNotNull( storage.loadNode( nodeId.intValue() ) );
+        }
+        return ( System.nanoTime() - start ) / 1000;
+    }
+
     /**
      * Update the visiting queue with links from this node.
      *
@@ -209,7 +756,7 @@ public class GraphStorageTest
      * @param node
      * @param queue
      */
-    private static void addListToQueue( final TestNode[] samples, final PairList<Integer, String> values,
+    private static void addListToQueue( final TestNode[] samples, final GraphValueList values,
                                         final List<TestNode> queue )
     {
         Assert.assertNotNull( samples );
@@ -0,0 +1,78 @@
+package ca.chaves.familyBrowser.test;
+
+import ca.chaves.android.util.IntIntMap;
+
+import android.test.AndroidTestCase;
+
+import junit.framework.Assert;
+
+/**
+ * Test for the {@link IntIntMap} class.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public class IntIntMapTest
+    extends AndroidTestCase
+{
+    // ----------
+    // Unit Tests
+    // ----------
+
+    /**
+     * Test function.
+     */
+    public void testEmptyMap()
+    {
+        final IntIntMap map = new IntIntMap( 0 );
+
+        Assert.assertEquals( 0, map.size() );
+        Assert.assertFalse( map.containsKey( 0 ) );
+        Assert.assertEquals( -1, map.get( 9, -1 ) );
+    }
+
+    /**
+     * Test function: put() replaces values, putIfAbsent() keeps them.
+     */
+    public void testPutGet()
+    {
+        final IntIntMap map = new IntIntMap( 4 );
+
+        Assert.assertTrue( map.put( 9, 90 ) );
+        Assert.assertTrue( map.put( -8, 80 ) );
+        Assert.assertTrue( map.put( 0, 0 ) );
+        Assert.assertFalse( map.put( 9, 91 ) );
+        Assert.assertFalse( map.putIfAbsent( -8, 81 ) );
+        Assert.assertTrue( map.putIfAbsent( 7, 70 ) );
+
+        Assert.assertEquals( 4, map.size() );
+        Assert.assertEquals( 91, map.get( 9, -1 ) );
+        Assert.assertEquals( 80, map.get( -8, -1 ) );
+        Assert.assertEquals( 0, map.get( 0, -1 ) );
+        Assert.assertEquals( 70, map.get( 7, -1 ) );
+        Assert.assertTrue( map.containsKey( 0 ) );
+        Assert.assertFalse( map.containsKey( 6 ) );
+
+        map.clear();
+        Assert.assertEquals( 0, map.size() );
+        Assert.assertFalse( map.containsKey( 9 ) );
+    }
+
+    /**
+     * Test function: the map grows, keeping all entries.
+     */
+    public void testGrowth()
+    {
+        final IntIntMap map = new IntIntMap( 1 );
+        for ( int key = 0; key < 100000; ++key )
+        {
+            Assert.assertTrue( map.put( 1000000 + 64 * key, key ) );
+        }
+        Assert.assertEquals( 100000, map.size() );
+        for ( int key = 0; key < 100000; ++key )
+        {
+            Assert.assertEquals( key, map.get( 1000000 + 64 * key, -1 ) );
+            Assert.assertFalse( map.containsKey( 1000001 + 64 * key ) );
+        }
+    }
+}
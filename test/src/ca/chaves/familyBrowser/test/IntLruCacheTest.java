@@ -0,0 +1,159 @@
+package ca.chaves.familyBrowser.test;
+
+import ca.chaves.android.util.IntLruCache;
+
+import android.test.AndroidTestCase;
+
+import junit.framework.Assert;
+
+/**
+ * Test for the {@link IntLruCache} class.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public class IntLruCacheTest
+    extends AndroidTestCase
+{
+    // ----------
+    // Unit Tests
+    // ----------
+
+    /**
+     * Test function.
+     */
+    public void testEmptyCache()
+    {
+        final IntLruCache<String> cache = new IntLruCache<String>( 3 );
+        Assert.assertNotNull( cache );
+
+        Assert.assertEquals( 0, cache.count() );
+        Assert.assertEquals( 0, cache.size() );
+        Assert.assertEquals( 3, cache.maxSize() );
+        Assert.assertNull( cache.get( 9 ) );
+        Assert.assertEquals( 1, cache.missCount() );
+    }
+
+    /**
+     * Test function.
+     */
+    public void testPutGet()
+    {
+        final IntLruCache<String> cache = new IntLruCache<String>( 3 );
+
+        cache.put( 9, "Nueve" );
+        cache.put( 8, "Ocho" );
+        cache.put( 7, "Siete" );
+
+        Assert.assertEquals( 3, cache.count() );
+        Assert.assertEquals( "Nueve", cache.get( 9 ) );
+        Assert.assertEquals( "Ocho", cache.get( 8 ) );
+        Assert.assertEquals( "Siete", cache.get( 7 ) );
+        Assert.assertEquals( 3, cache.hitCount() );
+        Assert.assertEquals( 0, cache.missCount() );
+        Assert.assertEquals( 0, cache.evictionCount() );
+    }
+
+    /**
+     * Test function: the least recently used entry is evicted first.
+     */
+    public void testEvictionOrder()
+    {
+        final IntLruCache<String> cache = new IntLruCache<String>( 3 );
+
+        cache.put( 9, "Nueve" );
+        cache.put( 8, "Ocho" );
+        cache.put( 7, "Siete" );
+        // 9 becomes the most recently used
+        Assert.assertEquals( "Nueve", cache.get( 9 ) );
+        // evicts 8
+        cache.put( 6, "Seis" );
+
+        Assert.assertEquals( 3, cache.count() );
+        Assert.assertEquals( 1, cache.evictionCount() );
+        Assert.assertFalse( cache.containsKey( 8 ) );
+        Assert.assertTrue( cache.containsKey( 9 ) );
+        Assert.assertTrue( cache.containsKey( 7 ) );
+        Assert.assertTrue( cache.containsKey( 6 ) );
+
+        // evicts 7, then 9
+        cache.put( 5, "Cinco" );
+        cache.put( 4, "Cuatro" );
+        Assert.assertEquals( 3, cache.evictionCount() );
+        Assert.assertFalse( cache.containsKey( 7 ) );
+        Assert.assertFalse( cache.containsKey( 9 ) );
+    }
+
+    /**
+     * Test function: the cache grows beyond its initial capacity and keeps all entries.
+     */
+    public void testManyKeys()
+    {
+        final int maxSize = 1000;
+        final IntLruCache<Integer> cache = new IntLruCache<Integer>( maxSize );
+
+        for ( int key = 0; key < 2 * maxSize; ++key )
+        {
+            cache.put( 1000000 + key, Integer.valueOf( key ) );
+        }
+        Assert.assertEquals( maxSize, cache.count() );
+        Assert.assertEquals( maxSize, cache.evictionCount() );
+        for ( int key = 0; key < maxSize; ++key )
+        {
+            Assert.assertNull( cache.get( 1000000 + key ) );
+        }
+        for ( int key = maxSize; key < 2 * maxSize; ++key )
+        {
+            Assert.assertEquals( Integer.valueOf( key ), cache.get( 1000000 + key ) );
+        }
+    }
+
+    /**
+     * Test function: user-defined entry sizes.
+     */
+    public void testSizeOf()
+    {
+        final IntLruCache<String> cache = new IntLruCache<String>( 10 )
+        {
+            @Override
+            protected int sizeOf( final int key, final String value )
+            {
+                return value.length();
+            }
+        };
+
+        cache.put( 9, "Nueve" );
+        cache.put( 8, "Ocho" );
+        Assert.assertEquals( 9, cache.size() );
+        // evicts 9
+        cache.put( 7, "Siete" );
+        Assert.assertEquals( 9, cache.size() );
+        Assert.assertFalse( cache.containsKey( 9 ) );
+        // shrink - evicts 8
+        cache.resize( 5 );
+        Assert.assertEquals( 5, cache.size() );
+        Assert.assertTrue( cache.containsKey( 7 ) );
+    }
+
+    /**
+     * Test function.
+     */
+    public void testRemoveClear()
+    {
+        final IntLruCache<String> cache = new IntLruCache<String>( 3 );
+
+        cache.put( 9, "Nueve" );
+        cache.put( 8, "Ocho" );
+        Assert.assertEquals( "Nueve", cache.remove( 9 ) );
+        Assert.assertNull( cache.remove( 9 ) );
+        Assert.assertEquals( 1, cache.count() );
+
+        cache.recordLoad( 1000 );
+        cache.clear();
+        Assert.assertEquals( 0, cache.count() );
+        Assert.assertEquals( 0, cache.size() );
+        Assert.assertEquals( 0, cache.evictionCount() );
+        Assert.assertEquals( 1, cache.loadCount() );
+        Assert.assertEquals( 1000, cache.loadTime() );
+    }
+}
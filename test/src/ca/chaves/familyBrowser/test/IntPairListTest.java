@@ -0,0 +1,235 @@
+package ca.chaves.familyBrowser.test;
+
+import ca.chaves.android.util.IntPairList;
+import ca.chaves.android.util.PairList;
+import ca.chaves.familyBrowser.test.util.GraphUtil;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import junit.framework.Assert;
+
+/**
+ * Test for the {@link IntPairList} class.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public class IntPairListTest
+    extends AndroidTestCase
+{
+    /**
+     * Tag for logging.
+     */
+    private static final String TAG = "Test";
+
+    /**
+     * How many lists to fill in the allocation benchmark.
+     */
+    private static final int LIST_COUNT = 1000;
+
+    /**
+     * How many pairs to add to each list in the allocation benchmark - about the size of a big edge list.
+     */
+    private static final int PAIR_COUNT = 40;
+
+    /**
+     * The first node_id in the allocation benchmark - above the boxed Integer cache.
+     */
+    private static final int FIRST_NODE_ID = 1000000;
+
+    // ----------
+    // Unit Tests
+    // ----------
+
+    /**
+     * Test function.
+     */
+    public void testEmptyList()
+    {
+        final IntPairList list = new IntPairList( "blah" );
+
+        Assert.assertEquals( "blah", list.title );
+        Assert.assertEquals( 0, list.length );
+        Assert.assertEquals( -1, list.indexOf( 9 ) );
+        list.clear();
+        list.remove( 0, 1 );
+        Assert.assertEquals( 0, list.length );
+    }
+
+    /**
+     * Test function: null labels are kept.
+     */
+    public void testNullLabel()
+    {
+        final IntPairList list = new IntPairList( null );
+        list.add( 9, null );
+        list.add( 8, "Ocho" );
+
+        Assert.assertEquals( 2, list.length );
+        Assert.assertNull( list.array_1[0] );
+        Assert.assertEquals( "Ocho", GraphUtil.findValueStringById( list, 8 ) );
+    }
+
+    /**
+     * Test function.
+     */
+    public void test987Content()
+    {
+        final IntPairList list = IntPairListTest.create987List();
+
+        Assert.assertEquals( 3, list.length );
+        Assert.assertEquals( 9, list.array_0[0] );
+        Assert.assertEquals( "Nueve", list.array_1[0] );
+        Assert.assertEquals( 8, list.array_0[1] );
+        Assert.assertEquals( "Ocho", list.array_1[1] );
+        Assert.assertEquals( 7, list.array_0[2] );
+        Assert.assertEquals( "Siete", list.array_1[2] );
+        Assert.assertEquals( 1, list.indexOf( 8 ) );
+        Assert.assertEquals( Integer.valueOf( 7 ), GraphUtil.findValueIdByString( list, "Siete" ) );
+    }
+
+    /**
+     * Test function.
+     */
+    public void test987Remove8()
+    {
+        final IntPairList list = IntPairListTest.create987List();
+
+        list.remove( 1, 1 );
+        Assert.assertEquals( 2, list.length );
+        Assert.assertEquals( 9, list.array_0[0] );
+        Assert.assertEquals( "Nueve", list.array_1[0] );
+        Assert.assertEquals( 7, list.array_0[1] );
+        Assert.assertEquals( "Siete", list.array_1[1] );
+        Assert.assertNull( list.array_1[2] );
+        list.remove( 0, 2 );
+        Assert.assertEquals( 0, list.length );
+    }
+
+    /**
+     * Test function: the list grows, keeping all pairs, and it is empty once cleared.
+     */
+    public void testGrowth()
+    {
+        final IntPairList list = new IntPairList( "many" );
+        for ( int index = 0; index < 1000; ++index )
+        {
+            list.add( -index, Integer.toString( index ) );
+        }
+        Assert.assertEquals( 1000, list.length );
+        for ( int index = 0; index < 1000; ++index )
+        {
+            Assert.assertEquals( -index, list.array_0[index] );
+            Assert.assertEquals( Integer.toString( index ), list.array_1[index] );
+        }
+
+        list.clear();
+        Assert.assertEquals( 0, list.length );
+        Assert.assertNull( list.array_1[999] );
+    }
+
+    /**
+     * Benchmark: allocations to fill many node_id lists, against the generic {@link PairList}. The results are logged;
+     * the int-specialised list must allocate fewer objects, since it boxes no node_id.
+     */
+    public void testAllocations()
+    {
+        final String label = "label";
+
+        // warm up both code paths
+        IntPairListTest.fillPairLists( label );
+        IntPairListTest.fillIntPairLists( label );
+
+        Debug.startAllocCounting();
+        try
+        {
+            Debug.resetThreadAllocCount();
+            Debug.resetThreadAllocSize();
+            long start = System.nanoTime();
+            IntPairListTest.fillPairLists( label );
+            final long pairTime = System.nanoTime() - start;
+            final int pairCount = Debug.getThreadAllocCount();
+            final int pairSize = Debug.getThreadAllocSize();
+
+            Debug.resetThreadAllocCount();
+            Debug.resetThreadAllocSize();
+            start = System.nanoTime();
+            IntPairListTest.fillIntPairLists( label );
+            final long intPairTime = System.nanoTime() - start;
+            final int intPairCount = Debug.getThreadAllocCount();
+            final int intPairSize = Debug.getThreadAllocSize();
+
+            Log.i( IntPairListTest.TAG, "PairList: " + pairCount + " objects, " + pairSize + " bytes, "
+                + ( pairTime / 1000 ) + " us" );
+            Log.i( IntPairListTest.TAG, "IntPairList: " + intPairCount + " objects, " + intPairSize + " bytes, "
+                + ( intPairTime / 1000 ) + " us" );
+            Assert.assertTrue( intPairCount < pairCount );
+        }
+        finally
+        {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    // -------
+    // Helpers
+    // -------
+
+    /**
+     * Create a list with three pairs: 9, 8 and 7.
+     *
+     * @return the new list.
+     */
+    private static IntPairList create987List()
+    {
+        final IntPairList list = new IntPairList( "one" );
+        list.add( 9, "Nueve" );
+        list.add( 8, "Ocho" );
+        list.add( 7, "Siete" );
+        return list;
+    }
+
+    /**
+     * Fill LIST_COUNT generic lists, boxing each node_id as a cursor reader does.
+     *
+     * @param label the label for all pairs.
+     * @return how many pairs were added - so that the work is not optimized away.
+     */
+    private static int fillPairLists( final String label )
+    {
+        int total = 0;
+        for ( int list = 0; list < IntPairListTest.LIST_COUNT; ++list )
+        {
+            final PairList<Integer, String> pairs = new PairList<Integer, String>( null );
+            for ( int pair = 0; pair < IntPairListTest.PAIR_COUNT; ++pair )
+            {
+                pairs.add( Integer.valueOf( IntPairListTest.FIRST_NODE_ID + pair ), label );
+            }
+            total += pairs.length;
+        }
+        return total;
+    }
+
+    /**
+     * Fill LIST_COUNT int-specialised lists.
+     *
+     * @param label the label for all pairs.
+     * @return how many pairs were added - so that the work is not optimized away.
+     */
+    private static int fillIntPairLists( final String label )
+    {
+        int total = 0;
+        for ( int list = 0; list < IntPairListTest.LIST_COUNT; ++list )
+        {
+            final IntPairList pairs = new IntPairList( null );
+            for ( int pair = 0; pair < IntPairListTest.PAIR_COUNT; ++pair )
+            {
+                pairs.add( IntPairListTest.FIRST_NODE_ID + pair, label );
+            }
+            total += pairs.length;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,241 @@
+package ca.chaves.familyBrowser.test;
+
+import ca.chaves.android.graph.AncestorIndex;
+import ca.chaves.android.graph.GraphNode;
+import ca.chaves.android.graph.GraphValueList;
+import ca.chaves.android.graph.LineageTraversal;
+import ca.chaves.familyBrowser.test.data.TestStorage;
+import ca.chaves.familyBrowser.test.util.GraphUtil;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+/**
+ * Test for the {@link LineageTraversal} class.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public class LineageTraversalTest
+    extends AndroidTestCase
+{
+    /**
+     * Tag for logging.
+     */
+    private static final String TAG = "Test";
+
+    /**
+     * How many nodes to sample.
+     */
+    private static final int SAMPLE_SIZE = 100;
+
+    /**
+     * More generations than the family tree has.
+     */
+    private static final int ALL_GENERATIONS = 100;
+
+    private transient Context context;
+
+    // ----------
+    // Unit Tests
+    // ----------
+
+    /**
+     * Test function: the first generation is the parents - or the children - of the root node.
+     *
+     * @throws IOException on io error.
+     */
+    public void testFirstGeneration()
+        throws IOException
+    {
+        final TestStorage storage = new TestStorage( context );
+
+        final List<Integer> nodeIds = GraphUtil.collectNodeIds( storage, LineageTraversalTest.SAMPLE_SIZE );
+        for ( final Integer nodeId : nodeIds )
+        {
+            final GraphNode node = storage.loadNode( nodeId.intValue() );
+
+            final LineageTraversal ancestors = storage.createLineageTraversal( nodeId.intValue(), true, 1 );
+            Assert.assertEquals( 0, ancestors.getDepth() );
+            Assert.assertTrue( ancestors.hasNext() );
+            final int parentCount = ancestors.next();
+            Assert.assertEquals( 1, ancestors.getDepth() );
+            Assert.assertFalse( ancestors.hasNext() );
+            Assert.assertEquals( LineageTraversalTest.toSet( node.values[TestStorage.INDEX_PARENT_VALUES] ),
+                                 LineageTraversalTest.toSet( ancestors, parentCount ) );
+
+            final LineageTraversal descendants = storage.createLineageTraversal( nodeId.intValue(), false, 1 );
+            final int childCount = descendants.next();
+            Assert.assertEquals( LineageTraversalTest.toSet( node.values[TestStorage.INDEX_CHILDREN_VALUES] ),
+                                 LineageTraversalTest.toSet( descendants, childCount ) );
+            for ( int index = 0; index < childCount; ++index )
+            {
+                Assert.assertEquals( nodeId.intValue(), descendants.getFromId( descendants.getNodeId( index ) ) );
+            }
+        }
+
+        storage.close();
+    }
+
+    /**
+     * Test function: all the ancestors are returned once, each one in the generation of its closest line - as given
+     * by the {@link AncestorIndex}. This test also logs the walk latency and the pedigree collapse.
+     *
+     * @throws IOException on io error.
+     */
+    public void testAllAncestors()
+        throws IOException
+    {
+        final TestStorage storage = new TestStorage( context );
+        final AncestorIndex index = storage.loadAncestorIndex( null, 1 );
+
+        final List<Integer> nodeIds = GraphUtil.collectNodeIds( storage, LineageTraversalTest.SAMPLE_SIZE );
+        long walkTime = 0;
+        int visitedCount = 0;
+        int repeatCount = 0;
+        for ( final Integer nodeId : nodeIds )
+        {
+            final long start = System.nanoTime();
+            final LineageTraversal walk =
+                storage.createLineageTraversal( nodeId.intValue(), true, LineageTraversalTest.ALL_GENERATIONS );
+            final Set<Integer> seen = new HashSet<Integer>();
+            while ( walk.hasNext() )
+            {
+                final int count = walk.next();
+                for ( int position = 0; position < count; ++position )
+                {
+                    final int ancestorId = walk.getNodeId( position );
+                    Assert.assertTrue( seen.add( Integer.valueOf( ancestorId ) ) );
+                    Assert.assertEquals( walk.getDepth(), index.getAncestorDistance( nodeId.intValue(), ancestorId ) );
+                    Assert.assertTrue( walk.isVisited( walk.getFromId( ancestorId ) ) );
+                }
+            }
+            walkTime += System.nanoTime() - start;
+            Assert.assertEquals( seen.size() + 1, walk.getVisitedCount() );
+            visitedCount += walk.getVisitedCount();
+            repeatCount += walk.getRepeatCount();
+
+            // the walk is closed: the parents of every ancestor were visited
+            for ( final Integer ancestorId : seen )
+            {
+                final GraphValueList parents =
+                    storage.loadNode( ancestorId.intValue() ).values[TestStorage.INDEX_PARENT_VALUES];
+                for ( int parent = 0; parent < parents.length; ++parent )
+                {
+                    Assert.assertTrue( walk.isVisited( parents.array_0[parent] ) );
+                }
+            }
+        }
+        Log.i( LineageTraversalTest.TAG, "ancestors: " + visitedCount + " nodes, " + repeatCount + " repeated links, "
+            + ( walkTime / 1000 / nodeIds.size() ) + " us/walk" );
+
+        storage.close();
+    }
+
+    /**
+     * Test function: the walk stops at the maximum depth.
+     *
+     * @throws IOException on io error.
+     */
+    public void testMaxDepth()
+        throws IOException
+    {
+        final TestStorage storage = new TestStorage( context );
+        final int nodeId = GraphUtil.collectNodeIds( storage, 1 ).get( 0 ).intValue();
+
+        final LineageTraversal walk = storage.createLineageTraversal( nodeId, true, 2 );
+        int count = 0;
+        while ( walk.hasNext() )
+        {
+            walk.next();
+            ++count;
+        }
+        Assert.assertTrue( count <= 2 );
+        Assert.assertTrue( walk.getDepth() <= 2 );
+
+        final LineageTraversal none = storage.createLineageTraversal( nodeId, true, 0 );
+        Assert.assertFalse( none.hasNext() );
+        Assert.assertEquals( 1, none.getVisitedCount() );
+
+        storage.close();
+    }
+
+    /**
+     * Test function: a canceled walk has no next generation.
+     *
+     * @throws IOException on io error.
+     */
+    public void testCancel()
+        throws IOException
+    {
+        final TestStorage storage = new TestStorage( context );
+        final int nodeId = GraphUtil.collectNodeIds( storage, 1 ).get( 0 ).intValue();
+
+        final LineageTraversal walk =
+            storage.createLineageTraversal( nodeId, false, LineageTraversalTest.ALL_GENERATIONS );
+        Assert.assertTrue( walk.hasNext() );
+        walk.cancel();
+        Assert.assertTrue( walk.isCanceled() );
+        Assert.assertFalse( walk.hasNext() );
+        Assert.assertEquals( 0, walk.next() );
+
+        storage.close();
+    }
+
+    // -------
+    // Helpers
+    // -------
+
+    /**
+     * Collect the node_id(s) of a value list.
+     *
+     * @param values the value list.
+     * @return the node_id(s).
+     */
+    private static Set<Integer> toSet( final GraphValueList values )
+    {
+        final Set<Integer> nodeIds = new HashSet<Integer>();
+        for ( int index = 0; index < values.length; ++index )
+        {
+            nodeIds.add( Integer.valueOf( values.array_0[index] ) );
+        }
+        return nodeIds;
+    }
+
+    /**
+     * Collect the node_id(s) of the current generation.
+     *
+     * @param walk the lineage traversal.
+     * @param count how many node_id(s) there are in the current generation.
+     * @return the node_id(s).
+     */
+    private static Set<Integer> toSet( final LineageTraversal walk, final int count )
+    {
+        final Set<Integer> nodeIds = new HashSet<Integer>();
+        for ( int index = 0; index < count; ++index )
+        {
+            nodeIds.add( Integer.valueOf( walk.getNodeId( index ) ) );
+        }
+        return nodeIds;
+    }
+
+    // ------
+    // Set Up
+    // ------
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        context = super.getContext();
+    }
+}
@@ -0,0 +1,267 @@
+package ca.chaves.familyBrowser.test;
+
+import ca.chaves.android.app.Android;
+import ca.chaves.android.graph.GraphNode;
+import ca.chaves.android.graph.GraphStorage;
+import ca.chaves.android.graph.GraphValueList;
+import ca.chaves.android.graph.NameSearch;
+import ca.chaves.familyBrowser.test.data.TestStorage;
+import ca.chaves.familyBrowser.test.util.GraphUtil;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import junit.framework.Assert;
+
+/**
+ * Test for the {@link NameSearch} class and the name index.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public class NameSearchTest
+    extends AndroidTestCase
+{
+    /**
+     * Tag for logging.
+     */
+    private static final String TAG = "Test";
+
+    /**
+     * How many node names to search for.
+     */
+    private static final int SAMPLE_SIZE = 100;
+
+    private transient Context context;
+
+    // ----------
+    // Unit Tests
+    // ----------
+
+    /**
+     * Test function: case and accents are folded, and words are separated by one blank.
+     */
+    public void testFold()
+    {
+        Assert.assertEquals( "munoz chaves angela", NameSearch.fold( "Mu\u00f1oz Chaves, \u00c1ngela" ) );
+        Assert.assertEquals( "jose maria", NameSearch.fold( "  JOS\u00c9 -- Mar\u00eda " ) );
+        Assert.assertEquals( "aesop strasse", NameSearch.fold( "\u00c6sop Stra\u00dfe" ) );
+        Assert.assertEquals( "", NameSearch.fold( " - " ) );
+        Assert.assertEquals( 0, new NameSearch( " , " ).getMatchCount() );
+        Assert.assertTrue( new NameSearch( " , " ).isEmpty() );
+    }
+
+    /**
+     * Test function: every query word must match a different name word, and better matches rank first.
+     */
+    public void testScore()
+    {
+        final NameSearch search = new NameSearch( "jos chav" );
+        Assert.assertEquals( "chav", search.getKeyWord() );
+        Assert.assertTrue( search.score( GraphStorage.NAME_ATTRIBUTE_ID, "jose chaves" ) > 0 );
+        Assert.assertTrue( search.score( GraphStorage.NAME_ATTRIBUTE_ID, "chaves jose" ) > 0 );
+        Assert.assertEquals( -1, search.score( GraphStorage.NAME_ATTRIBUTE_ID, "jose mora" ) );
+        Assert.assertEquals( -1, new NameSearch( "ana ana" ).score( GraphStorage.NAME_ATTRIBUTE_ID, "ana mora" ) );
+
+        search.add( Integer.valueOf( 3 ), "Chaves Jos\u00e9", search.score( 2, "chaves jose" ) );
+        search.add( Integer.valueOf( 2 ), "Jos\u00e9 Chaves Mora", search.score( 1, "jose chaves mora" ) );
+        search.add( Integer.valueOf( 1 ), "Jos\u00e9 Chaves", search.score( 1, "jose chaves" ) );
+        // the same node again, with a worse score
+        search.add( Integer.valueOf( 1 ), "Jos\u00e9 Chaves", 0 );
+
+        final GraphValueList results = search.getResults( 10 );
+        Assert.assertEquals( 3, results.length );
+        Assert.assertEquals( 1, results.array_0[0] );
+        Assert.assertEquals( 2, results.array_0[1] );
+        Assert.assertEquals( 3, results.array_0[2] );
+        Assert.assertEquals( 2, search.getResults( 2 ).length );
+    }
+
+    /**
+     * Test function: every node is found by its own name, typed without accents, and by the first letters of its
+     * name words. This test also logs the average search latency.
+     *
+     * @throws IOException on io error.
+     */
+    public void testSearchNames()
+        throws IOException
+    {
+        final TestStorage storage = new TestStorage( context );
+        storage.createNameIndex();
+        Assert.assertFalse( storage.createNameIndex() );
+
+        final List<Integer> nodeIds = GraphUtil.collectNodeIds( storage, NameSearchTest.SAMPLE_SIZE );
+        long searchTime = 0;
+        int searchCount = 0;
+        for ( final Integer nodeId : nodeIds )
+        {
+            final GraphNode node = storage.loadNode( nodeId.intValue() );
+            if ( node.label == null || NameSearch.fold( node.label ).length() == 0 )
+            {
+                continue;
+            }
+
+            final String foldedName = NameSearch.fold( node.label );
+            final long start = System.nanoTime();
+            final GraphValueList results = storage.searchNames( foldedName.toUpperCase(), null );
+            searchTime += System.nanoTime() - start;
+            ++searchCount;
+            Assert.assertNotNull( GraphUtil.findValueStringById( results, nodeId ) );
+
+            final StringBuilder prefixes = new StringBuilder();
+            for ( final String word : NameSearch.split( foldedName ) )
+            {
+                prefixes.append( word.substring( 0, Math.min( 3, word.length() ) ) ).append( ' ' );
+            }
+            final GraphValueList prefixResults = storage.searchNames( prefixes.toString(), null );
+            Assert.assertTrue( 0 < prefixResults.length );
+        }
+        Assert.assertTrue( 0 < searchCount );
+        Log.i( NameSearchTest.TAG, "searchNames: " + searchCount + " searches, " //
+            + ( searchTime / 1000 / searchCount ) + " us/search" );
+
+        Assert.assertEquals( 0, storage.searchNames( "zzzzzz", null ).length );
+        Assert.assertEquals( 0, storage.searchNames( "", null ).length );
+
+        storage.close();
+    }
+
+    /**
+     * Test function: a name index built with other folding rules is built again.
+     *
+     * @throws IOException on io error.
+     */
+    public void testFoldVersion()
+        throws IOException
+    {
+        final TestStorage storage = new TestStorage( context );
+        storage.createNameIndex();
+        Assert.assertFalse( storage.createNameIndex() );
+
+        Android.App.getDatabase().execSQL( "update names_version_tab set fold_version = "
+            + ( NameSearch.FOLD_VERSION - 1 ) );
+        Assert.assertTrue( storage.createNameIndex() );
+        Assert.assertFalse( storage.createNameIndex() );
+
+        final GraphNode node = storage.loadNode( GraphStorage.DEFAULT_NODE_ID );
+        final GraphValueList results = storage.searchNames( node.label, null );
+        Assert.assertNotNull( GraphUtil.findValueStringById( results, node.id ) );
+
+        storage.close();
+    }
+
+    /**
+     * Test function: the name index ships with the database - the database extracted from the tarball has it, built
+     * with the current folding rules - so the storage reset is just a schema check.
+     *
+     * @throws IOException on io error.
+     */
+    public void testShippedNameIndex()
+        throws IOException
+    {
+        final TestStorage storage = new TestStorage( context );
+
+        final SQLiteDatabase shipped = storage.openShippedDatabase( context.getCacheDir() );
+        try
+        {
+            Assert.assertTrue( storage.hasNameIndex( shipped ) );
+        }
+        finally
+        {
+            shipped.close();
+            new File( shipped.getPath() ).delete();
+        }
+
+        storage.close();
+    }
+
+    /**
+     * Test function: the storage reset rebuilds a stale name index before it returns, so no search - and no pooled
+     * connection - ever runs while the index is being written.
+     *
+     * @throws IOException on io error.
+     */
+    public void testResetNameIndex()
+        throws IOException
+    {
+        final TestStorage storage = new TestStorage( context );
+        storage.createNameIndex();
+        // the index is stale, so the reset builds it again
+        Android.App.getDatabase().execSQL( "update names_version_tab set fold_version = "
+            + ( NameSearch.FOLD_VERSION - 1 ) );
+
+        final long start = System.nanoTime();
+        storage.resetStorage();
+        final long resetTime = System.nanoTime() - start;
+        Assert.assertTrue( storage.hasNameIndex( Android.App.getDatabase() ) );
+        Assert.assertFalse( storage.createNameIndex() );
+
+        final GraphNode node = storage.loadNode( GraphStorage.DEFAULT_NODE_ID );
+        final GraphValueList results = storage.searchNames( node.label, null );
+        Assert.assertNotNull( GraphUtil.findValueStringById( results, node.id ) );
+        Log.i( NameSearchTest.TAG, "name index: rebuilt by the reset in " + ( resetTime / 1000 ) + " us" );
+
+        storage.close();
+    }
+
+    /**
+     * Test function: the listener receives the final results, and it can stop the search.
+     *
+     * @throws IOException on io error.
+     */
+    public void testListener()
+        throws IOException
+    {
+        final TestStorage storage = new TestStorage( context );
+        storage.createNameIndex();
+
+        final int[] calls = new int[2];
+        final GraphValueList results = storage.searchNames( "a", new NameSearch.Listener()
+        {
+            @Override
+            public boolean onResults( final GraphValueList partialResults, final boolean complete )
+            {
+                Assert.assertNotNull( partialResults );
+                ++calls[complete ? 1 : 0];
+                return true;
+            }
+        } );
+        Assert.assertTrue( 0 < results.length );
+        Assert.assertEquals( 1, calls[1] );
+        Log.i( NameSearchTest.TAG, "searchNames: " + calls[0] + " partial results" );
+
+        // stop at the first partial results: no final results are reported
+        calls[0] = calls[1] = 0;
+        storage.searchNames( "a", new NameSearch.Listener()
+        {
+            @Override
+            public boolean onResults( final GraphValueList partialResults, final boolean complete )
+            {
+                ++calls[complete ? 1 : 0];
+                return false;
+            }
+        } );
+        Assert.assertTrue( calls[0] <= 1 );
+        Assert.assertEquals( 1 - calls[0], calls[1] );
+
+        storage.close();
+    }
+
+    // ------
+    // Set Up
+    // ------
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        context = super.getContext();
+    }
+}
@@ -0,0 +1,109 @@
+package ca.chaves.familyBrowser.test;
+
+import ca.chaves.android.graph.NavigationScheduler;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import junit.framework.Assert;
+
+/**
+ * Test for the {@link NavigationScheduler} class.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public class NavigationSchedulerTest
+    extends AndroidTestCase
+{
+    /**
+     * Tag for logging.
+     */
+    private static final String TAG = "Test";
+
+    /**
+     * How many rapid clicks to simulate.
+     */
+    private static final int CLICK_COUNT = 1000;
+
+    // ----------
+    // Unit Tests
+    // ----------
+
+    /**
+     * Test function: a new request supersedes all previous ones, and superseded requests are not started.
+     */
+    public void testLatestWins()
+    {
+        final NavigationScheduler scheduler = new NavigationScheduler();
+        final NavigationScheduler.Request first = scheduler.submit( Integer.valueOf( 10 ), "Diez" );
+        final NavigationScheduler.Request second = scheduler.submit( Integer.valueOf( 20 ), "Veinte" );
+        Assert.assertNotNull( first );
+        Assert.assertNotNull( second );
+        Assert.assertFalse( scheduler.isCurrent( first ) );
+        Assert.assertTrue( scheduler.isCurrent( second ) );
+
+        Assert.assertFalse( scheduler.start( first ) );
+        Assert.assertEquals( -1, first.getQueueLatency() );
+        Assert.assertTrue( scheduler.start( second ) );
+        Assert.assertTrue( 0 <= second.getQueueLatency() );
+
+        // a request submitted while loading makes the running one stale
+        final NavigationScheduler.Request third = scheduler.submit( Integer.valueOf( 30 ), null );
+        Assert.assertFalse( scheduler.isCurrent( second ) );
+        Assert.assertTrue( scheduler.start( third ) );
+
+        Assert.assertEquals( 3, scheduler.getSubmitCount() );
+        Assert.assertEquals( 1, scheduler.getSupersededCount() );
+        Assert.assertEquals( 2, scheduler.getStartCount() );
+    }
+
+    /**
+     * Test function: requesting the node being loaded is coalesced into the running request, until it finishes.
+     */
+    public void testCoalesce()
+    {
+        final NavigationScheduler scheduler = new NavigationScheduler();
+        final NavigationScheduler.Request request = scheduler.submit( Integer.valueOf( 10 ), "Diez" );
+        Assert.assertNull( scheduler.submit( Integer.valueOf( 10 ), "Diez" ) );
+        Assert.assertTrue( scheduler.isCurrent( request ) );
+
+        // the default node is a node like any other
+        final NavigationScheduler.Request initial = scheduler.submit( null, null );
+        Assert.assertNotNull( initial );
+        Assert.assertNull( scheduler.submit( null, null ) );
+
+        // once finished, the same node can be loaded again
+        scheduler.finish( initial );
+        Assert.assertNotNull( scheduler.submit( null, null ) );
+        Assert.assertEquals( 2, scheduler.getCoalescedCount() );
+    }
+
+    /**
+     * Test function: simulate rapid clicks - only the last one is loaded - and log the queue latency.
+     */
+    public void testRapidClicks()
+    {
+        final NavigationScheduler scheduler = new NavigationScheduler();
+        final NavigationScheduler.Request[] requests =
+            new NavigationScheduler.Request[NavigationSchedulerTest.CLICK_COUNT];
+        for ( int index = 0; index < requests.length; ++index )
+        {
+            requests[index] = scheduler.submit( Integer.valueOf( index % 2 ), null );
+        }
+        int startCount = 0;
+        for ( final NavigationScheduler.Request request : requests )
+        {
+            if ( scheduler.start( request ) )
+            {
+                ++startCount;
+                Assert.assertSame( requests[requests.length - 1], request );
+            }
+            scheduler.finish( request );
+        }
+        Assert.assertEquals( 1, startCount );
+        Assert.assertEquals( requests.length - 1, scheduler.getSupersededCount() );
+        Assert.assertTrue( requests[requests.length - 1].getQueueLatency() <= scheduler.getMaxQueueLatency() );
+        Log.i( NavigationSchedulerTest.TAG, "scheduler: " + scheduler );
+    }
+}
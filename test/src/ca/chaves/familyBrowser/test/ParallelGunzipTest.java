@@ -0,0 +1,227 @@
+package ca.chaves.familyBrowser.test;
+
+import ca.chaves.android.util.ParallelGunzip;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.Assert;
+
+/**
+ * Test for the {@link ParallelGunzip} class.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public class ParallelGunzipTest
+    extends AndroidTestCase
+{
+    /**
+     * Tag for logging.
+     */
+    private static final String TAG = "Test";
+
+    /**
+     * How many chunks - as many as tarball pieces.
+     */
+    private static final int CHUNK_COUNT = 8;
+
+    /**
+     * The uncompressed size of each chunk in the benchmark.
+     */
+    private static final int CHUNK_SIZE = 512 * 1024;
+
+    // ----------
+    // Unit Tests
+    // ----------
+
+    /**
+     * Test function: chunks are read back in order, with or without their sizes, and wrong sizes are errors.
+     *
+     * @throws IOException on io error.
+     */
+    public void testInOrder()
+        throws IOException
+    {
+        final byte[][] data = new byte[ParallelGunzipTest.CHUNK_COUNT][];
+        final int[] sizes = new int[data.length];
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for ( int index = 0; index < data.length; ++index )
+        {
+            // chunks of all sizes, empty ones included
+            data[index] = ParallelGunzipTest.text( index * index * 1000, index );
+            sizes[index] = data[index].length;
+            expected.write( data[index] );
+        }
+        final byte[][] chunks = ParallelGunzipTest.gzip( data );
+
+        for ( int threadCount = 1; threadCount <= ParallelGunzip.MAX_THREAD_COUNT; ++threadCount )
+        {
+            Assert.assertTrue( Arrays.equals( expected.toByteArray(),
+                                              ParallelGunzipTest.read( chunks, sizes, threadCount ) ) );
+        }
+        Assert.assertTrue( Arrays.equals( expected.toByteArray(), ParallelGunzipTest.read( chunks, null, 2 ) ) );
+
+        for ( final int delta : new int[]{ -1, 1 } )
+        {
+            final int[] wrongSizes = sizes.clone();
+            wrongSizes[3] += delta;
+            try
+            {
+                ParallelGunzipTest.read( chunks, wrongSizes, 2 );
+                Assert.fail( "wrong size" );
+            }
+            catch ( final IOException ex )
+            {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Test function: compare the wall-clock time to inflate the chunks in parallel, with the time to inflate the same
+     * data as one single gzip stream.
+     *
+     * @throws IOException on io error.
+     */
+    public void testWallClock()
+        throws IOException
+    {
+        final byte[][] data = new byte[ParallelGunzipTest.CHUNK_COUNT][];
+        final int[] sizes = new int[data.length];
+        final ByteArrayOutputStream whole = new ByteArrayOutputStream();
+        for ( int index = 0; index < data.length; ++index )
+        {
+            data[index] = ParallelGunzipTest.text( ParallelGunzipTest.CHUNK_SIZE, index );
+            sizes[index] = data[index].length;
+            whole.write( data[index] );
+        }
+        final byte[][] chunks = ParallelGunzipTest.gzip( data );
+        final byte[] single = ParallelGunzipTest.gzip( new byte[][]{ whole.toByteArray() } )[0];
+
+        // the first round warms up both paths
+        long singleTime = 0;
+        long parallelTime = 0;
+        final int threadCount = ParallelGunzip.defaultThreadCount( chunks.length );
+        for ( int round = 0; round < 2; ++round )
+        {
+            long start = System.nanoTime();
+            final GZIPInputStream is = new GZIPInputStream( new ByteArrayInputStream( single ) );
+            final byte[] buffer = new byte[32 * 1024];
+            long total = 0;
+            for ( int count = is.read( buffer ); count != -1; count = is.read( buffer ) )
+            {
+                total += count;
+            }
+            is.close();
+            singleTime = System.nanoTime() - start;
+            Assert.assertEquals( whole.size(), total );
+
+            start = System.nanoTime();
+            final byte[] actual = ParallelGunzipTest.read( chunks, sizes, threadCount );
+            parallelTime = System.nanoTime() - start;
+            Assert.assertEquals( whole.size(), actual.length );
+        }
+
+        Log.i( ParallelGunzipTest.TAG, "inflate " + ( whole.size() / 1024 ) + " KB: single stream "
+            + ( singleTime / 1000 ) + " us, " + chunks.length + " chunks on " + threadCount + " threads "
+            + ( parallelTime / 1000 ) + " us, " + Runtime.getRuntime().availableProcessors() + " processors" );
+    }
+
+    // -------
+    // Helpers
+    // -------
+
+    /**
+     * Read all chunks back.
+     *
+     * @param chunks the compressed chunks.
+     * @param sizes the uncompressed chunk sizes, or null.
+     * @param threadCount how many threads.
+     * @return the uncompressed data.
+     * @throws IOException on io error.
+     */
+    private static byte[] read( final byte[][] chunks, final int[] sizes, final int threadCount )
+        throws IOException
+    {
+        final InputStream[] sources = new InputStream[chunks.length];
+        for ( int index = 0; index < chunks.length; ++index )
+        {
+            sources[index] = new ByteArrayInputStream( chunks[index] );
+        }
+        final ParallelGunzip is = new ParallelGunzip( sources, sizes, threadCount );
+        try
+        {
+            final ByteArrayOutputStream os = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[10000];
+            for ( int count = is.read( buffer ); count != -1; count = is.read( buffer ) )
+            {
+                os.write( buffer, 0, count );
+            }
+            return os.toByteArray();
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    /**
+     * Gzip each one of the given chunks on its own.
+     *
+     * @param data the uncompressed chunks.
+     * @return the compressed chunks.
+     * @throws IOException on io error.
+     */
+    private static byte[][] gzip( final byte[][] data )
+        throws IOException
+    {
+        final byte[][] chunks = new byte[data.length][];
+        for ( int index = 0; index < data.length; ++index )
+        {
+            final ByteArrayOutputStream os = new ByteArrayOutputStream();
+            final GZIPOutputStream gzip = new GZIPOutputStream( os );
+            gzip.write( data[index] );
+            gzip.close();
+            chunks[index] = os.toByteArray();
+        }
+        return chunks;
+    }
+
+    /**
+     * Create some compressible text, like the database pages.
+     *
+     * @param size the text size.
+     * @param seed the random seed.
+     * @return the text.
+     */
+    private static byte[] text( final int size, final int seed )
+    {
+        final String[] words = new String[]{ "Chaves", "Rodriguez", "San Jose", "Costa Rica", "born", "died", "1890" };
+        final Random random = new Random( seed );
+        final byte[] data = new byte[size];
+        int offset = 0;
+        while ( offset < size )
+        {
+            final String word = words[random.nextInt( words.length )];
+            for ( int index = 0; index < word.length() && offset < size; ++index )
+            {
+                data[offset++] = (byte) word.charAt( index );
+            }
+            if ( offset < size )
+            {
+                data[offset++] = (byte) random.nextInt( 256 );
+            }
+        }
+        return data;
+    }
+}
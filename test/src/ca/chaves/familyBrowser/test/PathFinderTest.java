@@ -0,0 +1,271 @@
+package ca.chaves.familyBrowser.test;
+
+import ca.chaves.android.graph.GraphNode;
+import ca.chaves.android.graph.GraphValueList;
+import ca.chaves.android.graph.NavigationPath;
+import ca.chaves.android.graph.PathFinder;
+import ca.chaves.android.graph.RelationshipPath;
+import ca.chaves.familyBrowser.test.data.TestStorage;
+import ca.chaves.familyBrowser.test.util.GraphUtil;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+/**
+ * Test for the {@link PathFinder} class.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public class PathFinderTest
+    extends AndroidTestCase
+{
+    /**
+     * Tag for logging.
+     */
+    private static final String TAG = "Test";
+
+    /**
+     * How many nodes to sample.
+     */
+    private static final int SAMPLE_SIZE = 200;
+
+    /**
+     * How many random node pairs to relate.
+     */
+    private static final int PAIR_COUNT = 100;
+
+    private transient Context context;
+
+    // ----------
+    // Unit Tests
+    // ----------
+
+    /**
+     * Test function: the path from one node to itself has that single node.
+     *
+     * @throws IOException on io error.
+     */
+    public void testPathToSelf()
+        throws IOException
+    {
+        final TestStorage storage = new TestStorage( context );
+        final GraphNode node = storage.loadNode( GraphUtil.collectNodeIds( storage, 1 ).get( 0 ).intValue() );
+
+        final RelationshipPath path = storage.createPathFinder().findPath( node.id.intValue(), node.id.intValue(), 1 );
+        Assert.assertNotNull( path );
+        Assert.assertEquals( 0, path.getDistance() );
+        Assert.assertEquals( node.id.intValue(), path.array_0[0] );
+        Assert.assertEquals( node.label, path.array_1[0] );
+        Assert.assertNull( path.edgeNames[0] );
+
+        storage.close();
+    }
+
+    /**
+     * Test function: every neighbour is one step away, through the edge group which lists it.
+     *
+     * @throws IOException on io error.
+     */
+    public void testNeighbours()
+        throws IOException
+    {
+        final TestStorage storage = new TestStorage( context );
+        final PathFinder finder = storage.createPathFinder();
+
+        final List<Integer> nodeIds = GraphUtil.collectNodeIds( storage, PathFinderTest.SAMPLE_SIZE / 10 );
+        for ( final Integer nodeId : nodeIds )
+        {
+            final GraphNode node = storage.loadNode( nodeId.intValue() );
+            for ( int edge = GraphNode.INDEX_EXTRA_VALUES; edge < node.values.length; ++edge )
+            {
+                final GraphValueList links = node.values[edge];
+                for ( int link = 0; link < links.length; ++link )
+                {
+                    final RelationshipPath path =
+                        finder.findPath( nodeId.intValue(), links.array_0[link], 1 );
+                    Assert.assertNotNull( path );
+                    Assert.assertEquals( 1, path.getDistance() );
+                    Assert.assertEquals( links.array_1[link], path.array_1[1] );
+                    // the same node may be listed by more than one edge group
+                    Assert.assertNotNull( path.edgeNames[1] );
+                    Assert.assertTrue( PathFinderTest.isLinked( node, path.edgeNames[1], links.array_0[link] ) );
+                }
+            }
+        }
+
+        storage.close();
+    }
+
+    /**
+     * Test function: random node pairs are related by consistent paths, of the same distance against the database and
+     * against the graph file. This test also logs the average search latency.
+     *
+     * @throws IOException on io error.
+     */
+    public void testRandomPairs()
+        throws IOException
+    {
+        final TestStorage database = new TestStorage( context );
+        final TestStorage mapped = new TestStorage( context );
+        mapped.loadGraphFile();
+
+        final List<Integer> nodeIds = GraphUtil.collectNodeIds( database, PathFinderTest.SAMPLE_SIZE );
+        final Random random = new Random( 11 );
+        long databaseTime = 0;
+        long mappedTime = 0;
+        int pathCount = 0;
+        for ( int pair = 0; pair < PathFinderTest.PAIR_COUNT; ++pair )
+        {
+            final int fromId = nodeIds.get( random.nextInt( nodeIds.size() ) ).intValue();
+            final int toId = nodeIds.get( random.nextInt( nodeIds.size() ) ).intValue();
+
+            long start = System.nanoTime();
+            final RelationshipPath path =
+                database.createPathFinder().findPath( fromId, toId, NavigationPath.MAX_DEPTH );
+            databaseTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            final RelationshipPath mappedPath =
+                mapped.createPathFinder().findPath( fromId, toId, NavigationPath.MAX_DEPTH );
+            mappedTime += System.nanoTime() - start;
+
+            // all sampled nodes were reached from the default node
+            Assert.assertNotNull( path );
+            Assert.assertNotNull( mappedPath );
+            Assert.assertEquals( path.getDistance(), mappedPath.getDistance() );
+            Assert.assertEquals( fromId, path.array_0[0] );
+            Assert.assertEquals( toId, path.array_0[path.length - 1] );
+            assertLinked( database, path );
+            ++pathCount;
+        }
+        Log.i( PathFinderTest.TAG, "findPath: " + pathCount + " paths, " //
+            + ( databaseTime / 1000 / pathCount ) + " us/path (database), " //
+            + ( mappedTime / 1000 / pathCount ) + " us/path (graph file)" );
+
+        database.close();
+    }
+
+    /**
+     * Test function: no path is found beyond the maximum distance.
+     *
+     * @throws IOException on io error.
+     */
+    public void testMaxDepth()
+        throws IOException
+    {
+        final TestStorage storage = new TestStorage( context );
+        final PathFinder finder = storage.createPathFinder();
+
+        final List<Integer> nodeIds = GraphUtil.collectNodeIds( storage, PathFinderTest.SAMPLE_SIZE );
+        final int fromId = nodeIds.get( 0 ).intValue();
+        final int toId = nodeIds.get( nodeIds.size() - 1 ).intValue();
+        final RelationshipPath path = finder.findPath( fromId, toId, PathFinder.DEFAULT_MAX_DEPTH );
+        Assert.assertNotNull( path );
+        Assert.assertTrue( 2 <= path.getDistance() );
+
+        Assert.assertNull( finder.findPath( fromId, toId, path.getDistance() - 1 ) );
+        Assert.assertEquals( path.getDistance(), finder.findPath( fromId, toId, path.getDistance() ).getDistance() );
+
+        storage.close();
+    }
+
+    /**
+     * Test function: a canceled search finds nothing.
+     *
+     * @throws IOException on io error.
+     */
+    public void testCancel()
+        throws IOException
+    {
+        final TestStorage storage = new TestStorage( context );
+        final PathFinder finder = storage.createPathFinder();
+
+        final List<Integer> nodeIds = GraphUtil.collectNodeIds( storage, PathFinderTest.SAMPLE_SIZE );
+        final int fromId = nodeIds.get( 0 ).intValue();
+        final int toId = nodeIds.get( nodeIds.size() - 1 ).intValue();
+        Assert.assertFalse( finder.isCanceled() );
+        finder.cancel();
+        Assert.assertTrue( finder.isCanceled() );
+        Assert.assertNull( finder.findPath( fromId, toId, PathFinder.DEFAULT_MAX_DEPTH ) );
+
+        storage.close();
+    }
+
+    // -------
+    // Helpers
+    // -------
+
+    /**
+     * Check that each path node is linked to the previous one - in either direction, because a few links are only
+     * stored one way.
+     *
+     * @param storage where to load the nodes from.
+     * @param path the path to check.
+     * @throws IOException on io error.
+     */
+    private static void assertLinked( final TestStorage storage, final RelationshipPath path )
+        throws IOException
+    {
+        for ( int index = 1; index < path.length; ++index )
+        {
+            final GraphNode previous = storage.loadNode( path.array_0[index - 1] );
+            final GraphNode next = storage.loadNode( path.array_0[index] );
+            if ( path.edgeNames[index] != null )
+            {
+                Assert.assertTrue( PathFinderTest.isLinked( previous, path.edgeNames[index], next.id.intValue() ) );
+            }
+            else
+            {
+                Assert.assertTrue( PathFinderTest.isLinked( next, null, previous.id.intValue() ) );
+            }
+        }
+    }
+
+    /**
+     * Is the given node linked to the given node_id?
+     *
+     * @param node the node.
+     * @param edgeName the edge group name, or null for any edge group.
+     * @param nodeId the node_id.
+     * @return true if the edge group of 'node' lists 'nodeId'.
+     */
+    private static boolean isLinked( final GraphNode node, final String edgeName, final int nodeId )
+    {
+        for ( int edge = GraphNode.INDEX_EXTRA_VALUES; edge < node.values.length; ++edge )
+        {
+            final GraphValueList links = node.values[edge];
+            if ( edgeName != null && !edgeName.equals( links.title ) )
+            {
+                continue;
+            }
+            for ( int link = 0; link < links.length; ++link )
+            {
+                if ( nodeId == links.array_0[link] )
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // ------
+    // Set Up
+    // ------
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        context = super.getContext();
+    }
+}
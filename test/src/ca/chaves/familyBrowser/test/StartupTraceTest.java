@@ -0,0 +1,99 @@
+package ca.chaves.familyBrowser.test;
+
+import ca.chaves.android.BuildManifest;
+import ca.chaves.android.util.StartupTrace;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+import junit.framework.Assert;
+
+/**
+ * Test for the {@link StartupTrace} class.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public class StartupTraceTest
+    extends AndroidTestCase
+{
+    /**
+     * The timeline header line.
+     */
+    private static final String HEADER = "# name thread start_ns duration_ns\n";
+
+    /**
+     * The span names header line.
+     */
+    private static final String NAMES_HEADER = "# name\n";
+
+    private transient Context context;
+
+    // ----------
+    // Unit Tests
+    // ----------
+
+    /**
+     * Test function: nested spans are indented, in start order, with the span name first, and spans still open have no
+     * duration. The names view has the same lines, without the times. When tracing is disabled, no span is traced at
+     * all.
+     */
+    public void testTimeline()
+    {
+        StartupTrace.start();
+        final int outer = StartupTrace.begin( "outer" );
+        final int inner = StartupTrace.begin( "inner" );
+        StartupTrace.end( inner );
+        StartupTrace.mark( "event" );
+        StartupTrace.end( outer );
+        final int open = StartupTrace.begin( "open" );
+
+        final String[] lines = StartupTrace.format().split( "\n" );
+        final String names = StartupTrace.formatNames();
+        if ( !BuildManifest.TRACE_ENABLED )
+        {
+            Assert.assertEquals( StartupTrace.NO_SPAN, outer );
+            Assert.assertEquals( StartupTrace.NO_SPAN, open );
+            Assert.assertEquals( 1, lines.length );
+            Assert.assertEquals( StartupTraceTest.NAMES_HEADER, names );
+            return;
+        }
+        Assert.assertEquals( StartupTraceTest.HEADER.trim(), lines[0] );
+        Assert.assertEquals( 5, lines.length );
+        Assert.assertTrue( lines[1].startsWith( "outer " ) );
+        Assert.assertTrue( lines[2].startsWith( "  inner " ) );
+        Assert.assertTrue( lines[3].startsWith( "  event " ) );
+        Assert.assertTrue( lines[4].startsWith( "open " ) );
+        Assert.assertTrue( lines[4].endsWith( " -1" ) );
+        final String[] outerFields = lines[1].split( " " );
+        Assert.assertTrue( 0 <= Long.parseLong( outerFields[outerFields.length - 1] ) );
+        Assert.assertEquals( StartupTraceTest.NAMES_HEADER + "outer\n  inner\n  event\nopen\n", names );
+    }
+
+    /**
+     * Test function: once the timeline is written, no more spans are traced until the next launch.
+     */
+    public void testFinish()
+    {
+        StartupTrace.start();
+        StartupTrace.mark( "before" );
+        StartupTrace.finish( context.getCacheDir() );
+        Assert.assertEquals( StartupTrace.NO_SPAN, StartupTrace.begin( "after" ) );
+        final String timeline = StartupTrace.format();
+        Assert.assertFalse( timeline.contains( "after" ) );
+        Assert.assertEquals( BuildManifest.TRACE_ENABLED, timeline.contains( "before" ) );
+        Assert.assertTrue( timeline.startsWith( StartupTraceTest.HEADER ) );
+    }
+
+    // ------
+    // Set Up
+    // ------
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        context = super.getContext();
+    }
+}
@@ -0,0 +1,93 @@
+package ca.chaves.familyBrowser.test;
+
+import ca.chaves.android.util.StringPool;
+
+import android.test.AndroidTestCase;
+
+import junit.framework.Assert;
+
+/**
+ * Test for the {@link StringPool} class.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public class StringPoolTest
+    extends AndroidTestCase
+{
+    // ----------
+    // Unit Tests
+    // ----------
+
+    /**
+     * Test function: equal characters return the same string instance.
+     */
+    public void testInternChars()
+    {
+        final StringPool pool = new StringPool( 16 );
+
+        final char[] data = "Female, Male".toCharArray();
+        final String first = pool.intern( data, 6 );
+        final String second = pool.intern( "Female".toCharArray(), 6 );
+
+        Assert.assertEquals( "Female", first );
+        Assert.assertSame( first, second );
+        Assert.assertEquals( 1, pool.hitCount() );
+        Assert.assertEquals( 1, pool.missCount() );
+        Assert.assertEquals( StringPool.STRING_OVERHEAD + 2 * 6, pool.savedBytes() );
+
+        // different characters, different strings
+        final String third = pool.intern( "Femala".toCharArray(), 6 );
+        Assert.assertEquals( "Femala", third );
+        Assert.assertEquals( 2, pool.missCount() );
+    }
+
+    /**
+     * Test function: equal strings return the same string instance.
+     */
+    public void testInternString()
+    {
+        final StringPool pool = new StringPool( 16 );
+
+        final String first = pool.intern( new String( "Costa Rica" ) );
+        final String second = pool.intern( new String( "Costa Rica" ) );
+        Assert.assertSame( first, second );
+        Assert.assertSame( first, pool.intern( "Costa Rica".toCharArray(), 10 ) );
+        Assert.assertNull( pool.intern( null ) );
+    }
+
+    /**
+     * Test function: long values are never pooled.
+     */
+    public void testLongValues()
+    {
+        final StringPool pool = new StringPool( 16 );
+
+        final StringBuilder text = new StringBuilder();
+        while ( text.length() < 100 )
+        {
+            text.append( "More details. " );
+        }
+        final char[] data = text.toString().toCharArray();
+        Assert.assertNotSame( pool.intern( data, data.length ), pool.intern( data, data.length ) );
+        Assert.assertEquals( 0, pool.hitCount() );
+    }
+
+    /**
+     * Test function: the pool is bounded - values are replaced, and they can be pooled again later.
+     */
+    public void testBounded()
+    {
+        final StringPool pool = new StringPool( 16 );
+
+        for ( int index = 0; index < 1000; ++index )
+        {
+            pool.intern( Integer.toString( index ) );
+        }
+        Assert.assertEquals( 1000, pool.missCount() );
+
+        pool.clear();
+        final String first = pool.intern( new String( "Vancouver" ) );
+        Assert.assertSame( first, pool.intern( new String( "Vancouver" ) ) );
+    }
+}
@@ -0,0 +1,253 @@
+package ca.chaves.familyBrowser.test;
+
+import ca.chaves.android.util.TarArchive;
+import ca.chaves.android.util.TarReader;
+import ca.chaves.familyBrowser.test.util.TarUtil;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import junit.framework.Assert;
+
+/**
+ * Test for the {@link TarReader} class, against the {@link TarArchive} reader.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public class TarReaderTest
+    extends AndroidTestCase
+{
+    /**
+     * Tag for logging.
+     */
+    private static final String TAG = "Test";
+
+    /**
+     * How many files in the benchmark tarball.
+     */
+    private static final int FILE_COUNT = 16;
+
+    /**
+     * The size of each file in the benchmark tarball.
+     */
+    private static final int FILE_SIZE = 256 * 1024;
+
+    /**
+     * How many times to extract the benchmark tarball - the best time is kept.
+     */
+    private static final int ROUND_COUNT = 3;
+
+    private transient Context context;
+
+    // ----------
+    // Unit Tests
+    // ----------
+
+    /**
+     * Test function: both readers extract the same entries and the same contents, from streams and from files - with
+     * payloads around the record size, and empty files.
+     *
+     * @throws IOException on io error.
+     */
+    public void testSameAsTarArchive()
+        throws IOException
+    {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        TarUtil.entry( os, "data/", null );
+        final int[] sizes = new int[]{ 0, 1, 511, 512, 513, 40000, 300000 };
+        for ( final int size : sizes )
+        {
+            TarUtil.entry( os, "data/file" + size + ".txt", TarReaderTest.contents( size ) );
+        }
+        TarUtil.entry( os, "last.txt", "last".getBytes( "UTF-8" ) );
+        TarUtil.end( os );
+        final byte[] tarball = os.toByteArray();
+        final File tarballFile = TarReaderTest.write( new File( context.getCacheDir(), "test.tar" ), tarball );
+
+        final File expected = TarUtil.emptyDirectory( new File( context.getCacheDir(), "tar-archive" ) );
+        final TarArchive archive = new TarArchive( new ByteArrayInputStream( tarball ) );
+        Assert.assertEquals( sizes.length + 2, archive.extract( expected ) );
+        archive.close();
+
+        final InputStream[] sources =
+            new InputStream[]{ new ByteArrayInputStream( tarball ), new FileInputStream( tarballFile ) };
+        for ( final InputStream source : sources )
+        {
+            final File actual = TarUtil.emptyDirectory( new File( context.getCacheDir(), "tar-reader" ) );
+            final TarReader reader = new TarReader( source );
+            Assert.assertEquals( sizes.length + 2, reader.extract( actual ) );
+            Assert.assertFalse( reader.nextEntry() );
+            reader.close();
+            for ( final int size : sizes )
+            {
+                final String name = "data" + File.separator + "file" + size + ".txt";
+                Assert.assertEquals( TarUtil.read( new File( expected, name ) ),
+                                     TarUtil.read( new File( actual, name ) ) );
+                Assert.assertEquals( size, new File( actual, name ).length() );
+            }
+            Assert.assertEquals( "last", TarUtil.read( new File( actual, "last.txt" ) ) );
+        }
+
+        // old files are kept, unless asked otherwise
+        final File actual = new File( context.getCacheDir(), "tar-reader" );
+        TarReaderTest.write( new File( actual, "last.txt" ), "kept".getBytes( "UTF-8" ) );
+        TarReader reader = new TarReader( new ByteArrayInputStream( tarball ) );
+        reader.extract( actual );
+        Assert.assertEquals( "kept", TarUtil.read( new File( actual, "last.txt" ) ) );
+        reader = new TarReader( new ByteArrayInputStream( tarball ) );
+        reader.keepOldFiles = false;
+        reader.extract( actual );
+        Assert.assertEquals( "last", TarUtil.read( new File( actual, "last.txt" ) ) );
+
+        // a truncated archive is an error
+        final byte[] truncated = new byte[tarball.length / 2];
+        System.arraycopy( tarball, 0, truncated, 0, truncated.length );
+        reader = new TarReader( new ByteArrayInputStream( truncated ) );
+        reader.keepOldFiles = false;
+        try
+        {
+            reader.extract( actual );
+            Assert.fail( "archive truncated" );
+        }
+        catch ( final TarArchive.TarException ex )
+        {
+            // expected
+        }
+    }
+
+    /**
+     * Test function: compare the throughput of both readers, from a stream and from a file - when extracting all files,
+     * and when skipping all of them.
+     *
+     * @throws IOException on io error.
+     */
+    public void testThroughput()
+        throws IOException
+    {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        for ( int index = 0; index < TarReaderTest.FILE_COUNT; ++index )
+        {
+            TarUtil.entry( os, "file" + index + ".bin", TarReaderTest.contents( TarReaderTest.FILE_SIZE ) );
+        }
+        TarUtil.end( os );
+        final byte[] tarball = os.toByteArray();
+        final File tarballFile = TarReaderTest.write( new File( context.getCacheDir(), "test.tar" ), tarball );
+        final File target = new File( context.getCacheDir(), "tar-throughput" );
+
+        // first, extract into an empty directory; then, skip all files - they exist already
+        for ( final boolean skip : new boolean[]{ false, true } )
+        {
+            final long[] bestTimes = new long[]{ Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+            for ( int round = 0; round < TarReaderTest.ROUND_COUNT; ++round )
+            {
+                for ( int kind = 0; kind < bestTimes.length; ++kind )
+                {
+                    if ( !skip )
+                    {
+                        TarUtil.emptyDirectory( target );
+                    }
+                    final long start = System.nanoTime();
+                    final int count;
+                    if ( kind == 0 )
+                    {
+                        final TarArchive archive = new TarArchive( new FileInputStream( tarballFile ) );
+                        count = archive.extract( target );
+                        archive.close();
+                    }
+                    else
+                    {
+                        final TarReader reader =
+                            new TarReader( ( kind == 1 ) ? new ByteArrayInputStream( tarball )
+                                            : new FileInputStream( tarballFile ) );
+                        count = reader.extract( target );
+                        reader.close();
+                    }
+                    bestTimes[kind] = Math.min( bestTimes[kind], System.nanoTime() - start );
+                    Assert.assertEquals( TarReaderTest.FILE_COUNT, count );
+                }
+            }
+            Log.i( TarReaderTest.TAG, ( skip ? "tar skip of " : "tar extraction of " ) + ( tarball.length / 1024 )
+                + " KB: TarArchive " + TarReaderTest.throughput( tarball.length, bestTimes[0] )
+                + " MB/s, TarReader from stream " + TarReaderTest.throughput( tarball.length, bestTimes[1] )
+                + " MB/s, TarReader from file " + TarReaderTest.throughput( tarball.length, bestTimes[2] ) + " MB/s" );
+        }
+    }
+
+    // -------
+    // Helpers
+    // -------
+
+    /**
+     * Create some file contents.
+     *
+     * @param size the content size.
+     * @return the contents.
+     */
+    private static byte[] contents( final int size )
+    {
+        final byte[] data = new byte[size];
+        for ( int index = 0; index < size; ++index )
+        {
+            data[index] = (byte) ( 'a' + ( index % 26 ) );
+        }
+        return data;
+    }
+
+    /**
+     * Write the given file.
+     *
+     * @param file the file.
+     * @param data the file contents.
+     * @return the file.
+     * @throws IOException on io error.
+     */
+    private static File write( final File file, final byte[] data )
+        throws IOException
+    {
+        file.getParentFile().mkdirs();
+        final FileOutputStream output = new FileOutputStream( file );
+        try
+        {
+            output.write( data );
+        }
+        finally
+        {
+            output.close();
+        }
+        return file;
+    }
+
+    /**
+     * Get the throughput, in megabytes per second.
+     *
+     * @param size the number of bytes.
+     * @param time the time, in nanoseconds.
+     * @return the throughput.
+     */
+    private static long throughput( final long size, final long time )
+    {
+        return size * 1000L * 1000L * 1000L / 1024L / 1024L / Math.max( 1L, time );
+    }
+
+    // ------
+    // Set Up
+    // ------
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        context = super.getContext();
+    }
+}
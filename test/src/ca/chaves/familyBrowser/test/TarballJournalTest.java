@@ -0,0 +1,199 @@
+package ca.chaves.familyBrowser.test;
+
+import ca.chaves.android.util.TarArchive;
+import ca.chaves.android.util.TarReader;
+import ca.chaves.android.util.TarballJournal;
+import ca.chaves.android.util.TarballManifest;
+import ca.chaves.familyBrowser.test.util.TarUtil;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.Assert;
+
+/**
+ * Test for the {@link TarballJournal} class, and the resumable {@link TarReader#extractChanged} restore.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public class TarballJournalTest
+    extends AndroidTestCase
+{
+    /**
+     * How many files in the test tarball.
+     */
+    private static final int FILE_COUNT = 4;
+
+    /**
+     * The size of each file in the test tarball.
+     */
+    private static final int FILE_SIZE = 3000;
+
+    private transient Context context;
+
+    // ----------
+    // Unit Tests
+    // ----------
+
+    /**
+     * Test function: completed files are kept for the same tarball only, and a line cut short is ignored.
+     *
+     * @throws IOException on io error.
+     */
+    public void testJournal()
+        throws IOException
+    {
+        final File home = TarUtil.emptyDirectory( new File( context.getCacheDir(), "journal" ) );
+        final File file = new File( home, TarballJournal.FILE_NAME );
+
+        TarballJournal journal = TarballJournal.open( file, "version1" );
+        Assert.assertEquals( 0, journal.size() );
+        journal.commit( "first.txt" );
+        journal.commit( "data/second.txt" );
+        journal.close();
+
+        journal = TarballJournal.open( file, "version1" );
+        Assert.assertEquals( 2, journal.size() );
+        Assert.assertTrue( journal.isCompleted( "data/second.txt" ) );
+        Assert.assertFalse( journal.isCompleted( "third.txt" ) );
+        journal.close();
+
+        // a crash in the middle of a line
+        final FileOutputStream os = new FileOutputStream( file, true );
+        os.write( "thi".getBytes( "UTF-8" ) );
+        os.close();
+        journal = TarballJournal.open( file, "version1" );
+        Assert.assertEquals( 2, journal.size() );
+        journal.commit( "third.txt" );
+        journal.close();
+        journal = TarballJournal.open( file, "version1" );
+        Assert.assertEquals( 3, journal.size() );
+        Assert.assertTrue( journal.isCompleted( "third.txt" ) );
+        journal.close();
+
+        // another tarball starts from scratch
+        journal = TarballJournal.open( file, "version2" );
+        Assert.assertEquals( 0, journal.size() );
+        journal.delete();
+        Assert.assertFalse( file.exists() );
+    }
+
+    /**
+     * Test function: a restore interrupted in the middle of a file leaves no half written file in place, and the next
+     * restore extracts only the files not completed before - even on the first launch, with no installed manifest.
+     *
+     * @throws IOException on io error.
+     */
+    public void testResume()
+        throws IOException
+    {
+        final File home = TarUtil.emptyDirectory( new File( context.getCacheDir(), "journal" ) );
+        final byte[] tarball = TarballJournalTest.tarball();
+
+        // the crash: the archive ends in the middle of the third file
+        final String marker = "file2:";
+        final int offset = new String( tarball, "ISO-8859-1" ).indexOf( marker );
+        final byte[] truncated = new byte[offset + TarballJournalTest.FILE_SIZE / 2];
+        System.arraycopy( tarball, 0, truncated, 0, truncated.length );
+        try
+        {
+            TarballJournalTest.restore( truncated, home );
+            Assert.fail( "archive truncated" );
+        }
+        catch ( final TarArchive.TarException ex )
+        {
+            // expected
+        }
+        Assert.assertTrue( new File( home, "file1.txt" ).isFile() );
+        Assert.assertFalse( new File( home, "file2.txt" ).exists() );
+        Assert.assertFalse( new File( home, TarballManifest.FILE_NAME ).exists() );
+        Assert.assertTrue( new File( home, TarballJournal.FILE_NAME ).isFile() );
+
+        // the next launch resumes
+        Assert.assertEquals( TarballJournalTest.FILE_COUNT - 2, TarballJournalTest.restore( tarball, home ) );
+        for ( int index = 0; index < TarballJournalTest.FILE_COUNT; ++index )
+        {
+            Assert.assertEquals( TarballJournalTest.FILE_SIZE, new File( home, "file" + index + ".txt" ).length() );
+        }
+        Assert.assertTrue( new File( home, TarballManifest.FILE_NAME ).isFile() );
+        Assert.assertFalse( new File( home, TarballJournal.FILE_NAME ).exists() );
+        Assert.assertEquals( 0, TarballJournalTest.restore( tarball, home ) );
+    }
+
+    // -------
+    // Helpers
+    // -------
+
+    /**
+     * Restore the given tarball into the given directory.
+     *
+     * @param tarball the tarball contents.
+     * @param home the target directory.
+     * @return the number of files extracted.
+     * @throws IOException on io error.
+     */
+    private static int restore( final byte[] tarball, final File home )
+        throws IOException
+    {
+        final TarReader reader = new TarReader( new ByteArrayInputStream( tarball ) );
+        try
+        {
+            return reader.extractChanged( home );
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * Create a tarball with its manifest, and the "file0.txt" to "file3.txt" files.
+     *
+     * @return the tarball contents.
+     * @throws IOException on io error.
+     */
+    private static byte[] tarball()
+        throws IOException
+    {
+        final byte[][] files = new byte[TarballJournalTest.FILE_COUNT][];
+        final StringBuilder manifest = new StringBuilder();
+        for ( int index = 0; index < files.length; ++index )
+        {
+            final StringBuilder text = new StringBuilder( "file" + index + ":" );
+            while ( text.length() < TarballJournalTest.FILE_SIZE )
+            {
+                text.append( (char) ( 'a' + ( text.length() % 26 ) ) );
+            }
+            files[index] = text.toString().getBytes( "UTF-8" );
+            manifest.append( TarUtil.hash( files[index] ) ).append( ' ' ).append( files[index].length );
+            manifest.append( " file" ).append( index ).append( ".txt\n" );
+        }
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        TarUtil.entry( os, TarballManifest.FILE_NAME, manifest.toString().getBytes( "UTF-8" ) );
+        for ( int index = 0; index < files.length; ++index )
+        {
+            TarUtil.entry( os, "file" + index + ".txt", files[index] );
+        }
+        TarUtil.end( os );
+        return os.toByteArray();
+    }
+
+    // ------
+    // Set Up
+    // ------
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        context = super.getContext();
+    }
+}
@@ -0,0 +1,233 @@
+package ca.chaves.familyBrowser.test;
+
+import ca.chaves.android.util.TarArchive;
+import ca.chaves.android.util.TarReader;
+import ca.chaves.android.util.TarballManifest;
+import ca.chaves.familyBrowser.test.util.TarUtil;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import junit.framework.Assert;
+
+/**
+ * Test for the {@link TarballManifest} class, and the manifest-driven {@link TarReader#extractChanged} restore.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public class TarballManifestTest
+    extends AndroidTestCase
+{
+    /**
+     * Tag for logging.
+     */
+    private static final String TAG = "Test";
+
+    private transient Context context;
+
+    // ----------
+    // Unit Tests
+    // ----------
+
+    /**
+     * Test function: manifest lines are parsed - paths may contain spaces - and saved manifests are loaded back.
+     *
+     * @throws IOException on io error.
+     */
+    public void testParse()
+        throws IOException
+    {
+        final TarballManifest manifest =
+            TarballManifest.parse( "0A0B 12 databases/v1.db\n\nffff 0 a file.txt\n".getBytes( "UTF-8" ) );
+        Assert.assertEquals( 2, manifest.size() );
+        Assert.assertEquals( 12, manifest.get( "databases/v1.db" ).size );
+        Assert.assertEquals( "0a0b", manifest.get( "databases/v1.db" ).hash );
+        Assert.assertEquals( "ffff", manifest.get( "a file.txt" ).hash );
+        Assert.assertNull( manifest.get( "missing.txt" ) );
+
+        for ( final String invalid : new String[]{ "ffff", "ffff 12", "ffff twelve path" } )
+        {
+            try
+            {
+                TarballManifest.parse( invalid.getBytes( "UTF-8" ) );
+                Assert.fail( "invalid manifest: " + invalid );
+            }
+            catch ( final IOException ex )
+            {
+                // expected
+            }
+        }
+
+        final File file = new File( context.getCacheDir(), TarballManifest.FILE_NAME );
+        file.getParentFile().mkdirs();
+        manifest.save( file );
+        Assert.assertEquals( 2, TarballManifest.load( file ).size() );
+        Assert.assertTrue( file.delete() );
+        Assert.assertNull( TarballManifest.load( file ) );
+    }
+
+    /**
+     * Test function: only changed, missing and truncated files are extracted again, and a corrupt file is refused.
+     *
+     * @throws IOException on io error.
+     */
+    public void testIncrementalRestore()
+        throws IOException
+    {
+        final File home = TarUtil.emptyDirectory( new File( context.getCacheDir(), "tarball" ) );
+        final File first = new File( home, "first.txt" );
+        final File second = new File( home, "data" + File.separator + "second.txt" );
+
+        final byte[] version1 = TarballManifestTest.tarball( true, "first", "second" );
+        Assert.assertEquals( 2, TarballManifestTest.restore( version1, home ) );
+        Assert.assertEquals( "second", TarUtil.read( second ) );
+        Assert.assertTrue( new File( home, TarballManifest.FILE_NAME ).isFile() );
+
+        // nothing changed, nothing written
+        Assert.assertEquals( 0, TarballManifestTest.restore( version1, home ) );
+
+        // only the changed file is written
+        final byte[] version2 = TarballManifestTest.tarball( true, "first", "second, updated" );
+        Assert.assertEquals( 1, TarballManifestTest.restore( version2, home ) );
+        Assert.assertEquals( "second, updated", TarUtil.read( second ) );
+
+        // missing and truncated files are restored, but grown files are kept
+        Assert.assertTrue( first.delete() );
+        Assert.assertEquals( 1, TarballManifestTest.restore( version2, home ) );
+        Assert.assertEquals( "first", TarUtil.read( first ) );
+        TarballManifestTest.resize( first, 2 );
+        Assert.assertEquals( 1, TarballManifestTest.restore( version2, home ) );
+        Assert.assertEquals( "first", TarUtil.read( first ) );
+        TarballManifestTest.resize( second, 100 );
+        Assert.assertEquals( 0, TarballManifestTest.restore( version2, home ) );
+
+        // a file which does not match its hash is refused, and both the old file and the installed manifest are kept
+        final byte[] corrupt = TarballManifestTest.tarball( true, "first", "third" );
+        final String marker = "third";
+        final int offset = new String( corrupt, "ISO-8859-1" ).lastIndexOf( marker );
+        corrupt[offset] = (byte) 'T';
+        try
+        {
+            TarballManifestTest.restore( corrupt, home );
+            Assert.fail( "corrupt file" );
+        }
+        catch ( final TarArchive.TarException ex )
+        {
+            // expected
+        }
+        Assert.assertEquals( 100, second.length() );
+        Assert.assertTrue( TarUtil.read( second ).startsWith( "second, updated" ) );
+        Assert.assertEquals( 0, TarballManifestTest.restore( version2, home ) );
+    }
+
+    /**
+     * Test function: archives without manifest are extracted as before - only missing files, by default.
+     *
+     * @throws IOException on io error.
+     */
+    public void testWithoutManifest()
+        throws IOException
+    {
+        final File home = TarUtil.emptyDirectory( new File( context.getCacheDir(), "tarball" ) );
+        final byte[] tarball = TarballManifestTest.tarball( false, "first", "second" );
+        Assert.assertEquals( 3, TarballManifestTest.restore( tarball, home ) );
+        Assert.assertFalse( new File( home, TarballManifest.FILE_NAME ).exists() );
+        Log.i( TarballManifestTest.TAG, "restored without manifest: " + home );
+    }
+
+    // -------
+    // Helpers
+    // -------
+
+    /**
+     * Restore the given tarball into the given directory.
+     *
+     * @param tarball the tarball contents.
+     * @param home the target directory.
+     * @return the number of files extracted.
+     * @throws IOException on io error.
+     */
+    private static int restore( final byte[] tarball, final File home )
+        throws IOException
+    {
+        final TarReader reader = new TarReader( new ByteArrayInputStream( tarball ) );
+        try
+        {
+            return reader.extractChanged( home );
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * Create a tarball with the "first.txt" and "data/second.txt" files, laid out as the build does.
+     *
+     * @param withManifest true to start the tarball with its manifest.
+     * @param first the "first.txt" contents.
+     * @param second the "data/second.txt" contents.
+     * @return the tarball contents.
+     * @throws IOException on io error.
+     */
+    private static byte[] tarball( final boolean withManifest, final String first, final String second )
+        throws IOException
+    {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final byte[] firstData = first.getBytes( "UTF-8" );
+        final byte[] secondData = second.getBytes( "UTF-8" );
+        if ( withManifest )
+        {
+            final String manifest = TarUtil.hash( secondData ) + " " + secondData.length
+                + " data/second.txt\n" + TarUtil.hash( firstData ) + " " + firstData.length
+                + " first.txt\n";
+            TarUtil.entry( os, TarballManifest.FILE_NAME, manifest.getBytes( "UTF-8" ) );
+        }
+        TarUtil.entry( os, "data/", null );
+        TarUtil.entry( os, "data/second.txt", secondData );
+        TarUtil.entry( os, "first.txt", firstData );
+        TarUtil.end( os );
+        return os.toByteArray();
+    }
+
+    /**
+     * Truncate or grow the given file.
+     *
+     * @param file the file.
+     * @param length the new file length.
+     * @throws IOException on io error.
+     */
+    private static void resize( final File file, final long length )
+        throws IOException
+    {
+        final RandomAccessFile output = new RandomAccessFile( file, "rw" );
+        try
+        {
+            output.setLength( length );
+        }
+        finally
+        {
+            output.close();
+        }
+    }
+
+    // ------
+    // Set Up
+    // ------
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        context = super.getContext();
+    }
+}
@@ -0,0 +1,281 @@
+package ca.chaves.familyBrowser.test;
+
+import ca.chaves.android.graph.GraphNode;
+import ca.chaves.android.graph.GraphStorage;
+import ca.chaves.android.graph.GraphValueList;
+import ca.chaves.android.graph.NameSearch;
+import ca.chaves.android.graph.TrigramIndex;
+import ca.chaves.familyBrowser.test.data.TestStorage;
+import ca.chaves.familyBrowser.test.util.GraphUtil;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.Assert;
+
+/**
+ * Test for the {@link TrigramIndex} class.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public class TrigramIndexTest
+    extends AndroidTestCase
+{
+    /**
+     * Tag for logging.
+     */
+    private static final String TAG = "Test";
+
+    /**
+     * How many node names to search for.
+     */
+    private static final int SAMPLE_SIZE = 100;
+
+    /**
+     * How many synthetic names to index in the benchmark.
+     */
+    private static final int BENCHMARK_SIZE = 100000;
+
+    /**
+     * How many queries to run in the benchmark.
+     */
+    private static final int BENCHMARK_QUERIES = 1000;
+
+    /**
+     * How many threads run the first query at the same time.
+     */
+    private static final int THREAD_COUNT = 4;
+
+    /**
+     * First names for the synthetic names.
+     */
+    private static final String[] FIRST_NAMES = { "Jose", "Maria", "Ana", "Juan", "Carlos", "Sofia", "Andres", "Lucia",
+        "Pablo", "Elena", "Miguel", "Rosa", "Luis", "Carmen", "Jorge", "Isabel" };
+
+    /**
+     * Syllables for the synthetic surnames.
+     */
+    private static final String[] SYLLABLES = { "cha", "ves", "ro", "dri", "guez", "mo", "ra", "vi", "lla", "fon",
+        "se", "ca", "her", "nan", "dez", "mu", "noz", "al", "var", "ez", "so", "lis", "tre", "jos", "gar", "cia" };
+
+    private transient Context context;
+
+    // ----------
+    // Unit Tests
+    // ----------
+
+    /**
+     * Test function: misspelled names are found, unrelated names are not.
+     */
+    public void testSimilarNames()
+    {
+        final TrigramIndex index = new TrigramIndex( 4 );
+        index.add( 1, "Jos\u00e9 Chaves", "Jos\u00e9 Chaves" );
+        index.add( 2, "Sof\u00eda Chaves Chen", "Sof\u00eda Chaves Chen" );
+        index.add( 3, "Lila Gonz\u00e1lez", "Lila Gonz\u00e1lez" );
+        index.add( 3, "Lila Gonz\u00e1lez", "Lilia Gonz\u00e1les" );
+        index.add( 4, "Rosa Mora", "Rosa Mora" );
+        index.build();
+        Assert.assertEquals( 5, index.size() );
+
+        GraphValueList results = index.search( "Jose Chavez", 0.3f, 10 );
+        Assert.assertEquals( 1, results.array_0[0] );
+        Assert.assertEquals( "Jos\u00e9 Chaves", results.array_1[0] );
+        Assert.assertNull( GraphUtil.findValueStringById( results, Integer.valueOf( 4 ) ) );
+
+        // node 3 has two similar names, but it is returned once
+        results = index.search( "Gonsales", 0.3f, 10 );
+        Assert.assertEquals( 1, results.length );
+        Assert.assertEquals( 3, results.array_0[0] );
+
+        // top-k
+        Assert.assertEquals( 1, index.search( "Chaves", 0.1f, 1 ).length );
+        Assert.assertEquals( 2, index.search( "Chaves", 0.3f, 10 ).length );
+
+        // nothing similar
+        Assert.assertEquals( 0, index.search( "xyz", 0.3f, 10 ).length );
+        Assert.assertEquals( 0, index.search( "", 0.3f, 10 ).length );
+    }
+
+    /**
+     * Test function: no name can be added once the index is built.
+     */
+    public void testBuildOnce()
+    {
+        final TrigramIndex index = new TrigramIndex( 0 );
+        index.add( 1, "Rosa Mora", "Rosa Mora" );
+        index.build();
+        try
+        {
+            index.add( 2, "Ana Mora", "Ana Mora" );
+            Assert.fail( "add after build" );
+        }
+        catch ( final IllegalStateException ex )
+        {
+            Log.i( TrigramIndexTest.TAG, "expected: " + ex );
+        }
+    }
+
+    /**
+     * Test function: every node is found by its own name, misspelled.
+     *
+     * @throws IOException on io error.
+     */
+    public void testSearchSimilarNames()
+        throws IOException
+    {
+        final TestStorage storage = new TestStorage( context );
+
+        final List<Integer> nodeIds = GraphUtil.collectNodeIds( storage, TrigramIndexTest.SAMPLE_SIZE );
+        for ( final Integer nodeId : nodeIds )
+        {
+            final GraphNode node = storage.loadNode( nodeId.intValue() );
+            final String foldedName = NameSearch.fold( node.label );
+            if ( foldedName.length() < 8 )
+            {
+                continue;
+            }
+            // one letter is replaced
+            final String misspelled = foldedName.substring( 0, 4 ) + 'x' + foldedName.substring( 5 );
+            final GraphValueList results = storage.searchSimilarNames( misspelled );
+            Assert.assertNotNull( misspelled, GraphUtil.findValueStringById( results, nodeId ) );
+        }
+
+        storage.close();
+    }
+
+    /**
+     * Test function: concurrent first queries wait for the same background build, so the names are scanned only once.
+     *
+     * @throws Exception on error.
+     */
+    public void testConcurrentFirstQueries()
+        throws Exception
+    {
+        final TestStorage storage = new TestStorage( context );
+        final GraphNode node = storage.loadNode( GraphStorage.DEFAULT_NODE_ID );
+        final int executeCount = storage.getExecuteCount();
+
+        final GraphValueList[] results = new GraphValueList[TrigramIndexTest.THREAD_COUNT];
+        final IOException[] errors = new IOException[results.length];
+        final CountDownLatch gate = new CountDownLatch( 1 );
+        final Thread[] threads = new Thread[results.length];
+        for ( int index = 0; index < threads.length; ++index )
+        {
+            final int thread = index;
+            threads[index] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        gate.await();
+                        results[thread] = storage.searchSimilarNames( node.label );
+                    }
+                    catch ( final IOException ex )
+                    {
+                        errors[thread] = ex;
+                    }
+                    catch ( final InterruptedException ex )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            threads[index].start();
+        }
+        gate.countDown();
+        for ( final Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        for ( int index = 0; index < threads.length; ++index )
+        {
+            Assert.assertNull( errors[index] );
+            Assert.assertNotNull( GraphUtil.findValueStringById( results[index], node.id ) );
+        }
+        // one single scan of all names
+        Assert.assertEquals( executeCount + 1, storage.getExecuteCount() );
+
+        storage.close();
+    }
+
+    /**
+     * Test function: build an index with 100k synthetic names, and search 1000 misspelled names. This test logs the
+     * build time, the average query latency and the heap used.
+     */
+    public void testOneHundredThousandNames()
+    {
+        final Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        final long heapStart = runtime.totalMemory() - runtime.freeMemory();
+
+        final Random random = new Random( 42 );
+        final String[] names = new String[TrigramIndexTest.BENCHMARK_SIZE];
+        final TrigramIndex index = new TrigramIndex( names.length );
+        for ( int entry = 0; entry < names.length; ++entry )
+        {
+            final StringBuilder name = new StringBuilder();
+            name.append( TrigramIndexTest.FIRST_NAMES[random.nextInt( TrigramIndexTest.FIRST_NAMES.length )] );
+            for ( int word = 0; word < 2; ++word )
+            {
+                name.append( ' ' );
+                final int syllables = 2 + random.nextInt( 2 );
+                for ( int syllable = 0; syllable < syllables; ++syllable )
+                {
+                    name.append( TrigramIndexTest.SYLLABLES[random.nextInt( TrigramIndexTest.SYLLABLES.length )] );
+                }
+            }
+            names[entry] = name.toString();
+            index.add( entry, names[entry], names[entry] );
+        }
+
+        final long buildStart = System.nanoTime();
+        index.build();
+        final long buildTime = ( System.nanoTime() - buildStart ) / 1000;
+
+        System.gc();
+        final long heapUsed = runtime.totalMemory() - runtime.freeMemory() - heapStart;
+
+        final int step = names.length / TrigramIndexTest.BENCHMARK_QUERIES;
+        int found = 0;
+        final long queryStart = System.nanoTime();
+        for ( int query = 0; query < TrigramIndexTest.BENCHMARK_QUERIES; ++query )
+        {
+            final String name = names[query * step];
+            // the last letter is replaced
+            final String misspelled = name.substring( 0, name.length() - 1 ) + 'x';
+            final GraphValueList results = index.search( misspelled, 0.5f, 10 );
+            if ( GraphUtil.findValueStringById( results, Integer.valueOf( query * step ) ) != null )
+            {
+                ++found;
+            }
+        }
+        final long queryTime = ( System.nanoTime() - queryStart ) / 1000;
+
+        Log.i( TrigramIndexTest.TAG, index + ": build " + buildTime + " us, " //
+            + ( queryTime / TrigramIndexTest.BENCHMARK_QUERIES ) + " us/query, heap " + heapUsed + " bytes" );
+        Assert.assertEquals( TrigramIndexTest.BENCHMARK_QUERIES, found );
+    }
+
+    // ------
+    // Set Up
+    // ------
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        context = super.getContext();
+    }
+}
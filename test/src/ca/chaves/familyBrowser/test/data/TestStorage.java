@@ -1,16 +1,35 @@
 package ca.chaves.familyBrowser.test.data;
 
 import ca.chaves.android.app.Android;
+import ca.chaves.android.app.ConnectionPool;
 import ca.chaves.android.app.DatabaseSession;
+import ca.chaves.android.graph.AncestorIndex;
 import ca.chaves.android.graph.GraphAttributes;
+import ca.chaves.android.graph.GraphFile;
 import ca.chaves.android.graph.GraphNode;
 import ca.chaves.android.graph.GraphStorage;
+import ca.chaves.android.graph.GraphValueList;
+import ca.chaves.android.graph.Kinship;
+import ca.chaves.android.graph.LineageTraversal;
+import ca.chaves.android.graph.NameSearch;
+import ca.chaves.android.graph.PathFinder;
+import ca.chaves.android.util.IntLruCache;
+import ca.chaves.android.util.TarReader;
 import ca.chaves.familyBrowser.app.R;
 
 import android.content.Context;
 import android.content.res.Resources;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
 
 /**
  * The DatabaseSession and GraphStorage for all unit-tests.
@@ -20,8 +39,15 @@ import java.io.IOException;
  */
 public class TestStorage
 {
+    private final Context context;
+
     private final GraphStorage graphStorage;
 
+    /**
+     * The edge group names the {@link GraphStorage} reloads its resources with.
+     */
+    private volatile String[] edgeNames;
+
     /**
      * The index for the "Parent" list.
      */
@@ -64,9 +90,11 @@ public class TestStorage
      */
     public TestStorage( final Context context )
     {
+        this.context = context;
+
         final Resources resources = context.getResources();
 
-        final String[] graphEdgeNames = new String[]{ //
+        edgeNames = new String[]{ //
             TestStorage.PARENTS_LABEL, //
                 TestStorage.CHILDREN_LABEL, //
                 TestStorage.SIBLINGS_LABEL, //
@@ -81,19 +109,195 @@ public class TestStorage
         graphStorage = new GraphStorage()
         {
             {
-                reloadResources( context, graphEdgeNames, graphEdgeIds );
+                reloadResources( context, edgeNames, graphEdgeIds );
+            }
+
+            @Override
+            protected void reloadResources( final Context ignored )
+            {
+                // keep the test edge groups on every locale switch
+                reloadResources( context, edgeNames, graphEdgeIds );
             }
         };
     }
 
     /**
-     * Closes this database.
+     * Change the edge group names the {@link GraphStorage} reloads its resources with, as the translated names of
+     * another locale. The active caches keep the names they were created with.
+     *
+     * @param names the new edge group names.
+     */
+    public void setEdgeNames( final String[] names )
+    {
+        edgeNames = names.clone();
+    }
+
+    /**
+     * Closes this database, once the {@link GraphStorage} background builds are done.
      */
     public void close()
     {
+        graphStorage.closeStatements();
         DatabaseSession.close();
     }
 
+    /**
+     * Close the compiled statements of one database connection.
+     *
+     * @param database the database connection.
+     */
+    public void closeStatements( final SQLiteDatabase database )
+    {
+        graphStorage.closeStatements( database );
+    }
+
+    /**
+     * Set the {@link GraphStorage} node load mode.
+     *
+     * @param singlePassLoad true to load all node's rows in one single scan.
+     */
+    public void setSinglePassLoad( final boolean singlePassLoad )
+    {
+        graphStorage.setSinglePassLoad( singlePassLoad );
+    }
+
+    /**
+     * Get the {@link GraphStorage} statement prepare count.
+     *
+     * @return how many statements were compiled.
+     */
+    public int getPrepareCount()
+    {
+        return graphStorage.getPrepareCount();
+    }
+
+    /**
+     * Get the {@link GraphStorage} statement execute count.
+     *
+     * @return how many statements were executed.
+     */
+    public int getExecuteCount()
+    {
+        return graphStorage.getExecuteCount();
+    }
+
+    /**
+     * Set the {@link GraphStorage} prefetch fan-out.
+     *
+     * @param prefetchFanOut the maximum number of neighbour nodes to prefetch.
+     */
+    public void setPrefetchFanOut( final int prefetchFanOut )
+    {
+        graphStorage.setPrefetchFanOut( prefetchFanOut );
+    }
+
+    /**
+     * Get the {@link GraphStorage} node cache hit count.
+     *
+     * @return how many node loads were served from the node cache.
+     */
+    public int getNodeCacheHitCount()
+    {
+        return graphStorage.getNodeCache().hitCount();
+    }
+
+    /**
+     * Get how many node loads were shared with another thread loading the same node.
+     *
+     * @return the shared load count.
+     */
+    public int getSharedLoadCount()
+    {
+        return graphStorage.getSharedLoadCount();
+    }
+
+    /**
+     * Switch the {@link GraphStorage} to the given locale.
+     *
+     * @param locale the new locale.
+     * @throws IOException on error.
+     */
+    public void setLocale( final Locale locale )
+        throws IOException
+    {
+        graphStorage.setLocale( context, Android.App.getDatabase(), locale );
+    }
+
+    /**
+     * Get the {@link GraphStorage} active locale.
+     *
+     * @return the active locale.
+     */
+    public Locale getLocale()
+    {
+        return graphStorage.getLocale();
+    }
+
+    /**
+     * Get the name of the given {@link GraphStorage} edge group, in the active locale.
+     *
+     * @param edge the edge index.
+     * @return the edge group name.
+     */
+    public String getEdgeName( final int edge )
+    {
+        return graphStorage.getEdgeName( edge );
+    }
+
+    /**
+     * Set the {@link GraphStorage} node cache size.
+     *
+     * @param maxNodes the maximum number of cached nodes.
+     */
+    public void setNodeCacheSize( final int maxNodes )
+    {
+        graphStorage.setNodeCacheSize( maxNodes );
+    }
+
+    /**
+     * Get the {@link GraphStorage} node cache.
+     *
+     * @return the node cache.
+     */
+    public IntLruCache<GraphNode> getNodeCache()
+    {
+        return graphStorage.getNodeCache();
+    }
+
+    /**
+     * Get the {@link GraphStorage} graph file.
+     *
+     * @return the graph file, or null if nodes are read from the database.
+     */
+    public GraphFile getGraphFile()
+    {
+        return graphStorage.getGraphFile();
+    }
+
+    /**
+     * Get the {@link GraphStorage} foreground load generation.
+     *
+     * @return the foreground load generation.
+     */
+    public int getForegroundGeneration()
+    {
+        return graphStorage.getForegroundGeneration();
+    }
+
+    /**
+     * Prefetch the neighbours of the given {@link GraphNode}.
+     *
+     * @param node the node whose neighbours are loaded.
+     * @param generation the foreground load generation when the prefetch was requested.
+     * @return the number of nodes loaded.
+     * @throws IOException on error.
+     */
+    public int prefetchNeighbours( final GraphNode node, final int generation )
+        throws IOException
+    {
+        return graphStorage.prefetchNeighbours( Android.App.getDatabase(), node, generation );
+    }
+
     /**
      * Load the {@link GraphAttributes} values.
      *
@@ -118,4 +322,339 @@ public class TestStorage
     {
         return graphStorage.loadNode( Android.App.getDatabase(), nodeId, null );
     }
+
+    /**
+     * Load the {@link GraphNode} values for the given 'nodeIds'.
+     *
+     * @param nodeIds the node id(s) to load.
+     * @return GraphNode(s), in the same order as 'nodeIds'.
+     * @throws IOException on error.
+     */
+    public GraphNode[] loadNodes( final int[] nodeIds )
+        throws IOException
+    {
+        return graphStorage.loadNodes( Android.App.getDatabase(), nodeIds );
+    }
+
+    /**
+     * Load the {@link GraphNode} value for the given 'nodeId', using the given database connection.
+     *
+     * @param database the database connection - the application one, or a pooled reader.
+     * @param nodeId the node id to load.
+     * @return GraphNode.
+     * @throws IOException on error.
+     */
+    public GraphNode loadNode( final SQLiteDatabase database, final int nodeId )
+        throws IOException
+    {
+        return graphStorage.loadNode( database, nodeId, null );
+    }
+
+    /**
+     * Load the {@link GraphNode} values for the given 'nodeIds', using the given database connection.
+     *
+     * @param database the database connection - the application one, or a pooled reader.
+     * @param nodeIds the node id(s) to load.
+     * @return GraphNode(s), in the same order as 'nodeIds'.
+     * @throws IOException on error.
+     */
+    public GraphNode[] loadNodes( final SQLiteDatabase database, final int[] nodeIds )
+        throws IOException
+    {
+        return graphStorage.loadNodes( database, nodeIds );
+    }
+
+    /**
+     * Create a pool of read-only connections to the application database.
+     *
+     * @param poolSize the maximum number of open connections.
+     * @return the connection pool - close it when done.
+     * @throws IOException on error.
+     */
+    public ConnectionPool createConnectionPool( final int poolSize )
+        throws IOException
+    {
+        return new ConnectionPool( Android.App.getDatabase().getPath(), poolSize, graphStorage );
+    }
+
+    /**
+     * Map the binary graph file, which lives next to the database. From now on, all attributes and nodes are read
+     * from the {@link GraphFile}.
+     *
+     * @return the graph file.
+     * @throws IOException on error.
+     */
+    public GraphFile loadGraphFile()
+        throws IOException
+    {
+        final File database = new File( Android.App.getDatabase().getPath() );
+        final String name = database.getName().replace( ".db", ".graph" );
+        return graphStorage.loadGraphFile( new File( database.getParentFile(), name ) );
+    }
+
+    /**
+     * Load the binary graph file, which lives next to the database, as the {@link GraphStorage} bootstrap slice - it
+     * is a valid slice, with all the nodes in it.
+     *
+     * @return true if the bootstrap slice was loaded.
+     * @throws IOException on error.
+     */
+    public boolean loadBootstrap()
+        throws IOException
+    {
+        final File database = new File( Android.App.getDatabase().getPath() );
+        final String name = database.getName().replace( ".db", ".graph" );
+        final InputStream input = new FileInputStream( new File( database.getParentFile(), name ) );
+        try
+        {
+            return graphStorage.loadBootstrap( context, input );
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     * Load the bootstrap slice shipped with the application as the {@link GraphStorage} bootstrap slice - it is the
+     * slice around the default node that share/tools/graph_file.py writes with the --root and --hops options.
+     *
+     * @return true if the bootstrap slice was loaded.
+     * @throws IOException on error.
+     */
+    public boolean loadShippedBootstrap()
+        throws IOException
+    {
+        final InputStream input = context.getResources().openRawResource( R.raw.bootstrap_graph );
+        try
+        {
+            return graphStorage.loadBootstrap( context, input );
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     * Build one node from the {@link GraphStorage} bootstrap slice.
+     *
+     * @param nodeId the node id.
+     * @return the graph node, or null if it is not in the bootstrap slice.
+     */
+    public GraphNode loadBootstrapNode( final int nodeId )
+    {
+        return graphStorage.loadBootstrapNode( Integer.valueOf( nodeId ), null );
+    }
+
+    /**
+     * Reinitialize the {@link GraphStorage}, as when the database is opened.
+     *
+     * @throws IOException on error.
+     */
+    public void resetStorage()
+        throws IOException
+    {
+        graphStorage.resetStorage( context, Android.App.getDatabase(), Locale.getDefault() );
+    }
+
+    /**
+     * Wait for the {@link GraphStorage} background builds started by {@link #resetStorage}.
+     *
+     * @throws IOException on error.
+     */
+    public void awaitBackgroundBuilds()
+        throws IOException
+    {
+        graphStorage.awaitBackgroundBuilds();
+    }
+
+    /**
+     * Get the {@link GraphStorage} heap saved by the string pool.
+     *
+     * @return the saved heap size per loaded node, in bytes.
+     */
+    public long getSavedBytesPerNode()
+    {
+        return graphStorage.getSavedBytesPerNode();
+    }
+
+    /**
+     * Build the {@link GraphStorage} node index, unless the database has it already.
+     *
+     * @return true if the node index was built now.
+     * @throws IOException on error.
+     */
+    public boolean createNodeIndex()
+        throws IOException
+    {
+        return graphStorage.createNodeIndex( Android.App.getDatabase() );
+    }
+
+    /**
+     * Open the database as it was shipped - a copy extracted from the tarball, so that it is not the database restored
+     * on the device, which the application updates.
+     *
+     * @param directory where to extract the shipped database.
+     * @return the shipped database, opened read-only - please close it when done.
+     * @throws IOException on error.
+     */
+    public SQLiteDatabase openShippedDatabase( final File directory )
+        throws IOException
+    {
+        final String name = "databases/" + new File( Android.App.getDatabase().getPath() ).getName();
+        final TarReader tarball = new TarReader( Android.App.openTarball() );
+        try
+        {
+            while ( tarball.nextEntry() )
+            {
+                if ( name.equals( tarball.getEntryName() ) )
+                {
+                    final File file = new File( directory, "shipped.db" );
+                    final OutputStream output = new FileOutputStream( file );
+                    try
+                    {
+                        output.write( tarball.readEntry() );
+                    }
+                    finally
+                    {
+                        output.close();
+                    }
+                    return SQLiteDatabase.openDatabase( file.getPath(), null, SQLiteDatabase.OPEN_READONLY
+                        | SQLiteDatabase.NO_LOCALIZED_COLLATORS );
+                }
+            }
+        }
+        finally
+        {
+            tarball.close();
+        }
+        throw new FileNotFoundException( name );
+    }
+
+    /**
+     * Check if the given database has the {@link GraphStorage} node index.
+     *
+     * @param database the database to check.
+     * @return true if the node index is there.
+     */
+    public boolean hasNodeIndex( final SQLiteDatabase database )
+    {
+        final String query = context.getResources().getString( R.string.graph_sql_select_node_index );
+        return 0 < DatabaseUtils.longForQuery( database, query, null );
+    }
+
+    /**
+     * Check if the given database has the {@link GraphStorage} name index, built with the current folding rules.
+     *
+     * @param database the database to check.
+     * @return true if the name index is there, and up to date.
+     */
+    public boolean hasNameIndex( final SQLiteDatabase database )
+    {
+        final String query = context.getResources().getString( R.string.graph_sql_select_name_index );
+        if ( DatabaseUtils.longForQuery( database, query, null ) <= 0 )
+        {
+            return false;
+        }
+        final String version = context.getResources().getString( R.string.graph_sql_select_name_version );
+        return DatabaseUtils.longForQuery( database, version, null ) == NameSearch.FOLD_VERSION;
+    }
+
+    /**
+     * Build the {@link GraphStorage} name index, unless the database has it already.
+     *
+     * @return true if the name index was built now.
+     * @throws IOException on error.
+     */
+    public boolean createNameIndex()
+        throws IOException
+    {
+        return graphStorage.createNameIndex( Android.App.getDatabase() );
+    }
+
+    /**
+     * Search nodes by name.
+     *
+     * @param query the text to search for.
+     * @param listener the search listener, or null.
+     * @return the ranked node_id(s) and node label(s).
+     * @throws IOException on error.
+     */
+    public GraphValueList searchNames( final String query, final NameSearch.Listener listener )
+        throws IOException
+    {
+        return graphStorage.searchNames( Android.App.getDatabase(), query, NameSearch.DEFAULT_MAX_RESULTS, listener );
+    }
+
+    /**
+     * Search nodes with similar names.
+     *
+     * @param query the text to search for.
+     * @return the ranked node_id(s) and node label(s).
+     * @throws IOException on error.
+     */
+    public GraphValueList searchSimilarNames( final String query )
+        throws IOException
+    {
+        return graphStorage.searchSimilarNames( Android.App.getDatabase(), query, GraphStorage.DEFAULT_MIN_SIMILARITY,
+                                                NameSearch.DEFAULT_MAX_RESULTS );
+    }
+
+    /**
+     * Create a {@link PathFinder} over this storage.
+     *
+     * @return the path finder.
+     * @throws IOException on error.
+     */
+    public PathFinder createPathFinder()
+        throws IOException
+    {
+        return new PathFinder( graphStorage, Android.App.getDatabase() );
+    }
+
+    /**
+     * Create a {@link LineageTraversal} over this storage.
+     *
+     * @param rootId the root node_id.
+     * @param ancestors true to walk the ancestors, false to walk the descendants.
+     * @param maxDepth how many generations to walk.
+     * @return the lineage traversal.
+     * @throws IOException on error.
+     */
+    public LineageTraversal createLineageTraversal( final int rootId, final boolean ancestors, final int maxDepth )
+        throws IOException
+    {
+        final int edge = ancestors ? graphStorage.getParentsEdge() : graphStorage.getChildrenEdge();
+        return new LineageTraversal( graphStorage, Android.App.getDatabase(), rootId, edge, maxDepth );
+    }
+
+    /**
+     * Load the {@link AncestorIndex}, from the given file if it is up to date.
+     *
+     * @param file the ancestor index file, or null to keep the index in memory only.
+     * @param databaseVersion the database version the file must match.
+     * @return the ancestor index.
+     * @throws IOException on error.
+     */
+    public AncestorIndex loadAncestorIndex( final File file, final int databaseVersion )
+        throws IOException
+    {
+        graphStorage.setAncestorIndexFile( file, databaseVersion );
+        return graphStorage.loadAncestorIndex( Android.App.getDatabase() );
+    }
+
+    /**
+     * Find how two nodes are blood related.
+     *
+     * @param firstId the first node_id.
+     * @param secondId the second node_id.
+     * @return the kinship, or null if both nodes have no common ancestor.
+     * @throws IOException on error.
+     */
+    public Kinship getKinship( final int firstId, final int secondId )
+        throws IOException
+    {
+        return graphStorage.getKinship( Android.App.getDatabase(), firstId, secondId );
+    }
 }
@@ -1,9 +1,20 @@
 package ca.chaves.familyBrowser.test.util;
 
+import ca.chaves.android.graph.GraphNode;
+import ca.chaves.android.graph.GraphStorage;
+import ca.chaves.android.graph.GraphValueList;
+import ca.chaves.android.util.IntPairList;
 import ca.chaves.android.util.PairList;
+import ca.chaves.familyBrowser.test.data.TestStorage;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+
+import junit.framework.Assert;
 
 /**
- * Utility functions to work with GraphValueList(s).
+ * Utility functions to work with GraphNode(s) and GraphValueList(s).
  *
  * @see "http://code.google.com/p/android-family-browser/"
  * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
@@ -49,4 +60,108 @@ public class GraphUtil
         }
         return null;
     }
+
+    /**
+     * Get the string with the given 'id'.
+     *
+     * @param list the list where to look for 'id'
+     * @param id the id to look for
+     * @return the string associated to the given 'id'
+     */
+    public static String findValueStringById( final IntPairList list, final int id )
+    {
+        final int index = list.indexOf( id );
+        return ( index < 0 ) ? null : list.array_1[index];
+    }
+
+    /**
+     * Get the id with the given 'string' value.
+     *
+     * @param list the list where to look 'string' at
+     * @param string the string to look for
+     * @return the id associated to the given 'string'
+     */
+    public static Integer findValueIdByString( final IntPairList list, final String string )
+    {
+        for ( int index = 0; index < list.length; ++index )
+        {
+            final String current = list.array_1[index];
+            if ( ( current != null ) && current.equals( string ) )
+            {
+                return Integer.valueOf( list.array_0[index] );
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Collect the node_id(s) reachable from the default node, in breadth-first order.
+     *
+     * @param storage where to load the nodes from
+     * @param maxCount how many node_id(s) to collect, at most
+     * @return the node_id(s)
+     * @throws IOException on io error
+     */
+    public static List<Integer> collectNodeIds( final TestStorage storage, final int maxCount )
+        throws IOException
+    {
+        final List<Integer> nodeIds = new LinkedList<Integer>();
+        nodeIds.add( Integer.valueOf( GraphStorage.DEFAULT_NODE_ID ) );
+        for ( int index = 0; index < nodeIds.size() && nodeIds.size() < maxCount; ++index )
+        {
+            for ( final Integer nodeId : GraphUtil.neighbourIds( storage.loadNode( nodeIds.get( index ).intValue() ) ) )
+            {
+                if ( !nodeIds.contains( nodeId ) )
+                {
+                    nodeIds.add( nodeId );
+                }
+            }
+        }
+        return nodeIds;
+    }
+
+    /**
+     * Get the node_id(s) of all the nodes in the edge lists of the given node.
+     *
+     * @param node the node
+     * @return the neighbour node_id(s), in edge list order
+     */
+    public static List<Integer> neighbourIds( final GraphNode node )
+    {
+        final List<Integer> nodeIds = new LinkedList<Integer>();
+        for ( int edge = GraphNode.INDEX_EXTRA_VALUES; edge < node.values.length; ++edge )
+        {
+            final GraphValueList values = node.values[edge];
+            for ( int item = 0; item < values.length; ++item )
+            {
+                nodeIds.add( Integer.valueOf( values.array_0[item] ) );
+            }
+        }
+        return nodeIds;
+    }
+
+    /**
+     * Check that both nodes have the same id, label and value lists.
+     *
+     * @param expected the expected node
+     * @param actual the actual node
+     */
+    public static void assertSameNode( final GraphNode expected, final GraphNode actual )
+    {
+        Assert.assertEquals( expected.id, actual.id );
+        Assert.assertEquals( expected.label, actual.label );
+        Assert.assertEquals( expected.values.length, actual.values.length );
+        for ( int index = 0; index < expected.values.length; ++index )
+        {
+            final GraphValueList expectedValues = expected.values[index];
+            final GraphValueList actualValues = actual.values[index];
+            Assert.assertEquals( expectedValues.title, actualValues.title );
+            Assert.assertEquals( expectedValues.length, actualValues.length );
+            for ( int item = 0; item < expectedValues.length; ++item )
+            {
+                Assert.assertEquals( expectedValues.array_0[item], actualValues.array_0[item] );
+                Assert.assertEquals( expectedValues.array_1[item], actualValues.array_1[item] );
+            }
+        }
+    }
 }
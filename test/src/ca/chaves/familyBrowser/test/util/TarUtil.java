@@ -0,0 +1,155 @@
+package ca.chaves.familyBrowser.test.util;
+
+import ca.chaves.android.util.TarballManifest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+
+/**
+ * Utility functions to build tarballs and to check extracted files.
+ *
+ * @see "http://code.google.com/p/android-family-browser/"
+ * @author <a href="mailto:david@chaves.ca">David A Chaves</a>
+ */
+public class TarUtil
+{
+    /**
+     * The tar record size.
+     */
+    public static final int RECORD_SIZE = 512;
+
+    /**
+     * Write one ustar entry.
+     *
+     * @param os the tarball output.
+     * @param name the entry name.
+     * @param data the file contents, or null for a directory.
+     * @throws IOException on io error.
+     */
+    public static void entry( final ByteArrayOutputStream os, final String name, final byte[] data )
+        throws IOException
+    {
+        final byte[] header = new byte[TarUtil.RECORD_SIZE];
+        TarUtil.field( header, 0, name );
+        TarUtil.field( header, 100, ( data == null ) ? "0000700" : "0000600" );
+        TarUtil.field( header, 108, "0000000" );
+        TarUtil.field( header, 116, "0000000" );
+        final String size = Integer.toOctalString( ( data == null ) ? 0 : data.length );
+        TarUtil.field( header, 124, "00000000000".substring( size.length() ) + size );
+        TarUtil.field( header, 136, "00000000000" );
+        TarUtil.field( header, 148, "        " );
+        header[156] = (byte) ( ( data == null ) ? '5' : '0' );
+        TarUtil.field( header, 257, "ustar" );
+        TarUtil.field( header, 263, "00" );
+        int checkSum = 0;
+        for ( final byte value : header )
+        {
+            checkSum += value & 0xff;
+        }
+        final String octal = Integer.toOctalString( checkSum );
+        TarUtil.field( header, 148, "000000".substring( octal.length() ) + octal );
+        os.write( header );
+        if ( data != null )
+        {
+            os.write( data );
+            final int padding = ( -data.length ) & ( TarUtil.RECORD_SIZE - 1 );
+            os.write( new byte[padding] );
+        }
+    }
+
+    /**
+     * Write the end-of-archive records.
+     *
+     * @param os the tarball output.
+     * @throws IOException on io error.
+     */
+    public static void end( final ByteArrayOutputStream os )
+        throws IOException
+    {
+        os.write( new byte[2 * TarUtil.RECORD_SIZE] );
+    }
+
+    /**
+     * Hash the given contents, as in the manifest.
+     *
+     * @param data the contents.
+     * @return the hexadecimal hash.
+     * @throws IOException on error.
+     */
+    public static String hash( final byte[] data )
+        throws IOException
+    {
+        final MessageDigest digest = TarballManifest.newDigest();
+        digest.update( data );
+        return TarballManifest.toHex( digest );
+    }
+
+    /**
+     * Read the given text file.
+     *
+     * @param file the file.
+     * @return the file contents.
+     * @throws IOException on io error.
+     */
+    public static String read( final File file )
+        throws IOException
+    {
+        final RandomAccessFile input = new RandomAccessFile( file, "r" );
+        try
+        {
+            final byte[] data = new byte[(int) input.length()];
+            input.readFully( data );
+            return new String( data, "UTF-8" );
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     * Create an empty directory, removing whatever was in there.
+     *
+     * @param directory the directory.
+     * @return the directory.
+     * @throws IOException on io error.
+     */
+    public static File emptyDirectory( final File directory )
+        throws IOException
+    {
+        if ( directory.isDirectory() )
+        {
+            for ( final File file : directory.listFiles() )
+            {
+                if ( file.isDirectory() )
+                {
+                    TarUtil.emptyDirectory( file );
+                }
+                file.delete();
+            }
+        }
+        if ( !directory.isDirectory() && !directory.mkdirs() )
+        {
+            throw new IOException( "unable to create " + directory );
+        }
+        return directory;
+    }
+
+    /**
+     * Copy the given ASCII string into a header field.
+     *
+     * @param header the header.
+     * @param offset the field offset.
+     * @param value the field value.
+     */
+    private static void field( final byte[] header, final int offset, final String value )
+    {
+        for ( int index = 0; index < value.length(); ++index )
+        {
+            header[offset + index] = (byte) value.charAt( index );
+        }
+    }
+}